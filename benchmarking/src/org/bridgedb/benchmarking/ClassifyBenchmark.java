@@ -0,0 +1,118 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.benchmarking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.DataSourcePatterns;
+import org.bridgedb.bio.BioDataSource;
+
+/**
+ * Compare the time needed to guess the DataSource of a large list
+ * of identifiers, by trying every registered pattern for each id,
+ * with DataSourcePatterns.classify, sequential and parallel.
+ * <p>
+ * Usage: ClassifyBenchmark [number of ids] [rounds]
+ */
+public class ClassifyBenchmark
+{
+	private static final String[] PREFIXES = {
+		"ENSG000001", "ENSMUSG000001", "", "GO:00", "NM_00", "HMDB00",
+		"ILMN_", "", "uc001", "WBGene000", "AT1G", "P0", "CHEBI:" };
+
+	/** @return a list of ids that looks like a typical user upload */
+	private static List<String> makeIds(int count)
+	{
+		Random random = new Random(42);
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < count; ++i)
+		{
+			String prefix = PREFIXES[random.nextInt(PREFIXES.length)];
+			result.add (prefix + (10000 + random.nextInt(90000)));
+		}
+		return result;
+	}
+
+	private static Map<String, Set<DataSource>> naive(List<String> ids)
+	{
+		Map<String, Set<DataSource>> result = new HashMap<String, Set<DataSource>>();
+		Map<DataSource, Pattern> patterns = DataSourcePatterns.getPatterns();
+		for (String id : ids)
+		{
+			Set<DataSource> matches = new HashSet<DataSource>();
+			for (Map.Entry<DataSource, Pattern> e : patterns.entrySet())
+			{
+				if (e.getValue().matcher(id).matches()) matches.add (e.getKey());
+			}
+			result.put (id, matches);
+		}
+		return result;
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		BioDataSource.init();
+		List<String> ids = makeIds(count);
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try
+		{
+			for (int round = 0; round < rounds; ++round)
+			{
+				long start = System.currentTimeMillis();
+				Map<String, Set<DataSource>> expected = naive(ids);
+				long tNaive = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				Map<String, Set<DataSource>> sequential = DataSourcePatterns.classify(ids);
+				long tSequential = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				Map<String, Set<DataSource>> parallel = DataSourcePatterns.classify(ids, executor);
+				long tParallel = System.currentTimeMillis() - start;
+
+				if (!expected.equals(sequential) || !expected.equals(parallel))
+				{
+					throw new IllegalStateException("Classification differs from naive loop");
+				}
+
+				// first round is warm-up
+				if (round > 0) System.out.println (
+						count + " ids: naive " + tNaive + " msec, classify " + tSequential +
+						" msec, classify on " + threads + " threads " + tParallel + " msec");
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
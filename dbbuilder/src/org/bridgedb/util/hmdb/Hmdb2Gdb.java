@@ -31,7 +31,7 @@ import org.bridgedb.Xref;
 import org.bridgedb.bio.BioDataSource;
 import org.bridgedb.rdb.construct.DBConnector;
 import org.bridgedb.rdb.construct.DataDerby;
-import org.bridgedb.rdb.construct.GdbConstruct;
+import org.bridgedb.rdb.construct.GdbConstructPipeline;
 import org.bridgedb.rdb.construct.GdbConstructImpl3;
 import org.bridgedb.util.hmdb.ParseHmdb.Compound;
 import org.bridgedb.util.hmdb.ParseHmdb.ParseException;
@@ -64,9 +64,15 @@ public class Hmdb2Gdb
 		Hmdb2Gdb h2g = new Hmdb2Gdb();
 		PreferenceManager.init();
 
+		GdbConstructPipeline simpleGdb = null;
     	try
     	{
-			GdbConstruct simpleGdb = GdbConstructImpl3.createInstance(dbname, new DataDerby(), DBConnector.PROP_RECREATE);
+			GdbConstructImpl3 gdb = (GdbConstructImpl3)
+					GdbConstructImpl3.createInstance(dbname, new DataDerby(), DBConnector.PROP_RECREATE);
+			// errors are counted by the pipeline, not per row, so rows can be inserted in batches
+			gdb.setBatchSize(BATCH_SIZE);
+			// parse on this thread while the pipeline writes to the database on another
+			simpleGdb = new GdbConstructPipeline(gdb);
 
     		h2g.init (dbname, simpleGdb);
     		
@@ -84,6 +90,7 @@ public class Hmdb2Gdb
     		
 			h2g.run(is);
     		h2g.done();
+    		Logger.log.info("rows rejected by the database: " + gdb.getBatchErrors());
     	}
 		catch (IDMapperException e)
 		{
@@ -93,14 +100,22 @@ public class Hmdb2Gdb
 		{
 			Logger.log.error ("Exception ", e);
 		}
+		finally
+		{
+			// stops the writer thread if the database wasn't finalized
+			if (simpleGdb != null) simpleGdb.close();
+		}
 	}
 
-	GdbConstruct simpleGdb;
+	/** number of rows that are inserted at once */
+	private static final int BATCH_SIZE = 1000;
+
+	GdbConstructPipeline simpleGdb;
 	String dbName;
 
 	StopWatch timer;
 
-	private void init(String dbname, GdbConstruct simpleGdb) throws IDMapperException, ClassNotFoundException
+	private void init(String dbname, GdbConstructPipeline simpleGdb) throws IDMapperException, ClassNotFoundException
 	{
 		timer = new StopWatch();
 
@@ -130,7 +145,7 @@ public class Hmdb2Gdb
 
     	//TODO
 //    	Logger.log.info("total ids in gene table: " + simpleGdb.getGeneCount());
-    	Logger.log.info("total errors (duplicates): " + error);
+    	Logger.log.info("total errors (duplicates): " + (error + simpleGdb.getErrors()));
 
     	Logger.log.info("END processing text file");
 
@@ -226,8 +241,7 @@ public class Hmdb2Gdb
 				progress++;
 				addCompound (c);
 				if(progress % PROGRESS_INTERVAL == 0) {
-					Logger.log.info("Processed " + progress + " record");
-					simpleGdb.commit();
+					Logger.log.info("Processed " + progress + " record, " + simpleGdb.getQueued() + " waiting to be written");
 				}
 
 				Logger.log.info (c.symbol + " added");
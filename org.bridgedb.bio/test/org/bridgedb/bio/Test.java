@@ -16,7 +16,14 @@
 //
 package org.bridgedb.bio;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 import static org.junit.Assert.*;
 
 import org.bridgedb.DataSource;
@@ -81,6 +88,42 @@ public class Test
 		assertTrue (DataSourcePatterns.getDataSourceMatches("CHEBI:17925").contains(BioDataSource.CHEBI));
 	}
 
+	/** compare classification of many ids with trying every pattern */
+	@org.junit.Test
+	public void testClassify() throws InterruptedException
+	{
+		List<String> ids = new ArrayList<String>();
+		for (DataSource ds : DataSource.getDataSources())
+		{
+			Xref example = ds.getExample();
+			if (example.getId() != null) ids.add (example.getId());
+		}
+		String[] extra = { "", "1", "12345", "ENSG00000139618", "ENSG0000013961", "GO:0005488", 
+				"Rv0001", "Rv0001c", "MetaCyc:PWY-6353", "1007_s_at", "A_23_P100001", "P04637", "uc001aaa.1" };
+		for (int i = 0; i < 20000; ++i) ids.add (extra[i % extra.length] + (i % 7 == 0 ? "" : "" + i));
+		
+		Map<String, Set<DataSource>> result = DataSourcePatterns.classify(ids);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			assertEquals (result, DataSourcePatterns.classify(ids, executor));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		for (String id : ids)
+		{
+			Set<DataSource> expected = new HashSet<DataSource>();
+			for (Map.Entry<DataSource, Pattern> e : DataSourcePatterns.getPatterns().entrySet())
+			{
+				if (e.getValue().matcher(id).matches()) expected.add (e.getKey());
+			}
+			assertEquals (id, expected, result.get(id));
+		}
+	}
+
 	@org.junit.Test
 	public void testBasCASNumbers()
 	{
@@ -20,6 +20,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -27,7 +29,9 @@ import java.sql.SQLException;
 import java.util.Properties;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import org.bridgedb.IDMapperException;
@@ -98,10 +102,11 @@ public class DataDerby extends DBConnector
 	public Connection createConnection(String dbName, int props) throws IDMapperException 
 	{
 		boolean recreate = (props & PROP_RECREATE) != 0;
+		boolean workingCopy = (props & PROP_WORKING_COPY) != 0;
 
 		// make sure the final Db name ends with the right extension.
-		finalDbName = dbName;
-		finalized = !recreate;
+		if (!workingCopy) finalDbName = dbName;
+		finalized = !recreate && !workingCopy;
 		
 		if(recreate) 
 		{
@@ -155,6 +160,37 @@ public class DataDerby extends DBConnector
 		return con;
 	}
 	
+	/**
+	 * Open a writable working copy of an existing database. The existing database
+	 * is extracted to a temporary directory and is not changed itself.
+	 * When the working copy is finalized with {@link #finalizeNewDatabase(String)},
+	 * it is stored as dbName.
+	 * @param sourceDb existing database file
+	 * @param dbName file that will be produced when the working copy is finalized.
+	 * If dbName doesn't end with the right extension, the right extension will be added.
+	 * @return the JDBC database Connection to the working copy.
+	 * @throws IDMapperException if the existing database could not be extracted or opened
+	 */
+	public Connection createWorkingCopyConnection(String sourceDb, String dbName) throws IDMapperException
+	{
+		try
+		{
+			finalDbName = dbName.endsWith(getDbExt()) ? dbName : dbName + "." + getDbExt();
+			tempDbParentdir = FileUtilsGdb.createTempDir("derby", ".tmp");
+			tempDbSubdir = new File (tempDbParentdir, "database");
+			fromZip (new File (sourceDb), tempDbParentdir);
+		}
+		catch (IOException e)
+		{
+			throw new IDMapperException (e);
+		}
+		// connect to the extracted directory, without creating a new database 
+		return createConnection(finalDbName, PROP_NONE | PROP_WORKING_COPY);
+	}
+
+	/** internal flag for createConnection, connect to the working copy that was just extracted */
+	private static final int PROP_WORKING_COPY = 1 << 16;
+
 	public Connection createNewDatabaseConnection(String dbName) throws IDMapperException 
 	{
 		return createConnection(FileUtilsGdb.removeExtension(dbName), PROP_RECREATE);
@@ -301,6 +337,55 @@ public class DataDerby extends DBConnector
 		}
 	}
 	
+	/**
+	 * Extract a database that was stored with toZip.
+	 * @param zipFile input file
+	 * @param dir output dir, the database will be in a subdirectory named {@value #DB_NAME_IN_ZIP}
+	 * @throws IOException if the file can't be read or the database can't be written
+	 */
+	private void fromZip(File zipFile, File dir) throws IOException
+	{
+		ZipFile zip = new ZipFile(zipFile);
+		try
+		{
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements())
+			{
+				ZipEntry entry = entries.nextElement();
+				File file = new File (dir, entry.getName());
+				if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator))
+				{
+					throw new IOException("Invalid entry " + entry.getName() + " in " + zipFile);
+				}
+				if (entry.isDirectory())
+				{
+					file.mkdirs();
+					continue;
+				}
+				file.getParentFile().mkdirs();
+				InputStream in = zip.getInputStream(entry);
+				OutputStream out = new FileOutputStream(file);
+				try
+				{
+					int len;
+					while ((len = in.read(buf)) > 0) 
+					{
+						out.write(buf, 0, len);
+					}
+				}
+				finally
+				{
+					out.close();
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			zip.close();
+		}
+	}
+
 	private byte[] buf = new byte[1024];
 	
 	/**
@@ -0,0 +1,182 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+/**
+ * Compact set of rows, used to skip duplicate rows before they are inserted.
+ * <p>
+ * Rows are stored as characters in large shared arrays, instead of as separate 
+ * Strings, and found through a 64-bit fingerprint of each row, in an open addressing
+ * hash table. That takes about 32 bytes per row plus two bytes per character,
+ * instead of the hundred or more bytes per row of a HashSet of Strings.
+ * When two rows have the same fingerprint, their characters are compared, 
+ * so a row is only reported as a duplicate if it is equal to a row in the set.
+ */
+class FingerprintSet
+{
+	private static final int INITIAL_CAPACITY = 1 << 16;
+
+	/** number of characters in each block of the row store */
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	/** fingerprints, 0 marks an empty slot */
+	private long[] table = new long[INITIAL_CAPACITY];
+	/** for each used slot of table, the position of its row in the row store */
+	private long[] positions = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/** 
+	 * Row store. Each field is stored as its length in two characters, 
+	 * followed by its characters. A row doesn't cross the end of a block.
+	 */
+	private char[][] blocks = new char[1][];
+	private int blockCount = 0;
+	/** first free position in the last block */
+	private int free = 0;
+
+	/**
+	 * Add a row to the set.
+	 * @param fields values of the row, none of them may be null
+	 * @return true if the row was added, false if it was already in the set
+	 */
+	boolean add(String... fields)
+	{
+		long fingerprint = fingerprint(fields);
+		int mask = table.length - 1;
+		int i = (int)mix(fingerprint) & mask;
+		while (table[i] != 0)
+		{
+			if (table[i] == fingerprint && equals(positions[i], fields)) return false;
+			i = (i + 1) & mask;
+		}
+		table[i] = fingerprint;
+		positions[i] = store(fields);
+		if (++size > table.length / 2) grow();
+		return true;
+	}
+
+	/** @return number of rows in the set */
+	int size()
+	{
+		return size;
+	}
+
+	/** Remove all rows, and release the memory used for them. */
+	void clear()
+	{
+		table = new long[INITIAL_CAPACITY];
+		positions = new long[INITIAL_CAPACITY];
+		size = 0;
+		blocks = new char[1][];
+		blockCount = 0;
+		free = 0;
+	}
+
+	private void grow()
+	{
+		long[] largerTable = new long[table.length * 2];
+		long[] largerPositions = new long[table.length * 2];
+		int mask = largerTable.length - 1;
+		for (int j = 0; j < table.length; ++j)
+		{
+			if (table[j] == 0) continue;
+			// rows in the table are all different, so there is nothing to compare
+			int i = (int)mix(table[j]) & mask;
+			while (largerTable[i] != 0) i = (i + 1) & mask;
+			largerTable[i] = table[j];
+			largerPositions[i] = positions[j];
+		}
+		table = largerTable;
+		positions = largerPositions;
+	}
+
+	/** @return position of the stored row, block number in the high bits */
+	private long store(String[] fields)
+	{
+		int length = 0;
+		for (String field : fields) length += field.length() + 2;
+		if (blockCount == 0 || free + length > blocks[blockCount - 1].length)
+		{
+			if (blockCount == blocks.length)
+			{
+				char[][] more = new char[blocks.length * 2][];
+				System.arraycopy(blocks, 0, more, 0, blockCount);
+				blocks = more;
+			}
+			// a row that is longer than a block gets a block of its own
+			blocks[blockCount++] = new char[Math.max(BLOCK_SIZE, length)];
+			free = 0;
+		}
+		char[] block = blocks[blockCount - 1];
+		long result = ((long)(blockCount - 1) << 32) | free;
+		for (String field : fields)
+		{
+			block[free++] = (char)(field.length() >>> 16);
+			block[free++] = (char)field.length();
+			field.getChars(0, field.length(), block, free);
+			free += field.length();
+		}
+		return result;
+	}
+
+	/** @return true if the row stored at position has the same fields */
+	private boolean equals(long position, String[] fields)
+	{
+		char[] block = blocks[(int)(position >>> 32)];
+		int pos = (int)position;
+		for (String field : fields)
+		{
+			if (block[pos++] != (char)(field.length() >>> 16)) return false;
+			if (block[pos++] != (char)field.length()) return false;
+			for (int i = 0; i < field.length(); ++i)
+			{
+				if (block[pos++] != field.charAt(i)) return false;
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 * 64-bit FNV-1a hash of the fields, separated by a character that doesn't occur in identifiers.
+	 * Tests override this to cause collisions.
+	 * @return fingerprint of the row, never 0 
+	 */
+	long fingerprint(String... fields)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (String field : fields)
+		{
+			for (int i = 0; i < field.length(); ++i)
+			{
+				hash = (hash ^ field.charAt(i)) * 0x100000001b3L;
+			}
+			hash = (hash ^ 0xFFFF) * 0x100000001b3L;
+		}
+		return hash == 0 ? 1 : hash;
+	}
+
+	/** spread the bits of a fingerprint, so the low bits can be used as index */
+	private static long mix(long h)
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
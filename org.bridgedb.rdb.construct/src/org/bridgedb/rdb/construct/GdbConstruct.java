@@ -60,6 +60,7 @@ public interface GdbConstruct
 	   Create indices on the database
 	   You can call this at any time after creating the tables,
 	   but it is good to do it only after inserting all data.
+	   Implementations may also add primary keys here, see {@link GdbConstructImpl3#createGdbTables()}.
 	   @throws IDMapperException on failure
 	 */
 	public void createGdbIndices() throws IDMapperException;   
@@ -0,0 +1,250 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.CallableStatement;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.bridgedb.IDMapperException;
+
+/**
+ * GdbConstruct for embedded Derby databases, that loads the data with Derby's bulk import
+ * instead of inserting it row by row.
+ * <p>
+ * Rows of the datanode, link and attribute tables are written to temporary
+ * delimited files. When the database is finalized (or when createGdbIndices is called), 
+ * each file is loaded in a single call to SYSCS_UTIL.SYSCS_IMPORT_DATA, before the 
+ * indices are created and the database is compacted. The resulting database is the same as one
+ * created by {@link GdbConstructImpl3}.
+ * <p>
+ * Duplicate datanodes and links are skipped when they are added, as in GdbConstructImpl3. 
+ * Rows with a missing value in a NOT NULL column, a value that is too long for its column
+ * or a code that is not a number in a numeric column are also rejected when they are added, 
+ * and counted as errors like rows that GdbConstructImpl3 fails to insert,
+ * because a single bad row would make the whole import fail.
+ * <p>
+ * {@link GdbConstructImpl3#createInstance} returns an instance of this class for 
+ * {@link DataDerby} and {@link DataDerbyDirectory}.
+ */
+public class GdbConstructDerbyImport extends GdbConstructImpl3
+{
+	private static final String COLUMN_DELIMITER = ",";
+	private static final String CHARACTER_DELIMITER = "\"";
+	private static final String CODESET = "UTF-8";
+
+	/** size of the write buffer of each file */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * @param dbName database to create
+	 * @param dbConnector an embedded Derby connector, i.e. a {@link DataDerby} or subclass. 
+	 * @param props PROP_RECREATE to create a new database, overwriting any existing one. Otherwise, PROP_NONE.
+	 * @throws IDMapperException if the database can't be opened
+	 */
+	public GdbConstructDerbyImport(String dbName, DBConnector dbConnector, int props) throws IDMapperException
+	{
+		super(dbName, dbConnector, props);
+	}
+
+	/**
+	 * @param dbName database to create
+	 * @param dbConnector an embedded Derby connector, i.e. a {@link DataDerby} or subclass. 
+	 * @param props PROP_RECREATE to create a new database, overwriting any existing one. Otherwise, PROP_NONE.
+	 * @param schemaVersion 3 or 4, see {@link GdbConstructImpl3}
+	 * @throws IDMapperException if the database can't be opened
+	 */
+	public GdbConstructDerbyImport(String dbName, DBConnector dbConnector, int props, int schemaVersion) throws IDMapperException
+	{
+		super(dbName, dbConnector, props, schemaVersion);
+	}
+
+	@Override
+	RowWriter createRowWriter(String table, String... columns) throws SQLException
+	{
+		return new ImportWriter(table, columns);
+	}
+
+	/**
+	 * Collects the rows of a table in a temporary file, and imports the file 
+	 * when the rows are loaded.
+	 */
+	private final class ImportWriter implements RowWriter
+	{
+		private final String table;
+		private final String columns;
+		private File file = null;
+		private Writer out = null;
+		
+		/** for each column, whether it may be NULL */
+		private final boolean[] nullable;
+		/** for each column, the maximum length of a character value, or -1 for other columns */
+		private final int[] maxLength;
+		/** for each column, whether it holds a SMALLINT */
+		private final boolean[] smallint;
+
+		private ImportWriter(String table, String... columns) throws SQLException
+		{
+			// Derby stores unquoted identifiers in upper case
+			this.table = table.toUpperCase();
+			StringBuilder names = new StringBuilder();
+			for (String column : columns)
+			{
+				if (names.length() > 0) names.append(",");
+				names.append(column.toUpperCase());
+			}
+			this.columns = names.toString();
+			
+			nullable = new boolean[columns.length];
+			maxLength = new int[columns.length];
+			smallint = new boolean[columns.length];
+			for (int i = 0; i < columns.length; ++i)
+			{
+				ResultSet rs = con.getMetaData().getColumns(null, null, this.table, columns[i].toUpperCase());
+				try
+				{
+					if (!rs.next()) throw new SQLException ("Column " + columns[i] + " of " + table + " not found");
+					int type = rs.getInt("DATA_TYPE");
+					nullable[i] = rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls;
+					boolean character = type == Types.VARCHAR || type == Types.CHAR;
+					maxLength[i] = character ? rs.getInt("COLUMN_SIZE") : -1;
+					smallint[i] = type == Types.SMALLINT;
+				}
+				finally
+				{
+					rs.close();
+				}
+			}
+		}
+
+		/**
+		 * Check a row against the definition of the columns,
+		 * so a bad row is rejected here, instead of failing the import of all rows.
+		 * @throws SQLException with the SQLState Derby uses for the same error 
+		 */
+		private void check(String... values) throws SQLException
+		{
+			if (values.length != nullable.length) 
+				throw new SQLException ("Expected " + nullable.length + " values for " + table + ", got " + values.length);
+			for (int i = 0; i < values.length; ++i)
+			{
+				String value = values[i];
+				if (value == null)
+				{
+					if (!nullable[i]) throw new SQLException ("NULL value in a NOT NULL column of " + table, "23502");
+				}
+				else if (maxLength[i] >= 0 && value.length() > maxLength[i])
+				{
+					throw new SQLException ("Value too long for " + table + ": " + value, "22001");
+				}
+				else if (smallint[i])
+				{
+					try
+					{
+						Short.parseShort(value);
+					}
+					catch (NumberFormatException e)
+					{
+						throw new SQLException ("Not a SMALLINT value for " + table + ": " + value, "22018");
+					}
+				}
+			}
+		}
+
+		public void add(String... values) throws SQLException
+		{
+			check(values);
+			try
+			{
+				if (out == null)
+				{
+					file = File.createTempFile(table.toLowerCase(), ".csv");
+					file.deleteOnExit();
+					out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CODESET), BUFFER_SIZE);
+				}
+				for (int i = 0; i < values.length; ++i)
+				{
+					if (i > 0) out.write(COLUMN_DELIMITER);
+					// an empty field without delimiters is imported as NULL
+					if (values[i] != null)
+					{
+						out.write(CHARACTER_DELIMITER);
+						out.write(values[i].replace(CHARACTER_DELIMITER, CHARACTER_DELIMITER + CHARACTER_DELIMITER));
+						out.write(CHARACTER_DELIMITER);
+					}
+				}
+				out.write("\n");
+			}
+			catch (IOException e)
+			{
+				throw new SQLException (e);
+			}
+		}
+
+		public void flush() throws SQLException
+		{
+			try
+			{
+				if (out != null) out.flush();
+			}
+			catch (IOException e)
+			{
+				throw new SQLException (e);
+			}
+		}
+
+		public void load() throws SQLException
+		{
+			if (out == null) return;
+			try
+			{
+				out.close();
+				CallableStatement cs = con.prepareCall(
+						"CALL SYSCS_UTIL.SYSCS_IMPORT_DATA (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+				cs.setString(1, null); // current schema
+				cs.setString(2, table);
+				cs.setString(3, columns);
+				cs.setString(4, null); // columns in the order of the file
+				cs.setString(5, file.getAbsolutePath());
+				cs.setString(6, COLUMN_DELIMITER);
+				cs.setString(7, CHARACTER_DELIMITER);
+				cs.setString(8, CODESET);
+				cs.setShort(9, (short)0); // add to the existing rows
+				cs.execute();
+				cs.close();
+			}
+			catch (IOException e)
+			{
+				throw new SQLException (e);
+			}
+			finally
+			{
+				out = null;
+				file.delete();
+				file = null;
+			}
+		}
+	}
+}
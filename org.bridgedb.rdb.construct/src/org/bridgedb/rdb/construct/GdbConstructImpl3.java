@@ -1,26 +1,98 @@
 package org.bridgedb.rdb.construct;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdbImplCommon;
 
+/**
+ * GdbConstruct for schema version 3, or version 4.
+ * <p>
+ * Schema version 4 has the same tables as version 3, but stores a small integer in
+ * the code columns instead of the system code. The datasource table translates between the two.
+ * Its indices are composite, so that lookups by Xref are answered from the index:
+ * (idRight, codeRight, idLeft, codeLeft) on link, and (id, code, attrname) on attribute.
+ * Version 4 databases can only be read by versions of BridgeDb that have SimpleGdbImpl4.
+ */
 public class GdbConstructImpl3 implements GdbConstruct
 {
-	private static int GDB_COMPAT_VERSION = 3;
+	private static final int GDB_COMPAT_VERSION = 3;
 
-	private final Connection con; //TODO: initialize
+	/** latest schema version that can be created */
+	public static final int LATEST_SCHEMA_VERSION = 4;
+
+	final Connection con; //TODO: initialize
 	private final DBConnector dbConnector; //TODO
 	private String dbName; //TODO
+	private final int schemaVersion;
 	
 	public GdbConstructImpl3(String dbName, DBConnector dbConnector, int props) throws IDMapperException
 	{
+		this(dbName, dbConnector, props, GDB_COMPAT_VERSION);
+	}
+
+	/**
+	 * @param dbName database to create
+	 * @param dbConnector connector for the type of database
+	 * @param props PROP_RECREATE to create a new database, overwriting any existing one. Otherwise, PROP_NONE.
+	 * @param schemaVersion 3, or 4 for the schema with a code dictionary and composite indices.
+	 * @throws IDMapperException if the database can't be opened
+	 */
+	public GdbConstructImpl3(String dbName, DBConnector dbConnector, int props, int schemaVersion) throws IDMapperException
+	{
+		if (schemaVersion < GDB_COMPAT_VERSION || schemaVersion > LATEST_SCHEMA_VERSION)
+		{
+			throw new IllegalArgumentException("Can't create schema version " + schemaVersion);
+		}
 		con = dbConnector.createConnection(dbName, props);
 		this.dbConnector = dbConnector;
 		this.dbName = dbName;
+		this.schemaVersion = schemaVersion;
+	}
+
+	/** value of the code columns by system code, for schema version 4 */
+	private final Map<String, String> codes = new HashMap<String, String>();
+
+	/**
+	 * Value to store in the code columns for a DataSource. For schema version 4,
+	 * a new DataSource gets the next number, and is added to the datasource table.
+	 * @param ds a DataSource
+	 * @return value of the code column
+	 * @throws SQLException if a new DataSource can't be stored
+	 */
+	private String code(DataSource ds) throws SQLException
+	{
+		String systemCode = ds.getSystemCode();
+		if (schemaVersion < 4) return systemCode;
+		String result = codes.get(systemCode);
+		if (result == null)
+		{
+			result = "" + (codes.size() + 1);
+			PreparedStatement pst = con.prepareStatement("INSERT INTO datasource (codeid, code) VALUES (?, ?)");
+			pst.setInt(1, codes.size() + 1);
+			pst.setString(2, systemCode);
+			pst.execute();
+			pst.close();
+			codes.put(systemCode, result);
+		}
+		return result;
+	}
+
+	/** @return SQL type of the code columns */
+	private String codeType()
+	{
+		return schemaVersion < 4 ? "VARCHAR(50)" : "SMALLINT";
 	}
 	
 	/**
@@ -38,27 +110,294 @@ public class GdbConstructImpl3 implements GdbConstruct
 	 */
 	final public void finalize() throws IDMapperException
 	{
+		load();
+		genes.clear();
+		links.clear();
 		dbConnector.compact(con);
 		createGdbIndices();
+		if (mappingTable) createMappingTable();
+		storeDataSources();
+		if (searchIndex) createSearchIndex();
 		dbConnector.closeConnection(con, DBConnector.PROP_FINALIZE);
 		String newDb = dbConnector.finalizeNewDatabase(dbName);
 		dbName = newDb;
 	}
 
-    private PreparedStatement pstGene = null;
-    private PreparedStatement pstLink = null;
-    private PreparedStatement pstAttr = null;
+	/** 
+	 * default number of rows that are sent to the database at once, see {@link #setBatchSize(int)}.
+	 * Each row is inserted immediately, so errors are returned by addGene etc.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1;
+
+	/** number of batches after which the inserted rows are committed */
+	private static final int COMMIT_INTERVAL = 100;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int batchesSinceCommit = 0;
+	private int batchErrors = 0;
+
+	private RowWriter insGene = null;
+	private RowWriter insLink = null;
+	private RowWriter insAttr = null;
+
+	/** rows of the datanode and link tables that have been added, to skip duplicates */
+	private final FingerprintSet genes = new FingerprintSet();
+	private final FingerprintSet links = new FingerprintSet();
+
+	/**
+	 * Set the number of rows that are sent to the database at once by
+	 * addGene, addLink and addAttribute. Rows are inserted with JDBC batches, and 
+	 * committed every {@value #COMMIT_INTERVAL} batches.
+	 * <p>
+	 * With a batch size larger than 1, errors (other than duplicates, which are skipped
+	 * before they reach the database) are only detected when the batch is executed. 
+	 * They are not reported by the return value of addGene etc., but counted 
+	 * in {@link #getBatchErrors()}. Callers that need the return values should 
+	 * keep the default.
+	 * <p>
+	 * {@link GdbConstructDerbyImport} loads the rows in a different way, and ignores this.
+	 * @param batchSize number of rows per batch, 1 to insert each row immediately.
+	 * 	Default is {@link #DEFAULT_BATCH_SIZE}.
+	 * @throws IDMapperException if the rows that are waiting can't be inserted
+	 */
+	public void setBatchSize(int batchSize) throws IDMapperException
+	{
+		if (batchSize < 1) throw new IllegalArgumentException("batchSize must be at least 1");
+		flush();
+		this.batchSize = batchSize;
+	}
+
+	private boolean mappingTable = false;
+
+	/**
+	 * Let finalize() also create the mapping table, that has the result of 
+	 * the link table self join for each Xref. See {@link SimpleGdbImplCommon#INFO_MAPPING_TABLE}.
+	 * <p>
+	 * This makes mapID faster, at the cost of a longer build and a larger database:
+	 * the mapping table has a row for each pair of Xrefs in the same group of links,
+	 * so it grows with the square of the group size.
+	 * @param mappingTable true to create the mapping table. Default is false.
+	 */
+	public void setMappingTable(boolean mappingTable)
+	{
+		this.mappingTable = mappingTable;
+	}
+
+	private boolean searchIndex = false;
+
+	/**
+	 * Let finalize() also create the trigram search index, see {@link SimpleGdbImplCommon#INFO_SEARCH_INDEX}.
+	 * <p>
+	 * This makes freeSearch and freeAttributeSearch faster, at the cost of a longer build
+	 * and a larger database, with three extra tables. Without it, they scan the
+	 * datanode and attribute tables.
+	 * @param searchIndex true to create the search index. Default is false.
+	 */
+	public void setSearchIndex(boolean searchIndex)
+	{
+		this.searchIndex = searchIndex;
+	}
+
+	/**
+	 * @return number of rows that were rejected by the database when a batch was executed.
+	 */
+	public int getBatchErrors()
+	{
+		return batchErrors;
+	}
+
+	/**
+	 * Destination of the rows of a table.
+	 */
+	interface RowWriter
+	{
+		/** 
+		 * Add a row.
+		 * @param values values of the row, in the order of the columns
+		 * @throws SQLException if the row is inserted immediately and that fails
+		 */
+		void add(String... values) throws SQLException;
+
+		/** Pass on the rows that were added so far, before a commit. */
+		void flush() throws SQLException;
+
+		/** Make sure that all rows that were added are in the table. */
+		void load() throws SQLException;
+	}
+
+	/**
+	 * Create the writer for the rows of a table. 
+	 * Subclasses can override this to load the data differently.
+	 * @param table name of the table
+	 * @param columns names of the columns, in the order of the values that are added
+	 * @return a new writer
+	 * @throws SQLException on failure
+	 */
+	RowWriter createRowWriter(String table, String... columns) throws SQLException
+	{
+		StringBuilder names = new StringBuilder();
+		StringBuilder placeholders = new StringBuilder();
+		for (String column : columns)
+		{
+			if (names.length() > 0) { names.append(", "); placeholders.append(", "); }
+			names.append(column);
+			placeholders.append("?");
+		}
+		return new BatchInsert(
+				"INSERT INTO " + table +
+				"	(" + names + ")" +
+				"VALUES (" + placeholders + ")"
+			);
+	}
+
+	/**
+	 * Inserts rows in a table, one batch at a time.
+	 * If a batch fails, the rows after the failing one are inserted one by one,
+	 * so that a single bad row doesn't cause the whole batch to be lost.
+	 */
+	private final class BatchInsert implements RowWriter
+	{
+		private final PreparedStatement pst;
+		private final List<String[]> pending = new ArrayList<String[]>();
+
+		private BatchInsert(String sql) throws SQLException
+		{
+			pst = con.prepareStatement(sql);
+		}
+
+		/** Insert a row, or add it to the current batch. */
+		public void add(String... values) throws SQLException
+		{
+			setValues(values);
+			if (batchSize <= 1)
+			{
+				pst.executeUpdate();
+				return;
+			}
+			pst.addBatch();
+			pending.add(values);
+			if (pending.size() >= batchSize) 
+			{
+				flush();
+				batchExecuted();
+			}
+		}
+
+		/** Execute the current batch, if any rows are waiting */
+		public void flush() throws SQLException
+		{
+			if (pending.size() == 0) return;
+			int done;
+			try
+			{
+				pst.executeBatch();
+				done = pending.size();
+			}
+			catch (BatchUpdateException e)
+			{
+				pst.clearBatch();
+				int[] counts = e.getUpdateCounts();
+				if (counts != null && counts.length == pending.size())
+				{
+					// the driver continued after the failed rows
+					for (int count : counts)
+					{
+						if (count == Statement.EXECUTE_FAILED) batchErrors++;
+					}
+					done = pending.size();
+				}
+				else
+				{
+					// the driver stopped at the first failed row
+					batchErrors++;
+					done = counts == null ? pending.size() : counts.length + 1;
+				}
+			}
+			for (int i = done; i < pending.size(); ++i)
+			{
+				try
+				{
+					setValues(pending.get(i));
+					pst.executeUpdate();
+				}
+				catch (SQLException e)
+				{
+					batchErrors++;
+				}
+			}
+			pending.clear();
+		}
+
+		public void load() throws SQLException
+		{
+			flush();
+		}
+
+		private void setValues(String[] values) throws SQLException
+		{
+			for (int i = 0; i < values.length; ++i)
+			{
+				pst.setString(i + 1, values[i]);
+			}
+		}
+	}
+
+	/** Commit once every {@value #COMMIT_INTERVAL} batches */
+	private void batchExecuted() throws SQLException
+	{
+		if (++batchesSinceCommit >= COMMIT_INTERVAL)
+		{
+			con.commit();
+			batchesSinceCommit = 0;
+		}
+	}
+
+	/**
+	 * Execute the rows of all batches that are waiting.
+	 * @throws IDMapperException on failure
+	 */
+	private void flush() throws IDMapperException
+	{
+		try
+		{
+			if (insGene != null) insGene.flush();
+			if (insLink != null) insLink.flush();
+			if (insAttr != null) insAttr.flush();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	/**
+	 * Make sure all rows that were added are in the tables, before they are indexed.
+	 * @throws IDMapperException on failure
+	 */
+	private void load() throws IDMapperException
+	{
+		try
+		{
+			if (insGene != null) insGene.load();
+			if (insLink != null) insLink.load();
+			if (insAttr != null) insAttr.load();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
 
 	/** {@inheritDoc} */
 	public int addGene(Xref ref)
 	{
 		//TODO: bpText is unused
-    	if (pstGene == null) throw new NullPointerException();
+    	if (insGene == null) throw new NullPointerException();
 		try 
 		{
-			pstGene.setString(1, ref.getId());
-			pstGene.setString(2, ref.getDataSource().getSystemCode());
-			pstGene.executeUpdate();
+			String code = code(ref.getDataSource());
+			if (!genes.add(ref.getId(), code)) return 1;
+			insGene.add(ref.getId(), code);
 		} 
 		catch (SQLException e) 
 		{
@@ -71,11 +410,7 @@ public class GdbConstructImpl3 implements GdbConstruct
     public int addAttribute(Xref ref, String attr, String val)
     {
     	try {
-    		pstAttr.setString(1, attr);
-			pstAttr.setString(2, val);
-			pstAttr.setString(3, ref.getId());
-			pstAttr.setString(4, ref.getDataSource().getSystemCode());
-			pstAttr.executeUpdate();
+    		insAttr.add(attr, val, ref.getId(), code(ref.getDataSource()));
 		} catch (SQLException e) {
 			return 1;
 		}
@@ -85,14 +420,13 @@ public class GdbConstructImpl3 implements GdbConstruct
 	/** {@inheritDoc} */
     public int addLink(Xref left, Xref right) 
     {
-    	if (pstLink == null) throw new NullPointerException();
+    	if (insLink == null) throw new NullPointerException();
     	try 
     	{
-			pstLink.setString(1, left.getId());
-			pstLink.setString(2, left.getDataSource().getSystemCode());
-			pstLink.setString(3, right.getId());
-			pstLink.setString(4, right.getDataSource().getSystemCode());
-			pstLink.executeUpdate();
+			String leftCode = code(left.getDataSource());
+			String rightCode = code(right.getDataSource());
+			if (!links.add(left.getId(), leftCode, right.getId(), rightCode)) return 1;
+			insLink.add(left.getId(), leftCode, right.getId(), rightCode);
 		} 
     	catch (SQLException e) 
 		{
@@ -110,22 +444,9 @@ public class GdbConstructImpl3 implements GdbConstruct
 		try
 		{
 			con.setAutoCommit(false);
-			pstGene = con.prepareStatement(
-				"INSERT INTO datanode " +
-				"	(id, code)" +
-				"VALUES (?, ?)"
-	 		);
-			pstLink = con.prepareStatement(
-				"INSERT INTO link " +
-				"	(idLeft, codeLeft," +
-				"	 idRight, codeRight)" +
-				"VALUES (?, ?, ?, ?)"
-	 		);
-			pstAttr = con.prepareStatement(
-					"INSERT INTO attribute " +
-					"	(attrname, attrvalue, id, code)" +
-					"VALUES (?, ?, ?, ?)"
-					);
+			insGene = createRowWriter("datanode", "id", "code");
+			insLink = createRowWriter("link", "idLeft", "codeLeft", "idRight", "codeRight");
+			insAttr = createRowWriter("attribute", "attrname", "attrvalue", "id", "code");
 		}
 		catch (SQLException e)
 		{
@@ -149,7 +470,7 @@ public class GdbConstructImpl3 implements GdbConstruct
 			pstInfo1.execute();
 			PreparedStatement pstInfo2 = con.prepareStatement (
 						"UPDATE info SET " + key + " = ? " +
-						"WHERE schemaversion = " + GDB_COMPAT_VERSION
+						"WHERE schemaversion = " + schemaVersion
 			 		);
 			pstInfo2.setString(1, value);
 			pstInfo2.execute();
@@ -161,25 +482,235 @@ public class GdbConstructImpl3 implements GdbConstruct
 	}
 	
 	
+	/**
+	 * Store the system codes of all DataSources in the link table in the info table,
+	 * so that SimpleGdb doesn't have to scan the link table for them each time
+	 * the database is opened.
+	 * @throws IDMapperException on failure
+	 */
+	private void storeDataSources() throws IDMapperException
+	{
+		try
+		{
+			StringBuilder codes = new StringBuilder();
+			Statement st = con.createStatement();
+			ResultSet rs = st.executeQuery(schemaVersion < 4
+					? "SELECT codeRight FROM link GROUP BY codeRight"
+					: "SELECT code FROM datasource WHERE EXISTS (SELECT codeRight FROM link WHERE codeRight = codeid)");
+			while (rs.next())
+			{
+				if (codes.length() > 0) codes.append(",");
+				codes.append(rs.getString(1));
+			}
+			rs.close();
+			// wider than the columns created by setInfo(), there may be many DataSources
+			st.execute(
+					"ALTER TABLE info " +
+					"ADD COLUMN " + SimpleGdbImplCommon.INFO_DATASOURCES + " VARCHAR (4000)"
+				);
+			PreparedStatement pst = con.prepareStatement (
+					"UPDATE info SET " + SimpleGdbImplCommon.INFO_DATASOURCES + " = ? " +
+					"WHERE schemaversion = " + schemaVersion
+				);
+			pst.setString(1, codes.toString());
+			pst.execute();
+			if (!con.getAutoCommit()) con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	/** number of rows inserted at once when creating the search index */
+	private static final int SEARCH_INDEX_BATCH = 1000;
+
+	/**
+	 * Create the trigram search index on identifiers and attribute values, 
+	 * that SimpleGdb uses for freeSearch and freeAttributeSearch instead of scanning
+	 * the datanode and attribute tables. See {@link SimpleGdbImplCommon#INFO_SEARCH_INDEX}.
+	 * <p>
+	 * Each distinct identifier and each distinct attribute value is stored once in the
+	 * searchterm table, and each of its trigrams once in the searchgram table.
+	 * The searchgramcount table has the number of terms for each trigram.
+	 * @throws IDMapperException on failure
+	 */
+	private void createSearchIndex() throws IDMapperException
+	{
+		try
+		{
+			Statement sh = con.createStatement();
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchterm 						" +
+					" (   termid INTEGER PRIMARY KEY,		" +
+					"     attrname VARCHAR(50) NOT NULL,	" +
+					"     term VARCHAR(255) NOT NULL		" +
+					" )										");
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchgram 						" +
+					" (   gram VARCHAR(" + SimpleGdbImplCommon.GRAM_LENGTH + ") NOT NULL," +
+					"     termid INTEGER NOT NULL			" +
+					" )										");
+			// compact() switches auto commit on, that would commit each row
+			con.setAutoCommit(false);
+			PreparedStatement pstTerm = con.prepareStatement(
+					"INSERT INTO searchterm (termid, attrname, term) VALUES (?, ?, ?)");
+			PreparedStatement pstGram = con.prepareStatement(
+					"INSERT INTO searchgram (gram, termid) VALUES (?, ?)");
+			
+			// Rows are read in index order and duplicates skipped here, because
+			// GROUP BY makes Derby build a hash table that spills to disk for large tables.
+			int termid = 0;
+			Statement st = con.createStatement();
+			ResultSet rs = st.executeQuery("SELECT id FROM datanode ORDER BY id");
+			String previous = null;
+			while (rs.next())
+			{
+				String id = rs.getString(1);
+				if (id.equals(previous)) continue;
+				addSearchTerm(pstTerm, pstGram, ++termid, SimpleGdbImplCommon.ID_TERM, id);
+				previous = id;
+			}
+			rs.close();
+			rs = st.executeQuery("SELECT attrname, attrvalue FROM attribute " +
+					"WHERE attrname IS NOT NULL AND attrvalue IS NOT NULL ORDER BY attrname, attrvalue");
+			String previousName = null;
+			previous = null;
+			while (rs.next())
+			{
+				String attrname = rs.getString(1);
+				String value = rs.getString(2);
+				if (attrname.equals(previousName) && value.equals(previous)) continue;
+				addSearchTerm(pstTerm, pstGram, ++termid, attrname, value);
+				previousName = attrname;
+				previous = value;
+			}
+			rs.close();
+			pstTerm.executeBatch();
+			pstGram.executeBatch();
+			// building the key afterwards is much faster than updating it for each row
+			sh.execute("ALTER TABLE searchgram ADD PRIMARY KEY (gram, termid)");
+			
+			// lets searches start with the least frequent trigram of a query without counting
+			sh.execute(
+					"CREATE TABLE							" +
+					"		searchgramcount					" +
+					" (   gram VARCHAR(" + SimpleGdbImplCommon.GRAM_LENGTH + ") PRIMARY KEY," +
+					"     termcount INTEGER NOT NULL		" +
+					" )										");
+			sh.execute(
+					"INSERT INTO searchgramcount (gram, termcount) " +
+					"SELECT gram, COUNT(*) FROM searchgram GROUP BY gram");
+
+			if (!con.getAutoCommit()) con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		setInfo(SimpleGdbImplCommon.INFO_SEARCH_INDEX, SimpleGdbImplCommon.SEARCH_INDEX_TRIGRAM);
+		commit();
+	}
+	
+	private void addSearchTerm(PreparedStatement pstTerm, PreparedStatement pstGram, 
+			int termid, String attrname, String term) throws SQLException
+	{
+		pstTerm.setInt(1, termid);
+		pstTerm.setString(2, attrname);
+		pstTerm.setString(3, term);
+		pstTerm.addBatch();
+		if (termid % SEARCH_INDEX_BATCH == 0) pstTerm.executeBatch();
+		for (String gram : SimpleGdbImplCommon.trigrams(term))
+		{
+			pstGram.setString(1, gram);
+			pstGram.setInt(2, termid);
+			pstGram.addBatch();
+		}
+		if (termid % SEARCH_INDEX_BATCH == 0) pstGram.executeBatch();
+	}
+
+	/**
+	 * Create the mapping table from the link table, see {@link SimpleGdbImplCommon#INFO_MAPPING_TABLE}.
+	 * The primary key is added after the rows are inserted, and covers all columns,
+	 * so mapID reads nothing but the index.
+	 * @throws IDMapperException on failure
+	 */
+	private void createMappingTable() throws IDMapperException
+	{
+		try
+		{
+			con.setAutoCommit(false);
+			Statement sh = con.createStatement();
+			sh.execute(
+					"CREATE TABLE							" +
+					"		mapping 						" +
+					" (   idSrc VARCHAR(50) NOT NULL,		" +
+					"     codeSrc " + codeType() + " NOT NULL,	" +
+					"     idDst VARCHAR(50) NOT NULL,		" +
+					"     codeDst " + codeType() + " NOT NULL	" +
+					" )										");
+			sh.execute(
+					"INSERT INTO mapping (idSrc, codeSrc, idDst, codeDst) " +
+					"SELECT DISTINCT src.idRight, src.codeRight, dest.idRight, dest.codeRight " +
+					"FROM link AS src JOIN link AS dest " +
+					"ON src.idLeft = dest.idLeft AND src.codeLeft = dest.codeLeft");
+			sh.execute(
+					"ALTER TABLE mapping ADD PRIMARY KEY " +
+					" (idSrc, codeSrc, codeDst, idDst)"
+			);
+			sh.close();
+			con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		setInfo(SimpleGdbImplCommon.INFO_MAPPING_TABLE, SimpleGdbImplCommon.MAPPING_TABLE_EXPANDED);
+		commit();
+	}
+
 	/**
 	   Create indices on the database
 	   You can call this at any time after creating the tables,
 	   but it is good to do it only after inserting all data.
+	   This also adds the primary keys of the link and datanode tables, 
+	   which createGdbTables leaves out to make inserting faster.
 	   @throws IDMapperException on failure
 	 */
 	public void createGdbIndices() throws IDMapperException 
 	{
+		load();
 		try
 		{
 			Statement sh = con.createStatement();
 			sh.execute(
-					"CREATE INDEX i_codeLeft" +
-					" ON link(codeLeft)"
+					"ALTER TABLE link ADD PRIMARY KEY " +
+					" (idLeft, codeLeft, idRight, codeRight)"
 			);
 			sh.execute(
-					"CREATE INDEX i_idRight" +
-					" ON link(idRight)"
+					"ALTER TABLE datanode ADD PRIMARY KEY (id, code)"
 			);
+			if (schemaVersion < 4)
+			{
+				sh.execute(
+						"CREATE INDEX i_codeLeft" +
+						" ON link(codeLeft)"
+				);
+				sh.execute(
+						"CREATE INDEX i_idRight" +
+						" ON link(idRight)"
+				);
+			}
+			else
+			{
+				// covers the source side of the link self join, and the primary key the other side
+				sh.execute(
+						"CREATE INDEX i_right" +
+						" ON link(idRight, codeRight, idLeft, codeLeft)"
+				);
+			}
 			sh.execute(
 					"CREATE INDEX i_codeRight" +
 					" ON link(codeRight)"
@@ -188,6 +719,14 @@ public class GdbConstructImpl3 implements GdbConstruct
 					"CREATE INDEX i_code" +
 					" ON " + "datanode" + "(code)"
 			);
+			sh.execute(
+					"CREATE INDEX i_attrvalue" +
+					" ON attribute(attrname, attrvalue)"
+			);
+			sh.execute(
+					"CREATE INDEX i_attrid" +
+					(schemaVersion < 4 ? " ON attribute(id, code)" : " ON attribute(id, code, attrname)")
+			);
 		}
 		catch (SQLException e)
 		{
@@ -200,6 +739,10 @@ public class GdbConstructImpl3 implements GdbConstruct
 	 * connection is connected to
 	 * Note: Official GDB's are created by AP, not with this code.
 	 * This is just here for testing purposes.
+	 * <p>
+	 * The link and datanode tables are created without primary key, 
+	 * so that rows are inserted faster. The keys are added by {@link #createGdbIndices()}, 
+	 * which is called by finalize(). Until then, duplicates are only skipped by addGene and addLink.
 	 * @throws IDMapperException 
 	 */
 	public void createGdbTables() throws IDMapperException 
@@ -222,37 +765,45 @@ public class GdbConstructImpl3 implements GdbConstruct
 			")");
 //			Logger.log.info("Info table created");
 			sh.execute( //Add compatibility version of GDB
-					"INSERT INTO info VALUES ( " + GDB_COMPAT_VERSION + ")");
+					"INSERT INTO info VALUES ( " + schemaVersion + ")");
 //			Logger.log.info("Version stored in info");
 			sh.execute(
 					"CREATE TABLE					" +
 					"		link							" +
 					" (   idLeft VARCHAR(50) NOT NULL,		" +
-					"     codeLeft VARCHAR(50) NOT NULL,	" +
+					"     codeLeft " + codeType() + " NOT NULL,	" +
 					"     idRight VARCHAR(50) NOT NULL,		" +
-					"     codeRight VARCHAR(50) NOT NULL,	" +
-					"     bridge VARCHAR(50),				" +
-					"     PRIMARY KEY (idLeft, codeLeft,    " +
-					"		idRight, codeRight) 			" +
+					"     codeRight " + codeType() + " NOT NULL,	" +
+					"     bridge VARCHAR(50)				" +
 					" )										");
+			// primary keys of link and datanode are added by createGdbIndices(),
+			// duplicates are skipped while inserting.
 //			Logger.log.info("Link table created");
 			sh.execute(
 					"CREATE TABLE					" +
 					"		datanode						" +
-					" (   id VARCHAR(50),					" +
-					"     code VARCHAR(50),					" +
-					"     PRIMARY KEY (id, code)    		" +
+					" (   id VARCHAR(50) NOT NULL,			" +
+					"     code " + codeType() + " NOT NULL	" +
 					" )										");
 //			Logger.log.info("DataNode table created");
 			sh.execute(
 					"CREATE TABLE							" +
 					"		attribute 						" +
 					" (   id VARCHAR(50),					" +
-					"     code VARCHAR(50),					" +
+					"     code " + codeType() + ",			" +
 					"     attrname VARCHAR(50),				" +
 					"	  attrvalue VARCHAR(255)			" +
 					" )										");
 //			Logger.log.info("Attribute table created");
+			if (schemaVersion >= 4)
+			{
+				sh.execute(
+						"CREATE TABLE					" +
+						"		datasource						" +
+						" (   codeid SMALLINT PRIMARY KEY,		" +
+						"     code VARCHAR(50) NOT NULL			" +
+						" )										");
+			}
 		} 
 		catch (SQLException e)
 		{
@@ -267,9 +818,11 @@ public class GdbConstructImpl3 implements GdbConstruct
 	 */
 	final public void commit() throws IDMapperException
 	{
+		flush();
 		try
 		{
 			con.commit();
+			batchesSinceCommit = 0;
 		}
 		catch (SQLException e)
 		{
@@ -287,16 +840,36 @@ public class GdbConstructImpl3 implements GdbConstruct
 	 * @param newDbConnector handles the differences between types of RDBMS.
 	 * A new instance of DbConnector class is instantiated automatically.
 	 * @param props PROP_RECREATE if you want to create a new database, overwriting any existing ones. Otherwise, PROP_NONE.
-	 * @return a new Gdb
+	 * @return a new Gdb. For embedded Derby databases this is a {@link GdbConstructDerbyImport},
+	 * 	which loads all rows with Derby's bulk import when the database is finalized.
 	 * @throws IDMapperException on failure
 	*/
 	public static GdbConstruct createInstance(String dbName, DBConnector newDbConnector, int props) throws IDMapperException
+	{
+		return createInstance(dbName, newDbConnector, props, GDB_COMPAT_VERSION);
+	}
+
+	/**
+	 * Open a connection to a new Gene database with the given schema version.
+	 * @param dbName The file containing the Gene Database. 
+	 * @param newDbConnector handles the differences between types of RDBMS.
+	 * A new instance of DbConnector class is instantiated automatically.
+	 * @param props PROP_RECREATE if you want to create a new database, overwriting any existing ones. Otherwise, PROP_NONE.
+	 * @param schemaVersion 3, or 4 for the schema with a code dictionary and composite indices.
+	 * @return a new Gdb, see {@link #createInstance(String, DBConnector, int)}
+	 * @throws IDMapperException on failure
+	 */
+	public static GdbConstruct createInstance(String dbName, DBConnector newDbConnector, int props, int schemaVersion) throws IDMapperException
 	{
 		try
 		{
 			// create a fresh db connector of the correct type.
 			DBConnector dbConnector = newDbConnector.getClass().newInstance();
-			return new GdbConstructImpl3(dbName, dbConnector, props);
+			if (dbConnector instanceof DataDerby)
+			{
+				return new GdbConstructDerbyImport(dbName, dbConnector, props, schemaVersion);
+			}
+			return new GdbConstructImpl3(dbName, dbConnector, props, schemaVersion);
 		}
 		catch (InstantiationException e)
 		{
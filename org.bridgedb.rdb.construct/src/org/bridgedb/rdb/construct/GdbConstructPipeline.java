@@ -0,0 +1,524 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Pipeline for building a gene database with several parser threads.
+ * <p>
+ * Parsers call addGene, addLink and addAttribute on the pipeline from any thread.
+ * The records are put in a bounded queue, and a single writer thread takes them
+ * from the queue in batches and passes them on to the wrapped GdbConstruct, 
+ * e.g. a {@link GdbConstructImpl3}. Parsing and writing to the database thus overlap, and
+ * when the writer can't keep up, the parsers wait until there is room in the queue.
+ * <p>
+ * The other GdbConstruct methods, such as setInfo and commit, are also executed 
+ * by the writer thread, after all records that were added before them.
+ * The caller waits until they are done. finalize() stops the writer thread.
+ * <p>
+ * Because records are written later, the return values of addGene etc. don't
+ * include the errors that the wrapped GdbConstruct reports for them, 
+ * these are counted in {@link #getErrors()}.
+ */
+public class GdbConstructPipeline implements GdbConstruct
+{
+	/** default number of records that fit in the queue */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/** maximum number of records the writer takes from the queue at once */
+	private static final int WRITE_BATCH = 1000;
+
+	/** how often threads that wait for the queue or for a task check that the pipeline is still open */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * Parses a data source and adds the records to a GdbConstruct.
+	 * See {@link GdbConstructPipeline#parse(Collection, int)}
+	 */
+	public interface Parser
+	{
+		/**
+		 * @param gdb pipeline to add the records to
+		 * @throws Exception if parsing fails
+		 */
+		public void parse(GdbConstruct gdb) throws Exception;
+	}
+
+	/**
+	 * Receives progress reports from the writer thread.
+	 */
+	public interface ProgressListener
+	{
+		/**
+		 * @param written number of records written so far
+		 * @param errors number of records that the wrapped GdbConstruct reported as errors
+		 * @param queued number of records waiting in the queue
+		 */
+		public void progress(long written, int errors, int queued);
+	}
+
+	/** a record, or a task, waiting in the queue */
+	private static abstract class Record
+	{
+		/** @return error count reported by the GdbConstruct */
+		abstract int writeTo(GdbConstruct gdb);
+	}
+
+	private static final class GeneRecord extends Record
+	{
+		private final Xref ref;
+		GeneRecord(Xref ref) { this.ref = ref; }
+		int writeTo(GdbConstruct gdb) { return gdb.addGene(ref); }
+	}
+
+	private static final class LinkRecord extends Record
+	{
+		private final Xref left;
+		private final Xref right;
+		LinkRecord(Xref left, Xref right) { this.left = left; this.right = right; }
+		int writeTo(GdbConstruct gdb) { return gdb.addLink(left, right); }
+	}
+
+	private static final class AttributeRecord extends Record
+	{
+		private final Xref ref;
+		private final String attr;
+		private final String val;
+		AttributeRecord(Xref ref, String attr, String val) { this.ref = ref; this.attr = attr; this.val = val; }
+		int writeTo(GdbConstruct gdb) { return gdb.addAttribute(ref, attr, val); }
+	}
+
+	/** any other GdbConstruct method, run on the writer thread */
+	private static final class TaskRecord extends Record
+	{
+		private final FutureTask<Void> task;
+		TaskRecord(FutureTask<Void> task) { this.task = task; }
+		int writeTo(GdbConstruct gdb) { task.run(); return 0; }
+	}
+
+	private final GdbConstruct gdb;
+	private final BlockingQueue<Record> queue;
+	private final Thread writer;
+
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicInteger errors = new AtomicInteger();
+	private volatile RuntimeException writerFailure = null;
+	private volatile boolean stopped = false;
+
+	private volatile ProgressListener listener = null;
+	private volatile long progressInterval = 0;
+
+	/**
+	 * Create a pipeline with a queue of {@link #DEFAULT_CAPACITY}, 
+	 * and start its writer thread.
+	 * @param gdb GdbConstruct that the writer thread writes to
+	 */
+	public GdbConstructPipeline(GdbConstruct gdb)
+	{
+		this (gdb, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a pipeline and start its writer thread.
+	 * @param gdb GdbConstruct that the writer thread writes to
+	 * @param capacity number of records that fit in the queue. When the queue
+	 * 	is full, parsers wait until the writer has taken records from it.
+	 */
+	public GdbConstructPipeline(GdbConstruct gdb, int capacity)
+	{
+		this.gdb = gdb;
+		queue = new ArrayBlockingQueue<Record>(capacity);
+		writer = new Thread(new Runnable() {
+			public void run()
+			{
+				write();
+			}
+		}, "GdbConstruct writer");
+		// don't keep the JVM alive if the pipeline is neither finalized nor closed
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Report progress every interval records. The listener is called from
+	 * the writer thread, so it should return quickly.
+	 * @param listener listener to report to, or null to stop reporting
+	 * @param interval number of records between reports
+	 */
+	public void setProgressListener(ProgressListener listener, long interval)
+	{
+		this.progressInterval = interval;
+		this.listener = listener;
+	}
+
+	/** @return number of records written to the wrapped GdbConstruct so far */
+	public long getWritten()
+	{
+		return written.get();
+	}
+
+	/** @return number of records that the wrapped GdbConstruct reported as errors, e.g. duplicates */
+	public int getErrors()
+	{
+		return errors.get();
+	}
+
+	/** @return number of records waiting to be written */
+	public int getQueued()
+	{
+		return queue.size();
+	}
+
+	private void write()
+	{
+		List<Record> batch = new ArrayList<Record>(WRITE_BATCH);
+		long nextReport = 0;
+		try
+		{
+			while (!stopped)
+			{
+				batch.add (queue.take());
+				queue.drainTo(batch, WRITE_BATCH - 1);
+				for (Record record : batch)
+				{
+					// after a failure, records are only taken from the queue so parsers don't wait forever
+					if (writerFailure != null && !(record instanceof TaskRecord)) continue;
+					try
+					{
+						errors.addAndGet(record.writeTo(gdb));
+						if (!(record instanceof TaskRecord)) written.incrementAndGet();
+					}
+					catch (RuntimeException ex)
+					{
+						writerFailure = ex;
+					}
+				}
+				batch.clear();
+
+				ProgressListener l = listener;
+				if (l != null && written.get() >= nextReport)
+				{
+					l.progress(written.get(), errors.get(), queue.size());
+					nextReport = written.get() + progressInterval;
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			// stop writing
+		}
+		finally
+		{
+			// records that were put in the queue while the pipeline was closed
+			dropQueued();
+		}
+	}
+
+	/** 
+	 * Remove the records from the queue without writing them, and cancel the tasks
+	 * among them, so that threads waiting for these tasks don't wait forever.
+	 */
+	private void dropQueued()
+	{
+		List<Record> dropped = new ArrayList<Record>();
+		queue.drainTo(dropped);
+		for (Record record : dropped)
+		{
+			if (record instanceof TaskRecord) ((TaskRecord)record).task.cancel(false);
+		}
+	}
+
+	/**
+	 * Put a record in the queue, wait if the queue is full.
+	 * @return 0 if the record was queued, 1 if the thread was interrupted while waiting
+	 * @throws IllegalStateException if the pipeline is finalized or closed, also while waiting
+	 */
+	private int put(Record record)
+	{
+		try
+		{
+			while (!stopped)
+			{
+				if (queue.offer(record, POLL_MILLIS, TimeUnit.MILLISECONDS)) return 0;
+			}
+			throw new IllegalStateException("GdbConstructPipeline is finalized or closed");
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			return 1;
+		}
+	}
+
+	/**
+	 * Run a task on the writer thread, after the records that are already 
+	 * in the queue, and wait until it is done.
+	 */
+	private void call(Callable<Void> callable) throws IDMapperException
+	{
+		FutureTask<Void> task = new FutureTask<Void>(callable);
+		try
+		{
+			if (put (new TaskRecord(task)) != 0) throw new InterruptedException();
+			while (true)
+			{
+				try
+				{
+					task.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					break;
+				}
+				catch (TimeoutException ex)
+				{
+					// the task was queued just when the pipeline was closed, and the writer is gone
+					if (!writer.isAlive() && task.cancel(false)) throw new CancellationException();
+				}
+			}
+		}
+		catch (CancellationException ex)
+		{
+			throw new IDMapperException ("GdbConstructPipeline was closed before the task was done");
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IDMapperException (ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw asIDMapperException(ex.getCause());
+		}
+		if (writerFailure != null) throw new IDMapperException ("Writing to the database failed", writerFailure);
+	}
+
+	private static IDMapperException asIDMapperException(Throwable t)
+	{
+		return t instanceof IDMapperException ? (IDMapperException)t : new IDMapperException (t);
+	}
+
+	/**
+	 * Run parsers, several at the same time, and wait until they are done.
+	 * The parsers add their records to this pipeline. 
+	 * @param parsers parsers to run
+	 * @param threads maximum number of parsers to run at the same time
+	 * @throws IDMapperException if one of the parsers failed. 
+	 * 	The other parsers still run to completion.
+	 */
+	public void parse(Collection<? extends Parser> parsers, int threads) throws IDMapperException
+	{
+		if (parsers.size() == 0) return;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parsers.size(), threads));
+		try
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (final Parser parser : parsers)
+			{
+				futures.add (executor.submit(new Callable<Void>() {
+					public Void call() throws Exception
+					{
+						parser.parse(GdbConstructPipeline.this);
+						return null;
+					}
+				}));
+			}
+			IDMapperException failure = null;
+			for (Future<Void> future : futures)
+			{
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException ex)
+				{
+					if (failure == null) failure = asIDMapperException(ex.getCause());
+				}
+			}
+			if (failure != null) throw failure;
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IDMapperException (ex);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/** 
+	 * Queue a biological entity to be added to the database.
+	 * @return 0, or 1 if the thread was interrupted. 
+	 * 	Errors while writing are counted in {@link #getErrors()}
+	 */
+	public int addGene(Xref ref)
+	{
+		return put (new GeneRecord(ref));
+	}
+
+	/** 
+	 * Queue an attribute to be added to the database.
+	 * @return 0, or 1 if the thread was interrupted. 
+	 * 	Errors while writing are counted in {@link #getErrors()}
+	 */
+	public int addAttribute(Xref ref, String attr, String val)
+	{
+		return put (new AttributeRecord(ref, attr, val));
+	}
+
+	/** 
+	 * Queue a link to be added to the database.
+	 * @return 0, or 1 if the thread was interrupted. 
+	 * 	Errors while writing are counted in {@link #getErrors()}
+	 */
+	public int addLink(Xref left, Xref right)
+	{
+		return put (new LinkRecord(left, right));
+	}
+
+	/** {@inheritDoc} */
+	public void setInfo(final String key, final String value) throws IDMapperException
+	{
+		call (new Callable<Void>() {
+			public Void call() throws IDMapperException
+			{
+				gdb.setInfo(key, value);
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	public void createGdbIndices() throws IDMapperException
+	{
+		call (new Callable<Void>() {
+			public Void call() throws IDMapperException
+			{
+				gdb.createGdbIndices();
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	public void preInsert() throws IDMapperException
+	{
+		call (new Callable<Void>() {
+			public Void call() throws IDMapperException
+			{
+				gdb.preInsert();
+				return null;
+			}
+		});
+	}
+
+	/** {@inheritDoc} */
+	public void createGdbTables() throws IDMapperException
+	{
+		call (new Callable<Void>() {
+			public Void call() throws IDMapperException
+			{
+				gdb.createGdbTables();
+				return null;
+			}
+		});
+	}
+
+	/** 
+	 * Wait until all records that were added so far are written, then commit them.
+	 * {@inheritDoc}
+	 */
+	public void commit() throws IDMapperException
+	{
+		call (new Callable<Void>() {
+			public Void call() throws IDMapperException
+			{
+				gdb.commit();
+				return null;
+			}
+		});
+	}
+
+	/** 
+	 * Wait until all records are written, finalize the database and stop the writer thread.
+	 * {@inheritDoc}
+	 */
+	public void finalize() throws IDMapperException
+	{
+		try
+		{
+			call (new Callable<Void>() {
+				public Void call() throws IDMapperException
+				{
+					try
+					{
+						// don't store a database that misses records
+						if (writerFailure != null) throw new IDMapperException (
+								"Writing to the database failed, it is not finalized", writerFailure);
+						gdb.finalize();
+					}
+					finally
+					{
+						stopped = true;
+					}
+					return null;
+				}
+			});
+		}
+		finally
+		{
+			close();
+		}
+		ProgressListener l = listener;
+		if (l != null) l.progress(written.get(), errors.get(), queue.size());
+	}
+
+	/**
+	 * Stop the writer thread without finalizing the database, e.g. after a parser failed.
+	 * Records that are still in the queue are dropped. Parsers that wait for room
+	 * in the queue get an IllegalStateException, and calls such as commit() that wait 
+	 * for the writer thread get an IDMapperException.
+	 * Does nothing if the pipeline is already finalized or closed.
+	 */
+	public void close()
+	{
+		if (!stopped)
+		{
+			stopped = true;
+			writer.interrupt();
+			dropQueued();
+		}
+	}
+}
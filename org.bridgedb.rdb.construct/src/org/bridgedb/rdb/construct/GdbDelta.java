@@ -0,0 +1,185 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+
+/**
+ * Changes to apply to an existing gene database, see {@link GdbDeltaUpdater}.
+ * <p>
+ * A delta can be built with the add and remove methods, or read from a tab 
+ * delimited text file with {@link #read(Reader)}, that has one change per line:
+ * <pre>
+ * +gene	id	code
+ * -gene	id	code
+ * +link	leftId	leftCode	rightId	rightCode
+ * -link	leftId	leftCode	rightId	rightCode
+ * +attribute	id	code	name	value
+ * -attribute	id	code	name	value
+ * info	key	value
+ * </pre>
+ * Codes are DataSource system codes. Empty lines and lines starting with # are ignored.
+ * <p>
+ * Removing a gene also removes its attributes and all links from and to it.
+ */
+public class GdbDelta
+{
+	/** A link between two Xrefs */
+	static final class Link
+	{
+		final Xref left;
+		final Xref right;
+
+		Link(Xref left, Xref right)
+		{
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	/** An attribute of an Xref */
+	static final class Attribute
+	{
+		final Xref ref;
+		final String name;
+		final String value;
+
+		Attribute(Xref ref, String name, String value)
+		{
+			this.ref = ref;
+			this.name = name;
+			this.value = value;
+		}
+	}
+
+	private final List<Xref> addedGenes = new ArrayList<Xref>();
+	private final List<Xref> removedGenes = new ArrayList<Xref>();
+	private final List<Link> addedLinks = new ArrayList<Link>();
+	private final List<Link> removedLinks = new ArrayList<Link>();
+	private final List<Attribute> addedAttributes = new ArrayList<Attribute>();
+	private final List<Attribute> removedAttributes = new ArrayList<Attribute>();
+	private final Map<String, String> info = new LinkedHashMap<String, String>();
+
+	/** @param ref gene to add */
+	public void addGene(Xref ref) { addedGenes.add(ref); }
+
+	/** @param ref gene to remove, together with its links and attributes */
+	public void removeGene(Xref ref) { removedGenes.add(ref); }
+
+	/** 
+	 * @param left left part of the link to add
+	 * @param right right part of the link to add 
+	 */
+	public void addLink(Xref left, Xref right) { addedLinks.add(new Link(left, right)); }
+
+	/** 
+	 * @param left left part of the link to remove
+	 * @param right right part of the link to remove 
+	 */
+	public void removeLink(Xref left, Xref right) { removedLinks.add(new Link(left, right)); }
+
+	/**
+	 * @param ref Xref to add the attribute to
+	 * @param name attribute name
+	 * @param value attribute value
+	 */
+	public void addAttribute(Xref ref, String name, String value) { addedAttributes.add(new Attribute(ref, name, value)); }
+
+	/**
+	 * @param ref Xref to remove the attribute from
+	 * @param name attribute name
+	 * @param value attribute value
+	 */
+	public void removeAttribute(Xref ref, String name, String value) { removedAttributes.add(new Attribute(ref, name, value)); }
+
+	/**
+	 * Set a database info property, e.g. DATASOURCEVERSION
+	 * @param key info property
+	 * @param value new value
+	 */
+	public void setInfo(String key, String value) { info.put(key, value); }
+
+	List<Xref> getAddedGenes() { return Collections.unmodifiableList(addedGenes); }
+	List<Xref> getRemovedGenes() { return Collections.unmodifiableList(removedGenes); }
+	List<Link> getAddedLinks() { return Collections.unmodifiableList(addedLinks); }
+	List<Link> getRemovedLinks() { return Collections.unmodifiableList(removedLinks); }
+	List<Attribute> getAddedAttributes() { return Collections.unmodifiableList(addedAttributes); }
+	List<Attribute> getRemovedAttributes() { return Collections.unmodifiableList(removedAttributes); }
+	Map<String, String> getInfo() { return Collections.unmodifiableMap(info); }
+
+	/** @return total number of changes in this delta */
+	public int size()
+	{
+		return addedGenes.size() + removedGenes.size() + addedLinks.size() + removedLinks.size() +
+			addedAttributes.size() + removedAttributes.size() + info.size();
+	}
+
+	private static Xref xref(String[] fields, int pos)
+	{
+		return new Xref(fields[pos], DataSource.getBySystemCode(fields[pos + 1]));
+	}
+
+	/**
+	 * Read a delta in the text format described above.
+	 * @param reader text to read, is not closed
+	 * @return the delta
+	 * @throws IOException if the text can't be read, or if a line is not in the right format
+	 */
+	public static GdbDelta read(Reader reader) throws IOException
+	{
+		GdbDelta result = new GdbDelta();
+		BufferedReader br = new BufferedReader(reader);
+		String line;
+		int lineNo = 0;
+		while ((line = br.readLine()) != null)
+		{
+			lineNo++;
+			if (line.length() == 0 || line.startsWith("#")) continue;
+			String[] fields = line.split("\t", -1);
+			String kind = fields[0];
+			int expected;
+			if (kind.equals("+gene") || kind.equals("-gene")) expected = 3;
+			else if (kind.equals("+link") || kind.equals("-link")
+					|| kind.equals("+attribute") || kind.equals("-attribute")) expected = 5;
+			else if (kind.equals("info")) expected = 3;
+			else throw new IOException("line " + lineNo + ": unknown change '" + kind + "'");
+			if (fields.length != expected)
+			{
+				throw new IOException("line " + lineNo + ": expected " + expected + " fields, found " + fields.length);
+			}
+
+			if (kind.equals("+gene")) result.addGene(xref(fields, 1));
+			else if (kind.equals("-gene")) result.removeGene(xref(fields, 1));
+			else if (kind.equals("+link")) result.addLink(xref(fields, 1), xref(fields, 3));
+			else if (kind.equals("-link")) result.removeLink(xref(fields, 1), xref(fields, 3));
+			else if (kind.equals("+attribute")) result.addAttribute(xref(fields, 1), fields[3], fields[4]);
+			else if (kind.equals("-attribute")) result.removeAttribute(xref(fields, 1), fields[3], fields[4]);
+			else result.setInfo(fields[1], fields[2]);
+		}
+		return result;
+	}
+}
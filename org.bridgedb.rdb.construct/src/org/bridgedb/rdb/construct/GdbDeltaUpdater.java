@@ -0,0 +1,576 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdbImplCommon;
+
+/**
+ * Applies a {@link GdbDelta} to an existing Derby gene database, instead of building 
+ * the new version from scratch.
+ * <p>
+ * The existing database is extracted to a working copy, the changes are applied
+ * to it, and the working copy is stored as a new database. Derby updates
+ * the indices of the changed rows. Of the data that is calculated when a database is
+ * finalized, only the parts that depend on the changed rows are updated: the search 
+ * index entries of added and removed identifiers and attribute values, the rows of the 
+ * mapping table of Xrefs whose links changed, and the list of DataSources in the info table. 
+ * <p>
+ * Unless the delta sets it, the BUILDDATE info property is set to today, 
+ * so that the new database gets a new version.
+ * <p>
+ * Usage:
+ * <pre>
+ * GdbDeltaUpdater updater = new GdbDeltaUpdater("old.bridge", "new.bridge");
+ * updater.apply(delta);
+ * updater.finish();
+ * </pre>
+ */
+public class GdbDeltaUpdater
+{
+	private final DataDerby dbConnector = new DataDerby();
+	private final String dbName;
+	private final Connection con;
+
+	/** info table of the working copy, keys in upper case */
+	private final Map<String, String> info;
+	private final boolean hasSearchIndex;
+	private final boolean hasMappingTable;
+
+	/** search terms that may have to be added to or removed from the search index, as (attrname, term) */
+	private final Set<List<String>> affectedTerms = new LinkedHashSet<List<String>>();
+
+	/** 
+	 * left side of changed links, as (idLeft, codeLeft). The mapping table rows of 
+	 * all Xrefs linked to them have to be recalculated.
+	 */
+	private final Set<List<String>> affectedLefts = new LinkedHashSet<List<String>>();
+
+	/** Xrefs whose mapping table rows have to be recalculated, as (id, code) */
+	private final Set<List<String>> affectedRefs = new LinkedHashSet<List<String>>();
+
+	/** 
+	 * value of the code columns by system code, for schema version 4 databases,
+	 * where the code columns store a number. Null for older schema versions.
+	 */
+	private final Map<String, String> codes;
+
+	/** system codes of the right side of added links */
+	private final Set<String> addedCodes = new TreeSet<String>();
+
+	private boolean buildDateSet = false;
+	private int changes = 0;
+
+	/**
+	 * Create a working copy of an existing database.
+	 * @param sourceDb existing database, is not modified
+	 * @param dbName new database to create when the updates are finished
+	 * @throws IDMapperException if the existing database can't be read
+	 */
+	public GdbDeltaUpdater(String sourceDb, String dbName) throws IDMapperException
+	{
+		this.dbName = dbName;
+		con = dbConnector.createWorkingCopyConnection(sourceDb, dbName);
+		try
+		{
+			con.setAutoCommit(false);
+			info = readInfo();
+			codes = "4".equals(info.get("SCHEMAVERSION")) ? readCodes() : null;
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		hasSearchIndex = SimpleGdbImplCommon.SEARCH_INDEX_TRIGRAM.equals(
+				info.get(SimpleGdbImplCommon.INFO_SEARCH_INDEX));
+		hasMappingTable = SimpleGdbImplCommon.MAPPING_TABLE_EXPANDED.equals(
+				info.get(SimpleGdbImplCommon.INFO_MAPPING_TABLE));
+	}
+
+	private Map<String, String> readCodes() throws SQLException
+	{
+		Map<String, String> result = new HashMap<String, String>();
+		Statement st = con.createStatement();
+		ResultSet rs = st.executeQuery("SELECT codeid, code FROM datasource");
+		while (rs.next())
+		{
+			result.put (rs.getString(2), rs.getString(1));
+		}
+		rs.close();
+		st.close();
+		return result;
+	}
+
+	private Map<String, String> readInfo() throws SQLException
+	{
+		Map<String, String> result = new HashMap<String, String>();
+		Statement st = con.createStatement();
+		ResultSet rs = st.executeQuery("SELECT * FROM info");
+		if (rs.next())
+		{
+			ResultSetMetaData meta = rs.getMetaData();
+			for (int i = 1; i <= meta.getColumnCount(); ++i)
+			{
+				result.put (meta.getColumnName(i).toUpperCase(), rs.getString(i));
+			}
+		}
+		rs.close();
+		st.close();
+		return result;
+	}
+
+	/** @return number of rows that were added or removed so far */
+	public int getChanges()
+	{
+		return changes;
+	}
+
+	/**
+	 * Apply changes to the working copy. Removals are applied before additions,
+	 * so a delta can replace a row by removing and adding it. 
+	 * Adding rows that already exist, or removing rows that don't exist, has no effect.
+	 * @param delta changes to apply
+	 * @throws IDMapperException on failure
+	 */
+	public void apply(GdbDelta delta) throws IDMapperException
+	{
+		try
+		{
+			for (GdbDelta.Attribute attr : delta.getRemovedAttributes())
+			{
+				changes += update("DELETE FROM attribute WHERE id = ? AND code = ? AND attrname = ? AND attrvalue = ?",
+						attr.ref.getId(), code(attr.ref), attr.name, attr.value);
+				affectedTerms.add (Arrays.asList(attr.name, attr.value));
+			}
+			for (GdbDelta.Link link : delta.getRemovedLinks())
+			{
+				changes += update("DELETE FROM link WHERE idLeft = ? AND codeLeft = ? AND idRight = ? AND codeRight = ?",
+						link.left.getId(), code(link.left), link.right.getId(), code(link.right));
+				affectedLefts.add (Arrays.asList(link.left.getId(), code(link.left)));
+				affectedRefs.add (Arrays.asList(link.right.getId(), code(link.right)));
+			}
+			for (Xref ref : delta.getRemovedGenes())
+			{
+				removeGene(ref);
+			}
+
+			for (Xref ref : delta.getAddedGenes())
+			{
+				if (!exists("SELECT id FROM datanode WHERE id = ? AND code = ?", ref.getId(), code(ref)))
+				{
+					changes += update("INSERT INTO datanode (id, code) VALUES (?, ?)", ref.getId(), code(ref));
+				}
+				affectedTerms.add (Arrays.asList(SimpleGdbImplCommon.ID_TERM, ref.getId()));
+			}
+			for (GdbDelta.Link link : delta.getAddedLinks())
+			{
+				String[] values = { link.left.getId(), code(link.left), link.right.getId(), code(link.right) };
+				if (!exists("SELECT idLeft FROM link WHERE idLeft = ? AND codeLeft = ? AND idRight = ? AND codeRight = ?", values))
+				{
+					changes += update("INSERT INTO link (idLeft, codeLeft, idRight, codeRight) VALUES (?, ?, ?, ?)", values);
+				}
+				addedCodes.add (link.right.getDataSource().getSystemCode());
+				affectedLefts.add (Arrays.asList(link.left.getId(), code(link.left)));
+			}
+			for (GdbDelta.Attribute attr : delta.getAddedAttributes())
+			{
+				String[] values = { attr.ref.getId(), code(attr.ref), attr.name, attr.value };
+				if (!exists("SELECT id FROM attribute WHERE id = ? AND code = ? AND attrname = ? AND attrvalue = ?", values))
+				{
+					changes += update("INSERT INTO attribute (id, code, attrname, attrvalue) VALUES (?, ?, ?, ?)", values);
+				}
+				affectedTerms.add (Arrays.asList(attr.name, attr.value));
+			}
+
+			for (Map.Entry<String, String> entry : delta.getInfo().entrySet())
+			{
+				setInfo(entry.getKey(), entry.getValue());
+				if (entry.getKey().equalsIgnoreCase("BUILDDATE")) buildDateSet = true;
+			}
+			con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	/** remove a gene, its attributes and the links from and to it */
+	private void removeGene(Xref ref) throws SQLException
+	{
+		String id = ref.getId();
+		String code = code(ref);
+		PreparedStatement pst = con.prepareStatement("SELECT attrname, attrvalue FROM attribute WHERE id = ? AND code = ?");
+		pst.setString(1, id);
+		pst.setString(2, code);
+		ResultSet rs = pst.executeQuery();
+		while (rs.next())
+		{
+			affectedTerms.add (Arrays.asList(rs.getString(1), rs.getString(2)));
+		}
+		rs.close();
+		pst.close();
+		if (hasMappingTable)
+		{
+			pst = con.prepareStatement("SELECT idLeft, codeLeft FROM link WHERE idRight = ? AND codeRight = ?");
+			pst.setString(1, id);
+			pst.setString(2, code);
+			rs = pst.executeQuery();
+			while (rs.next())
+			{
+				affectedLefts.add (Arrays.asList(rs.getString(1), rs.getString(2)));
+			}
+			rs.close();
+			pst.close();
+			// the links from this gene are deleted below, so updateMappingTable() 
+			// can't find the other Xrefs of its group any more
+			pst = con.prepareStatement("SELECT idRight, codeRight FROM link WHERE idLeft = ? AND codeLeft = ?");
+			pst.setString(1, id);
+			pst.setString(2, code);
+			rs = pst.executeQuery();
+			while (rs.next())
+			{
+				affectedRefs.add (Arrays.asList(rs.getString(1), rs.getString(2)));
+			}
+			rs.close();
+			pst.close();
+			affectedRefs.add (Arrays.asList(id, code));
+		}
+		changes += update("DELETE FROM attribute WHERE id = ? AND code = ?", id, code);
+		changes += update("DELETE FROM link WHERE idLeft = ? AND codeLeft = ?", id, code);
+		changes += update("DELETE FROM link WHERE idRight = ? AND codeRight = ?", id, code);
+		changes += update("DELETE FROM datanode WHERE id = ? AND code = ?", id, code);
+		affectedTerms.add (Arrays.asList(SimpleGdbImplCommon.ID_TERM, id));
+	}
+
+	private String code(Xref ref) throws SQLException
+	{
+		return code(ref.getDataSource().getSystemCode());
+	}
+
+	/**
+	 * @param systemCode system code of a DataSource
+	 * @return value of the code columns for the DataSource. For schema version 4, 
+	 * 	a DataSource that is not in the datasource table yet is added to it.
+	 */
+	private String code(String systemCode) throws SQLException
+	{
+		if (codes == null) return systemCode;
+		String result = codes.get(systemCode);
+		if (result == null)
+		{
+			int max = 0;
+			for (String value : codes.values()) max = Math.max(max, Integer.parseInt(value));
+			result = "" + (max + 1);
+			update("INSERT INTO datasource (codeid, code) VALUES (?, ?)", result, systemCode);
+			codes.put(systemCode, result);
+		}
+		return result;
+	}
+
+	private int update(String sql, String... values) throws SQLException
+	{
+		PreparedStatement pst = con.prepareStatement(sql);
+		try
+		{
+			for (int i = 0; i < values.length; ++i) pst.setString(i + 1, values[i]);
+			return pst.executeUpdate();
+		}
+		finally
+		{
+			pst.close();
+		}
+	}
+
+	private boolean exists(String sql, String... values) throws SQLException
+	{
+		PreparedStatement pst = con.prepareStatement(sql);
+		try
+		{
+			pst.setMaxRows(1);
+			for (int i = 0; i < values.length; ++i) pst.setString(i + 1, values[i]);
+			ResultSet rs = pst.executeQuery();
+			boolean result = rs.next();
+			rs.close();
+			return result;
+		}
+		finally
+		{
+			pst.close();
+		}
+	}
+
+	private void setInfo(String key, String value) throws SQLException
+	{
+		if (!key.matches("^\\w+$")) throw new IllegalArgumentException("key: '" + key + "' contains invalid characters");
+		key = key.toUpperCase();
+		if (!info.containsKey(key))
+		{
+			Statement st = con.createStatement();
+			st.execute("ALTER TABLE info ADD COLUMN " + key + " VARCHAR (50)");
+			st.close();
+		}
+		update("UPDATE info SET " + key + " = ?", value);
+		info.put(key, value);
+	}
+
+	/**
+	 * Update the search index and the info table for the changes, and store the 
+	 * working copy as the new database. 
+	 * @throws IDMapperException on failure
+	 */
+	public void finish() throws IDMapperException
+	{
+		try
+		{
+			if (hasSearchIndex) updateSearchIndex();
+			if (hasMappingTable) updateMappingTable();
+			updateDataSources();
+			if (!buildDateSet)
+			{
+				setInfo("BUILDDATE", new SimpleDateFormat("yyyyMMdd").format(new Date()));
+			}
+			con.commit();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		dbConnector.closeConnection(con, DBConnector.PROP_FINALIZE);
+		dbConnector.finalizeNewDatabase(dbName);
+	}
+
+	/**
+	 * The list of DataSources can only lose codes of removed links, and gain
+	 * codes of added links, so only those codes are checked.
+	 */
+	private void updateDataSources() throws SQLException
+	{
+		String value = info.get(SimpleGdbImplCommon.INFO_DATASOURCES);
+		if (value == null) return; // older database, DataSources are read from the link table
+		Set<String> codes = new TreeSet<String>(addedCodes);
+		for (String code : value.split(","))
+		{
+			if (code.length() > 0) codes.add(code);
+		}
+		StringBuilder result = new StringBuilder();
+		for (String code : codes)
+		{
+			// cheap with the index on codeRight
+			if (!exists("SELECT codeRight FROM link WHERE codeRight = ?", code(code))) continue;
+			if (result.length() > 0) result.append(",");
+			result.append(code);
+		}
+		if (!result.toString().equals(value))
+		{
+			update("UPDATE info SET " + SimpleGdbImplCommon.INFO_DATASOURCES + " = ?", result.toString());
+		}
+	}
+
+	/**
+	 * Recalculate the mapping table rows of the Xrefs that are, or were, 
+	 * linked to the left side of a changed link. 
+	 * See {@link SimpleGdbImplCommon#INFO_MAPPING_TABLE}.
+	 */
+	private void updateMappingTable() throws SQLException
+	{
+		PreparedStatement pst = con.prepareStatement(
+				"SELECT idRight, codeRight FROM link WHERE idLeft = ? AND codeLeft = ?");
+		for (List<String> left : affectedLefts)
+		{
+			pst.setString(1, left.get(0));
+			pst.setString(2, left.get(1));
+			ResultSet rs = pst.executeQuery();
+			while (rs.next())
+			{
+				affectedRefs.add (Arrays.asList(rs.getString(1), rs.getString(2)));
+			}
+			rs.close();
+		}
+		pst.close();
+
+		for (List<String> ref : affectedRefs)
+		{
+			String[] values = ref.toArray(new String[2]);
+			update("DELETE FROM mapping WHERE idSrc = ? AND codeSrc = ?", values);
+			update("INSERT INTO mapping (idSrc, codeSrc, idDst, codeDst) " +
+					"SELECT DISTINCT src.idRight, src.codeRight, dest.idRight, dest.codeRight " +
+					"FROM link AS src JOIN link AS dest " +
+					"ON src.idLeft = dest.idLeft AND src.codeLeft = dest.codeLeft " +
+					"WHERE src.idRight = ? AND src.codeRight = ?", values);
+		}
+	}
+
+	/**
+	 * Add terms to the search index that are now used and not indexed yet,
+	 * and remove indexed terms that are no longer used.
+	 * Terms shorter than a trigram are skipped, they are never found through the index.
+	 */
+	private void updateSearchIndex() throws SQLException
+	{
+		int nextTermId = 0;
+		Statement st = con.createStatement();
+		ResultSet rs = st.executeQuery("SELECT MAX(termid) FROM searchterm");
+		if (rs.next()) nextTermId = rs.getInt(1) + 1;
+		rs.close();
+		st.close();
+
+		for (List<String> term : affectedTerms)
+		{
+			String attrname = term.get(0);
+			String value = term.get(1);
+			if (value == null || value.length() < SimpleGdbImplCommon.GRAM_LENGTH) continue;
+			boolean used = SimpleGdbImplCommon.ID_TERM.equals(attrname) ?
+					exists("SELECT id FROM datanode WHERE id = ?", value) :
+					exists("SELECT id FROM attribute WHERE attrname = ? AND attrvalue = ?", attrname, value);
+			int termid = findTerm(attrname, value);
+			if (used && termid < 0)
+			{
+				update("INSERT INTO searchterm (termid, attrname, term) VALUES (?, ?, ?)", 
+						"" + nextTermId, attrname, value);
+				for (String gram : SimpleGdbImplCommon.trigrams(value))
+				{
+					update("INSERT INTO searchgram (gram, termid) VALUES (?, ?)", gram, "" + nextTermId);
+					if (update("UPDATE searchgramcount SET termcount = termcount + 1 WHERE gram = ?", gram) == 0)
+					{
+						update("INSERT INTO searchgramcount (gram, termcount) VALUES (?, 1)", gram);
+					}
+				}
+				nextTermId++;
+			}
+			else if (!used && termid >= 0)
+			{
+				for (String gram : SimpleGdbImplCommon.trigrams(value))
+				{
+					update("DELETE FROM searchgram WHERE gram = ? AND termid = ?", gram, "" + termid);
+					update("UPDATE searchgramcount SET termcount = termcount - 1 WHERE gram = ?", gram);
+				}
+				update("DELETE FROM searchterm WHERE termid = ?", "" + termid);
+			}
+		}
+		update("DELETE FROM searchgramcount WHERE termcount <= 0");
+	}
+
+	/**
+	 * Look up a term through its least frequent trigram, 
+	 * so that only the primary keys of searchgram and searchterm are used.
+	 * @return termid, or -1 if the term is not in the index
+	 */
+	private int findTerm(String attrname, String value) throws SQLException
+	{
+		String rarest = null;
+		int rarestCount = Integer.MAX_VALUE;
+		PreparedStatement pstCount = con.prepareStatement("SELECT termcount FROM searchgramcount WHERE gram = ?");
+		for (String gram : SimpleGdbImplCommon.trigrams(value))
+		{
+			pstCount.setString(1, gram);
+			ResultSet rs = pstCount.executeQuery();
+			int count = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			if (count == 0) { pstCount.close(); return -1; }
+			if (count < rarestCount) 
+			{
+				rarest = gram;
+				rarestCount = count;
+			}
+		}
+		pstCount.close();
+		if (rarest == null) return -1;
+
+		PreparedStatement pst = con.prepareStatement(
+				"SELECT searchterm.termid FROM searchgram " +
+				"JOIN searchterm ON searchterm.termid = searchgram.termid " +
+				"WHERE searchgram.gram = ? AND searchterm.attrname = ? AND searchterm.term = ?");
+		try
+		{
+			pst.setString(1, rarest);
+			pst.setString(2, attrname);
+			pst.setString(3, value);
+			ResultSet rs = pst.executeQuery();
+			int result = rs.next() ? rs.getInt(1) : -1;
+			rs.close();
+			return result;
+		}
+		finally
+		{
+			pst.close();
+		}
+	}
+
+	/**
+	 * Command line tool to apply a delta file to a database.
+	 * @param args source database, delta file (see {@link GdbDelta}), new database
+	 */
+	public static void main(String[] args)
+	{
+		if (args.length != 3)
+		{
+			System.err.println("Usage: GdbDeltaUpdater <source.bridge> <delta.txt> <target.bridge>");
+			System.exit(1);
+		}
+		try
+		{
+			long start = System.currentTimeMillis();
+			Reader reader = new InputStreamReader(new FileInputStream(args[1]), "UTF-8");
+			GdbDelta delta;
+			try
+			{
+				delta = GdbDelta.read(reader);
+			}
+			finally
+			{
+				reader.close();
+			}
+			GdbDeltaUpdater updater = new GdbDeltaUpdater(args[0], args[2]);
+			updater.apply(delta);
+			updater.finish();
+			System.out.println("Applied " + delta.size() + " changes, " + updater.getChanges() + 
+					" rows changed, in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		catch (IDMapperException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compare mapID of a collection of Xrefs, which queries the database in chunks 
+ * of {@link SimpleGdbImplCommon#BATCH_SIZE}, with mapID of each Xref on its own.
+ * This is a test of org.bridgedb.rdb, but it is kept with the construct tests 
+ * because it needs databases to query.
+ */
+public class BatchMapIDTest
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource AFFY = DataSource.getBySystemCode("X");
+	private static final int GENES = 2 * SimpleGdbImplCommon.BATCH_SIZE + 10;
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Before public void setUp() throws ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+	}
+
+	@After public void tearDown()
+	{
+		for (File f : files) f.delete();
+	}
+
+	private File tempFile() throws IOException
+	{
+		File result = File.createTempFile("batch", ".bridge");
+		result.delete();
+		files.add (result);
+		return result;
+	}
+
+	private static Xref ensembl(int i) { return new Xref("ENSG" + i, ENSEMBL); }
+	private static Xref entrez(int i) { return new Xref("" + (1000 + i), ENTREZ); }
+
+	/** 
+	 * Every Ensembl gene is linked to itself and an Affy probe, and most of them to an Entrez gene.
+	 * Every seventh gene has no Entrez gene, and every eleventh has a second Affy probe.
+	 */
+	private File createDatabase(int schemaVersion, boolean mappingTable) throws IOException, IDMapperException
+	{
+		File result = tempFile();
+		GdbConstructImpl3 gdb = new GdbConstructImpl3("" + result, new DataDerby(), DBConnector.PROP_RECREATE, schemaVersion);
+		gdb.setMappingTable(mappingTable);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (int i = 0; i < GENES; ++i)
+		{
+			List<Xref> group = new ArrayList<Xref>();
+			group.add (ensembl(i));
+			group.add (new Xref(i + "_at", AFFY));
+			if (i % 7 != 0) group.add (entrez(i));
+			if (i % 11 == 0) group.add (new Xref(i + "_s_at", AFFY));
+			for (Xref ref : group)
+			{
+				gdb.addGene(ref);
+				gdb.addLink(group.get(0), ref);
+			}
+		}
+		gdb.commit();
+		gdb.finalize();
+		return result;
+	}
+
+	/** 
+	 * Schema 2 has the same link table as schema 3, so a schema 3 database 
+	 * with its schema version changed to 2 is read by {@link SimpleGdbImpl2}.
+	 */
+	private File createSchema2Database() throws IOException, IDMapperException, SQLException
+	{
+		File source = createDatabase(3, false);
+		File result = tempFile();
+		DataDerby derby = new DataDerby();
+		Connection con = derby.createWorkingCopyConnection("" + source, "" + result);
+		con.createStatement().executeUpdate("UPDATE info SET schemaversion = 2");
+		// shut the working copy down, so the change is on disk when it is stored
+		derby.closeConnection(con, DBConnector.PROP_FINALIZE);
+		derby.finalizeNewDatabase("" + result);
+		return result;
+	}
+
+	private static List<Xref> ensemblRange(int from, int to)
+	{
+		List<Xref> result = new ArrayList<Xref>();
+		for (int i = from; i < to; ++i) result.add (ensembl(i));
+		return result;
+	}
+
+	/** @return the results of mapID for each Xref, leaving out Xrefs without any */
+	private static Map<Xref, Set<Xref>> mapEach(IDMapper mapper, List<Xref> refs, DataSource... tgt) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Xref ref : refs)
+		{
+			Set<Xref> mapped = mapper.mapID(ref, tgt);
+			if (mapped.size() > 0) result.put (ref, mapped);
+		}
+		return result;
+	}
+
+	private void compare(File database, Class<?> expectedClass) throws IDMapperException
+	{
+		IDMapper mapper = BridgeDb.connect("idmapper-pgdb:" + database);
+		try
+		{
+			Assert.assertEquals (expectedClass, mapper.getClass());
+			int batch = SimpleGdbImplCommon.BATCH_SIZE;
+
+			List<List<Xref>> inputs = new ArrayList<List<Xref>>();
+			inputs.add (ensemblRange(0, batch));
+			inputs.add (ensemblRange(0, batch + 1));
+			// several source DataSources, ids that are not in the database, 
+			// duplicates and an Xref without DataSource
+			List<Xref> mixed = ensemblRange(5, batch + 6);
+			for (int i = 0; i < GENES; i += 3) mixed.add (entrez(i));
+			mixed.add (new Xref("ENSG_UNKNOWN", ENSEMBL));
+			mixed.add (new Xref("0_at", AFFY));
+			mixed.add (ensembl(7));
+			mixed.add (new Xref("ENSG8", null));
+			inputs.add (mixed);
+
+			DataSource[][] targets = { {}, { ENTREZ }, { AFFY }, { ENTREZ, AFFY }, { ENSEMBL } };
+			for (List<Xref> input : inputs)
+			{
+				for (DataSource[] tgt : targets)
+				{
+					Map<Xref, Set<Xref>> expected = mapEach(mapper, input, tgt);
+					Map<Xref, Set<Xref>> actual = mapper.mapID(input, tgt);
+					Assert.assertEquals (input.size() + " xrefs to " + tgt.length + " targets", expected, actual);
+				}
+			}
+
+			// the comparison means something: there are mappings, and misses
+			Map<Xref, Set<Xref>> toEntrez = mapper.mapID(inputs.get(1), ENTREZ);
+			Assert.assertEquals (batch + 1 - (batch / 7 + 1), toEntrez.size());
+			Assert.assertEquals (2, mapper.mapID(inputs.get(1), AFFY).get(ensembl(11)).size());
+			Assert.assertTrue (mapper.mapID(mixed).containsKey(entrez(3)));
+		}
+		finally
+		{
+			mapper.close();
+		}
+	}
+
+	@Test public void testSchema2() throws IOException, IDMapperException, SQLException
+	{
+		compare(createSchema2Database(), SimpleGdbImpl2.class);
+	}
+
+	@Test public void testSchema3() throws IOException, IDMapperException
+	{
+		compare(createDatabase(3, false), SimpleGdbImpl3.class);
+	}
+
+	@Test public void testSchema4() throws IOException, IDMapperException
+	{
+		compare(createDatabase(4, false), SimpleGdbImpl4.class);
+	}
+
+	@Test public void testMappingTable() throws IOException, IDMapperException
+	{
+		compare(createDatabase(4, true), SimpleGdbImpl4.class);
+	}
+}
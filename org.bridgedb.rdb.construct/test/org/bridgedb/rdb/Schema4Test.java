@@ -0,0 +1,181 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Build a schema version 4 database, where the code columns hold the numbers 
+ * of the datasource table, and read it back.
+ * This is a test of org.bridgedb.rdb, but it is kept with the construct tests 
+ * because it needs a database to query.
+ */
+public class Schema4Test
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource AFFY = DataSource.getBySystemCode("X");
+	/** a DataSource that is not in the datasource table of the database */
+	private static final DataSource MISSING = DataSource.getBySystemCode("Ck");
+	/** a DataSource without system code */
+	private static final DataSource NO_CODE = DataSource.getByFullName("Ebenizer Scrooge");
+
+	private static final Xref ENSG1 = new Xref("ENSG1", ENSEMBL);
+	private static final Xref ENSG2 = new Xref("ENSG2", ENSEMBL);
+	private static final Xref ENTREZ1 = new Xref("1001", ENTREZ);
+	private static final Xref AFFY1 = new Xref("1_at", AFFY);
+	private static final Xref AFFY2 = new Xref("2_at", AFFY);
+
+	private File file;
+	private IDMapper mapper;
+
+	@Before public void setUp() throws ClassNotFoundException, IOException, IDMapperException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		file = File.createTempFile("schema4", ".bridge");
+		file.delete();
+
+		GdbConstructImpl3 gdb = new GdbConstructImpl3("" + file, new DataDerby(), DBConnector.PROP_RECREATE, 4);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (Xref ref : new Xref[] { ENSG1, ENTREZ1, AFFY1 })
+		{
+			gdb.addGene(ref);
+			gdb.addLink(ENSG1, ref);
+		}
+		for (Xref ref : new Xref[] { ENSG2, AFFY2 })
+		{
+			gdb.addGene(ref);
+			gdb.addLink(ENSG2, ref);
+		}
+		gdb.addAttribute(ENSG1, "Symbol", "INSR");
+		gdb.addAttribute(ENSG1, "Synonyms", "CD220");
+		gdb.addAttribute(ENSG2, "Symbol", "INS");
+		gdb.commit();
+		gdb.finalize();
+
+		mapper = BridgeDb.connect("idmapper-pgdb:" + file);
+	}
+
+	@After public void tearDown() throws IDMapperException
+	{
+		mapper.close();
+		file.delete();
+	}
+
+	private static Set<Xref> set(Xref... refs)
+	{
+		return new HashSet<Xref>(Arrays.asList(refs));
+	}
+
+	@Test public void testMapID() throws IDMapperException
+	{
+		Assert.assertEquals (SimpleGdbImpl4.class, mapper.getClass());
+		Assert.assertEquals (set(ENSG1, ENTREZ1, AFFY1), mapper.mapID(ENSG1));
+		Assert.assertEquals (set(ENTREZ1), mapper.mapID(ENSG1, ENTREZ));
+		Assert.assertEquals (set(ENSG1), mapper.mapID(AFFY1, ENSEMBL));
+
+		Map<Xref, Set<Xref>> batch = mapper.mapID(Arrays.asList(ENSG1, ENSG2, AFFY2), AFFY);
+		Assert.assertEquals (3, batch.size());
+		Assert.assertEquals (set(AFFY1), batch.get(ENSG1));
+		Assert.assertEquals (set(AFFY2), batch.get(ENSG2));
+		Assert.assertEquals (set(AFFY2), batch.get(AFFY2));
+	}
+
+	@Test public void testXrefExists() throws IDMapperException
+	{
+		Assert.assertTrue (mapper.xrefExists(ENSG1));
+		Assert.assertTrue (mapper.xrefExists(AFFY2));
+		Assert.assertFalse (mapper.xrefExists(new Xref("ENSG3", ENSEMBL)));
+		// same id, different code
+		Assert.assertFalse (mapper.xrefExists(new Xref("ENSG1", ENTREZ)));
+	}
+
+	@Test public void testAttributes() throws IDMapperException
+	{
+		AttributeMapper attr = (AttributeMapper)mapper;
+		Assert.assertEquals (new HashSet<String>(Arrays.asList("Symbol", "Synonyms")), attr.getAttributeSet());
+		Assert.assertEquals (Collections.singleton("INSR"), attr.getAttributes(ENSG1, "Symbol"));
+		Assert.assertEquals (Collections.singleton("CD220"), attr.getAttributes(ENSG1).get("Synonyms"));
+
+		Map<Xref, Map<String, Set<String>>> batch = 
+			((SimpleGdbImpl4)mapper).getAttributes(Arrays.asList(ENSG1, ENSG2), "Symbol");
+		Assert.assertEquals (Collections.singleton("INSR"), batch.get(ENSG1).get("Symbol"));
+		Assert.assertEquals (Collections.singleton("INS"), batch.get(ENSG2).get("Symbol"));
+	}
+
+	@Test public void testFreeSearch() throws IDMapperException
+	{
+		// the DataSource of each result is translated back from its number
+		Assert.assertEquals (set(ENSG1, ENSG2), mapper.freeSearch("ENSG", 10));
+		Assert.assertEquals (set(AFFY1), mapper.freeSearch("1_a", 10));
+	}
+
+	@Test public void testIterator() throws IDMapperException
+	{
+		Set<Xref> all = new HashSet<Xref>();
+		for (Xref ref : ((SimpleGdb)mapper).getIterator()) all.add (ref);
+		Assert.assertEquals (set(ENSG1, ENSG2, ENTREZ1, AFFY1, AFFY2), all);
+
+		Set<Xref> affy = new HashSet<Xref>();
+		for (Xref ref : ((SimpleGdb)mapper).getIterator(AFFY)) affy.add (ref);
+		Assert.assertEquals (set(AFFY1, AFFY2), affy);
+	}
+
+	/** DataSources that are not in the datasource table match nothing */
+	@Test public void testMissingDataSource() throws IDMapperException
+	{
+		SimpleGdbImpl4 gdb = (SimpleGdbImpl4)mapper;
+		for (DataSource ds : new DataSource[] { MISSING, NO_CODE })
+		{
+			Xref ref = new Xref("ENSG1", ds);
+			Assert.assertFalse (gdb.xrefExists(ref));
+			Assert.assertEquals (0, gdb.mapID(ref).size());
+			Assert.assertEquals (0, gdb.mapID(ref, ENSEMBL).size());
+			Assert.assertEquals (0, gdb.mapID(ENSG1, ds).size());
+			Assert.assertEquals (0, gdb.mapID(Collections.singleton(ref)).size());
+			Assert.assertEquals (0, gdb.mapID(Arrays.asList(ENSG1, ENSG2), ds).size());
+			Assert.assertEquals (0, gdb.getAttributes(ref, "Symbol").size());
+			Assert.assertEquals (0, gdb.getAttributes(ref).size());
+			Assert.assertEquals (0, gdb.getAttributes(Collections.singleton(ref), "Symbol").size());
+			Assert.assertFalse (gdb.getIterator(ds).iterator().hasNext());
+		}
+		// the other Xrefs are still found
+		Map<Xref, Set<Xref>> mixed = gdb.mapID(Arrays.asList(new Xref("ENSG1", MISSING), ENSG1), ENTREZ);
+		Assert.assertEquals (Collections.singletonMap(ENSG1, set(ENTREZ1)), mixed);
+	}
+}
@@ -0,0 +1,200 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the connection pool of SimpleGdb. This is a test of org.bridgedb.rdb, 
+ * but it is kept with the construct tests because it needs a database to query.
+ */
+public class SimpleGdbPoolTest
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+	private static final int GENES = 200;
+	private static final int THREADS = 8;
+
+	private static File database;
+
+	@BeforeClass public static void createDatabase() throws IOException, IDMapperException, ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		database = File.createTempFile("pool", ".bridge");
+		database.delete();
+		GdbConstructImpl3 gdb = (GdbConstructImpl3)GdbConstructImpl3.createInstance(
+				"" + database, new DataDerby(), DBConnector.PROP_RECREATE);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (int i = 0; i < GENES; ++i)
+		{
+			Xref ens = new Xref("ENSG" + i, ENSEMBL);
+			Xref entrez = new Xref("" + (1000 + i), ENTREZ);
+			gdb.addGene(ens);
+			gdb.addGene(entrez);
+			gdb.addLink(ens, ens);
+			gdb.addLink(ens, entrez);
+			gdb.addAttribute(ens, "Symbol", "SYM" + i);
+		}
+		gdb.commit();
+		gdb.finalize();
+	}
+
+	@AfterClass public static void deleteDatabase()
+	{
+		database.delete();
+	}
+
+	private static SimpleGdb connect(String options) throws IDMapperException
+	{
+		return (SimpleGdb)BridgeDb.connect("idmapper-pgdb:" + database + options);
+	}
+
+	@Test public void testPoolSize() throws IDMapperException
+	{
+		SimpleGdb gdb = connect("?poolsize=4");
+		try
+		{
+			Assert.assertEquals (4, gdb.getPoolSize());
+			// the options are not part of the name
+			Assert.assertEquals ("" + database, gdb.getDbName());
+		}
+		finally
+		{
+			gdb.close();
+		}
+		gdb = connect("");
+		try
+		{
+			Assert.assertEquals (SimpleGdb.DEFAULT_POOL_SIZE, gdb.getPoolSize());
+		}
+		finally
+		{
+			gdb.close();
+		}
+	}
+
+	/** A thread can't start a query with a QueryLifeCycle that it is still using */
+	@Test public void testReentrantInit() throws Exception
+	{
+		SimpleGdb gdb = connect("?poolsize=2");
+		try
+		{
+			SimpleGdb.QueryLifeCycle query = gdb.new QueryLifeCycle("SELECT id FROM datanode");
+			query.init();
+			try
+			{
+				query.init();
+				Assert.fail ("init() twice without cleanup() should fail");
+			}
+			catch (IllegalStateException expected) {}
+			query.executeQuery();
+			Assert.assertTrue (query.next());
+			query.cleanup();
+
+			// after cleanup, the query can be used again
+			query.init();
+			query.executeQuery();
+			Assert.assertTrue (query.next());
+			query.cleanup();
+		}
+		finally
+		{
+			gdb.close();
+		}
+	}
+
+	/** Query from several threads at once, with fewer connections than threads */
+	private void queryConcurrently(int poolSize) throws Exception
+	{
+		final SimpleGdb gdb = connect("?poolsize=" + poolSize);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < THREADS; ++t)
+			{
+				final int offset = t;
+				futures.add (executor.submit(new Callable<Void>() {
+					public Void call() throws IDMapperException
+					{
+						for (int j = 0; j < GENES; ++j)
+						{
+							int i = (j + offset * 17) % GENES;
+							Xref ens = new Xref("ENSG" + i, ENSEMBL);
+							Set<Xref> mapped = gdb.mapID(ens, ENTREZ);
+							Assert.assertEquals ("" + ens, 1, mapped.size());
+							Assert.assertEquals (new Xref("" + (1000 + i), ENTREZ), mapped.iterator().next());
+							Assert.assertTrue (gdb.xrefExists(ens));
+							Assert.assertEquals ("[SYM" + i + "]", "" + gdb.getAttributes(ens, "Symbol"));
+							if (j % 20 == 0)
+							{
+								// ENSG1, ENSG10 - ENSG19 and ENSG100 - ENSG199
+								Map<Xref, Set<Xref>> batch = gdb.mapID(gdb.freeSearch("ENSG1", 0), ENTREZ);
+								Assert.assertEquals (111, batch.size());
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures)
+			{
+				// a deadlock shows up as a timeout
+				future.get(60, TimeUnit.SECONDS);
+			}
+			Assert.assertTrue (gdb.getQueryStats().getQueryCount() >= THREADS * GENES * 3);
+		}
+		finally
+		{
+			executor.shutdownNow();
+			gdb.close();
+		}
+	}
+
+	@Test public void testSingleConnection() throws Exception
+	{
+		queryConcurrently(1);
+	}
+
+	@Test public void testPool() throws Exception
+	{
+		queryConcurrently(4);
+	}
+}
@@ -0,0 +1,80 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FingerprintSetTest
+{
+	/** Compare a FingerprintSet with a HashSet for random rows, with many duplicates */
+	private static void compare(FingerprintSet set)
+	{
+		Set<String> expected = new HashSet<String>();
+		Random random = new Random(1);
+		for (int i = 0; i < 200000; ++i)
+		{
+			String id = "" + random.nextInt(100000);
+			String code = "" + (char)('A' + random.nextInt(3));
+			Assert.assertEquals (id + code, expected.add(id + "\t" + code), set.add(id, code));
+		}
+		Assert.assertEquals (expected.size(), set.size());
+	}
+
+	@Test public void testDuplicates()
+	{
+		compare(new FingerprintSet());
+	}
+
+	/** Rows with the same fingerprint are only duplicates if they are equal */
+	@Test public void testCollisions()
+	{
+		FingerprintSet set = new FingerprintSet() {
+			long fingerprint(String... fields) { return 1 + fields[0].length() % 4; }
+		};
+		Assert.assertTrue (set.add("1", "L"));
+		Assert.assertTrue (set.add("5", "L"));
+		Assert.assertTrue (set.add("1", "X"));
+		Assert.assertTrue (set.add("", "1L"));
+		Assert.assertFalse (set.add("5", "L"));
+		Assert.assertFalse (set.add("1", "X"));
+		Assert.assertEquals (4, set.size());
+
+		// fewer fingerprints than rows, but still exact after the table grows
+		FingerprintSet small = new FingerprintSet() {
+			long fingerprint(String... fields) { return 1 + fields[0].hashCode() % 64; }
+		};
+		for (int i = 0; i < 3000; ++i) Assert.assertTrue (small.add("" + i, "L"));
+		for (int i = 0; i < 3000; ++i) Assert.assertFalse (small.add("" + i, "L"));
+	}
+
+	@Test public void testLongRows()
+	{
+		FingerprintSet set = new FingerprintSet();
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 70000; ++i) value.append('x');
+		Assert.assertTrue (set.add(value.toString(), "L"));
+		Assert.assertTrue (set.add(value.substring(1), "L"));
+		Assert.assertFalse (set.add(value.toString(), "L"));
+		for (int i = 0; i < 2000; ++i) Assert.assertTrue (set.add(value.toString(), "" + i));
+		Assert.assertFalse (set.add(value.substring(1), "L"));
+	}
+}
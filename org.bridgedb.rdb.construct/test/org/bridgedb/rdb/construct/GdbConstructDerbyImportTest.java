@@ -0,0 +1,109 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GdbConstructDerbyImportTest
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+
+	private File file;
+
+	@Before public void setUp() throws ClassNotFoundException, IOException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		file = File.createTempFile("import", ".bridge");
+		file.delete();
+	}
+
+	@After public void tearDown()
+	{
+		file.delete();
+	}
+
+	private static String repeat(char c, int count)
+	{
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; ++i) result.append(c);
+		return result.toString();
+	}
+
+	/**
+	 * Rows that don't fit the table are rejected when they are added,
+	 * and the other rows are still imported.
+	 */
+	private void testBadRows(int schemaVersion) throws IDMapperException
+	{
+		GdbConstruct gdb = GdbConstructImpl3.createInstance("" + file, new DataDerby(), DBConnector.PROP_RECREATE, schemaVersion);
+		Assert.assertTrue (gdb instanceof GdbConstructDerbyImport);
+		gdb.createGdbTables();
+		gdb.preInsert();
+
+		Xref good = new Xref("ENSG1", ENSEMBL);
+		Xref other = new Xref("1001", ENTREZ);
+		Xref longId = new Xref(repeat('1', 51), ENTREZ);
+		Assert.assertEquals (0, gdb.addGene(good));
+		Assert.assertEquals (0, gdb.addGene(other));
+		Assert.assertEquals (1, gdb.addGene(longId));
+		Assert.assertEquals (0, gdb.addLink(good, good));
+		Assert.assertEquals (0, gdb.addLink(good, other));
+		Assert.assertEquals (1, gdb.addLink(good, longId));
+		Assert.assertEquals (0, gdb.addAttribute(good, "Symbol", "SYM1"));
+		Assert.assertEquals (1, gdb.addAttribute(good, "Description", repeat('x', 256)));
+		Assert.assertEquals (1, gdb.addAttribute(good, repeat('a', 51), "value"));
+		gdb.commit();
+		gdb.finalize();
+
+		IDMapper mapper = BridgeDb.connect("idmapper-pgdb:" + file);
+		try
+		{
+			Assert.assertTrue (mapper.xrefExists(good));
+			Assert.assertFalse (mapper.xrefExists(longId));
+			Assert.assertTrue (mapper.mapID(good, ENTREZ).contains(other));
+			Assert.assertEquals ("[SYM1]", "" + ((AttributeMapper)mapper).getAttributes(good, "Symbol"));
+			Assert.assertTrue (((AttributeMapper)mapper).getAttributes(good, "Description").isEmpty());
+		}
+		finally
+		{
+			mapper.close();
+		}
+	}
+
+	@Test public void testBadRowsSchema3() throws IDMapperException
+	{
+		testBadRows(3);
+	}
+
+	@Test public void testBadRowsSchema4() throws IDMapperException
+	{
+		testBadRows(4);
+	}
+}
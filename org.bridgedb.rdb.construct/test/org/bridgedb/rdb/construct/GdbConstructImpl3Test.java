@@ -0,0 +1,110 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GdbConstructImpl3Test
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final String LONG_ID = "123456789012345678901234567890123456789012345678901";
+
+	private File file;
+
+	@Before public void setUp() throws ClassNotFoundException, IOException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		file = File.createTempFile("impl3", ".bridge");
+		file.delete();
+	}
+
+	@After public void tearDown()
+	{
+		file.delete();
+	}
+
+	private GdbConstructImpl3 create() throws IDMapperException
+	{
+		// not createInstance, that returns a GdbConstructDerbyImport for Derby
+		GdbConstructImpl3 gdb = new GdbConstructImpl3("" + file, new DataDerby(), DBConnector.PROP_RECREATE);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		return gdb;
+	}
+
+	/** By default, each row is inserted right away, and a failing row is reported by its return value */
+	@Test public void testDefaultBatchSize() throws IDMapperException
+	{
+		GdbConstructImpl3 gdb = create();
+		Assert.assertEquals (0, gdb.addGene(new Xref("ENSG1", ENSEMBL)));
+		Assert.assertEquals (1, gdb.addGene(new Xref("ENSG1", ENSEMBL)));
+		Assert.assertEquals (1, gdb.addGene(new Xref(LONG_ID, ENSEMBL)));
+		Assert.assertEquals (1, gdb.addAttribute(new Xref("ENSG1", ENSEMBL), "Symbol", LONG_ID + LONG_ID + LONG_ID + LONG_ID + LONG_ID + LONG_ID));
+		gdb.commit();
+		gdb.finalize();
+		Assert.assertEquals (0, gdb.getBatchErrors());
+	}
+
+	/**
+	 * With batches, a failing row is counted in getBatchErrors, and the 
+	 * other rows of its batch are inserted one by one.
+	 */
+	@Test public void testBatches() throws IDMapperException
+	{
+		GdbConstructImpl3 gdb = create();
+		gdb.setBatchSize(4);
+		int expected = 0;
+		for (int i = 0; i < 20; ++i)
+		{
+			// a bad row at the start, in the middle and at the end of a batch
+			boolean bad = i == 0 || i == 6 || i == 11;
+			Assert.assertEquals (0, gdb.addGene(new Xref(bad ? LONG_ID + i : "ENSG" + i, ENSEMBL)));
+			if (!bad) expected++;
+		}
+		// the last batch is only executed by finalize
+		Assert.assertEquals (0, gdb.addGene(new Xref(LONG_ID, ENSEMBL)));
+		gdb.commit();
+		gdb.finalize();
+		Assert.assertEquals (4, gdb.getBatchErrors());
+
+		IDMapper mapper = BridgeDb.connect("idmapper-pgdb:" + file);
+		try
+		{
+			int found = 0;
+			for (int i = 0; i < 20; ++i)
+			{
+				if (mapper.xrefExists(new Xref("ENSG" + i, ENSEMBL))) found++;
+			}
+			Assert.assertEquals (expected, found);
+		}
+		finally
+		{
+			mapper.close();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdbConstructPipelineTest
+{
+	private static final DataSource ENSEMBL = DataSource.register("En", "Ensembl").asDataSource();
+
+	/** 
+	 * GdbConstruct that records the calls it gets. 
+	 * Writing a gene with id "block" waits until unblock is counted down. 
+	 */
+	private static class RecordingGdb implements GdbConstruct
+	{
+		final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch unblock = new CountDownLatch(1);
+
+		public int addGene(Xref ref)
+		{
+			if ("block".equals(ref.getId()))
+			{
+				blocked.countDown();
+				try { unblock.await(); } catch (InterruptedException ex) { /* stop waiting */ }
+			}
+			calls.add ("gene " + ref.getId());
+			return 0;
+		}
+		public int addAttribute(Xref ref, String attr, String val) { calls.add ("attr " + ref.getId()); return 0; }
+		public int addLink(Xref left, Xref right) { calls.add ("link " + left.getId()); return 0; }
+		public void setInfo(String key, String value) { calls.add ("info " + key); }
+		public void createGdbIndices() { calls.add ("indices"); }
+		public void preInsert() { calls.add ("preInsert"); }
+		public void createGdbTables() { calls.add ("tables"); }
+		public void commit() { calls.add ("commit"); }
+		public void finalize() { calls.add ("finalize"); }
+	}
+
+	@Test public void testParse() throws IDMapperException
+	{
+		RecordingGdb gdb = new RecordingGdb();
+		GdbConstructPipeline pipeline = new GdbConstructPipeline(gdb, 10);
+		pipeline.createGdbTables();
+		List<GdbConstructPipeline.Parser> parsers = new ArrayList<GdbConstructPipeline.Parser>();
+		for (int p = 0; p < 4; ++p)
+		{
+			final String prefix = "P" + p + "_";
+			parsers.add (new GdbConstructPipeline.Parser() {
+				public void parse(GdbConstruct gdb)
+				{
+					for (int i = 0; i < 100; ++i)
+					{
+						Xref ref = new Xref(prefix + i, ENSEMBL);
+						gdb.addGene(ref);
+						gdb.addLink(ref, ref);
+						gdb.addAttribute(ref, "Symbol", "S" + i);
+					}
+				}
+			});
+		}
+		pipeline.parse(parsers, 3);
+		pipeline.commit();
+		pipeline.finalize();
+
+		Assert.assertEquals (1200, pipeline.getWritten());
+		Assert.assertEquals (1203, gdb.calls.size());
+		Assert.assertEquals ("tables", gdb.calls.get(0));
+		Assert.assertEquals ("commit", gdb.calls.get(1201));
+		Assert.assertEquals ("finalize", gdb.calls.get(1202));
+		// records of a single parser keep their order
+		Assert.assertTrue (gdb.calls.indexOf("gene P2_5") < gdb.calls.indexOf("link P2_5"));
+		Assert.assertTrue (gdb.calls.indexOf("attr P2_5") < gdb.calls.indexOf("gene P2_6"));
+		try
+		{
+			pipeline.addGene(new Xref("late", ENSEMBL));
+			Assert.fail ("addGene after finalize should fail");
+		}
+		catch (IllegalStateException expected) {}
+	}
+
+	/**
+	 * Close the pipeline while the writer is busy, a parser waits for room in the full queue,
+	 * and another thread waits for commit: neither of them waits forever.
+	 */
+	@Test public void testCloseWhileWaiting() throws Exception
+	{
+		final RecordingGdb gdb = new RecordingGdb();
+		final GdbConstructPipeline pipeline = new GdbConstructPipeline(gdb, 2);
+		pipeline.addGene(new Xref("block", ENSEMBL));
+		Assert.assertTrue (gdb.blocked.await(10, TimeUnit.SECONDS));
+
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread parser = new Thread() {
+			public void run()
+			{
+				try
+				{
+					for (int i = 0; i < 10; ++i) pipeline.addGene(new Xref("ENSG" + i, ENSEMBL));
+				}
+				catch (Throwable t) { failures.add(t); }
+			}
+		};
+		parser.start();
+		// wait until the parser waits for room in the queue
+		while (pipeline.getQueued() < 2) Thread.sleep(10);
+
+		Thread committer = new Thread() {
+			public void run()
+			{
+				try
+				{
+					pipeline.commit();
+				}
+				catch (Throwable t) { failures.add(t); }
+			}
+		};
+		committer.start();
+		Thread.sleep(200);
+
+		pipeline.close();
+		parser.join(10000);
+		committer.join(10000);
+		Assert.assertFalse (parser.isAlive());
+		Assert.assertFalse (committer.isAlive());
+		Assert.assertEquals (2, failures.size());
+		for (Throwable t : failures)
+		{
+			Assert.assertTrue ("" + t, t instanceof IllegalStateException || t instanceof IDMapperException);
+		}
+		Assert.assertFalse (gdb.calls.contains("commit"));
+	}
+}
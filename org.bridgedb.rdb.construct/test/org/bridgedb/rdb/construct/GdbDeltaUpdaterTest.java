@@ -0,0 +1,283 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.IDMapperRdb;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GdbDeltaUpdaterTest
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource AFFY = DataSource.getBySystemCode("X");
+	private static final DataSource UNIPROT = DataSource.getBySystemCode("S");
+	private static final int GENES = 5;
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Before public void setUp() throws ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+	}
+
+	@After public void tearDown()
+	{
+		for (File f : files) f.delete();
+	}
+
+	private File tempFile() throws IOException
+	{
+		File result = File.createTempFile("delta", ".bridge");
+		result.delete();
+		files.add (result);
+		return result;
+	}
+
+	private File createDatabase(int skip, boolean mappingTable) throws IOException, IDMapperException
+	{
+		return createDatabase(skip, mappingTable, 3, false);
+	}
+
+	/**
+	 * Create a database where each Ensembl gene links to itself, an Entrez gene and an Affy probe,
+	 * and has a symbol.
+	 * @param skip Ensembl gene whose links are left out, or -1
+	 */
+	private File createDatabase(int skip, boolean mappingTable, int schemaVersion, boolean searchIndex) 
+			throws IOException, IDMapperException
+	{
+		File result = tempFile();
+		GdbConstructImpl3 gdb = new GdbConstructImpl3("" + result, new DataDerby(), DBConnector.PROP_RECREATE, schemaVersion);
+		gdb.setMappingTable(mappingTable);
+		gdb.setSearchIndex(searchIndex);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (int i = 0; i < GENES; ++i)
+		{
+			Xref[] group = { 
+					new Xref("ENSG" + i, ENSEMBL), new Xref("" + (1000 + i), ENTREZ), new Xref(i + "_at", AFFY) };
+			for (Xref ref : group) gdb.addGene(ref);
+			gdb.addAttribute(group[0], "Symbol", "SYM" + i);
+			if (i == skip) continue;
+			for (Xref ref : group) gdb.addLink(group[0], ref);
+		}
+		gdb.commit();
+		gdb.finalize();
+		return result;
+	}
+
+	private static void assertSameMappings(IDMapper expected, IDMapper actual) throws IDMapperException
+	{
+		for (int i = 0; i < GENES; ++i)
+		{
+			for (Xref ref : new Xref[] { new Xref("" + (1000 + i), ENTREZ), new Xref(i + "_at", AFFY) })
+			{
+				Assert.assertEquals ("" + ref, expected.mapID(ref), actual.mapID(ref));
+				Assert.assertEquals ("" + ref, expected.mapID(ref, AFFY), actual.mapID(ref, AFFY));
+			}
+		}
+	}
+
+	/**
+	 * Removing the gene on the left side of a group of links must also remove
+	 * the mapping table rows between the other members of the group.
+	 */
+	@Test public void testRemoveLeftGene() throws IOException, IDMapperException
+	{
+		File source = createDatabase(-1, true);
+		File target = tempFile();
+
+		GdbDelta delta = new GdbDelta();
+		delta.removeGene(new Xref("ENSG2", ENSEMBL));
+		delta.addGene(new Xref("ENSG2", ENSEMBL));
+		GdbDeltaUpdater updater = new GdbDeltaUpdater("" + source, "" + target);
+		updater.apply(delta);
+		updater.finish();
+
+		IDMapper updated = BridgeDb.connect("idmapper-pgdb:" + target);
+		IDMapper rebuilt = BridgeDb.connect("idmapper-pgdb:" + createDatabase(2, false));
+		try
+		{
+			Assert.assertEquals ("expanded", updated.getCapabilities().getProperty("MAPPINGTABLE"));
+			Assert.assertTrue (updated.mapID(new Xref("1002", ENTREZ)).isEmpty());
+			assertSameMappings(rebuilt, updated);
+		}
+		finally
+		{
+			updated.close();
+			rebuilt.close();
+		}
+	}
+
+	private static Set<Xref> set(Xref... refs)
+	{
+		return new HashSet<Xref>(Arrays.asList(refs));
+	}
+
+	/** 
+	 * Added genes, links and attributes can be found, including those of a
+	 * DataSource that wasn't in the datasource table of the schema 4 database yet.
+	 */
+	@Test public void testAddLinksAndAttributes() throws IOException, IDMapperException
+	{
+		File source = createDatabase(-1, false, 4, true);
+		File target = tempFile();
+
+		Xref ensg5 = new Xref("ENSG5", ENSEMBL);
+		Xref entrez5 = new Xref("1005", ENTREZ);
+		Xref uniprot5 = new Xref("P12345", UNIPROT);
+		Xref affy0 = new Xref("0_s_at", AFFY);
+		GdbDelta delta = new GdbDelta();
+		for (Xref ref : new Xref[] { ensg5, entrez5, uniprot5 })
+		{
+			delta.addGene(ref);
+			delta.addLink(ensg5, ref);
+		}
+		delta.addAttribute(ensg5, "Symbol", "NEWSYM5");
+		// a second probe for an existing gene
+		delta.addGene(affy0);
+		delta.addLink(new Xref("ENSG0", ENSEMBL), affy0);
+		GdbDeltaUpdater updater = new GdbDeltaUpdater("" + source, "" + target);
+		updater.apply(delta);
+		updater.finish();
+		// 4 genes, 4 links and 1 attribute
+		Assert.assertEquals (9, updater.getChanges());
+
+		IDMapperRdb updated = (IDMapperRdb)BridgeDb.connect("idmapper-pgdb:" + target);
+		try
+		{
+			Assert.assertEquals (set(ensg5, entrez5, uniprot5), updated.mapID(ensg5));
+			Assert.assertEquals (set(ensg5), updated.mapID(uniprot5, ENSEMBL));
+			Assert.assertEquals (set(new Xref("0_at", AFFY), affy0), updated.mapID(new Xref("1000", ENTREZ), AFFY));
+			Assert.assertTrue (updated.xrefExists(uniprot5));
+			Assert.assertTrue (updated.getCapabilities().getSupportedTgtDataSources().contains(UNIPROT));
+
+			Assert.assertEquals (Collections.singleton("NEWSYM5"), updated.getAttributes(ensg5, "Symbol"));
+			Assert.assertEquals (Collections.singleton("SYM4"), updated.getAttributes(new Xref("ENSG4", ENSEMBL), "Symbol"));
+			// the search index has the new id and attribute value
+			Assert.assertTrue (updated.freeSearch("P1234", 10).contains(uniprot5));
+			Assert.assertEquals (Collections.singleton(ensg5), updated.freeAttributeSearch("NEWSYM", "Symbol", 10).keySet());
+		}
+		finally
+		{
+			updated.close();
+		}
+	}
+
+	/** Without a mapping table, removing a gene removes its attributes and links */
+	@Test public void testRemoveGene() throws IOException, IDMapperException
+	{
+		File source = createDatabase(-1, false);
+		File target = tempFile();
+
+		Xref ensg2 = new Xref("ENSG2", ENSEMBL);
+		GdbDelta delta = new GdbDelta();
+		delta.removeGene(ensg2);
+		GdbDeltaUpdater updater = new GdbDeltaUpdater("" + source, "" + target);
+		updater.apply(delta);
+		updater.finish();
+
+		IDMapperRdb updated = (IDMapperRdb)BridgeDb.connect("idmapper-pgdb:" + target);
+		IDMapper rebuilt = BridgeDb.connect("idmapper-pgdb:" + createDatabase(2, false));
+		try
+		{
+			Assert.assertFalse ("expanded".equals(updated.getCapabilities().getProperty("MAPPINGTABLE")));
+			Assert.assertFalse (updated.xrefExists(ensg2));
+			Assert.assertTrue (updated.getAttributes(ensg2).isEmpty());
+			// the other members of the group are still there, but not mapped
+			Assert.assertTrue (updated.xrefExists(new Xref("1002", ENTREZ)));
+			Assert.assertTrue (updated.mapID(new Xref("1002", ENTREZ)).isEmpty());
+			assertSameMappings(rebuilt, updated);
+		}
+		finally
+		{
+			updated.close();
+			rebuilt.close();
+		}
+	}
+
+	private static byte[] digest(File file) throws IOException, NoSuchAlgorithmException
+	{
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0) md.update(buf, 0, len);
+		}
+		finally
+		{
+			in.close();
+		}
+		return md.digest();
+	}
+
+	/** The changes only go to the new database */
+	@Test public void testSourceUntouched() throws IOException, IDMapperException, NoSuchAlgorithmException
+	{
+		File source = createDatabase(-1, true);
+		File target = tempFile();
+		byte[] before = digest(source);
+		long modified = source.lastModified();
+
+		GdbDelta delta = new GdbDelta();
+		delta.removeGene(new Xref("ENSG2", ENSEMBL));
+		delta.addGene(new Xref("ENSG5", ENSEMBL));
+		delta.setInfo("BUILDDATE", "20200101");
+		GdbDeltaUpdater updater = new GdbDeltaUpdater("" + source, "" + target);
+		updater.apply(delta);
+		updater.finish();
+
+		Assert.assertTrue (Arrays.equals(before, digest(source)));
+		Assert.assertEquals (modified, source.lastModified());
+
+		IDMapper original = BridgeDb.connect("idmapper-pgdb:" + source);
+		try
+		{
+			Assert.assertTrue (original.xrefExists(new Xref("ENSG2", ENSEMBL)));
+			Assert.assertFalse (original.xrefExists(new Xref("ENSG5", ENSEMBL)));
+			Assert.assertEquals (3, original.mapID(new Xref("1002", ENTREZ)).size());
+			Assert.assertFalse ("20200101".equals(original.getCapabilities().getProperty("BUILDDATE")));
+		}
+		finally
+		{
+			original.close();
+		}
+	}
+}
@@ -0,0 +1,150 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb.construct;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.PrefixAttributeMapper;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.SimpleGdbImplCommon;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchIndexTest
+{
+	private static final DataSource ENSEMBL = DataSource.getBySystemCode("En");
+	private static final DataSource ENTREZ = DataSource.getBySystemCode("L");
+	private static final DataSource AFFY = DataSource.getBySystemCode("X");
+	private static final int GENES = 300;
+
+	/** short queries, queries with a trigram that doesn't occur, and LIKE wildcards */
+	private static final String[] QUERIES = { 
+		"1", "en", "_", "ENSG1", "ensg12", "1001", "SYM2", "sym", "_at", "3_a", "1_", 
+		"zzz", "ENSGX", "syM29x", "a%b", "%", "gene 1", "5 D" };
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Before public void setUp() throws ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+	}
+
+	@After public void tearDown()
+	{
+		for (File f : files) f.delete();
+	}
+
+	private File createDatabase(int schemaVersion, boolean searchIndex) throws IOException, IDMapperException
+	{
+		File result = File.createTempFile("search", ".bridge");
+		result.delete();
+		files.add (result);
+		GdbConstructImpl3 gdb = (GdbConstructImpl3)GdbConstructImpl3.createInstance(
+				"" + result, new DataDerby(), DBConnector.PROP_RECREATE, schemaVersion);
+		gdb.setSearchIndex(searchIndex);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (int i = 0; i < GENES; ++i)
+		{
+			Xref[] group = { 
+					new Xref("ENSG" + i, ENSEMBL), new Xref("" + (1000 + i), ENTREZ), new Xref(i + "_at", AFFY) };
+			for (Xref ref : group) 
+			{
+				gdb.addGene(ref);
+				gdb.addLink(group[0], ref);
+			}
+			gdb.addAttribute(group[0], "Symbol", i % 10 == 0 ? "A%B" + i : "SYM" + i);
+			gdb.addAttribute(group[0], "Description", "Gene " + i + " description");
+		}
+		gdb.commit();
+		gdb.finalize();
+		return result;
+	}
+
+	private void compare(int schemaVersion) throws IOException, IDMapperException
+	{
+		IDMapper indexed = BridgeDb.connect("idmapper-pgdb:" + createDatabase(schemaVersion, true));
+		IDMapper scanned = BridgeDb.connect("idmapper-pgdb:" + createDatabase(schemaVersion, false));
+		try
+		{
+			Assert.assertEquals (SimpleGdbImplCommon.SEARCH_INDEX_TRIGRAM, 
+					indexed.getCapabilities().getProperty(SimpleGdbImplCommon.INFO_SEARCH_INDEX));
+			Assert.assertNull (scanned.getCapabilities().getProperty(SimpleGdbImplCommon.INFO_SEARCH_INDEX));
+			for (String query : QUERIES)
+			{
+				Assert.assertEquals (query, scanned.freeSearch(query, 0), indexed.freeSearch(query, 0));
+				Assert.assertEquals (query, scanned.freeSearch(query, 5).size(), indexed.freeSearch(query, 5).size());
+				for (String attr : new String[] { "Symbol", "Description" })
+				{
+					Assert.assertEquals (query + " " + attr, 
+							((AttributeMapper)scanned).freeAttributeSearch(query, attr, 0),
+							((AttributeMapper)indexed).freeAttributeSearch(query, attr, 0));
+					Assert.assertEquals (query + " " + attr, 
+							((AttributeMapper)scanned).freeAttributeSearch(query, attr, 7).size(),
+							((AttributeMapper)indexed).freeAttributeSearch(query, attr, 7).size());
+				}
+			}
+			// a few queries that must find something, so the comparison means something
+			Assert.assertEquals (GENES, indexed.freeSearch("_at", 0).size());
+			Assert.assertEquals (GENES / 10, ((AttributeMapper)indexed).freeAttributeSearch("a%b", "Symbol", 0).size());
+			Assert.assertEquals (0, ((AttributeMapper)indexed).freeAttributeSearch("%", "Description", 0).size());
+		}
+		finally
+		{
+			indexed.close();
+			scanned.close();
+		}
+	}
+
+	@Test public void testSchema3() throws IOException, IDMapperException
+	{
+		compare(3);
+	}
+
+	@Test public void testSchema4() throws IOException, IDMapperException
+	{
+		compare(4);
+	}
+
+	@Test public void testPrefixAttributeSearch() throws IOException, IDMapperException
+	{
+		PrefixAttributeMapper mapper = (PrefixAttributeMapper)BridgeDb.connect("idmapper-pgdb:" + createDatabase(4, false));
+		try
+		{
+			Assert.assertEquals (100, mapper.prefixAttributeSearch("sym1", "Symbol", 0).size());
+			Assert.assertEquals ("SYM1", mapper.prefixAttributeSearch("sym1", "Symbol", 1).values().iterator().next());
+			Assert.assertEquals (1, mapper.prefixAttributeSearch("ensg12", AttributeMapper.MATCH_ID, 1).size());
+			// names that are not attributes of the database find nothing
+			Assert.assertTrue (mapper.prefixAttributeSearch("sym1", "symbol", 0).isEmpty());
+			Assert.assertTrue (mapper.prefixAttributeSearch("sym1", "Unknown", 0).isEmpty());
+		}
+		finally
+		{
+			((IDMapper)mapper).close();
+		}
+	}
+}
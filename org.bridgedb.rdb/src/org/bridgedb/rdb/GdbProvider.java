@@ -16,20 +16,30 @@
 //
 package org.bridgedb.rdb;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bridgedb.BridgeDb;
+import org.bridgedb.CachingIDMapper;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
+import org.bridgedb.PrefixAttributeMapper;
 import org.bridgedb.bio.Organism;
 import org.bridgedb.rdb.impl.ConfigFile;
 
@@ -40,11 +50,27 @@ import org.bridgedb.rdb.impl.ConfigFile;
  * species_latin_name[Tab]database_file_location
  * </pre>
  * If a database applies to all species (e.g. metabolites), use "*" as species.
+ * <p>
+ * A GdbProvider read from a configuration file remembers the file, and the
+ * local database files it refers to, so that {@link #isModified()} can tell
+ * when it is out of date. {@link #reload(GdbProvider)} then creates a new
+ * GdbProvider, without affecting the old one, which may still be in use.
+ * <p>
+ * The databases of a configuration file are connected in parallel.
  */
 public class GdbProvider {
 	Map<Organism, IDMapperStack> organism2gdb = new HashMap<Organism, IDMapperStack>();
 	List<IDMapper> globalGdbs = new ArrayList<IDMapper>();
 	
+	/** configuration file this was read from, or null */
+	private File configFile = null;
+	private String configStamp = null;
+	/** mappers created from the configuration file, by connection string */
+	private final Map<String, IDMapper> connected = new HashMap<String, IDMapper>();
+	/** local database files referred to by the configuration file, by connection string */
+	private final Map<String, File> files = new HashMap<String, File>();
+	private final Map<String, String> fileStamps = new HashMap<String, String>();
+	
 	public Set<Organism> getOrganisms()
 	{
 		return organism2gdb.keySet();
@@ -127,13 +153,47 @@ public class GdbProvider {
 	
 	public static GdbProvider fromConfigFile(File f, boolean transitive) throws IDMapperException, IOException, ClassNotFoundException 
 	{	
+		return fromConfigFile(f, transitive, null);
+	}
+	
+	/**
+	 * Read the configuration file of a GdbProvider again.
+	 * Mappers of previous are re-used if their connection string is still 
+	 * in the configuration file and their database file hasn't changed, 
+	 * so they keep their caches and connections.
+	 * <p>
+	 * previous is not changed, and can be used until the new GdbProvider is ready.
+	 * An embedded database can't be read again under the same name while previous
+	 * still uses it, so a database file that was replaced in place makes the reload fail:
+	 * give a new database build a new file name, and change the configuration file.
+	 * <p>
+	 * Mappers of previous that are not re-used can be closed with 
+	 * {@link #closeUnused(GdbProvider)} once previous is no longer in use.
+	 * @param previous GdbProvider created with {@link #fromConfigFile(File, boolean)}
+	 * @return a new GdbProvider
+	 * @throws IDMapperException if a database can't be connected, or its file was replaced in place
+	 * @throws IOException if the configuration file can't be read
+	 * @throws ClassNotFoundException if a driver can't be loaded
+	 */
+	public static GdbProvider reload(GdbProvider previous) throws IDMapperException, IOException, ClassNotFoundException 
+	{
+		if (previous.configFile == null) throw new IllegalArgumentException("GdbProvider was not read from a configuration file");
+		return fromConfigFile(previous.configFile, previous.transitive, previous);
+	}
+	
+	private static GdbProvider fromConfigFile(File f, boolean transitive, GdbProvider previous) throws IDMapperException, IOException, ClassNotFoundException 
+	{	
+		String configStamp = stamp(f);
 		ConfigFile cf = new ConfigFile(f);	
 		GdbProvider gdbs = new GdbProvider(transitive);
+		gdbs.configFile = f;
+		gdbs.configStamp = configStamp;
 		List<String> drivers = cf.getDrivers();
 		
 		// add a few defaults that will always be loaded
 		drivers.add("org.bridgedb.rdb.IDMapperRdb");
 		drivers.add("org.bridgedb.file.IDMapperText");
+		drivers.add("org.bridgedb.CachingIDMapper");
 		drivers.add("com.mysql.jdbc.Driver");
 		
 		for (String driver : drivers)
@@ -149,16 +209,66 @@ public class GdbProvider {
 			}
 		}
 
+		// connect each database once, even if it is listed for several organisms
+		final GdbProvider prev = previous;
+		Set<String> seen = new HashSet<String>();
+		List<Callable<Connected>> tasks = new ArrayList<Callable<Connected>>();
+		for (String key : cf.getMappers().keySet())
+		{
+			if (Organism.fromLatinName(key) == null && !DB_GLOBAL.equalsIgnoreCase(key)) continue;
+			for (final String value : cf.getMappers().get(key))
+			{
+				if (!seen.add(value)) continue;
+				tasks.add(new Callable<Connected>() {
+					public Connected call() throws IDMapperException
+					{
+						return connect(value, prev);
+					}
+				});
+			}
+		}
+		IDMapperException failure = null;
+		for (Future<Connected> future : inParallel(tasks))
+		{
+			try
+			{
+				Connected c = future.get();
+				gdbs.connected.put(c.connectionString, c.mapper);
+				if (c.file != null)
+				{
+					gdbs.files.put(c.connectionString, c.file);
+					gdbs.fileStamps.put(c.connectionString, c.stamp);
+				}
+			}
+			catch (ExecutionException ex)
+			{
+				if (failure == null) failure = asIDMapperException(ex.getCause());
+			}
+			catch (InterruptedException ex)
+			{
+				if (failure == null) failure = new IDMapperException(ex);
+			}
+		}
+		if (failure != null)
+		{
+			// don't leave the databases that did connect open
+			Set<IDMapper> keep = previous == null ? Collections.<IDMapper>emptySet() : previous.getMappers();
+			for (IDMapper mapper : gdbs.connected.values())
+			{
+				if (!keep.contains(mapper)) close(mapper);
+			}
+			throw failure;
+		}
+
 		for (String key : cf.getMappers().keySet())
 		{
 			for (String value : cf.getMappers().get(key))
 			{
-				IDMapper mapper = BridgeDb.connect (value);
 				Organism org = Organism.fromLatinName(key);
 				if(org != null) {
-					gdbs.addOrganismGdb(org, mapper);
+					gdbs.addOrganismGdb(org, gdbs.connected.get(value));
 				} else if(DB_GLOBAL.equalsIgnoreCase(key)) {
-					gdbs.addGlobalGdb(mapper);
+					gdbs.addGlobalGdb(gdbs.connected.get(value));
 				} else {
 					System.out.println("Unable to parse organism: " + key);
 				}
@@ -167,4 +277,261 @@ public class GdbProvider {
 
 		return gdbs;
 	}
+	
+	/** maximum number of databases that are connected or warmed up at the same time */
+	static final int MAX_THREADS = 8;
+	
+	/**
+	 * Run tasks in a temporary thread pool and wait for all of them to finish.
+	 * @return futures of the finished tasks, in the same order as the tasks.
+	 */
+	private static <T> List<Future<T>> inParallel(List<Callable<T>> tasks) throws IDMapperException
+	{
+		if (tasks.size() == 0) return new ArrayList<Future<T>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), MAX_THREADS));
+		try
+		{
+			return executor.invokeAll(tasks);
+		}
+		catch (InterruptedException ex)
+		{
+			throw new IDMapperException(ex);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	private static IDMapperException asIDMapperException(Throwable t)
+	{
+		if (t instanceof IDMapperException) return (IDMapperException)t;
+		if (t instanceof RuntimeException) throw (RuntimeException)t;
+		if (t instanceof Error) throw (Error)t;
+		return new IDMapperException(t);
+	}
+	
+	/** A mapper connected from the configuration file, with the state of its database file. */
+	private static final class Connected
+	{
+		final String connectionString;
+		final IDMapper mapper;
+		/** local database file, or null */
+		final File file;
+		final String stamp;
+		
+		Connected(String connectionString, IDMapper mapper, File file, String stamp)
+		{
+			this.connectionString = connectionString;
+			this.mapper = mapper;
+			this.file = file;
+			this.stamp = stamp;
+		}
+	}
+	
+	/**
+	 * Connect a mapper from the configuration file, or re-use the mapper
+	 * of previous if the database hasn't changed.
+	 * This is called for several connection strings at once, so it must not
+	 * change previous or the GdbProvider that is being created.
+	 */
+	private static Connected connect(String connectionString, GdbProvider previous) throws IDMapperException
+	{
+		IDMapper mapper = null;
+		File file = localFile(connectionString);
+		String stamp = file == null ? null : stamp(file);
+		if (previous != null && previous.connected.containsKey(connectionString))
+		{
+			IDMapper old = previous.connected.get(connectionString);
+			String oldStamp = previous.fileStamps.get(connectionString);
+			if (stamp == null ? oldStamp == null : stamp.equals(oldStamp))
+			{
+				mapper = old;
+			}
+			else
+			{
+				// the database may be wrapped in a cache, e.g. by the idmapper-cached driver
+				IDMapper inner = old;
+				while (inner instanceof CachingIDMapper) inner = ((CachingIDMapper)inner).getMapper();
+				if (inner instanceof SimpleGdb)
+				{
+					// an embedded database would have to be shut down to see the new file, 
+					// which would break the requests that still use previous
+					throw new IDMapperException ("Database " + file + " was replaced in place. " +
+							"Give the new database a new file name and change the configuration file.");
+				}
+			}
+		}
+		if (mapper == null) mapper = BridgeDb.connect (connectionString);
+		return new Connected(connectionString, mapper, file, stamp);
+	}
+	
+	/**
+	 * @return the local file or directory referred to by a connection string,
+	 * 	or null if it doesn't refer to an existing local file, e.g. for a web service.
+	 */
+	static File localFile(String connectionString)
+	{
+		String location = connectionString.substring(connectionString.indexOf(':') + 1);
+		if (connectionString.startsWith("idmapper-cached:"))
+		{
+			// the file of the wrapped connection string, after the options of the cache, if any
+			int idx = location.indexOf('@');
+			if (idx > 0 && idx < location.indexOf(':')) location = location.substring(idx + 1);
+			return localFile(location);
+		}
+		int pos = location.indexOf('?');
+		if (pos >= 0) location = location.substring(0, pos);
+		File result = new File(location);
+		if (location.startsWith("file:"))
+		{
+			try
+			{
+				result = new File(new URI(location));
+			}
+			catch (URISyntaxException ex)
+			{
+				result = new File(location.substring("file:".length()));
+			}
+			catch (IllegalArgumentException ex)
+			{
+				result = new File(location.substring("file:".length()));
+			}
+		}
+		return result.exists() ? result : null;
+	}
+	
+	/** @return a String that changes when the file is modified */
+	private static String stamp(File f)
+	{
+		return f.lastModified() + ":" + f.length();
+	}
+	
+	/**
+	 * Check if the configuration file, or one of the local 
+	 * database files it refers to, was modified since this was read.
+	 * @return true if {@link #reload(GdbProvider)} would give a different result,
+	 * 	always false if this was not read from a configuration file.
+	 */
+	public boolean isModified()
+	{
+		if (configFile == null) return false;
+		if (!stamp(configFile).equals(configStamp)) return true;
+		for (Map.Entry<String, File> e : files.entrySet())
+		{
+			if (!stamp(e.getValue()).equals(fileStamps.get(e.getKey()))) return true;
+		}
+		return false;
+	}
+	
+	/** @return the configuration file this was read from, or null */
+	public File getConfigFile()
+	{
+		return configFile;
+	}
+	
+	/**
+	 * @return all mappers, of all organisms and global, without duplicates. 
+	 */
+	public Set<IDMapper> getMappers()
+	{
+		Set<IDMapper> result = Collections.newSetFromMap(new IdentityHashMap<IDMapper, Boolean>());
+		result.addAll(globalGdbs);
+		for (IDMapperStack stack : organism2gdb.values())
+		{
+			result.addAll(stack.getMappers());
+		}
+		return result;
+	}
+	
+	/** attribute that is searched by type-ahead suggestions, if no other attribute is asked for */
+	public static final String DEFAULT_SUGGEST_ATTRIBUTE = "Symbol";
+	
+	/**
+	 * Prepare all mappers for queries, by reading their capabilities
+	 * and building the index for suggestions of {@link #DEFAULT_SUGGEST_ATTRIBUTE}. 
+	 * Call this before using a new GdbProvider, so that the first
+	 * requests don't have to wait. Mappers are prepared in parallel.
+	 * @throws IDMapperException if a database can't be read
+	 */
+	public void warmUp() throws IDMapperException
+	{
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final IDMapper mapper : getMappers())
+		{
+			tasks.add(new Callable<Void>() {
+				public Void call() throws IDMapperException
+				{
+					warmUp(mapper);
+					return null;
+				}
+			});
+		}
+		for (Future<Void> future : inParallel(tasks))
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException ex)
+			{
+				throw asIDMapperException(ex.getCause());
+			}
+			catch (InterruptedException ex)
+			{
+				throw new IDMapperException(ex);
+			}
+		}
+	}
+	
+	/**
+	 * Prepare the mappers of a single organism for queries, 
+	 * including the global mappers.
+	 * @param organism organism to prepare
+	 * @throws IDMapperException if a database can't be read
+	 */
+	public void warmUp(Organism organism) throws IDMapperException
+	{
+		for (IDMapper mapper : getStack(organism).getMappers())
+		{
+			warmUp(mapper);
+		}
+	}
+	
+	private static void warmUp(IDMapper mapper) throws IDMapperException
+	{
+		mapper.getCapabilities().getSupportedSrcDataSources();
+		mapper.getCapabilities().getSupportedTgtDataSources();
+		if (mapper instanceof PrefixAttributeMapper)
+		{
+			((PrefixAttributeMapper)mapper).prefixAttributeSearch("", DEFAULT_SUGGEST_ATTRIBUTE, 1);
+		}
+	}
+	
+	/**
+	 * Close the mappers that are not also used by successor, 
+	 * when this GdbProvider has been replaced and is no longer in use.
+	 * Errors are printed, and don't stop the other mappers from being closed.
+	 * @param successor GdbProvider created with {@link #reload(GdbProvider)}, may be null to close all mappers.
+	 */
+	public void closeUnused(GdbProvider successor)
+	{
+		Set<IDMapper> keep = successor == null ? Collections.<IDMapper>emptySet() : successor.getMappers();
+		for (IDMapper mapper : getMappers())
+		{
+			if (!keep.contains(mapper)) close(mapper);
+		}
+	}
+	
+	private static void close(IDMapper mapper)
+	{
+		try
+		{
+			mapper.close();
+		}
+		catch (IDMapperException ex)
+		{
+			System.out.println("Warning: could not close " + mapper + ": " + ex.getMessage());
+		}
+	}
 }
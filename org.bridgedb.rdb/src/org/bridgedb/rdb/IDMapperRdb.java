@@ -23,11 +23,12 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
-import org.bridgedb.AttributeMapper;
+import org.bridgedb.BatchAttributeMapper;
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.PrefixAttributeMapper;
 import org.bridgedb.Xref;
 import org.bridgedb.XrefIterator;
 import org.bridgedb.impl.InternalUtils;
@@ -36,7 +37,7 @@ import org.bridgedb.impl.InternalUtils;
  * Interface for all classes that provide Gdb-like functionality,
  * such as looking up cross-references and backpage text.
  */
-public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIterator
+public abstract class IDMapperRdb implements IDMapper, BatchAttributeMapper, PrefixAttributeMapper, XrefIterator
 {
 	static
 	{
@@ -50,11 +51,24 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		/** private constructor to prevent instantiation. */
 		private DriverPgdb() { } 
 		
-		/** {@inheritDoc} */
+		/** 
+		 * {@inheritDoc} 
+		 * The location is the path to the pgdb file, optionally followed by 
+		 * ?poolsize=n to allow n concurrent queries. 
+		 */
 		public IDMapper connect(String location) throws IDMapperException 
 		{
-			String url = "jdbc:derby:jar:(" + location + ")database";
-			return SimpleGdbFactory.createInstance(location, url);
+			String path = location;
+			int poolSize = SimpleGdb.DEFAULT_POOL_SIZE;
+			if (location.indexOf('?') > 0)
+			{
+				Map<String, String> args = 
+					InternalUtils.parseLocation(location, "poolsize");
+				path = args.get("BASE");
+				poolSize = parsePoolSize(args);
+			}
+			String url = "jdbc:derby:jar:(" + path + ")database";
+			return SimpleGdbFactory.createInstance(path, url, poolSize);
 		}
 	}
 
@@ -82,7 +96,7 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 			try
 			{
 	            Map<String, String> args = 
-	            	InternalUtils.parseLocation(location, "host", "port");
+	            	InternalUtils.parseLocation(location, "host", "port", "poolsize");
 
 	            if (!args.containsKey("BASE")) 
 	            	throw new IllegalArgumentException("Expected species name in connection string: " + location);
@@ -96,7 +110,7 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 				sysprop.setProperty("derby.stream.error.file", File.createTempFile("derby",".log").toString());
 				
 				String url = "jdbc:derby://" + host + ":" + port + "/" + args.get("BASE");
-				return SimpleGdbFactory.createInstance(location, url);
+				return SimpleGdbFactory.createInstance(location, url, parsePoolSize(args));
 			}
 			catch (IOException e)
 			{
@@ -109,6 +123,27 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		}
 	}
 	
+	/**
+	 * Helper for drivers to read the optional poolsize argument of a connection string.
+	 * @param args arguments parsed with {@link InternalUtils#parseLocation}
+	 * @return the pool size, or {@link SimpleGdb#DEFAULT_POOL_SIZE} if not specified. 
+	 * @throws IDMapperException if the pool size is not a positive number
+	 */
+	private static int parsePoolSize(Map<String, String> args) throws IDMapperException
+	{
+		if (!args.containsKey("poolsize")) return SimpleGdb.DEFAULT_POOL_SIZE;
+		try
+		{
+			int result = Integer.parseInt(args.get("poolsize"));
+			if (result < 1) throw new IDMapperException ("poolsize must be at least 1");
+			return result;
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IDMapperException ("Invalid poolsize: " + args.get("poolsize"), ex);
+		}
+	}
+	
 	/**
 	 * Gets the name of te currently used gene database.
 	 * @return the database name as specified in the connection string
@@ -0,0 +1,67 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters for the queries done on a single database,
+ * see {@link SimpleGdb#getQueryStats()}.
+ * <p>
+ * All counters are cumulative since the database was connected,
+ * and safe to read while queries are running in other threads.
+ */
+public final class QueryStats
+{
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong nanos = new AtomicLong();
+
+	/** @return number of queries executed */
+	public long getQueryCount()
+	{
+		return queries.get();
+	}
+
+	/** @return number of rows read from the results of all queries */
+	public long getRowCount()
+	{
+		return rows.get();
+	}
+
+	/** @return total time spent executing queries, in nanoseconds. Doesn't include reading the results. */
+	public long getQueryNanos()
+	{
+		return nanos.get();
+	}
+
+	/**
+	 * Record a query execution.
+	 * @param elapsed time spent executing the query, in nanoseconds
+	 */
+	void addQuery(long elapsed)
+	{
+		queries.incrementAndGet();
+		nanos.addAndGet(elapsed);
+	}
+
+	/** Record a row read from a query result. */
+	void addRow()
+	{
+		rows.incrementAndGet();
+	}
+}
@@ -16,14 +16,22 @@
 //
 package org.bridgedb.rdb;
 
+import java.io.Closeable;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
 
 /**
  * SimpleGdb is the main implementation of the Gdb interface,
@@ -59,33 +67,151 @@ public abstract class SimpleGdb extends IDMapperRdb
 	 */
 	SimpleGdb(String dbName, String connectionString)
 	{
+		this (dbName, connectionString, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Create IDMapper with a pool of read-only connections.
+	 * @param dbName name of the database, used for display
+	 * @param connectionString JDBC connection string
+	 * @param poolSize maximum number of connections that are used for queries at the same time.
+	 */
+	SimpleGdb(String dbName, String connectionString, int poolSize)
+	{
+		if (poolSize < 1) throw new IllegalArgumentException("poolSize must be at least 1");
 		this.connectionString = connectionString;
 		this.dbName = dbName;
+		this.poolSize = poolSize;
+		idleConnections = new ArrayBlockingQueue<PooledConnection>(poolSize);
 	}
 
-	private boolean singleConnection = true;
-	private boolean neverCloseConnection = true;
+	/** Number of read connections used when no pool size is specified. */
+	public static final int DEFAULT_POOL_SIZE = 1;
+	
+	private final int poolSize;
+	private int createdConnections = 0;
+	private final BlockingQueue<PooledConnection> idleConnections;
+
+	/**
+	 * A read-only connection in the pool, together with 
+	 * the PreparedStatements that have been created on it.
+	 */
+	private final class PooledConnection
+	{
+		private final Connection con;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		
+		private PooledConnection() throws SQLException
+		{
+			con = DriverManager.getConnection(connectionString); 
+			con.setReadOnly(true);
+		}
+		
+		/**
+		 * Get a cached PreparedStatement, or create one if this is the first 
+		 * time the sql is used on this connection.
+		 * Only the thread that leased this connection may call this.
+		 */
+		private PreparedStatement prepare(String sql) throws SQLException
+		{
+			PreparedStatement pst = statements.get(sql);
+			if (pst == null)
+			{
+				pst = con.prepareStatement(sql);
+				statements.put (sql, pst);
+			}
+			return pst;
+		}
+	}
+
+	/**
+	 * Take a connection from the pool. If there is no idle connection, 
+	 * a new one is created as long as the pool size is not exceeded, 
+	 * otherwise this waits until another thread returns a connection.
+	 * @return a connection that is used exclusively by the caller until it is returned
+	 * @throws SQLException when a new connection could not be created
+	 */
+	private PooledConnection leaseConnection() throws SQLException
+	{
+		PooledConnection result = idleConnections.poll();
+		if (result != null) return result;
+		
+		boolean create = false;
+		synchronized (idleConnections)
+		{
+			if (createdConnections < poolSize)
+			{
+				createdConnections++;
+				create = true;
+			}
+		}
+		
+		if (create)
+		{
+			try
+			{
+				return new PooledConnection();
+			}
+			catch (SQLException ex)
+			{
+				synchronized (idleConnections) { createdConnections--; }
+				throw ex;
+			}
+		}
+		
+		try
+		{
+			return idleConnections.take();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException ("Interrupted while waiting for a database connection");
+		}
+	}
+	
+	/**
+	 * Return a connection obtained with leaseConnection() to the pool.
+	 */
+	private void returnConnection(PooledConnection pooled)
+	{
+		idleConnections.offer(pooled);
+	}
+	
+	/**
+	 * @return the maximum number of connections that is used for queries at the same time.
+	 */
+	public int getPoolSize()
+	{
+		return poolSize;
+	}
 	
 	/**
 	 * helper class that handles the life cycle of a connection, query and resultset.
 	 * <p>
 	 * The sql for a query is passed in at construction time.
-	 * Before each query, call init(). This will lead to lazy initialization of the
-	 * connection and preparedstatement objects, if necessary. Set the query parameters
-	 * using setString(int, String). Get the resultSet using 
-	 * Do not close the resultset! This will be closed for you when you call cleanup().
+	 * Before each query, call init(). This leases a connection from the pool,
+	 * and lazily prepares the statement on that connection if necessary. 
+	 * Set the query parameters using setString(int, String). Get the resultSet using 
+	 * executeQuery().
+	 * Do not close the resultset! This will be closed for you when you call cleanup(),
+	 * which also returns the connection to the pool.
 	 * Always call cleanup() in a finally block.
 	 * <p>
+	 * A single QueryLifeCycle may be used by several threads at the same time, 
+	 * the state between init() and cleanup() is kept per thread. 
+	 * Callers don't need to synchronize.
+	 * <p>
 	 * The advantages of using QueryLifeCycle are:
 	 * <ul>
-	 * <li>guarantee to close preparedstatement, resultset and connection if necessary.
-	 * <li>in case of connection pooling, preparedstatement and connection are kept together as long
+	 * <li>guarantee to close resultset and return the connection to the pool.
+	 * <li>preparedstatement and connection are kept together as long
 	 *   as possible.
 	 * <li>lazy initialization of prepared statement
 	 * <li>always uses preparedstatement, so safe from SQL injection.
 	 * </ul> 
 	 * <p>
-	 * This class is not static because it needs SimpleGdb.getConnection().
+	 * This class is not static because it needs the connection pool of SimpleGdb.
 	 */
 	final class QueryLifeCycle
 	{
@@ -99,11 +225,16 @@ public abstract class SimpleGdb extends IDMapperRdb
 			sql = aSql;
 		}
 		
-		private Connection con = null;
-		private ResultSet rs = null;
-		private PreparedStatement pst = null;
+		/** state of a single query execution, between init() and cleanup(). */
+		private final class Lease
+		{
+			private PooledConnection pooled = null;
+			private PreparedStatement pst = null;
+			private ResultSet rs = null;
+		}
+		
+		private final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
 		private final String sql;
-		private boolean inited = false;
 
 		public static final int QUERY_TIMEOUT = 20; //seconds
 		public static final int NO_LIMIT = 0;
@@ -112,72 +243,235 @@ public abstract class SimpleGdb extends IDMapperRdb
 		public void init(int limit) throws SQLException
 		{
 			init();
-			pst.setQueryTimeout(QUERY_TIMEOUT);			
-			if(limit > NO_LIMIT) 
-			{
-				pst.setMaxRows(limit);
-			}
+			PreparedStatement pst = lease.get().pst;
+			pst.setQueryTimeout(QUERY_TIMEOUT);
+			// statements are re-used, so always reset max rows
+			pst.setMaxRows(limit > NO_LIMIT ? limit : NO_LIMIT);
 		}
 		
 		/**
-		 * Initialize connection and PreparedStatement lazily.
+		 * Lease a connection and initialize the PreparedStatement lazily.
 		 * <p>
 		 * @throws SQLException when a PreparedStatement could not be created
 		 */
 		public void init() throws SQLException
 		{
-			if (inited) throw new IllegalStateException("Must call cleanup() between two init() calls");
-			try
-			{
-				if (con == null) con = getConnection();
-				if (pst == null)
-				{
-					pst = con.prepareStatement(sql);
-				}
-			}
-			finally { inited = true; }
+			if (lease.get() != null) throw new IllegalStateException("Must call cleanup() between two init() calls");
+			Lease current = new Lease();
+			lease.set(current);
+			current.pooled = leaseConnection();
+			current.pst = current.pooled.prepare(sql);
+		}
+
+		private Lease current(String method)
+		{
+			Lease current = lease.get();
+			if (current == null) throw new IllegalStateException("Must call init() before " + method + "()");
+			return current;
 		}
 		
 		public void setString (int index, String val) throws SQLException
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before setString()");
-			pst.setString(index, val);
+			current("setString").pst.setString(index, val);
 		}
 		
 		public ResultSet executeQuery() throws SQLException
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before executeQuery()");
-			rs = pst.executeQuery();
-			return rs;
+			Lease current = current("executeQuery");
+			long start = System.nanoTime();
+			current.rs = current.pst.executeQuery();
+			queryStats.addQuery(System.nanoTime() - start);
+			return current.rs;
+		}
+
+		/**
+		 * Move to the next row of the result of the last executeQuery(), 
+		 * and count it in the {@link QueryStats}. Use this instead of ResultSet.next().
+		 * @return true if there is a next row
+		 * @throws SQLException when the result can't be read
+		 */
+		public boolean next() throws SQLException
+		{
+			if (!current("next").rs.next()) return false;
+			queryStats.addRow();
+			return true;
 		}
 
 		/** 
-		 * Clean up resultset. If keepConnection is false, preparedstatement
-		 * and connection are cached. If keepConnection is true, they are closed as well.
-		 * The later is useful when using connection pooling.
+		 * Clean up resultset and return the connection to the pool. 
+		 * The preparedstatement stays cached with the connection.
 		 * <p>
 		 * Always call this in a finally block! 
 		 * */
 		public void cleanup()
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before cleanup()");
-			inited = false;
+			Lease current = current("cleanup");
+			lease.remove();
+			if (current.rs != null) try { current.rs.close(); } catch (SQLException ignore) {}
+			if (current.pooled != null) returnConnection(current.pooled);
+		}
+	}
+
+	private final QueryStats queryStats = new QueryStats();
+	
+	/**
+	 * @return counters for the queries done with {@link QueryLifeCycle} and {@link XrefCursor}
+	 * 	on this database. Ad-hoc queries on {@link #getConnection()} are not counted.
+	 */
+	public QueryStats getQueryStats()
+	{
+		return queryStats;
+	}
+	
+	/** Number of rows fetched at once by {@link XrefCursor}, unless changed with {@link #setFetchSize}. */
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	
+	private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+	
+	/**
+	 * @param fetchSize number of rows that the JDBC driver fetches at once 
+	 * 	when iterating over all Xrefs with getIterator().
+	 */
+	public void setFetchSize(int fetchSize)
+	{
+		if (fetchSize < 1) throw new IllegalArgumentException("fetchSize must be at least 1");
+		this.fetchSize = fetchSize;
+	}
+	
+	/** @return number of rows fetched at once when iterating over all Xrefs. */
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	/**
+	 * Streams the result of a query returning id and code columns as Xrefs,
+	 * from an open forward-only ResultSet, so that iterating over a whole table
+	 * takes constant memory.
+	 * <p>
+	 * The query runs on its own connection, outside the connection pool, so that 
+	 * other queries can be done while iterating. 
+	 * The connection is closed when the iteration reaches the end, 
+	 * or when close() is called. Always call close() if the iteration
+	 * may stop early, for example in a finally block.
+	 * <p>
+	 * The query is executed right away, so the iterator can only be obtained once.
+	 * An SQLException while iterating is thrown as an IllegalStateException.
+	 */
+	final class XrefCursor implements Iterable<Xref>, Closeable
+	{
+		private Connection cursorCon;
+		private PreparedStatement pst;
+		private ResultSet rs;
+		private boolean iteratorCreated = false;
+		
+		/**
+		 * @param sql query that returns id and system code in the first two columns
+		 * @param params values for the query parameters
+		 * @throws IDMapperException if the query can't be executed
+		 */
+		XrefCursor(String sql, String... params) throws IDMapperException
+		{
+			try
+			{
+				cursorCon = DriverManager.getConnection(connectionString);
+				cursorCon.setReadOnly(true);
+				// some drivers only stream results inside a transaction
+				cursorCon.setAutoCommit(false);
+				pst = cursorCon.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				pst.setFetchSize(fetchSize);
+				for (int i = 0; i < params.length; ++i)
+				{
+					pst.setString(i + 1, params[i]);
+				}
+				long start = System.nanoTime();
+				rs = pst.executeQuery();
+				queryStats.addQuery(System.nanoTime() - start);
+			}
+			catch (SQLException ex)
+			{
+				close();
+				throw new IDMapperException (ex);
+			}
+		}
+		
+		/** {@inheritDoc} */
+		public Iterator<Xref> iterator()
+		{
+			if (iteratorCreated) throw new IllegalStateException("XrefCursor can only be iterated once");
+			iteratorCreated = true;
+			return new Iterator<Xref>()
+			{
+				private Xref next = null;
+				
+				public boolean hasNext()
+				{
+					if (next == null && rs != null)
+					{
+						try
+						{
+							if (rs.next())
+							{
+								queryStats.addRow();
+								next = new Xref (rs.getString(1), fromCode(rs.getString(2)));
+							}
+							else
+							{
+								close();
+							}
+						}
+						catch (SQLException ex)
+						{
+							close();
+							throw new IllegalStateException ("Error while reading Xrefs", ex);
+						}
+					}
+					return next != null;
+				}
+				
+				public Xref next()
+				{
+					if (!hasNext()) throw new NoSuchElementException();
+					Xref result = next;
+					next = null;
+					return result;
+				}
+				
+				public void remove()
+				{
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		
+		/** 
+		 * Close the ResultSet and the connection. Calling this more than once has no effect.
+		 */
+		public synchronized void close()
+		{
 			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
-			if (neverCloseConnection) return;
 			if (pst != null) try { pst.close(); } catch (SQLException ignore) {}
+			if (cursorCon != null) 
+			{
+				try { cursorCon.rollback(); } catch (SQLException ignore) {}
+				try { cursorCon.close(); } catch (SQLException ignore) {}
+			}
+			rs = null;
 			pst = null;
-			if (con != null) try { con.close(); } catch (SQLException ignore) {}
-			con = null;
+			cursorCon = null;
 		}
 	}
-
+	
 	private Connection con = null;
 	
+	/**
+	 * Connection for ad-hoc queries that are not part of the 
+	 * connection pool used by {@link QueryLifeCycle}. 
+	 * Each call returns the same object.
+	 */
 	synchronized public Connection getConnection() throws SQLException
 	{
-		// if singleConnection is true, each call to getConnection() will return the same object.
-		// if singleConnection is false, each call to getConneciton() will lead to a new connection object being created.
-		if (!singleConnection || con == null)
+		if (con == null)
 		{
 			con = DriverManager.getConnection(connectionString); 
 			con.setReadOnly(true);
@@ -202,24 +496,57 @@ public abstract class SimpleGdb extends IDMapperRdb
 	/** {@inheritDoc} */
 	@Override final public String getDbName() { return dbName; }
 	
-	/** {@inheritDoc} */
+	/** 
+	 * Close the idle connections of the pool and the ad-hoc connection.
+	 * Connections that are in use by a query are not affected. 
+	 * The database may still be used after this, new connections
+	 * are created when needed.
+	 */
 	final public void close() throws IDMapperException 
 	{
-//		try
-//		{
-//			con.close();
-//		}
-//		catch (SQLException ex)
-//		{
-//			throw new IDMapperException (ex);
-//		}
-//		con = null;
+		SQLException error = null;
+		PooledConnection pooled;
+		while ((pooled = idleConnections.poll()) != null)
+		{
+			synchronized (idleConnections) { createdConnections--; }
+			try { pooled.con.close(); } catch (SQLException ex) { error = ex; }
+		}
+		synchronized (this)
+		{
+			if (con != null) try { con.close(); } catch (SQLException ex) { error = ex; }
+			con = null;
+		}
+		if (error != null) throw new IDMapperException (error);
 	}
 	
 	public static final int NO_LIMIT = 0;
 	public static final int NO_TIMEOUT = 0;
 	public static final int QUERY_TIMEOUT = 5; //seconds
 
+	/**
+	 * Value that is stored in the code columns of the tables for a DataSource.
+	 * Up to schema version 3, this is the system code.
+	 * @param ds a DataSource
+	 * @return value of the code column, or null if the DataSource doesn't occur
+	 * 	in the database at all. Callers don't query for null codes, but return 
+	 * 	an empty result right away: comparing with NULL never matches, 
+	 * 	and Derby can spend a long time finding that out for an IN list.
+	 */
+	String toCode(DataSource ds)
+	{
+		return ds.getSystemCode();
+	}
+
+	/**
+	 * Inverse of {@link #toCode(DataSource)}.
+	 * @param code value of a code column
+	 * @return the DataSource
+	 */
+	DataSource fromCode(String code)
+	{
+		return DataSource.getBySystemCode(code);
+	}
+
 	/**
 	   @return number of rows in gene table.
 	   @throws IDMapperException on failure
@@ -249,13 +576,17 @@ public abstract class SimpleGdb extends IDMapperRdb
 	final public int getGeneCount(DataSource ds) throws IDMapperException
 	{
 		int result = 0;
+		if (toCode(ds) == null) return result;
 		try
 		{
-			ResultSet r = getConnection().createStatement().executeQuery(
-					"SELECT COUNT(*) FROM datanode WHERE code = '" + ds.getSystemCode() + "'");
+			PreparedStatement pst = getConnection().prepareStatement(
+					"SELECT COUNT(*) FROM datanode WHERE code = ?");
+			pst.setString(1, toCode(ds));
+			ResultSet r = pst.executeQuery();
 			r.next();
 			result = r.getInt (1);
 			r.close();
+			pst.close();
 		}
 		catch (SQLException e)
 		{
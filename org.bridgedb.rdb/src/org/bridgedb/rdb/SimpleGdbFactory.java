@@ -44,6 +44,21 @@ public final class SimpleGdbFactory
 	 * @throws IDMapperException on failure
 	*/
 	public static SimpleGdb createInstance(String dbName, String connectionString) throws IDMapperException
+	{
+		return createInstance(dbName, connectionString, SimpleGdb.DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Opens a connection to the Gene Database located in the given file, 
+	 * using a pool of read-only connections so that several threads can query
+	 * the database at the same time.
+	 * @param dbName name of the database
+	 * @param connectionString a JDBC Connection string 
+	 * @param poolSize maximum number of connections used concurrently
+	 * @return a new Gdb
+	 * @throws IDMapperException on failure
+	*/
+	public static SimpleGdb createInstance(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
 		if(connectionString == null) throw new NullPointerException();	
 
@@ -83,9 +98,11 @@ public final class SimpleGdbFactory
 		switch (version)
 		{
 		case 2:
-			return new SimpleGdbImpl2(dbName, connectionString);
+			return new SimpleGdbImpl2(dbName, connectionString, poolSize);
 		case 3:
-			return new SimpleGdbImpl3(dbName, connectionString);
+			return new SimpleGdbImpl3(dbName, connectionString, poolSize);
+		case 4:
+			return new SimpleGdbImpl4(dbName, connectionString, poolSize);
 		//NB add future schema versions here
 		default:
 			throw new IDMapperException ("Unrecognized schema version '" + version + "', please make sure you have the latest " +
@@ -19,6 +19,7 @@ package org.bridgedb.rdb;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -28,6 +29,7 @@ import java.util.regex.Pattern;
 
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
 
 /** {@inheritDoc} */
 class SimpleGdbImpl2 extends SimpleGdbImplCommon
@@ -50,22 +52,19 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 	private String getBpInfo(Xref ref) throws IDMapperException 
 	{
 		final QueryLifeCycle pst = qBackpage;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				String result = null;
-				if (r.next())
-				{
-					result = r.getString(1);
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			String result = null;
+			if (pst.next())
+			{
+				result = r.getString(1);
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
+		finally {pst.cleanup(); }
 	}
 
 	/**
@@ -75,11 +74,12 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 	 * @param con An existing SQL Connector.
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
+	 * @param poolSize number of connections that can be used concurrently
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl2(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl2(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super (dbName, connectionString);
+		super (dbName, connectionString, poolSize);
 		
 		if(dbName == null) throw new NullPointerException();		
 		checkSchemaVersion();
@@ -140,22 +140,26 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (pst.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
+		finally {pst.cleanup(); }
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Map<String, Set<String>>> getAttributes(Collection<Xref> refs, String... attrTypes)
+			throws IDMapperException 
+	{
+		return InternalUtils.getAttributesFromSingle(this, refs, attrTypes);
 	}
 
 	/** {@inheritDoc} */
@@ -181,31 +185,28 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				if (r.next())
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			if (pst.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 }
@@ -19,13 +19,19 @@ package org.bridgedb.rdb;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
 
 /** {@inheritDoc} */
 class SimpleGdbImpl3 extends SimpleGdbImplCommon
@@ -39,19 +45,30 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 	 * @param con An existing java SQL connection
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
+	 * @param poolSize number of connections that can be used concurrently
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl3(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl3(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
-		checkSchemaVersion();
+		this(dbName, connectionString, poolSize, GDB_COMPAT_VERSION);
+	}
+	
+	/**
+	 * Constructor for subclasses that read later schema versions with the same queries.
+	 * @param schemaVersion schema version that the database must have
+	 */
+	SimpleGdbImpl3(String dbName, String connectionString, int poolSize, int schemaVersion) throws IDMapperException
+	{
+		super(dbName, connectionString, poolSize);
+		checkSchemaVersion(schemaVersion);
 	}
 	
 	/**
 	 * look at the info table of the current database to determine the schema version.
+	 * @param expected schema version that the database must have
 	 * @throws IDMapperException when looking up the schema version failed
 	 */
-	private void checkSchemaVersion() throws IDMapperException 
+	private void checkSchemaVersion(int expected) throws IDMapperException 
 	{
 		int version = 0;
 		try 
@@ -63,7 +80,7 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 		{
 			//Ignore, older db's don't even have schema version
 		}
-		if(version != GDB_COMPAT_VERSION) 
+		if(version != expected) 
 		{
 			throw new IDMapperException ("Implementation and schema version mismatch");
 		}
@@ -74,23 +91,21 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
+		if (toCode(ref.getDataSource()) == null) return result;
 		final QueryLifeCycle pst = qAttribute;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, toCode(ref.getDataSource()));
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (pst.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -98,32 +113,105 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();				
+		if (toCode(ref.getDataSource()) == null) return result;
 		final QueryLifeCycle pst = qAllAttributes;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				while (r.next())
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, toCode(ref.getDataSource()));
+			ResultSet r = pst.executeQuery();
+			while (pst.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
+	}
+
+	/**
+	 * Get attributes of a set of Xrefs in batches.
+	 * <p>
+	 * Xrefs are grouped by DataSource, and each group is sent to the
+	 * database in chunks of {@link #BATCH_SIZE} ids, so a single query 
+	 * returns all attributes of up to BATCH_SIZE Xrefs.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Map<Xref, Map<String, Set<String>>> getAttributes(Collection<Xref> refs, String... attrTypes)
+			throws IDMapperException
+	{
+		Map<Xref, Map<String, Set<String>>> result = new HashMap<Xref, Map<String, Set<String>>>();
+		Set<String> wanted = attrTypes.length == 0 ? null : new HashSet<String>(Arrays.asList(attrTypes));
+		
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(refs).entrySet())
+		{
+			DataSource ds = group.getKey();
+			if (ds == null || toCode(ds) == null) continue;
+			
+			List<String> ids = new ArrayList<String>();
+			for (Xref ref : group.getValue())
+			{
+				ids.add (ref.getId());
+			}
+			
+			for (int start = 0; start < ids.size(); start += BATCH_SIZE)
+			{
+				List<String> chunk = ids.subList(start, Math.min(start + BATCH_SIZE, ids.size()));
+				getAttributesChunk(ds, chunk, wanted, result);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * helper method for getting the attributes of a list of ids of a single DataSource.
+	 * @param ds DataSource of all ids in chunk
+	 * @param chunk list of ids, between 1 and {@link #BATCH_SIZE} items
+	 * @param wanted attribute names to keep, or null to keep all
+	 * @param result map where the results are added
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private void getAttributesChunk(DataSource ds, List<String> chunk, Set<String> wanted, 
+			Map<Xref, Map<String, Set<String>>> result) throws IDMapperException
+	{
+		final QueryLifeCycle pst = qAttributesBatch;
+		try
+		{
+			pst.init();
+			int index = 1;
+			pst.setString(index++, toCode(ds));
+			for (int i = 0; i < BATCH_SIZE; ++i)
+			{
+				pst.setString(index++, chunk.get(Math.min(i, chunk.size() - 1)));
+			}
+
+			ResultSet rs = pst.executeQuery();
+			while (pst.next())
+			{
+				String attrname = rs.getString(2);
+				if (wanted != null && !wanted.contains(attrname)) continue;
+				Xref ref = Xref.of (rs.getString(1), ds);
+				Map<String, Set<String>> attributes = result.get(ref);
+				if (attributes == null) result.put (ref, attributes = new HashMap<String, Set<String>>());
+				InternalUtils.multiMapPut(attributes, attrname, rs.getString(3));
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
 	}
 }
@@ -0,0 +1,89 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+
+/**
+ * SimpleGdb for schema version 4.
+ * <p>
+ * Schema version 4 has the same tables as version 3, but the code columns store 
+ * a small integer instead of the system code. The datasource table translates
+ * between the two, it is read once when the database is opened.
+ * Version 4 also has composite indices that cover the lookups by Xref: 
+ * (idRight, codeRight, idLeft, codeLeft) on link, and (id, code, attrname) on attribute.
+ * The queries are the same as for version 3.
+ */
+class SimpleGdbImpl4 extends SimpleGdbImpl3
+{
+	private static final int GDB_COMPAT_VERSION = 4;
+
+	/** value of the code columns by system code */
+	private final Map<String, String> codes = new HashMap<String, String>();
+	
+	/** DataSource by value of the code columns */
+	private final Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+
+	/**
+	 * Opens a connection to a schema version 4 Gene Database.
+	 * @param dbName The file containing the Gene Database. 
+	 * @param connectionString JDBC connection string
+	 * @param poolSize number of connections that can be used concurrently
+	 * @throws IDMapperException when the database could not be connected to
+	 */
+	public SimpleGdbImpl4(String dbName, String connectionString, int poolSize) throws IDMapperException
+	{
+		super(dbName, connectionString, poolSize, GDB_COMPAT_VERSION);
+		try
+		{
+			Statement st = getConnection().createStatement();
+			ResultSet rs = st.executeQuery("SELECT codeid, code FROM datasource");
+			while (rs.next())
+			{
+				codes.put (rs.getString(2), rs.getString(1));
+				dataSources.put (rs.getString(1), DataSource.getBySystemCode(rs.getString(2)));
+			}
+			rs.close();
+			st.close();
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	String toCode(DataSource ds)
+	{
+		return codes.get(ds.getSystemCode());
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	DataSource fromCode(String code)
+	{
+		return dataSources.get(code);
+	}
+}
@@ -4,7 +4,9 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -23,10 +25,11 @@ import org.bridgedb.impl.InternalUtils;
  */
 public abstract class SimpleGdbImplCommon extends SimpleGdb
 {
-	SimpleGdbImplCommon(String dbName, String connectionString) throws IDMapperException
+	SimpleGdbImplCommon(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
+		super(dbName, connectionString, poolSize);
 		caps = new SimpleGdbCapabilities();
+		mappingTable = MAPPING_TABLE_EXPANDED.equals(caps.getProperty(INFO_MAPPING_TABLE));
 	}
 
 	final SimpleGdb.QueryLifeCycle qDatasources = new SimpleGdb.QueryLifeCycle(
@@ -60,6 +63,43 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
 			"WHERE src.idRight = ? AND src.codeRight = ? AND dest.codeRight = ?"
 		);
+	/**
+	 * Number of source ids sent to the database in a single batch mapping query.
+	 * The IN-list always has this many parameters, shorter chunks are padded
+	 * by repeating the last id, so that the PreparedStatement can be reused.
+	 */
+	static final int BATCH_SIZE = 100;
+	
+	final SimpleGdb.QueryLifeCycle qCrossRefsBatch = new SimpleGdb.QueryLifeCycle (
+			"SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
+			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
+			"WHERE src.codeRight = ? AND src.idRight IN (" + placeholders(BATCH_SIZE) + ")"
+		);
+	final SimpleGdb.QueryLifeCycle qCrossRefsBatchWithCode = new SimpleGdb.QueryLifeCycle (
+			"SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
+			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
+			"WHERE src.codeRight = ? AND dest.codeRight = ? AND src.idRight IN (" + placeholders(BATCH_SIZE) + ")"
+		);
+	final SimpleGdb.QueryLifeCycle qMapping = new SimpleGdb.QueryLifeCycle (
+			"SELECT idDst, codeDst FROM mapping " +
+			"WHERE idSrc = ? AND codeSrc = ?"
+		);
+	final SimpleGdb.QueryLifeCycle qMappingWithCode = new SimpleGdb.QueryLifeCycle (
+			"SELECT idDst, codeDst FROM mapping " +
+			"WHERE idSrc = ? AND codeSrc = ? AND codeDst = ?"
+		);
+	final SimpleGdb.QueryLifeCycle qMappingBatch = new SimpleGdb.QueryLifeCycle (
+			"SELECT idSrc, idDst, codeDst FROM mapping " +
+			"WHERE codeSrc = ? AND idSrc IN (" + placeholders(BATCH_SIZE) + ")"
+		);
+	final SimpleGdb.QueryLifeCycle qMappingBatchWithCode = new SimpleGdb.QueryLifeCycle (
+			"SELECT idSrc, idDst, codeDst FROM mapping " +
+			"WHERE codeSrc = ? AND codeDst = ? AND idSrc IN (" + placeholders(BATCH_SIZE) + ")"
+		);
+	final SimpleGdb.QueryLifeCycle qAttributesBatch = new SimpleGdb.QueryLifeCycle (
+			"SELECT id, attrname, attrvalue FROM attribute " +
+			"WHERE code = ? AND id IN (" + placeholders(BATCH_SIZE) + ")"
+		);
 	final SimpleGdb.QueryLifeCycle qRefsByAttribute = new SimpleGdb.QueryLifeCycle (
 			"SELECT datanode.id, datanode.code FROM datanode " +
 			" LEFT JOIN attribute ON attribute.code = datanode.code AND attribute.id = datanode.id " +
@@ -67,48 +107,67 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		);
 	final SimpleGdb.QueryLifeCycle qFreeSearch = new SimpleGdb.QueryLifeCycle (
 			"SELECT id, code FROM datanode WHERE " +
-			"LOWER(ID) LIKE ?"
+			"LOWER(ID) LIKE ? ESCAPE '\\'"
 		);
 	final SimpleGdb.QueryLifeCycle qAttributeSearch = new SimpleGdb.QueryLifeCycle (
 			"SELECT id, code, attrvalue FROM attribute WHERE " +
-			"attrname = ? AND LOWER(attrvalue) LIKE ?"
+			"attrname = ? AND LOWER(attrvalue) LIKE ? ESCAPE '\\'"
 		);
 	final SimpleGdb.QueryLifeCycle qIdSearchWithAttributes = new SimpleGdb.QueryLifeCycle (
 			"SELECT id, code, attrvalue FROM attribute WHERE " +
-			"attrname = ? AND LOWER(ID) LIKE ?"
+			"attrname = ? AND LOWER(ID) LIKE ? ESCAPE '\\'"
 		);
-	final SimpleGdb.QueryLifeCycle qAllXrefs = new SimpleGdb.QueryLifeCycle(
-			"SELECT id, code FROM datanode"
+	final SimpleGdb.QueryLifeCycle qGramCounts = new SimpleGdb.QueryLifeCycle (
+			"SELECT gram, termcount FROM searchgramcount WHERE gram IN (" + placeholders(BATCH_SIZE) + ")"
 		);
-	final SimpleGdb.QueryLifeCycle qAllXrefsByDatasource = new SimpleGdb.QueryLifeCycle(
-			"SELECT id, code FROM datanode WHERE code = ?"
+	final SimpleGdb.QueryLifeCycle qIndexedIdSearch = new SimpleGdb.QueryLifeCycle (
+			"SELECT datanode.id, datanode.code FROM searchgram " +
+			"JOIN searchterm ON searchterm.termid = searchgram.termid " +
+			"JOIN datanode ON datanode.id = searchterm.term " +
+			"WHERE searchgram.gram = ? AND searchterm.attrname = ? " +
+			"AND LOWER(searchterm.term) LIKE ? ESCAPE '\\'"
+		);
+	final SimpleGdb.QueryLifeCycle qIndexedAttributeSearch = new SimpleGdb.QueryLifeCycle (
+			"SELECT attribute.id, attribute.code, attribute.attrvalue FROM searchgram " +
+			"JOIN searchterm ON searchterm.termid = searchgram.termid " +
+			"JOIN attribute ON attribute.attrname = searchterm.attrname AND attribute.attrvalue = searchterm.term " +
+			"WHERE searchgram.gram = ? AND searchterm.attrname = ? " +
+			"AND LOWER(searchterm.term) LIKE ? ESCAPE '\\'"
+		);
+	final SimpleGdb.QueryLifeCycle qAttributeValues = new SimpleGdb.QueryLifeCycle (
+			"SELECT id, code, attrvalue FROM attribute WHERE attrname = ?"
+		);
+	final SimpleGdb.QueryLifeCycle qAllIds = new SimpleGdb.QueryLifeCycle (
+			"SELECT id, code FROM datanode"
 		);
+	private static final String SQL_ALL_XREFS = 
+			"SELECT id, code FROM datanode";
+	private static final String SQL_ALL_XREFS_BY_DATASOURCE = 
+			"SELECT id, code FROM datanode WHERE code = ?";
 
 	/** {@inheritDoc} */
 	public boolean xrefExists(Xref xref) throws IDMapperException 
 	{
-		if (xref.getDataSource() == null) return false;
+		if (xref.getDataSource() == null || toCode(xref.getDataSource()) == null) return false;
 		final QueryLifeCycle pst = qXrefExists;
-		synchronized (pst) {
-			try 
-			{
-				pst.init();
-				pst.setString(1, xref.getId());
-				pst.setString(2, xref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					return true;
-				}
-			} 
-			catch (SQLException e) 
+		try 
+		{
+			pst.init();
+			pst.setString(1, xref.getId());
+			pst.setString(2, toCode(xref.getDataSource()));
+			ResultSet r = pst.executeQuery();
+
+			while(pst.next()) 
 			{
-				throw new IDMapperException (e);
+				return true;
 			}
-			finally {pst.cleanup(); }
-			return false;
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+		return false;
 	}
 
 	/**
@@ -120,68 +179,162 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		Map<String, String> result = new HashMap<String, String>();
 		final QueryLifeCycle pst = qInfo;
-		synchronized (pst) {
-			try
+		try
+		{
+			pst.init();
+			ResultSet rs = pst.executeQuery();
+			
+			if (pst.next())
 			{
-				pst.init();
-				ResultSet rs = pst.executeQuery();
-				
-				if (rs.next())
+				ResultSetMetaData rsmd = rs.getMetaData();
+				for (int i = 1; i <= rsmd.getColumnCount(); ++i)
 				{
-					ResultSetMetaData rsmd = rs.getMetaData();
-					for (int i = 1; i <= rsmd.getColumnCount(); ++i)
-					{
-						String key = rsmd.getColumnName(i);
-						String val = rs.getString(i);
-						result.put (key, val);
-					}
+					String key = rsmd.getColumnName(i);
+					String val = rs.getString(i);
+					result.put (key, val);
 				}
 			}
-			catch (SQLException ex)
-			{
-				throw new IDMapperException (ex);
-			}
-			
-			return result;
 		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		finally {pst.cleanup(); }
+		
+		return result;
 	}
 
 
 	/** {@inheritDoc} */
 	public Set<Xref> mapID (Xref idc, DataSource... resultDs) throws IDMapperException
 	{
-		final QueryLifeCycle pst = resultDs.length != 1 ? qCrossRefs : qCrossRefsWithCode;
+		final QueryLifeCycle pst = mappingTable
+				? (resultDs.length != 1 ? qMapping : qMappingWithCode)
+				: (resultDs.length != 1 ? qCrossRefs : qCrossRefsWithCode);
 		Set<Xref> refs = new HashSet<Xref>();
 		
-		if (idc.getDataSource() == null) return refs;
-		synchronized (pst) {
-			try
+		if (idc.getDataSource() == null || toCode(idc.getDataSource()) == null) return refs;
+		if (resultDs.length == 1 && toCode(resultDs[0]) == null) return refs;
+		try
+		{
+			pst.init();
+			pst.setString(1, idc.getId());
+			pst.setString(2, toCode(idc.getDataSource()));
+			if (resultDs.length == 1) pst.setString(3, toCode(resultDs[0]));			
+			
+			BitSet dsFilter = DataSource.toOrdinalSet(resultDs);
+
+			ResultSet rs = pst.executeQuery();
+			while (pst.next())
 			{
-				pst.init();
-				pst.setString(1, idc.getId());
-				pst.setString(2, idc.getDataSource().getSystemCode());
-				if (resultDs.length == 1) pst.setString(3, resultDs[0].getSystemCode());			
-				
-				Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
-	
-				ResultSet rs = pst.executeQuery();
-				while (rs.next())
+				DataSource ds = fromCode(rs.getString(2));
+				if (resultDs.length == 0 || DataSource.isInOrdinalSet(dsFilter, ds))
 				{
-					DataSource ds = DataSource.getBySystemCode(rs.getString(2));
-					if (resultDs.length == 0 || dsFilter.contains(ds))
-					{
-						refs.add (new Xref (rs.getString(1), ds));
-					}
+					refs.add (Xref.of (rs.getString(1), ds));
 				}
 			}
-			catch (SQLException e)
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+	
+		return refs;
+	}
+
+	/**
+	 * @param count number of parameters
+	 * @return comma separated list of count question marks, for use in an IN clause.
+	 */
+	private static String placeholders(int count)
+	{
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < count; ++i)
+		{
+			if (i > 0) result.append (", ");
+			result.append ("?");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Map a set of Xrefs in batches.
+	 * <p>
+	 * Source Xrefs are grouped by DataSource, and each group is sent to the
+	 * database in chunks of {@link #BATCH_SIZE} ids, so the number of queries
+	 * is roughly the number of input ids divided by BATCH_SIZE, instead of one
+	 * query per input id.
+	 * {@inheritDoc} 
+	 */
+	@Override
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException 
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		if (tgtDataSources.length == 1 && toCode(tgtDataSources[0]) == null) return result;
+		BitSet dsFilter = DataSource.toOrdinalSet(tgtDataSources);
+		
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(srcXrefs).entrySet())
+		{
+			DataSource srcDs = group.getKey();
+			if (srcDs == null || toCode(srcDs) == null) continue;
+			
+			List<String> ids = new ArrayList<String>();
+			for (Xref ref : group.getValue())
 			{
-				throw new IDMapperException (e);
+				ids.add (ref.getId());
+			}
+			
+			for (int start = 0; start < ids.size(); start += BATCH_SIZE)
+			{
+				List<String> chunk = ids.subList(start, Math.min(start + BATCH_SIZE, ids.size()));
+				mapIDChunk(srcDs, chunk, tgtDataSources, dsFilter, result);
 			}
-			finally {pst.cleanup(); }
-		
-			return refs;
 		}
+		return result;
+	}
+
+	/**
+	 * helper method for batch mapping of a list of ids of a single DataSource.
+	 * @param srcDs DataSource of all ids in chunk
+	 * @param chunk list of ids, between 1 and {@link #BATCH_SIZE} items
+	 * @param tgtDataSources target data sources, may be empty
+	 * @param dsFilter ordinals of target data sources, for filtering the results
+	 * @param result map where the results are added
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private void mapIDChunk(DataSource srcDs, List<String> chunk, DataSource[] tgtDataSources, 
+			BitSet dsFilter, Map<Xref, Set<Xref>> result) throws IDMapperException
+	{
+		final QueryLifeCycle pst = mappingTable
+				? (tgtDataSources.length != 1 ? qMappingBatch : qMappingBatchWithCode)
+				: (tgtDataSources.length != 1 ? qCrossRefsBatch : qCrossRefsBatchWithCode);
+		try
+		{
+			pst.init();
+			int index = 1;
+			pst.setString(index++, toCode(srcDs));
+			if (tgtDataSources.length == 1) pst.setString(index++, toCode(tgtDataSources[0]));
+			for (int i = 0; i < BATCH_SIZE; ++i)
+			{
+				pst.setString(index++, chunk.get(Math.min(i, chunk.size() - 1)));
+			}
+
+			ResultSet rs = pst.executeQuery();
+			while (pst.next())
+			{
+				DataSource ds = fromCode(rs.getString(3));
+				if (tgtDataSources.length == 0 || DataSource.isInOrdinalSet(dsFilter, ds))
+				{
+					InternalUtils.multiMapPut(result, Xref.of (rs.getString(1), srcDs), Xref.of (rs.getString(2), ds));
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -190,42 +343,163 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		List<Xref> refs = new ArrayList<Xref>();
 
 		final QueryLifeCycle pst = qRefsByAttribute;
-		synchronized (pst) { 
-			try {
+		try {
+			pst.init();
+			pst.setString(1, attrName);
+			pst.setString(2, attrValue);
+			ResultSet r = pst.executeQuery();
+			while(pst.next()) {
+				Xref ref = new Xref(r.getString(1), fromCode(r.getString(2)));
+				refs.add(ref);
+			}
+		} catch(SQLException e) {
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+//		Logger.log.trace("End fetching cross references by attribute");
+		return refs;
+	}
+
+	/**
+	 * Info table field that is set to {@link #SEARCH_INDEX_TRIGRAM} if the database
+	 * has the searchterm, searchgram and searchgramcount tables. These tables are an inverted index 
+	 * from each trigram (three consecutive lower case characters) to the identifiers and 
+	 * attribute values that contain it, so that substring searches don't have to scan 
+	 * the datanode or attribute table. searchgramcount has the number of terms of each trigram.
+	 */
+	public static final String INFO_SEARCH_INDEX = "SEARCHINDEX";
+	
+	/** value of the {@link #INFO_SEARCH_INDEX} info field */
+	public static final String SEARCH_INDEX_TRIGRAM = "trigram";
+	
+	/**
+	 * Info table field that is set to {@link #MAPPING_TABLE_EXPANDED} if the database
+	 * has a mapping table. It has a row (idSrc, codeSrc, idDst, codeDst) for each pair 
+	 * of Xrefs that are linked to the same entry of the link table, i.e. the result of
+	 * the self join of the link table that mapID would otherwise do for each query.
+	 * The primary key of the mapping table starts with (idSrc, codeSrc, codeDst), 
+	 * so mapID only needs a single range scan of that index.
+	 */
+	public static final String INFO_MAPPING_TABLE = "MAPPINGTABLE";
+	
+	/** value of the {@link #INFO_MAPPING_TABLE} info field */
+	public static final String MAPPING_TABLE_EXPANDED = "expanded";
+	
+	/** true if mapID can use the mapping table, see {@link #INFO_MAPPING_TABLE} */
+	private final boolean mappingTable;
+	
+	/** value of searchterm.attrname for terms that are identifiers instead of attribute values */
+	public static final String ID_TERM = "";
+	
+	/** length of the n-grams in the search index */
+	public static final int GRAM_LENGTH = 3;
+	
+	/**
+	 * Split a search term into the trigrams that are stored in the search index.
+	 * @param text term or query to split, case is ignored
+	 * @return all distinct lower case substrings of length {@link #GRAM_LENGTH}, 
+	 * 	empty if text is shorter than that.
+	 */
+	public static Set<String> trigrams(String text)
+	{
+		String lower = text.toLowerCase();
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i + GRAM_LENGTH <= lower.length(); ++i)
+		{
+			result.add (lower.substring(i, i + GRAM_LENGTH));
+		}
+		return result;
+	}
+	
+	/**
+	 * Find the least frequent trigram of a query in the search index.
+	 * The counts of all trigrams of the query are read with a single query 
+	 * (or one per {@link #BATCH_SIZE} trigrams for very long queries).
+	 * @param query text to search for, case is ignored
+	 * @return the rarest trigram, an empty string if one of the trigrams doesn't occur 
+	 * 	in the index at all, so nothing matches, or null if the index can't be used, 
+	 * 	because the database doesn't have it or the query is shorter than a trigram.
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private String rarestGram(String query) throws IDMapperException
+	{
+		if (!SEARCH_INDEX_TRIGRAM.equals(caps.getProperty(INFO_SEARCH_INDEX))) return null;
+		List<String> grams = new ArrayList<String>(trigrams(query));
+		if (grams.size() == 0) return null;
+		
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		final QueryLifeCycle pst = qGramCounts;
+		for (int start = 0; start < grams.size(); start += BATCH_SIZE)
+		{
+			List<String> chunk = grams.subList(start, Math.min(start + BATCH_SIZE, grams.size()));
+			try
+			{
 				pst.init();
-				pst.setString(1, attrName);
-				pst.setString(2, attrValue);
-				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					Xref ref = new Xref(r.getString(1), DataSource.getBySystemCode(r.getString(2)));
-					refs.add(ref);
+				for (int i = 0; i < BATCH_SIZE; ++i)
+				{
+					pst.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+				}
+				ResultSet rs = pst.executeQuery();
+				while (pst.next())
+				{
+					counts.put (rs.getString(1), rs.getInt(2));
 				}
-			} catch(SQLException e) {
+			}
+			catch (SQLException e)
+			{
 				throw new IDMapperException (e);
 			}
 			finally {pst.cleanup(); }
-	//		Logger.log.trace("End fetching cross references by attribute");
-			return refs;
 		}
+		
+		String rarest = null;
+		int rarestCount = Integer.MAX_VALUE;
+		for (String gram : grams)
+		{
+			Integer count = counts.get(gram);
+			if (count == null) return "";
+			if (count < rarestCount)
+			{
+				rarest = gram;
+				rarestCount = count;
+			}
+		}
+		return rarest;
+	}
+
+	/**
+	 * @param query text to search for
+	 * @return LIKE pattern that matches values containing the lower case query,
+	 * 	with the wildcards in the query escaped.
+	 */
+	private static String containsPattern(String query)
+	{
+		String escaped = query.toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+		return "%" + escaped + "%";
 	}
 
 	/** {@inheritDoc} */
 	public Set<Xref> freeSearch (String text, int limit) throws IDMapperException 
 	{		
 		Set<Xref> result = new HashSet<Xref>();
-		final QueryLifeCycle pst = qFreeSearch;
-		synchronized (pst) { 
-			try {
+		String gram = rarestGram(text);
+		if (gram != null)
+		{
+			if (gram.length() == 0) return result;
+			// only the terms of the rarest trigram are read, and joined with the datanodes they identify
+			final QueryLifeCycle pst = qIndexedIdSearch;
+			try
+			{
 				pst.init(limit);
-				pst.setString(1, "%" + text.toLowerCase() + "%");
+				pst.setString(1, gram);
+				pst.setString(2, ID_TERM);
+				pst.setString(3, containsPattern(text));
 				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					String id = r.getString(1);
-					DataSource ds = DataSource.getBySystemCode(r.getString(2));
-					Xref ref = new Xref (id, ds);
-					result.add (ref);
-				}			
-			} 
+				while (pst.next())
+				{
+					result.add (new Xref (r.getString(1), fromCode(r.getString(2))));
+				}
+			}
 			catch (SQLException e) 
 			{
 				throw new IDMapperException(e);
@@ -233,6 +507,25 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 			finally {pst.cleanup(); }
 			return result;
 		}
+		
+		final QueryLifeCycle pst = qFreeSearch;
+		try {
+			pst.init(limit);
+			pst.setString(1, containsPattern(text));
+			ResultSet r = pst.executeQuery();
+			while(pst.next()) {
+				String id = r.getString(1);
+				DataSource ds = fromCode(r.getString(2));
+				Xref ref = new Xref (id, ds);
+				result.add (ref);
+			}			
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException(e);
+		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 
 	/**
@@ -243,36 +536,96 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		Set<DataSource> result = new HashSet<DataSource>();
 		final QueryLifeCycle pst = qDatasources;
-		synchronized (pst) { 
-			try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		DataSource ds = DataSource.getBySystemCode(rs.getString(1)); 
-	    	 		result.add (ds);
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
+		try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (pst.next())
+    	 	{
+    	 		DataSource ds = fromCode(rs.getString(1)); 
+    	 		result.add (ds);
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
+	}
+
+	/**
+	 * Info table field with the system codes of all DataSources in the link table,
+	 * separated by commas. It is optional, databases that don't have it are
+	 * scanned for DataSources instead.
+	 */
+	public static final String INFO_DATASOURCES = "DATASOURCES";
+
+	/**
+	 * Parse the value of the {@link #INFO_DATASOURCES} info field.
+	 * @param value comma separated system codes, may be null
+	 * @return the DataSources, or null if value is null
+	 */
+	static Set<DataSource> parseDataSources(String value)
+	{
+		if (value == null) return null;
+		Set<DataSource> result = new HashSet<DataSource>();
+		for (String code : value.split(","))
+		{
+			if (code.length() > 0) result.add (DataSource.getBySystemCode(code));
 		}
+		return result;
 	}
 
 	private final IDMapperCapabilities caps;
 
+	/**
+	 * Capabilities of a SimpleGdb. Properties are read from the info table right away.
+	 * Supported DataSources are read from the info table if they were stored there
+	 * when the database was created, otherwise they are looked up in the link table 
+	 * the first time they are needed, because that takes a full scan of the link table.
+	 */
 	class SimpleGdbCapabilities extends AbstractIDMapperCapabilities
 	{
+		private volatile Set<DataSource> dataSources;
+
 		/** default constructor.
 		 * @throws IDMapperException when database is not available */
 		public SimpleGdbCapabilities() throws IDMapperException 
 		{
-			super (SimpleGdbImplCommon.this.getDataSources(), true, 
-					SimpleGdbImplCommon.this.getInfo());
+			this (SimpleGdbImplCommon.this.getInfo());
+		}
+
+		private SimpleGdbCapabilities(Map<String, String> info)
+		{
+			super (null, true, info);
+			dataSources = parseDataSources(info.get(INFO_DATASOURCES));
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Set<DataSource> getSupportedSrcDataSources() throws IDMapperException
+		{
+			Set<DataSource> result = dataSources;
+			if (result == null)
+			{
+				synchronized (this)
+				{
+					if (dataSources == null)
+					{
+						dataSources = SimpleGdbImplCommon.this.getDataSources();
+					}
+					result = dataSources;
+				}
+			}
+			return result;
+		}
+
+		/** {@inheritDoc} */
+		@Override
+		public Set<DataSource> getSupportedTgtDataSources() throws IDMapperException
+		{
+			return getSupportedSrcDataSources();
 		}
 	}
 
@@ -304,126 +657,238 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	public Map<Xref, String> freeAttributeSearch (String query, String attrType, int limit) throws IDMapperException
 	{
 		Map<Xref, String> result = new HashMap<Xref, String>();
+		Map<Xref, Set<String>> indexed = indexedAttributeSearch(query, attrType, limit);
+		if (indexed != null)
+		{
+			for (Map.Entry<Xref, Set<String>> e : indexed.entrySet())
+			{
+				result.put(e.getKey(), e.getValue().iterator().next());
+			}
+			return result;
+		}
 		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
 				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, containsPattern(query));
+			ResultSet r = pst.executeQuery();
+
+			while(pst.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				result.put(new Xref (id, fromCode(code)), symbol);
+			}
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+		return result;
+	}
 	
-				while(r.next()) 
-				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					result.put(new Xref (id, DataSource.getBySystemCode(code)), symbol);
-				}
-			} catch (SQLException e) {
-				throw new IDMapperException (e);
+	/**
+	 * Attribute search using the search index.
+	 * @return matching xrefs with their attribute values, 
+	 * 	or null if the search index can't be used for this query.
+	 */
+	private Map<Xref, Set<String>> indexedAttributeSearch (String query, String attrType, int limit) throws IDMapperException
+	{
+		if (MATCH_ID.equals (attrType)) return null;
+		String gram = rarestGram(query);
+		if (gram == null) return null;
+		
+		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
+		if (gram.length() == 0) return result;
+		final QueryLifeCycle pst = qIndexedAttributeSearch;
+		try
+		{
+			pst.init(limit);
+			pst.setString(1, gram);
+			pst.setString(2, attrType);
+			pst.setString(3, containsPattern(query));
+			ResultSet r = pst.executeQuery();
+			while (pst.next())
+			{
+				Xref ref = new Xref (r.getString(1), fromCode(r.getString(2)));
+				InternalUtils.multiMapPut(result, ref, r.getString(3));
 			}
-			finally {pst.cleanup(); }
-			return result;
 		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 	
 	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
 	{
+		Map<Xref, Set<String>> indexed = indexedAttributeSearch(query, attrType, limit);
+		if (indexed != null) return indexed;
+		
 		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
 		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
 				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, containsPattern(query));
+			ResultSet r = pst.executeQuery();
+
+			while(pst.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				Xref ref = new Xref (id, fromCode(code));
+				InternalUtils.multiMapPut(result, ref, symbol);
+			}
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
+		}
+		finally { pst.cleanup(); }
+		return result;
+	}
+
+	/** 
+	 * sorted attribute values by attribute name, for prefixAttributeSearch.
+	 * Each attribute has its own holder, so building the index of one attribute 
+	 * doesn't block searches of the others.
+	 */
+	private final Map<String, SymbolIndexHolder> symbolIndexes = new HashMap<String, SymbolIndexHolder>();
+
+	/** Holds the index of a single attribute, once it has been read */
+	private static final class SymbolIndexHolder
+	{
+		SymbolIndex index = null;
+	}
+
+	/**
+	 * Get the sorted index of the values of an attribute.
+	 * The index is read from the database the first time it is needed, 
+	 * and then kept in memory. Threads that need the same index while it
+	 * is read wait for it, instead of reading it again.
+	 * @param attrType attribute name, or MATCH_ID for an index of identifiers.
+	 * @throws IDMapperException when the database is unavailable
+	 */
+	private SymbolIndex getSymbolIndex(String attrType) throws IDMapperException
+	{
+		SymbolIndexHolder holder;
+		synchronized (symbolIndexes)
+		{
+			holder = symbolIndexes.get(attrType);
+			if (holder == null)
+			{
+				holder = new SymbolIndexHolder();
+				symbolIndexes.put(attrType, holder);
+			}
+		}
+		
+		synchronized (holder)
+		{
+			if (holder.index != null) return holder.index;
+			
+			SymbolIndex.Builder builder = new SymbolIndex.Builder();
+			boolean ids = MATCH_ID.equals(attrType);
+			final QueryLifeCycle pst = ids ? qAllIds : qAttributeValues;
+			try
+			{
+				pst.init();
+				if (!ids) pst.setString(1, attrType);
 				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
+				while (pst.next())
 				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					Xref ref = new Xref (id, DataSource.getBySystemCode(code));
-					InternalUtils.multiMapPut(result, ref, symbol);
+					String id = r.getString(1);
+					Xref ref = new Xref (id, fromCode(r.getString(2)));
+					builder.add(ref, ids ? id : r.getString(3));
 				}
-			} catch (SQLException e) {
+			}
+			catch (SQLException e)
+			{
 				throw new IDMapperException (e);
 			}
-			finally { pst.cleanup(); }
-			return result;
+			finally {pst.cleanup(); }
+			// if reading failed, the next search tries again
+			holder.index = builder.build();
+			return holder.index;
 		}
 	}
 
+	/** 
+	 * {@inheritDoc}
+	 * <p>
+	 * The first search for an attribute reads all its values into 
+	 * a sorted index in memory, that is used for all later searches.
+	 * Attributes that are not in {@link #getAttributeSet()} have no values,
+	 * so no index is kept for them.
+	 */
+	public Map<Xref, String> prefixAttributeSearch (String prefix, String attrType, int limit) throws IDMapperException
+	{
+		if (!MATCH_ID.equals(attrType) && !getAttributeSet().contains(attrType))
+		{
+			return Collections.emptyMap();
+		}
+		return getSymbolIndex(attrType).search(prefix, limit);
+	}
+
+	/** attribute names, read on first use. The database doesn't change while it is open. */
+	private volatile Set<String> attributeSet = null;
+
 	/** {@inheritDoc} */
 	public Set<String> getAttributeSet() throws IDMapperException 
+	{
+		Set<String> result = attributeSet;
+		if (result == null)
+		{
+			result = Collections.unmodifiableSet(readAttributeSet());
+			attributeSet = result;
+		}
+		return result;
+	}
+
+	private Set<String> readAttributeSet() throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
 		final QueryLifeCycle pst = qAttributesSet;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		result.add (rs.getString(1));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
-		}
+    	try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (pst.next())
+    	 	{
+    	 		result.add (rs.getString(1));
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The Xrefs are streamed from the database. The result implements 
+	 * {@link java.io.Closeable}, close it if you stop iterating before the end.
+	 */
 	@Override
 	public Iterable<Xref> getIterator() throws IDMapperException {
-		Set<Xref> xrefs = new HashSet<Xref>();
-		final QueryLifeCycle pst = qAllXrefs;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), DataSource.getBySystemCode(rs.getString(2))));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
-		}		
+		return new XrefCursor(SQL_ALL_XREFS);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The Xrefs are streamed from the database. The result implements 
+	 * {@link java.io.Closeable}, close it if you stop iterating before the end.
+	 */
 	@Override
 	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException {
-		Set<Xref> xrefs = new HashSet<Xref>();
-		final QueryLifeCycle pst = qAllXrefsByDatasource;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	pst.setString(1, ds.getSystemCode());
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), ds));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
-		}
+		if (toCode(ds) == null) return Collections.emptyList();
+		return new XrefCursor(SQL_ALL_XREFS_BY_DATASOURCE, toCode(ds));
 	}
 }
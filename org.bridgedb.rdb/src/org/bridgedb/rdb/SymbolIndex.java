@@ -0,0 +1,216 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.Xref;
+
+/**
+ * In-memory index of the values of a single attribute, sorted case-insensitively,
+ * for ranked prefix searches.
+ * <p>
+ * Exact and prefix matches are found with a binary search and read in order,
+ * so a search stops as soon as it has enough results. Values that contain 
+ * the query elsewhere are only looked for if there are not enough prefix matches.
+ * They are found through a list of the values that contain each substring of up to 
+ * three characters, so only the values that share the rarest of these with the query 
+ * are checked, never the whole index.
+ */
+final class SymbolIndex
+{
+	/** lower case values, sorted */
+	private final String[] keys;
+	private final String[] values;
+	private final Xref[] refs;
+	/** 
+	 * for each substring of up to GRAM_LENGTH characters, the positions 
+	 * of the keys that contain it, ascending 
+	 */
+	private final Map<String, int[]> grams = new HashMap<String, int[]>();
+
+	/** length of the longest substrings in the gram lists */
+	private static final int GRAM_LENGTH = 3;
+
+	/** Collects the values of an attribute, before they are sorted */
+	static final class Builder
+	{
+		private final List<Object[]> entries = new ArrayList<Object[]>();
+
+		void add(Xref ref, String value)
+		{
+			if (value != null) entries.add (new Object[] { value.toLowerCase(), value, ref });
+		}
+
+		SymbolIndex build()
+		{
+			Collections.sort(entries, new Comparator<Object[]>()
+			{
+				public int compare(Object[] a, Object[] b)
+				{
+					int result = ((String)a[0]).compareTo((String)b[0]);
+					if (result == 0) result = ((String)a[1]).compareTo((String)b[1]);
+					if (result == 0) result = ((Xref)a[2]).compareTo((Xref)b[2]);
+					return result;
+				}
+			});
+			return new SymbolIndex(entries);
+		}
+	}
+
+	private SymbolIndex(List<Object[]> entries)
+	{
+		int size = entries.size();
+		keys = new String[size];
+		values = new String[size];
+		refs = new Xref[size];
+		for (int i = 0; i < size; ++i)
+		{
+			Object[] entry = entries.get(i);
+			keys[i] = (String)entry[0];
+			values[i] = (String)entry[1];
+			refs[i] = (Xref)entry[2];
+		}
+		
+		// count first, so each list is allocated once at its final size
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (int i = 0; i < size; ++i)
+		{
+			for (String gram : grams(keys[i]))
+			{
+				int[] count = counts.get(gram);
+				if (count == null) counts.put (gram, new int[] { 1 });
+				else count[0]++;
+			}
+		}
+		for (Map.Entry<String, int[]> entry : counts.entrySet())
+		{
+			grams.put (entry.getKey(), new int[entry.getValue()[0]]);
+			entry.getValue()[0] = 0;
+		}
+		for (int i = 0; i < size; ++i)
+		{
+			for (String gram : grams(keys[i]))
+			{
+				int[] count = counts.get(gram);
+				grams.get(gram)[count[0]++] = i;
+			}
+		}
+	}
+
+	/** @return the distinct substrings of key of 1 up to GRAM_LENGTH characters */
+	private static Set<String> grams(String key)
+	{
+		Set<String> result = new HashSet<String>();
+		for (int len = 1; len <= GRAM_LENGTH; ++len)
+		{
+			for (int i = 0; i + len <= key.length(); ++i)
+			{
+				String gram = key.substring(i, i + len);
+				result.add (gram);
+			}
+		}
+		return result;
+	}
+
+	/** 
+	 * @param lower non-empty lower case query
+	 * @return positions of the keys that may contain the query, ascending. 
+	 * 	For a query of up to GRAM_LENGTH characters these all contain it.
+	 */
+	private int[] candidates(String lower)
+	{
+		if (lower.length() <= GRAM_LENGTH)
+		{
+			int[] result = grams.get(lower);
+			return result == null ? new int[0] : result;
+		}
+		int[] rarest = null;
+		for (int i = 0; i + GRAM_LENGTH <= lower.length(); ++i)
+		{
+			int[] list = grams.get(lower.substring(i, i + GRAM_LENGTH));
+			if (list == null) return new int[0];
+			if (rarest == null || list.length < rarest.length) rarest = list;
+		}
+		return rarest;
+	}
+
+	/** @return number of values in the index */
+	int size()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * @param prefix text to search for, case is ignored
+	 * @param limit maximum number of results, or 0 for no limit
+	 * @return matching references with their value, exact matches first, 
+	 * 	then prefix matches, then substring matches, each group in alphabetical order.
+	 * 	A reference with several matching values is returned once, with the best match.
+	 */
+	Map<Xref, String> search(String prefix, int limit)
+	{
+		String lower = prefix.toLowerCase();
+		Map<Xref, String> result = new LinkedHashMap<Xref, String>();
+
+		int start = Arrays.binarySearch(keys, lower);
+		if (start < 0) 
+		{
+			start = -start - 1;
+		}
+		else
+		{
+			// binarySearch finds any of the equal keys
+			while (start > 0 && keys[start - 1].equals(lower)) start--;
+		}
+
+		// exact matches sort before the other values with this prefix
+		int end = start;
+		while (end < keys.length && keys[end].startsWith(lower))
+		{
+			if (!add(result, end, limit)) return result;
+			end++;
+		}
+
+		// every value starts with the empty string
+		if (lower.length() == 0) return result;
+
+		for (int i : candidates(lower))
+		{
+			// skip the prefix matches, they were added already
+			if (i >= start && i < end) continue;
+			if (keys[i].contains(lower) && !add(result, i, limit)) return result;
+		}
+		return result;
+	}
+
+	/** @return false if the limit is reached */
+	private boolean add(Map<Xref, String> result, int i, int limit)
+	{
+		if (!result.containsKey(refs[i])) result.put (refs[i], values[i]);
+		return limit <= 0 || result.size() < limit;
+	}
+}
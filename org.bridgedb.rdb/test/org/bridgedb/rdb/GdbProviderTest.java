@@ -0,0 +1,45 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdbProviderTest
+{
+	@Test
+	public void testLocalFile() throws IOException
+	{
+		File file = File.createTempFile("provider", ".bridge");
+		try
+		{
+			Assert.assertEquals (file, GdbProvider.localFile("idmapper-pgdb:" + file));
+			Assert.assertEquals (file, GdbProvider.localFile("idmapper-pgdb:" + file.toURI()));
+			// a cached database is checked for changes like the database it wraps
+			Assert.assertEquals (file, GdbProvider.localFile("idmapper-cached:idmapper-pgdb:" + file));
+			Assert.assertEquals (file, GdbProvider.localFile("idmapper-cached:maxsize=10@idmapper-pgdb:" + file));
+			Assert.assertNull (GdbProvider.localFile("idmapper-bridgerest:http://localhost:8183/Human"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+}
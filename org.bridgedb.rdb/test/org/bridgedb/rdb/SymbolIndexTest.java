@@ -0,0 +1,92 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SymbolIndexTest
+{
+	private static final DataSource DS = DataSource.register("@S", "SymbolIndexTest").asDataSource();
+
+	private static SymbolIndex createIndex(String... symbols)
+	{
+		SymbolIndex.Builder builder = new SymbolIndex.Builder();
+		for (String symbol : symbols)
+		{
+			builder.add(new Xref(symbol + "_id", DS), symbol);
+		}
+		return builder.build();
+	}
+
+	private static List<String> values(Map<Xref, String> result)
+	{
+		return new ArrayList<String>(result.values());
+	}
+
+	@Test
+	public void testRanking()
+	{
+		SymbolIndex index = createIndex("ATP53", "TP53BP1", "TP53", "TP5", "INSR", "tp53i3", "XTP53Y");
+		Assert.assertEquals (7, index.size());
+		// exact match first, then prefix matches, then substring matches
+		Assert.assertEquals (Arrays.asList("TP53", "TP53BP1", "tp53i3", "ATP53", "XTP53Y"), 
+				values(index.search("tp53", 0)));
+		Assert.assertEquals (Arrays.asList("TP53", "TP53BP1"), values(index.search("TP53", 2)));
+		Assert.assertEquals (Arrays.asList("ATP53"), values(index.search("atp", 0)));
+		Assert.assertEquals (0, index.search("zzz", 0).size());
+	}
+
+	@Test
+	public void testSubstringOnly()
+	{
+		SymbolIndex index = createIndex("AAB", "BAB", "CAB");
+		Assert.assertEquals (Arrays.asList("AAB", "BAB", "CAB"), values(index.search("ab", 0)));
+		Assert.assertEquals (Arrays.asList("AAB", "BAB", "CAB"), values(index.search("", 0)));
+	}
+
+	@Test
+	public void testSubstringCandidates()
+	{
+		SymbolIndex index = createIndex("ABCD", "XABCDY", "XABXCD", "CDAB", "ZBCDA", "Q");
+		// values that share a trigram with the query, but don't contain it, are left out
+		Assert.assertEquals (Arrays.asList("ABCD", "XABCDY"), values(index.search("abcd", 0)));
+		Assert.assertEquals (Arrays.asList("ABCD", "XABCDY", "ZBCDA"), values(index.search("bcd", 0)));
+		Assert.assertEquals (Arrays.asList("ABCD"), values(index.search("bcd", 1)));
+		Assert.assertEquals (Arrays.asList("Q"), values(index.search("q", 0)));
+		Assert.assertEquals (0, index.search("abcde", 0).size());
+	}
+
+	@Test
+	public void testBestValuePerXref()
+	{
+		SymbolIndex.Builder builder = new SymbolIndex.Builder();
+		Xref ref = new Xref("1", DS);
+		builder.add(ref, "XINS");
+		builder.add(ref, "INS");
+		Map<Xref, String> result = builder.build().search("ins", 0);
+		Assert.assertEquals (1, result.size());
+		Assert.assertEquals ("INS", result.get(ref));
+	}
+}
@@ -16,11 +16,14 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 
+import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
@@ -49,30 +52,29 @@ public class AttributeSearch extends IDMapperResource {
 	}
 
 	@Get
-	public String search() 
+	public Representation search() 
 	{
-		try 
-		{
-			IDMapperStack mapper = getIDMappers();
-			if (attribute == null) attribute = "Symbol"; // use symbol by default.
-			Map<Xref, String> results = mapper.freeAttributeSearch(searchStr, attribute, limit);
+		return streaming(new Body() {
+			public Result get() throws IDMapperException
+			{
+				IDMapperStack mapper = getIDMappers();
+				if (attribute == null) attribute = "Symbol"; // use symbol by default.
+				final Map<Xref, String> results = mapper.freeAttributeSearch(searchStr, attribute, limit);
 
-			StringBuilder result = new StringBuilder();
-			for(Xref x : results.keySet()) {
-				result.append(x.getId());
-				result.append("\t");
-				result.append(x.getDataSource().getFullName());
-				result.append("\t");
-				result.append(results.get(x));
-				result.append("\n");
+				return new Result() {
+					public void write(Writer writer) throws IOException {
+						for(Map.Entry<Xref, String> e : results.entrySet()) {
+							writer.write(e.getKey().getId());
+							writer.write("\t");
+							writer.write(String.valueOf(e.getKey().getDataSource().getFullName()));
+							writer.write("\t");
+							writer.write(String.valueOf(e.getValue()));
+							writer.write("\n");
+						}
+					}
+				};
 			}
-
-			return(result.toString());
-		} catch( Exception e ) {
-			e.printStackTrace();
-			setStatus( Status.SERVER_ERROR_INTERNAL );
-			return e.getMessage();
-		}
+		});
 	}
 
 }
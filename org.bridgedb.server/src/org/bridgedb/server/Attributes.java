@@ -16,6 +16,8 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,7 +25,7 @@ import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
@@ -53,43 +55,45 @@ public class Attributes extends IDMapperResource {
 	}
 
 	@Get
-	public String getAttributes() {
-		try {
-			if(attrType != null) {
-				return getAttributesWithType();
-			} else {
-				return getAttributesWithoutType();
+	public Representation getAttributes() {
+		return cacheable(new Body() {
+			public Result get() throws IDMapperException {
+				if(attrType != null) {
+					return getAttributesWithType();
+				} else {
+					return getAttributesWithoutType();
+				}
 			}
-		} catch(Exception e) {
-			e.printStackTrace();
-			setStatus(Status.SERVER_ERROR_INTERNAL);
-			return e.getMessage();
-		}
+		});
 	}
 	
-	private String getAttributesWithType() throws IDMapperException {
+	private Result getAttributesWithType() throws IDMapperException {
 		IDMapperStack mapper = getIDMappers();
-		Set<String> values = mapper.getAttributes(xref, attrType);
-		StringBuilder str = new StringBuilder();
-		for(String v : values) {
-			str.append(v);
-			str.append("\n");
-		}
-		return str.toString();
+		final Set<String> values = mapper.getAttributes(xref, attrType);
+		return new Result() {
+			public void write(Writer writer) throws IOException {
+				for(String v : values) {
+					writer.write(v);
+					writer.write("\n");
+				}
+			}
+		};
 	}
 	
-	private String getAttributesWithoutType() throws IDMapperException {
+	private Result getAttributesWithoutType() throws IDMapperException {
 		IDMapperStack mapper = getIDMappers();
-		Map<String, Set<String>> values = mapper.getAttributes(xref);
-		StringBuilder str = new StringBuilder();
-		for(String attr : values.keySet()) {
-			for(String v : values.get(attr)) {
-				str.append(attr);
-				str.append("\t");
-				str.append(v);
-				str.append("\n");
+		final Map<String, Set<String>> values = mapper.getAttributes(xref);
+		return new Result() {
+			public void write(Writer writer) throws IOException {
+				for(Map.Entry<String, Set<String>> e : values.entrySet()) {
+					for(String v : e.getValue()) {
+						writer.write(e.getKey());
+						writer.write("\t");
+						writer.write(v);
+						writer.write("\n");
+					}
+				}
 			}
-		}
-		return str.toString();
+		};
 	}	
 }
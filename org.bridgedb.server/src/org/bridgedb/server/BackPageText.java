@@ -16,12 +16,15 @@
 //
 package org.bridgedb.server;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
@@ -29,13 +32,16 @@ import org.restlet.resource.ResourceException;
  * Resource that handles the xref queries
  */
 public class BackPageText extends IDMapperResource {
+	/** attributes shown on the back page, in this order */
+	private static final String[] BACK_PAGE_ATTRIBUTES = 
+		{ "Symbol", "Description", "Type", "Chromosome", "Synonyms" };
+
 	Xref xref;
 	DataSource targetDs;
 	
 	protected void doInit() throws ResourceException {
 		super.doInit();
 		try {
-		    System.out.println( "Xrefs.doInit start" );
 			//Required parameters
 			String id = urlDecode((String)getRequest().getAttributes().get(IDMapperService.PAR_ID));
 			String dsName = urlDecode((String)getRequest().getAttributes().get(IDMapperService.PAR_SYSTEM));
@@ -54,44 +60,33 @@ public class BackPageText extends IDMapperResource {
 	}
 
 	@Get
-	public String getBackPageText() 
+	public Representation getBackPageText() 
 	{
-		System.out.println( "Xrefs.getBackPageText() start" );
-		try 
-		{
-			IDMapperStack mapper = getIDMappers();
+		return cacheable(new Body() {
+			public Result get() throws IDMapperException
+			{
+				IDMapperStack mapper = getIDMappers();
 
-			//The result set
-			Set<String> bpInfoSym = mapper.getAttributes( xref, "Symbol");
-			Set<String> bpInfoDes = mapper.getAttributes( xref, "Description");
-			Set<String> bpInfoTyp = mapper.getAttributes( xref, "Type");
-			Set<String> bpInfoChr = mapper.getAttributes( xref, "Chromosome");
-			Set<String> bpInfoSyn = mapper.getAttributes( xref, "Synonyms");
+				//The result set, all attributes in a single query
+				Map<Xref, Map<String, Set<String>>> attributes = mapper.getAttributes(
+						Collections.singleton(xref), BACK_PAGE_ATTRIBUTES);
+				Map<String, Set<String>> bpInfo = attributes.get(xref);
 
-			StringBuilder result = new StringBuilder();
-			result.append("<html><body><table>");
-			for( String x : bpInfoSym ) {
-				result.append("<tr><td>Symbol</td><td>" + x + "</td></tr>" );
-			}
-			for( String x : bpInfoDes ) {
-				result.append("<tr><td>Description</td><td>" + x + "</td></tr>" );
-			}
-			for( String x : bpInfoTyp ) {
-				result.append("<tr><td>Type</td><td>" + x + "</td></tr>" );
+				StringBuilder result = new StringBuilder();
+				result.append("<html><body><table>");
+				for (String attrName : BACK_PAGE_ATTRIBUTES)
+				{
+					Set<String> values = bpInfo == null ? null : bpInfo.get(attrName);
+					if (values == null) continue;
+					for( String x : values ) {
+						result.append("<tr><td>" + attrName + "</td><td>" + x + "</td></tr>" );
+					}
+				}
+				result.append("</table></body></html>");
+				// this response is small, so it is built in memory
+				return text( result.toString() );
 			}
-			for( String x : bpInfoChr ) {
-				result.append("<tr><td>Chromosome</td><td>" + x + "</td></tr>" );
-			}
-			for( String x : bpInfoSyn ) {
-				result.append("<tr><td>Synonyms</td><td>" + x + "</td></tr>" );
-			}
-			result.append("</table></body></html>");
-			return( result.toString() );
-		} catch( Exception e ) {
-			e.printStackTrace();
-			setStatus( Status.SERVER_ERROR_INTERNAL );
-			return e.getMessage();
-		}
+		});
 	}
 
 }
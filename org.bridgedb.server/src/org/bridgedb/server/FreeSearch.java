@@ -16,11 +16,14 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Set;
 
 import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
@@ -47,27 +50,26 @@ public class FreeSearch extends IDMapperResource {
 	}
 
 	@Get
-	public String search() 
+	public Representation search() 
 	{
-		try 
-		{
-			IDMapper mapper = getIDMappers();
-			Set<Xref> results = mapper.freeSearch(searchStr, limit);
+		return streaming(new Body() {
+			public Result get() throws IDMapperException
+			{
+				IDMapper mapper = getIDMappers();
+				final Set<Xref> results = mapper.freeSearch(searchStr, limit);
 
-			StringBuilder result = new StringBuilder();
-			for(Xref x : results) {
-				result.append(x.getId());
-				result.append("\t");
-				result.append(x.getDataSource().getFullName());
-				result.append("\n");
+				return new Result() {
+					public void write(Writer writer) throws IOException {
+						for(Xref x : results) {
+							writer.write(x.getId());
+							writer.write("\t");
+							writer.write(String.valueOf(x.getDataSource().getFullName()));
+							writer.write("\n");
+						}
+					}
+				};
 			}
-
-			return(result.toString());
-		} catch( Exception e ) {
-			e.printStackTrace();
-			setStatus( Status.SERVER_ERROR_INTERNAL );
-			return e.getMessage();
-		}
+		});
 	}
 
 }
@@ -0,0 +1,259 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.bio.Organism;
+import org.bridgedb.rdb.GdbProvider;
+
+/**
+ * The set of databases that the server uses between two reloads of the configuration.
+ * <p>
+ * Each request leases the current generation for as long as it uses the databases,
+ * including the time needed to write the response. After a reload,
+ * the mappers that are no longer configured are closed when the last lease
+ * on the old generation is released.
+ * <p>
+ * A generation also keeps track of which organisms are ready to serve requests,
+ * i.e. have had their databases warmed up.
+ */
+final class Generation
+{
+	/**
+	 * Info table fields that together identify the contents of a database.
+	 * Databases that don't have BUILDDATE are not considered static.
+	 */
+	private static final String[] VERSION_PROPERTIES = { "BUILDDATE", "DATASOURCEVERSION", "SCHEMAVERSION" };
+
+	private final GdbProvider gdbProvider;
+
+	/** database version by organism, empty string if the databases are not versioned */
+	private final Map<Organism, String> versions = new ConcurrentHashMap<Organism, String>();
+
+	/** readiness status of an organism whose databases are warmed up */
+	static final String READY = "ready";
+	/** readiness status of an organism whose databases are not warmed up yet */
+	static final String LOADING = "loading";
+
+	/** maximum number of organisms that are warmed up at the same time */
+	private static final int WARM_UP_THREADS = 8;
+
+	/** readiness status by organism, READY, LOADING or an error message */
+	private final Map<Organism, String> readiness = new ConcurrentHashMap<Organism, String>();
+
+	private final AtomicInteger leases = new AtomicInteger();
+	private volatile GdbProvider successor = null;
+	private volatile boolean retired = false;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	Generation(GdbProvider gdbProvider)
+	{
+		this.gdbProvider = gdbProvider;
+		for (Organism organism : gdbProvider.getOrganisms())
+		{
+			readiness.put(organism, LOADING);
+		}
+	}
+
+	/**
+	 * Warm up the databases of all organisms, several organisms at a time,
+	 * and wait until that is done.
+	 * Organisms become ready one by one, as soon as their own databases are warmed up.
+	 * @return true if all organisms are ready, false if warming up failed for some of them.
+	 */
+	boolean warmUp()
+	{
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Organism organism : readiness.keySet())
+		{
+			tasks.add(new Callable<Void>() {
+				public Void call()
+				{
+					try
+					{
+						gdbProvider.warmUp(organism);
+						readiness.put(organism, READY);
+					}
+					catch (IDMapperException ex)
+					{
+						ex.printStackTrace();
+						readiness.put(organism, "failed: " + ex.getMessage());
+					}
+					return null;
+				}
+			});
+		}
+		if (tasks.size() > 0)
+		{
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), WARM_UP_THREADS));
+			try
+			{
+				executor.invokeAll(tasks);
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+		return isReady();
+	}
+
+	/** @return true if the databases of all organisms are warmed up */
+	boolean isReady()
+	{
+		for (String status : readiness.values())
+		{
+			if (!READY.equals(status)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return readiness status of each organism: 
+	 * 	{@link #READY}, {@link #LOADING} or an error message if warming up failed.
+	 */
+	Map<Organism, String> getReadiness()
+	{
+		return new HashMap<Organism, String>(readiness);
+	}
+
+	GdbProvider getGdbProvider()
+	{
+		return gdbProvider;
+	}
+
+	/** Start using this generation. Each call must be followed by a call to release(). */
+	void acquire()
+	{
+		leases.incrementAndGet();
+	}
+
+	/** Stop using this generation. Closes it if it was retired and this was the last lease. */
+	void release()
+	{
+		if (leases.decrementAndGet() == 0 && retired) close();
+	}
+
+	/** @return number of leases that have not been released yet */
+	int getLeaseCount()
+	{
+		return leases.get();
+	}
+
+	/**
+	 * Mark this generation as replaced. It is closed as soon as it is no longer in use.
+	 * @param next GdbProvider of the generation that replaces this one,
+	 * 	mappers that are also used by next are not closed.
+	 */
+	void retire(GdbProvider next)
+	{
+		successor = next;
+		retired = true;
+		if (leases.get() == 0) close();
+	}
+
+	/**
+	 * Close the mappers that are not used by the successor.
+	 * Only the first call has an effect, so this can also be used
+	 * to stop waiting for leases that are never released.
+	 */
+	void close()
+	{
+		if (closed.compareAndSet(false, true))
+		{
+			gdbProvider.closeUnused(successor);
+		}
+	}
+
+	/**
+	 * Version of the databases loaded for an organism, calculated from the
+	 * BUILDDATE, DATASOURCEVERSION and SCHEMAVERSION info fields of each database.
+	 * The version is calculated once per organism and then remembered.
+	 * @param organism organism to get the version for
+	 * @return a hash of the info fields of all databases of the organism,
+	 * 	or null if one of the databases doesn't have a build date, so
+	 * 	responses for this organism can't be cached.
+	 * @throws IDMapperException if the capabilities of a database can't be read
+	 */
+	String getDatabaseVersion(Organism organism) throws IDMapperException
+	{
+		String result = versions.get(organism);
+		if (result == null)
+		{
+			result = calculateVersion(gdbProvider.getStack(organism));
+			versions.put(organism, result);
+		}
+		return result.length() == 0 ? null : result;
+	}
+
+	private static String calculateVersion(IDMapperStack stack) throws IDMapperException
+	{
+		StringBuilder info = new StringBuilder();
+		for (int i = 0; i < stack.getSize(); ++i)
+		{
+			IDMapperCapabilities caps = stack.getIDMapperAt(i).getCapabilities();
+			if (caps.getProperty(VERSION_PROPERTIES[0]) == null) return "";
+			info.append(stack.getIDMapperAt(i).toString());
+			for (String key : VERSION_PROPERTIES)
+			{
+				info.append("\t");
+				info.append(caps.getProperty(key));
+			}
+			info.append("\n");
+		}
+		try
+		{
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			StringBuilder result = new StringBuilder();
+			for (byte b : md5.digest(info.toString().getBytes("UTF-8")))
+			{
+				result.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+			}
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// MD5 is always available
+			throw new IllegalStateException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// UTF-8 is always available
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -16,13 +16,24 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
 import org.bridgedb.bio.Organism;
-import org.bridgedb.rdb.GdbProvider;
+import org.restlet.data.CacheDirective;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.EmptyRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.representation.WriterRepresentation;
 import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
 
@@ -33,6 +44,34 @@ import org.restlet.resource.ServerResource;
 public class IDMapperResource extends ServerResource {
 	private IDMapperStack mappers;
 	private String orgName;
+	private Organism org;
+	/** lease on the databases, null once it has been released or handed over to the response */
+	private Generation generation;
+
+	/**
+	 * Queries the databases for the body of a response.
+	 * @see IDMapperResource#streaming(Body)
+	 * @see IDMapperResource#cacheable(Body)
+	 */
+	protected interface Body {
+		/**
+		 * Called before the response is sent, so that errors
+		 * can still be reported with an error status.
+		 * @return writes the result of the query
+		 */
+		Result get() throws IDMapperException;
+	}
+
+	/**
+	 * Writes the result of a query to the response.
+	 */
+	protected interface Result {
+		/**
+		 * Called while the response is sent. Should write each row as it is
+		 * formatted, without building the whole response in memory.
+		 */
+		void write(Writer writer) throws IOException;
+	}
 	
 	protected DataSource parseDataSource(String dsName) {
 		if(dsName == null) return null;
@@ -48,13 +87,30 @@ public class IDMapperResource extends ServerResource {
 	
 	@Override
 	protected void doInit() throws ResourceException {
+		generation = getService().acquireGeneration();
 		try {
 		orgName = urlDecode(
 				(String) getRequest().getAttributes().get(IDMapperService.PAR_ORGANISM)
 		);
 		initIDMappers();
 		} catch(UnsupportedEncodingException e) {
+			doRelease();
 			throw new ResourceException(e);
+		} catch(RuntimeException e) {
+			doRelease();
+			throw e;
+		}
+	}
+
+	/**
+	 * Release the lease on the databases, unless the response entity 
+	 * still needs them to write the response.
+	 */
+	@Override
+	protected void doRelease() {
+		if (generation != null) {
+			generation.release();
+			generation = null;
 		}
 	}
 	
@@ -66,7 +122,7 @@ public class IDMapperResource extends ServerResource {
 	}
 	
 	private void initIDMappers() {
-		Organism org = Organism.fromLatinName(orgName);
+		org = Organism.fromLatinName(orgName);
 		if(org == null) { //Fallback on code
 			org = Organism.fromCode(orgName);
 		}
@@ -76,7 +132,7 @@ public class IDMapperResource extends ServerResource {
 		if(org == null) {
 			throw new IllegalArgumentException("Unknown organism: " + orgName + "<p><font size='+1'><i>Double check the spelling. We are expecting an entry like: Human</i></font></p>");
 		}
-		mappers = getGdbProvider().getStack(org);
+		mappers = generation.getGdbProvider().getStack(org);
 		if (mappers.getSize() == 0)
 		{
 			throw new IllegalArgumentException("No database found for: " + orgName +"<p><font size='+1'><i>Verify that the database is supported and properly referenced in gdb.config.</i></font></p>");
@@ -86,7 +142,134 @@ public class IDMapperResource extends ServerResource {
 		return mappers;
 	}
 	
-	private GdbProvider getGdbProvider() {
-		return ((IDMapperService)getApplication()).getGdbProvider();
+	private IDMapperService getService() {
+		return (IDMapperService)getApplication();
+	}
+
+	/**
+	 * Response entity that writes a query result while it is sent.
+	 * It takes over the lease on the databases from the resource,
+	 * and releases it when the response has been sent.
+	 */
+	private final class ResultRepresentation extends WriterRepresentation {
+		private final Result result;
+		private final Generation lease;
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final String version;
+		private final String url;
+
+		/**
+		 * @param result writes the response
+		 * @param version database version to cache the response with, or null to not cache it.
+		 * @param url request url to cache the response with
+		 */
+		ResultRepresentation(Result result, String version, String url) {
+			super(MediaType.TEXT_PLAIN);
+			this.result = result;
+			this.version = version;
+			this.url = url;
+			lease = generation;
+			generation = null;
+		}
+
+		@Override
+		public void write(Writer writer) throws IOException {
+			if (version == null) {
+				result.write(writer);
+				writer.flush();
+			} else {
+				ResponseCache.Recorder recorder = getService().getResponseCache().record(
+						version, url, writer, IDMapperService.MAX_CACHED_RESPONSE);
+				result.write(recorder);
+				recorder.flush();
+				recorder.finish();
+			}
+		}
+
+		@Override
+		public void release() {
+			super.release();
+			if (lease != null && released.compareAndSet(false, true)) lease.release();
+		}
+	}
+
+	/**
+	 * @param text complete response body
+	 * @return Result that writes text
+	 */
+	protected static Result text(final String text) {
+		return new Result() {
+			public void write(Writer writer) throws IOException {
+				writer.write(text);
+			}
+		};
+	}
+
+	/**
+	 * Respond with a body that is written to the client while it is formatted,
+	 * without caching.
+	 * @param body queries the databases
+	 * @return the response entity, or an error message with status 500 if body failed.
+	 */
+	protected Representation streaming(Body body) {
+		try {
+			return new ResultRepresentation(body.get(), null, null);
+		} catch(Exception e) {
+			e.printStackTrace();
+			setStatus(Status.SERVER_ERROR_INTERNAL);
+			return new StringRepresentation(e.getMessage());
+		}
+	}
+
+	/**
+	 * Respond with a body that only depends on the request URL and the loaded databases.
+	 * <p>
+	 * If the databases of the organism have a version, the response gets a strong ETag
+	 * and a Cache-Control: no-cache header, so clients may keep it but must check that it is
+	 * still current. A request with a matching If-None-Match header is
+	 * answered with 304 Not Modified, and other requests are answered from the response cache
+	 * when possible, so in both cases body isn't called.
+	 * Otherwise the body is streamed as with {@link #streaming(Body)}, and a copy is
+	 * put in the response cache, unless it is larger than
+	 * {@link IDMapperService#MAX_CACHED_RESPONSE}.
+	 * @param body queries the databases
+	 * @return the response entity, or an error message with status 500 if body failed.
+	 */
+	protected Representation cacheable(Body body) {
+		try {
+			String version = generation.getDatabaseVersion(org);
+			if (version == null) {
+				return streaming(body);
+			}
+
+			String url = getRequest().getResourceRef().toString();
+			Tag tag = new Tag(version + "-" + Integer.toHexString(url.hashCode()), false);
+			// databases may be reloaded at any time, so clients must revalidate with the ETag
+			getResponse().getCacheDirectives().add(CacheDirective.noCache());
+
+			for (Tag t : getRequest().getConditions().getNoneMatch()) {
+				if (t.equals(Tag.ALL) || t.equals(tag, true)) {
+					setStatus(Status.REDIRECTION_NOT_MODIFIED);
+					Representation result = new EmptyRepresentation();
+					result.setTag(tag);
+					return result;
+				}
+			}
+
+			String text = getService().getResponseCache().get(version, url);
+			if (text != null) {
+				Representation result = new StringRepresentation(text, MediaType.TEXT_PLAIN);
+				result.setTag(tag);
+				return result;
+			}
+
+			Representation result = new ResultRepresentation(body.get(), version, url);
+			result.setTag(tag);
+			return result;
+		} catch(Exception e) {
+			e.printStackTrace();
+			setStatus(Status.SERVER_ERROR_INTERNAL);
+			return new StringRepresentation(e.getMessage());
+		}
 	}
 }
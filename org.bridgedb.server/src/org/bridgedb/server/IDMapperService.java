@@ -18,6 +18,10 @@ package org.bridgedb.server;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.bridgedb.AttributeMapper;
 import org.bridgedb.IDMapper;
@@ -38,6 +42,7 @@ public class IDMapperService extends Application {
 	public static final String PAR_ID = "id";
 	public static final String PAR_SYSTEM = "system";
 	public static final String PAR_QUERY = "query";
+	public static final String PAR_PREFIX = "prefix";
 
 	public static final String PAR_TARGET_SYSTEM = "dataSource";
 	public static final String PAR_TARGET_ATTR_NAME = "attrName";
@@ -48,6 +53,7 @@ public class IDMapperService extends Application {
 
 	public final File configFile;
 	private boolean transitive;
+	private int reloadInterval = 0;
 
 	public IDMapperService(File aConfigFile, boolean transitive)
 	{
@@ -97,6 +103,18 @@ public class IDMapperService extends Application {
 	public static final String URL_XREFS = "/{" + PAR_ORGANISM + "}/xrefs/{" + PAR_SYSTEM + "}/{" + 
 		PAR_ID + "}";
 
+	/**
+	 * URL pattern for mapping many xrefs in one POST request.
+	 * The request body has an xref on each line, as identifier and system separated by a tab,
+	 * and at most {@link #MAX_BATCH_LINES} lines.
+	 * The dataSource parameter may be repeated to select several target datasources.<BR>
+	 * <code>
+	 * /{organism}/xrefsBatch[?dataSource={dsName}[&dataSource={dsName}...]]
+	 * </code> 
+	 * @see IDMapper#mapID(java.util.Collection, org.bridgedb.DataSource...)
+	 */
+	public static final String URL_XREFS_BATCH = "/{" + PAR_ORGANISM + "}/xrefsBatch";
+
 	/**
 	 * URL pattern for searching xrefs.<BR>
 	 * <code>
@@ -173,6 +191,18 @@ public class IDMapperService extends Application {
 	 */
 	public static final String URL_ATTRIBUTE_SEARCH = "/{" + PAR_ORGANISM + "}/attributeSearch/{" + PAR_QUERY + "}";
 	
+	/**
+	 * URL pattern for type-ahead suggestions, ranked: exact matches first, then values
+	 * that start with the prefix, then values that contain it. Returns tab delimited text 
+	 * in the same format as attributeSearch. The limit is 10 unless given, the attribute
+	 * is Symbol unless given.<BR>
+	 * <code>
+	 * /{organism}/suggest/{prefix}?[limit={limit}][&attrName={attrName}]
+	 * </code>
+	 * @see org.bridgedb.PrefixAttributeMapper#prefixAttributeSearch(String, String, int)
+	 */
+	public static final String URL_SUGGEST = "/{" + PAR_ORGANISM + "}/suggest/{" + PAR_PREFIX + "}";
+	
 	/**
 	 * URL pattern for getting attributes of an xref. If attrName is supplied, this method
 	 * returns plain text with an attribute value on each line. If attrName is not supplied, 
@@ -213,6 +243,26 @@ public class IDMapperService extends Application {
 	 */
 	public static final String URL_CONTENTS = "/contents";
 
+	/**
+	 * URL pattern for getting request and database statistics,
+	 * in the Prometheus text format.<BR>
+	 * <code>
+	 * /metrics
+	 * </code>
+	 * @see MetricsRegistry#format(GdbProvider)
+	 */
+	public static final String URL_METRICS = "/metrics";
+
+	/**
+	 * URL pattern for finding out which organisms are ready to serve requests.
+	 * Returns status 503 until the databases of all organisms are warmed up.<BR>
+	 * <code>
+	 * /ready
+	 * </code>
+	 * @see Readiness#getReadiness()
+	 */
+	public static final String URL_READY = "/ready";
+
 	/**
 	 * URL pattern for getting backpage HTML.<BR>
 	 * URL:<BR>
@@ -221,12 +271,76 @@ public class IDMapperService extends Application {
 	public static final String URL_BACK_PAGE_TEXT = "/{" + PAR_ORGANISM + "}/backPageText/{" + PAR_SYSTEM + "}/{" + 
 		PAR_ID + "}";
 
-	private GdbProvider gdbProvider;
+	/** databases in use, replaced on reload */
+	private volatile Generation generation;
+
+	/** checks for modified configuration, null if reloading is disabled */
+	private ScheduledExecutorService reloader = null;
+
+	/** 
+	 * maximum time to wait for requests on databases that have been replaced, 
+	 * before they are closed anyway, in seconds.
+	 */
+	public static final int DRAIN_TIMEOUT = 10 * 60;
+
+	/** maximum total number of characters of the response bodies kept in the response cache */
+	public static final long RESPONSE_CACHE_CHARS = 16 * 1024 * 1024;
+
+	/** maximum number of characters of a response body that is kept in the response cache */
+	public static final int MAX_CACHED_RESPONSE = 64 * 1024;
+
+	/** maximum number of lines in the request body of {@link #URL_XREFS_BATCH} */
+	public static final int MAX_BATCH_LINES = 10000;
+
+	private final MetricsRegistry metrics = new MetricsRegistry();
+
+	private final ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_CHARS);
+
+	/**
+	 * Check the configuration file and the database files for changes
+	 * every interval seconds, and reload them if they were modified.
+	 * Must be called before the service is started.
+	 * @param interval time between checks in seconds, 0 to disable reloading (the default).
+	 */
+	public void setReloadInterval(int interval) {
+		reloadInterval = interval;
+	}
 
 	public synchronized void start() throws Exception {
 		super.start();
 		BioDataSource.init();
 		connectGdbs();
+		// serve requests right away, organisms become ready as they are warmed up
+		final Generation first = generation;
+		Thread warmUp = new Thread(new Runnable() {
+			public void run() {
+				first.warmUp();
+			}
+		}, "gdb warm-up");
+		warmUp.setDaemon(true);
+		warmUp.start();
+		if (reloadInterval > 0) {
+			reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gdb.config reloader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			reloader.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					reloadIfModified();
+				}
+			}, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+		}
+	}
+
+	public synchronized void stop() throws Exception {
+		if (reloader != null) {
+			reloader.shutdownNow();
+			reloader = null;
+		}
+		super.stop();
 	}
 
 	public Restlet createRoot() {
@@ -241,56 +355,132 @@ public class IDMapperService extends Application {
 		Redirector redirector = new Redirector(getContext(), target, Redirector.MODE_CLIENT_TEMPORARY);	
 		router.attach(URL_HOME, redirector);
 
-		router.attach(URL_CONFIG, Config.class);
-		router.attach(URL_CONTENTS, Contents.class);
+		router.attach(URL_CONFIG, metered(Config.class));
+		router.attach(URL_CONTENTS, metered(Contents.class));
+		router.attach(URL_METRICS, Metrics.class);
+		router.attach(URL_READY, Readiness.class);
 
 		/* IDMapper methods */
 		//Register the route for the xrefs url pattern
-		Route xrefsRoute = router.attach(URL_XREFS, Xrefs.class);
+		Route xrefsRoute = router.attach(URL_XREFS, metered(Xrefs.class));
 		//Specify that the dataSource parameter needs to be included
 		//in the attributes
 		xrefsRoute.extractQuery(PAR_TARGET_SYSTEM, PAR_TARGET_SYSTEM, true);
 
-		Route searchRoute = router.attach( URL_SEARCH, FreeSearch.class );
+		router.attach(URL_XREFS_BATCH, metered(XrefsBatch.class));
+
+		Route searchRoute = router.attach( URL_SEARCH, metered(FreeSearch.class) );
 		searchRoute.extractQuery( PAR_TARGET_LIMIT, PAR_TARGET_LIMIT, true );
 		
-		router.attach(URL_XREF_EXISTS, XrefExists.class);
+		router.attach(URL_XREF_EXISTS, metered(XrefExists.class));
 		
 		/* IDMapperCapabilities methods */
-		router.attach (URL_PROPERTIES, Properties.class );
+		router.attach (URL_PROPERTIES, metered(Properties.class) );
 
 		router.attach (
-				URL_SUPPORTED_SOURCE_DATASOURCES, SupportedSourceDataSources.class );
+				URL_SUPPORTED_SOURCE_DATASOURCES, metered(SupportedSourceDataSources.class) );
 		router.attach (
-				URL_SUPPORTED_TARGET_DATASOURCES, SupportedTargetDataSources.class );
+				URL_SUPPORTED_TARGET_DATASOURCES, metered(SupportedTargetDataSources.class) );
 		
-		router.attach(URL_ATTRIBUTE_SET, AttributeSet.class);
+		router.attach(URL_ATTRIBUTE_SET, metered(AttributeSet.class));
 		
-		router.attach(URL_IS_FREE_SEARCH_SUPPORTED, IsFreeSearchSupported.class);
+		router.attach(URL_IS_FREE_SEARCH_SUPPORTED, metered(IsFreeSearchSupported.class));
 		
-		router.attach(URL_IS_MAPPING_SUPPORTED, IsMappingSupported.class);
+		router.attach(URL_IS_MAPPING_SUPPORTED, metered(IsMappingSupported.class));
 		
 		/* AttributeMapper methods */
-		Route attrSearchRoute = router.attach( URL_ATTRIBUTE_SEARCH, AttributeSearch.class );
+		Route attrSearchRoute = router.attach( URL_ATTRIBUTE_SEARCH, metered(AttributeSearch.class) );
 		attrSearchRoute.extractQuery( PAR_TARGET_LIMIT, PAR_TARGET_LIMIT, true );
 		attrSearchRoute.extractQuery( PAR_TARGET_ATTR_NAME, PAR_TARGET_ATTR_NAME, true );
 		
-		Route attributesRoute = router.attach(URL_ATTRIBUTES, Attributes.class );
+		Route suggestRoute = router.attach( URL_SUGGEST, metered(Suggest.class) );
+		suggestRoute.extractQuery( PAR_TARGET_LIMIT, PAR_TARGET_LIMIT, true );
+		suggestRoute.extractQuery( PAR_TARGET_ATTR_NAME, PAR_TARGET_ATTR_NAME, true );
+		
+		Route attributesRoute = router.attach(URL_ATTRIBUTES, metered(Attributes.class) );
 		attributesRoute.extractQuery( PAR_TARGET_ATTR_NAME, PAR_TARGET_ATTR_NAME, true );
 		
 		/* Extra methods */
 		// Register the route for backPageText
-		router.attach( URL_BACK_PAGE_TEXT, BackPageText.class );
+		router.attach( URL_BACK_PAGE_TEXT, metered(BackPageText.class) );
 		
 
                 //Register the route for a url pattern that doesn't match other patterns
-                router.attach(URL_NO_MATCH, NoMatch.class);
+                router.attach(URL_NO_MATCH, metered(NoMatch.class));
                 
 		return router;
 	}
 
+	/**
+	 * Wrap a resource in a {@link MetricsFilter}, so its requests
+	 * are included in the metrics.
+	 */
+	private Restlet metered(Class<?> resourceClass) {
+		return new MetricsFilter(getContext(), metrics, resourceClass);
+	}
+
+	/** @return the databases currently in use */
 	public GdbProvider getGdbProvider() {
-		return gdbProvider;
+		return generation.getGdbProvider();
+	}
+
+	/**
+	 * Lease the current databases, so they are not closed by a reload
+	 * while a request uses them. Call {@link Generation#release()} when done.
+	 */
+	Generation acquireGeneration() {
+		while (true) {
+			Generation result = generation;
+			result.acquire();
+			// make sure a reload didn't retire it in the meantime
+			if (result == generation) return result;
+			result.release();
+		}
+	}
+
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Reload the configuration and the databases if they were modified.
+	 * The new databases are connected and warmed up in the calling thread, 
+	 * while requests are served from the old ones.
+	 * Then they replace the old ones for new requests at once. 
+	 * Old databases are closed when the last request that uses them is finished, 
+	 * unless they are still in use after the reload.
+	 * If reloading fails, the old databases stay in use.
+	 * @return true if the databases were reloaded
+	 */
+	public synchronized boolean reloadIfModified() {
+		final Generation old = generation;
+		if (old == null || !old.getGdbProvider().isModified()) return false;
+		try {
+			GdbProvider next = GdbProvider.reload(old.getGdbProvider());
+			Generation nextGeneration = new Generation(next);
+			if (!nextGeneration.warmUp()) {
+				// close the new databases, but not those that are also in use by old
+				nextGeneration.retire(old.getGdbProvider());
+				return false;
+			}
+			generation = nextGeneration;
+			old.retire(next);
+			if (reloader != null) {
+				reloader.schedule(new Runnable() {
+					public void run() {
+						old.close();
+					}
+				}, DRAIN_TIMEOUT, TimeUnit.SECONDS);
+			}
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
 	}
 
 	private void connectGdbs() throws IDMapperException, IOException, ClassNotFoundException 
@@ -300,6 +490,6 @@ public class IDMapperService extends Application {
 		if(gdbconf.length > 0) {
 			gdbFile = new File(gdbconf[0]);
 		}
-		gdbProvider = GdbProvider.fromConfigFile(gdbFile, transitive);
+		generation = new Generation(GdbProvider.fromConfigFile(gdbFile, transitive));
 	}
 }
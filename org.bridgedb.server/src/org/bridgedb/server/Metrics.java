@@ -0,0 +1,48 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Resource that returns request and database statistics
+ * in the Prometheus text format.
+ */
+public class Metrics extends ServerResource
+{
+	@Get
+	public Representation getMetrics()
+	{
+		try
+		{
+			IDMapperService service = (IDMapperService)getApplication();
+			String text = service.getMetrics().format(service.getGdbProvider());
+			return new StringRepresentation(text, MediaType.TEXT_PLAIN);
+		}
+		catch( Exception e )
+		{
+		    e.printStackTrace();
+		    setStatus( Status.SERVER_ERROR_INTERNAL );
+		    return new StringRepresentation(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,65 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.routing.Filter;
+
+/**
+ * Filter in front of a resource, that records the number of requests,
+ * errors and the latency in a {@link MetricsRegistry}.
+ * <p>
+ * Latency is measured until the response entity has been created.
+ * For resources that write their response while it is sent,
+ * the time to write the response is not included.
+ */
+public class MetricsFilter extends Filter
+{
+	private final MetricsRegistry metrics;
+	private final String resource;
+
+	/**
+	 * @param context restlet context
+	 * @param metrics registry to record the requests in
+	 * @param resourceClass resource to pass requests on to.
+	 * 	The simple class name is used as name of the resource in the metrics.
+	 */
+	public MetricsFilter(Context context, MetricsRegistry metrics, Class<?> resourceClass)
+	{
+		super(context);
+		this.metrics = metrics;
+		this.resource = resourceClass.getSimpleName();
+		setNext(resourceClass);
+	}
+
+	@Override
+	protected int doHandle(Request request, Response response)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return super.doHandle(request, response);
+		}
+		finally
+		{
+			metrics.addRequest(resource, System.nanoTime() - start,
+					response.getStatus().isError());
+		}
+	}
+}
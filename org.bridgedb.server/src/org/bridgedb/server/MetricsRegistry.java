@@ -0,0 +1,235 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.bio.Organism;
+import org.bridgedb.rdb.GdbProvider;
+import org.bridgedb.rdb.QueryStats;
+import org.bridgedb.rdb.SimpleGdb;
+
+/**
+ * Collects request statistics for each resource of the server,
+ * and writes them, together with the query statistics of the
+ * loaded databases, in the Prometheus text exposition format.
+ * <p>
+ * Latencies are kept in a fixed set of buckets that grow exponentially,
+ * so memory use doesn't depend on the number of requests.
+ * Reported quantiles are the upper bound of the bucket that contains them,
+ * which is at most 19% more than the exact value.
+ */
+public class MetricsRegistry
+{
+	/** upper bound of the first latency bucket, in nanoseconds */
+	private static final long FIRST_BUCKET = 100000L; // 0.1 msec
+	/** number of buckets for each doubling of latency */
+	private static final int BUCKETS_PER_DOUBLING = 4;
+	/** number of latency buckets, the last one includes everything above about 100 sec. */
+	private static final int BUCKET_COUNT = 20 * BUCKETS_PER_DOUBLING + 2;
+
+	private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	/** Statistics of a single resource. */
+	static final class RouteStats
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+		void add(long elapsed, boolean error)
+		{
+			count.incrementAndGet();
+			if (error) errors.incrementAndGet();
+			nanos.addAndGet(elapsed);
+			buckets.incrementAndGet(bucket(elapsed));
+		}
+
+		/**
+		 * @param q quantile between 0 and 1
+		 * @return estimate of the quantile, in nanoseconds, or 0 if there were no requests
+		 */
+		long quantile(double q)
+		{
+			long[] snapshot = new long[BUCKET_COUNT];
+			long total = 0;
+			for (int i = 0; i < BUCKET_COUNT; ++i)
+			{
+				snapshot[i] = buckets.get(i);
+				total += snapshot[i];
+			}
+			if (total == 0) return 0;
+			long rank = (long)Math.ceil(q * total);
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; ++i)
+			{
+				seen += snapshot[i];
+				if (seen >= rank) return upperBound(i);
+			}
+			return upperBound(BUCKET_COUNT - 1);
+		}
+	}
+
+	/** @return index of the bucket for the given latency */
+	static int bucket(long nanos)
+	{
+		if (nanos <= FIRST_BUCKET) return 0;
+		double doublings = Math.log((double)nanos / FIRST_BUCKET) / Math.log(2);
+		int result = (int)Math.ceil(doublings * BUCKETS_PER_DOUBLING);
+		return Math.min(result, BUCKET_COUNT - 1);
+	}
+
+	/** @return upper bound of a bucket, in nanoseconds */
+	static long upperBound(int bucket)
+	{
+		return (long)(FIRST_BUCKET * Math.pow(2, (double)bucket / BUCKETS_PER_DOUBLING));
+	}
+
+	private final ConcurrentMap<String, RouteStats> routes = new ConcurrentHashMap<String, RouteStats>();
+
+	/** @return statistics for a resource, created if necessary */
+	RouteStats getRouteStats(String resource)
+	{
+		RouteStats result = routes.get(resource);
+		if (result == null)
+		{
+			routes.putIfAbsent(resource, new RouteStats());
+			result = routes.get(resource);
+		}
+		return result;
+	}
+
+	/**
+	 * Record a handled request.
+	 * @param resource name of the resource that handled the request
+	 * @param elapsed time needed to handle the request, in nanoseconds
+	 * @param error true if the response status was an error
+	 */
+	public void addRequest(String resource, long elapsed, boolean error)
+	{
+		getRouteStats(resource).add(elapsed, error);
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format.
+	 * @param gdbs databases to report query statistics for, may be null.
+	 * @return the metrics as text
+	 */
+	public String format(GdbProvider gdbs)
+	{
+		StringBuilder result = new StringBuilder();
+		// sort by resource name for a stable output
+		Map<String, RouteStats> sorted = new TreeMap<String, RouteStats>(routes);
+
+		header(result, "bridgedb_http_requests_total", "counter", "Number of requests handled, by resource.");
+		for (Map.Entry<String, RouteStats> e : sorted.entrySet())
+		{
+			sample(result, "bridgedb_http_requests_total", "resource", e.getKey(), null, e.getValue().count.get());
+		}
+		header(result, "bridgedb_http_request_errors_total", "counter", "Number of requests answered with an error status, by resource.");
+		for (Map.Entry<String, RouteStats> e : sorted.entrySet())
+		{
+			sample(result, "bridgedb_http_request_errors_total", "resource", e.getKey(), null, e.getValue().errors.get());
+		}
+		header(result, "bridgedb_http_request_duration_seconds", "summary", "Time needed to handle a request, by resource.");
+		for (Map.Entry<String, RouteStats> e : sorted.entrySet())
+		{
+			RouteStats stats = e.getValue();
+			for (double q : QUANTILES)
+			{
+				sample(result, "bridgedb_http_request_duration_seconds", "resource", e.getKey(),
+						"quantile=\"" + q + "\"", seconds(stats.quantile(q)));
+			}
+			sample(result, "bridgedb_http_request_duration_seconds_sum", "resource", e.getKey(), null, seconds(stats.nanos.get()));
+			sample(result, "bridgedb_http_request_duration_seconds_count", "resource", e.getKey(), null, stats.count.get());
+		}
+
+		if (gdbs != null) formatQueryStats(result, gdbs);
+		return result.toString();
+	}
+
+	private static void formatQueryStats(StringBuilder result, GdbProvider gdbs)
+	{
+		// global databases are part of the stack of each organism, count them once
+		Map<SimpleGdb, Boolean> databases = new IdentityHashMap<SimpleGdb, Boolean>();
+		Map<String, SimpleGdb> sorted = new TreeMap<String, SimpleGdb>();
+		for (Organism org : gdbs.getOrganisms())
+		{
+			IDMapperStack stack = gdbs.getStack(org);
+			for (int i = 0; i < stack.getSize(); ++i)
+			{
+				IDMapper mapper = stack.getIDMapperAt(i);
+				if (mapper instanceof SimpleGdb && databases.put((SimpleGdb)mapper, Boolean.TRUE) == null)
+				{
+					sorted.put(((SimpleGdb)mapper).getDbName(), (SimpleGdb)mapper);
+				}
+			}
+		}
+
+		header(result, "bridgedb_db_queries_total", "counter", "Number of queries executed, by database.");
+		for (Map.Entry<String, SimpleGdb> e : sorted.entrySet())
+		{
+			sample(result, "bridgedb_db_queries_total", "database", e.getKey(), null, e.getValue().getQueryStats().getQueryCount());
+		}
+		header(result, "bridgedb_db_rows_total", "counter", "Number of rows read from query results, by database.");
+		for (Map.Entry<String, SimpleGdb> e : sorted.entrySet())
+		{
+			sample(result, "bridgedb_db_rows_total", "database", e.getKey(), null, e.getValue().getQueryStats().getRowCount());
+		}
+		header(result, "bridgedb_db_query_seconds_total", "counter", "Time spent executing queries, by database.");
+		for (Map.Entry<String, SimpleGdb> e : sorted.entrySet())
+		{
+			QueryStats stats = e.getValue().getQueryStats();
+			sample(result, "bridgedb_db_query_seconds_total", "database", e.getKey(), null, seconds(stats.getQueryNanos()));
+		}
+	}
+
+	private static void header(StringBuilder result, String name, String type, String help)
+	{
+		result.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		result.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder result, String name, String label, String value,
+			String extraLabel, Object sample)
+	{
+		result.append(name).append('{').append(label).append("=\"").append(escape(value)).append('"');
+		if (extraLabel != null) result.append(',').append(extraLabel);
+		result.append("} ").append(sample).append('\n');
+	}
+
+	private static String seconds(long nanos)
+	{
+		return String.format(Locale.US, "%.6f", nanos / 1e9);
+	}
+
+	/** escape a label value as required by the text format */
+	private static String escape(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -16,38 +16,49 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
 import org.bridgedb.IDMapperStack;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
 public class Properties extends IDMapperResource
 {
 	@Get
-	public String getPropertiesResult() 
+	public Representation getPropertiesResult() 
 	{
-		try
-		{
-	        StringBuilder result = new StringBuilder();
-	        IDMapperStack stack = getIDMappers();
-		    for(int i = 0; i < stack.getSize(); ++i) 
-		    {
-		    	IDMapper mapper = stack.getIDMapperAt(i);
-		    	for (String key : mapper.getCapabilities().getKeys())
-		    	{
-		    		result.append( key );
-		    		result.append( "\t" );
-		    		result.append( mapper.getCapabilities().getProperty(key) );
-		    		result.append( "\n" );
-		    	}
-		    }
-		    return result.toString();
-		} 
-		catch( Exception e ) 
+		return cacheable(new Body()
 		{
-		    e.printStackTrace();
-		    setStatus( Status.SERVER_ERROR_INTERNAL );
-		    return e.getMessage();
-		}
+			public Result get() throws IDMapperException
+			{
+				// read the properties before the response is sent, to report errors
+				final List<String> lines = new ArrayList<String>();
+				IDMapperStack stack = getIDMappers();
+				for(int i = 0; i < stack.getSize(); ++i) 
+				{
+					IDMapper mapper = stack.getIDMapperAt(i);
+					for (String key : mapper.getCapabilities().getKeys())
+					{
+						lines.add( key + "\t" + mapper.getCapabilities().getProperty(key) );
+					}
+				}
+				return new Result()
+				{
+					public void write(Writer writer) throws IOException
+					{
+						for (String line : lines)
+						{
+							writer.write( line );
+							writer.write( "\n" );
+						}
+					}
+				};
+			}
+		});
 	}
 }
@@ -0,0 +1,74 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bridgedb.bio.Organism;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Resource that reports which organisms are ready to serve requests. 
+ * Returns tab delimited text with the latin name of an organism and its status on each line.
+ * The status is "ready", "loading" or an error message.
+ * The HTTP status is 503 (Service Unavailable) until all organisms are ready.
+ */
+public class Readiness extends ServerResource
+{
+	@Get
+	public Representation getReadiness()
+	{
+		try
+		{
+			Generation generation = ((IDMapperService)getApplication()).acquireGeneration();
+			try
+			{
+				Map<String, String> sorted = new TreeMap<String, String>();
+				for (Map.Entry<Organism, String> e : generation.getReadiness().entrySet())
+				{
+					sorted.put(e.getKey().latinName(), e.getValue());
+				}
+				StringBuilder result = new StringBuilder();
+				for (Map.Entry<String, String> e : sorted.entrySet())
+				{
+					result.append (e.getKey());
+					result.append ("\t");
+					result.append (e.getValue());
+					result.append ("\n");
+				}
+				if (!generation.isReady()) setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+				return new StringRepresentation(result.toString(), MediaType.TEXT_PLAIN);
+			}
+			finally
+			{
+				generation.release();
+			}
+		}
+		catch( Exception e )
+		{
+		    e.printStackTrace();
+		    setStatus( Status.SERVER_ERROR_INTERNAL );
+		    return new StringRepresentation(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,180 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-process cache of response bodies, keyed by database version and request URL.
+ * <p>
+ * Because the key includes the database version, entries never have to
+ * be invalidated: after a database update they simply stop being used,
+ * and are eventually evicted. The cache is bounded by the total number of characters
+ * of the bodies it holds. When it is full, the least recently used entries are removed.
+ */
+public class ResponseCache
+{
+	private final long maxChars;
+
+	/** total length of the bodies in the cache */
+	private long chars = 0;
+
+	private final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+	/**
+	 * @param maxChars maximum total number of characters of the responses to keep
+	 */
+	public ResponseCache(long maxChars)
+	{
+		this.maxChars = maxChars;
+	}
+
+	private static String key(String version, String url)
+	{
+		return version + " " + url;
+	}
+
+	/**
+	 * @param version database version, see {@link Generation#getDatabaseVersion}
+	 * @param url request URL, including the query
+	 * @return the cached body, or null if it is not in the cache
+	 */
+	public String get(String version, String url)
+	{
+		synchronized (cache) { return cache.get(key(version, url)); }
+	}
+
+	/**
+	 * @param version database version, see {@link Generation#getDatabaseVersion}
+	 * @param url request URL, including the query
+	 * @param body response body to store
+	 */
+	public void put(String version, String url, String body)
+	{
+		if (body.length() > maxChars) return;
+		synchronized (cache) 
+		{
+			String previous = cache.put(key(version, url), body);
+			if (previous != null) chars -= previous.length();
+			chars += body.length();
+			Iterator<String> eldest = cache.values().iterator();
+			while (chars > maxChars)
+			{
+				chars -= eldest.next().length();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writer that passes a response on to the client, and keeps a copy 
+	 * that is put in the cache when the response is complete.
+	 * If the response grows beyond a maximum size, the copy is dropped and
+	 * the response is not cached.
+	 */
+	public final class Recorder extends FilterWriter
+	{
+		private final String version;
+		private final String url;
+		private final int maxSize;
+		private StringBuilder copy = new StringBuilder();
+
+		private Recorder(String version, String url, Writer out, int maxSize)
+		{
+			super(out);
+			this.version = version;
+			this.url = url;
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public void write(int c) throws IOException
+		{
+			out.write(c);
+			if (keep(1)) copy.append((char)c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException
+		{
+			out.write(cbuf, off, len);
+			if (keep(len)) copy.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException
+		{
+			out.write(str, off, len);
+			if (keep(len)) copy.append(str, off, off + len);
+		}
+
+		private boolean keep(int len)
+		{
+			if (copy != null && copy.length() + len > maxSize) copy = null;
+			return copy != null;
+		}
+
+		/**
+		 * Call when the whole response has been written, to put it in the cache.
+		 * Not calling this, e.g. because writing failed, leaves the cache unchanged.
+		 */
+		public void finish()
+		{
+			if (copy != null) put(version, url, copy.toString());
+			copy = null;
+		}
+	}
+
+	/**
+	 * Start recording a response while it is written.
+	 * @param version database version, see {@link Generation#getDatabaseVersion}
+	 * @param url request URL, including the query
+	 * @param out writer for the response to the client
+	 * @param maxSize maximum number of characters of a response that is cached
+	 * @return writer to write the response to.
+	 */
+	public Recorder record(String version, String url, Writer out, int maxSize)
+	{
+		return new Recorder(version, url, out, maxSize);
+	}
+
+	/** @return number of responses in the cache */
+	public int size()
+	{
+		synchronized (cache) { return cache.size(); }
+	}
+
+	/** @return total number of characters of the responses in the cache */
+	public long chars()
+	{
+		synchronized (cache) { return chars; }
+	}
+
+	/** Remove all responses from the cache. */
+	public void clear()
+	{
+		synchronized (cache) 
+		{
+			cache.clear();
+			chars = 0;
+		}
+	}
+}
@@ -40,10 +40,24 @@ public class Server
 	}
 
 	public void run(int port, File configFile, boolean transitive)
+	{
+		run(port, configFile, transitive, 0);
+	}
+
+	/**
+	 * @param port port to listen on
+	 * @param configFile configuration file, or null for gdb.config in the current directory
+	 * @param transitive enable transitive mapping
+	 * @param reloadInterval check the configuration and databases for changes every reloadInterval seconds,
+	 * 	and reload them when modified. 0 to disable.
+	 */
+	public void run(int port, File configFile, boolean transitive, int reloadInterval)
 	{
 		component = new Component();
 		component.getServers().add(Protocol.HTTP, port);
-		component.getDefaultHost().attach(new IDMapperService(configFile, transitive));		
+		IDMapperService service = new IDMapperService(configFile, transitive);
+		service.setReloadInterval(reloadInterval);
+		component.getDefaultHost().attach(service);		
 		try {
 			System.out.println ("Starting server on port " + port);
 			component.start();
@@ -66,6 +80,7 @@ public class Server
 	{
 		int port = 8183; // default port
 		boolean transitive = false;
+		int reloadInterval = 0;
 		File configFile = null;
 		
 		Options options = new Options();
@@ -78,6 +93,10 @@ public class Server
 				.hasArg()
 				.withDescription("Override configuration file (default: gdb.config)")
 				.create("f"));
+		options.addOption(OptionBuilder.withArgName("seconds")
+				.hasArg()
+				.withDescription("Reload configuration file and databases when they change, checking every n seconds (default: 0, don't reload)")
+				.create("r"));
 		options.addOption("h", false, "Print help and quit");
 		CommandLineParser parser = new PosixParser();
 		try
@@ -94,6 +113,7 @@ public class Server
 			if (line.hasOption("p")) port = Integer.parseInt(line.getOptionValue("p"));
 			if (line.hasOption("f")) configFile = new File (line.getOptionValue("f"));
 			if (line.hasOption("t")) transitive = true; 
+			if (line.hasOption("r")) reloadInterval = Integer.parseInt(line.getOptionValue("r"));
 				
 		}
 		catch (Exception e)
@@ -106,6 +126,6 @@ public class Server
 		
 		Server server = new Server();
 				
-		server.run (port, configFile, transitive);
+		server.run (port, configFile, transitive, reloadInterval);
 	}
 }
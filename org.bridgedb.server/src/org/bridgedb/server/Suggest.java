@@ -0,0 +1,107 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.GdbProvider;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Resource that handles ranked prefix searches, for type-ahead.
+ * Returns tab delimited text with an xref on each line, best match first,
+ * where the first column is the identifier, the second column
+ * is the datasource and the third column is the attribute value.
+ * Attributes that none of the databases have are rejected with status 400.
+ */
+public class Suggest extends IDMapperResource {
+	/** number of results if the limit parameter is not given */
+	public static final int DEFAULT_LIMIT = 10;
+	
+	String prefix;
+	String attribute;
+	int limit = DEFAULT_LIMIT;
+
+	protected void doInit() throws ResourceException {
+		super.doInit();
+		try {
+			prefix = urlDecode((String) getRequest().getAttributes().get( IDMapperService.PAR_PREFIX ));
+			attribute = urlDecode((String)getRequest().getAttributes().get( IDMapperService.PAR_TARGET_ATTR_NAME ));
+			if (attribute == null) attribute = GdbProvider.DEFAULT_SUGGEST_ATTRIBUTE;
+			String limitStr = (String)getRequest().getAttributes().get( IDMapperService.PAR_TARGET_LIMIT );
+
+			if ( null != limitStr ) 
+			{
+				limit = new Integer( limitStr ).intValue();
+			}
+		} catch(Exception e) {
+			throw new ResourceException(e);
+		}
+	}
+
+	@Get
+	public Representation suggest() 
+	{
+		try
+		{
+			if (!AttributeMapper.MATCH_ID.equals(attribute) && 
+					!getIDMappers().getAttributeSet().contains(attribute))
+			{
+				setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+				return new StringRepresentation("Unknown attribute: " + attribute);
+			}
+		}
+		catch (IDMapperException e)
+		{
+			e.printStackTrace();
+			setStatus(Status.SERVER_ERROR_INTERNAL);
+			return new StringRepresentation(e.getMessage());
+		}
+
+		return cacheable(new Body() {
+			public Result get() throws IDMapperException
+			{
+				IDMapperStack mapper = getIDMappers();
+				final Map<Xref, String> results = mapper.prefixAttributeSearch(prefix, attribute, limit);
+
+				return new Result() {
+					public void write(Writer writer) throws IOException {
+						for(Map.Entry<Xref, String> e : results.entrySet()) {
+							writer.write(e.getKey().getId());
+							writer.write("\t");
+							writer.write(String.valueOf(e.getKey().getDataSource().getFullName()));
+							writer.write("\t");
+							writer.write(String.valueOf(e.getValue()));
+							writer.write("\n");
+						}
+					}
+				};
+			}
+		});
+	}
+
+}
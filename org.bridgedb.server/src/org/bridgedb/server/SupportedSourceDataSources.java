@@ -16,32 +16,39 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
-import org.restlet.data.Status;
+import org.bridgedb.IDMapperException;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 
 public class SupportedSourceDataSources extends IDMapperResource 
 {
 	@Get
-	public String getSupportedDataSourceResult() 
+	public Representation getSupportedDataSourceResult() 
 	{
-		try
-		{
-	        StringBuilder result = new StringBuilder();
-	        IDMapper mapper = getIDMappers();
-        	for (DataSource ds : mapper.getCapabilities().getSupportedSrcDataSources())
-	    	{
-	    		result.append(ds.getFullName());
-	    		result.append ("\n");
-	    	}
-		    return result.toString();
-		} 
-		catch( Exception e ) 
+		return cacheable(new Body()
 		{
-		    e.printStackTrace();
-		    setStatus( Status.SERVER_ERROR_INTERNAL );
-		    return e.getMessage();
-		}
+			public Result get() throws IDMapperException
+			{
+				IDMapper mapper = getIDMappers();
+				final Set<DataSource> dataSources = mapper.getCapabilities().getSupportedSrcDataSources();
+				return new Result()
+				{
+					public void write(Writer writer) throws IOException
+					{
+						for (DataSource ds : dataSources)
+						{
+							writer.write(String.valueOf(ds.getFullName()));
+							writer.write ("\n");
+						}
+					}
+				};
+			}
+		});
 	}
 }
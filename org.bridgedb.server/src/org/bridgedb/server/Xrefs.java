@@ -16,12 +16,15 @@
 //
 package org.bridgedb.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Set;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
-import org.restlet.data.Status;
+import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ResourceException;
 
@@ -35,7 +38,6 @@ public class Xrefs extends IDMapperResource {
 	protected void doInit() throws ResourceException {
 		super.doInit();
 		try {
-		    System.out.println( "Xrefs.doInit start" );
 			//Required parameters
 			String id = urlDecode((String)getRequest().getAttributes().get(IDMapperService.PAR_ID));
 			String dsName = urlDecode((String)getRequest().getAttributes().get(IDMapperService.PAR_SYSTEM));
@@ -56,31 +58,29 @@ public class Xrefs extends IDMapperResource {
 	}
 
 	@Get
-	public String getXrefs() {
-	   System.out.println( "Xrefs.getXrefs() start" );
-		try {
-			//The result set
+	public Representation getXrefs() {
+		return cacheable(new Body() {
+			public Result get() throws IDMapperException {
+				//The result set
 
-			IDMapper mapper = getIDMappers();
-			Set<Xref> xrefs;
-			if (targetDs == null)
-				xrefs = mapper.mapID(xref);
-			else
-				xrefs = mapper.mapID(xref, targetDs);
-			
-			StringBuilder result = new StringBuilder();
-			for(Xref x : xrefs) {
-				result.append(x.getId());
-				result.append("\t");
-				result.append(x.getDataSource().getFullName());
-				result.append("\n");
+				IDMapper mapper = getIDMappers();
+				final Set<Xref> xrefs;
+				if (targetDs == null)
+					xrefs = mapper.mapID(xref);
+				else
+					xrefs = mapper.mapID(xref, targetDs);
+				
+				return new Result() {
+					public void write(Writer writer) throws IOException {
+						for(Xref x : xrefs) {
+							writer.write(x.getId());
+							writer.write("\t");
+							writer.write(String.valueOf(x.getDataSource().getFullName()));
+							writer.write("\n");
+						}
+					}
+				};
 			}
-			
-			return result.toString();
-		} catch(Exception e) {
-			e.printStackTrace();
-			setStatus(Status.SERVER_ERROR_INTERNAL);
-			return e.getMessage();
-		}
+		});
 	}
 }
@@ -0,0 +1,165 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Resource that maps many xrefs in a single request.
+ * <p>
+ * The request body contains an xref on each line, as the identifier and
+ * the datasource separated by a tab. The datasource may be a system code or a full name
+ * of a DataSource that is already known to the server.
+ * Empty lines are ignored. Requests with more than {@link IDMapperService#MAX_BATCH_LINES}
+ * lines are refused with status 413.
+ * The result contains a line for each mapping, with four tab-separated columns:
+ * source identifier, source datasource, target identifier and target datasource.
+ * Lines are grouped by source xref, in the order of the request.
+ * Source xrefs without mappings don't appear in the result.
+ */
+public class XrefsBatch extends IDMapperResource {
+	DataSource[] targetDs;
+	Map<String, DataSource> knownDs;
+
+	protected void doInit() throws ResourceException {
+		super.doInit();
+		try {
+			knownDs = knownDataSources();
+			//Optional parameters, dataSource may be repeated
+			List<DataSource> targets = new ArrayList<DataSource>();
+			for (String targetDsName : getQuery().getValuesArray(IDMapperService.PAR_TARGET_SYSTEM)) {
+				DataSource ds = knownDs.get(targetDsName);
+				if(ds == null) {
+					throw new IllegalArgumentException("Unknown datasource: " + targetDsName);
+				}
+				targets.add(ds);
+			}
+			targetDs = targets.toArray(new DataSource[targets.size()]);
+		} catch(Exception e) {
+			throw new ResourceException(e);
+		}
+	}
+
+	/**
+	 * DataSources by system code and by full name. Unlike {@link #parseDataSource(String)},
+	 * looking up a name in the result doesn't register a new DataSource,
+	 * so the names in a request can't grow the registry.
+	 */
+	private static Map<String, DataSource> knownDataSources() {
+		Map<String, DataSource> result = new HashMap<String, DataSource>();
+		for (DataSource ds : DataSource.getDataSources()) {
+			if (ds.getSystemCode() != null) result.put(ds.getSystemCode(), ds);
+		}
+		//Full names take precedence, as in parseDataSource
+		for (DataSource ds : DataSource.getDataSources()) {
+			if (ds.getFullName() != null) result.put(ds.getFullName(), ds);
+		}
+		return result;
+	}
+
+	/**
+	 * Read the source xrefs from the request body.
+	 * @throws IllegalArgumentException if a line can't be parsed.
+	 * @throws ResourceException if there are too many lines.
+	 */
+	private Set<Xref> parseXrefs(Representation entity) throws IOException {
+		Set<Xref> result = new LinkedHashSet<Xref>();
+		if (entity == null) return result;
+		BufferedReader reader = new BufferedReader(entity.getReader());
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNo++;
+				if (lineNo > IDMapperService.MAX_BATCH_LINES) {
+					throw new ResourceException(Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE,
+							"More than " + IDMapperService.MAX_BATCH_LINES + " lines");
+				}
+				if (line.trim().length() == 0) continue;
+				String[] cols = line.split("\t");
+				if (cols.length < 2) {
+					throw new IllegalArgumentException("Line " + lineNo + ": expected identifier and datasource separated by a tab");
+				}
+				DataSource ds = knownDs.get(cols[1].trim());
+				if(ds == null) {
+					throw new IllegalArgumentException("Line " + lineNo + ": unknown datasource: " + cols[1]);
+				}
+				result.add(Xref.of(cols[0].trim(), ds));
+			}
+		} finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	@Post
+	public Representation mapXrefs(Representation entity) {
+		final Set<Xref> srcXrefs;
+		try {
+			srcXrefs = parseXrefs(entity);
+		} catch(ResourceException e) {
+			setStatus(e.getStatus());
+			return new StringRepresentation(e.getStatus().getDescription());
+		} catch(Exception e) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			return new StringRepresentation(e.getMessage());
+		}
+
+		return streaming(new Body() {
+			public Result get() throws IDMapperException {
+				IDMapper mapper = getIDMappers();
+				final Map<Xref, Set<Xref>> mappings = mapper.mapID(srcXrefs, targetDs);
+				return new Result() {
+					public void write(Writer writer) throws IOException {
+						for (Xref src : srcXrefs) {
+							Set<Xref> dests = mappings.get(src);
+							if (dests == null) continue;
+							for (Xref dest : dests) {
+								writer.write(src.getId());
+								writer.write("\t");
+								writer.write(String.valueOf(src.getDataSource().getFullName()));
+								writer.write("\t");
+								writer.write(dest.getId());
+								writer.write("\t");
+								writer.write(String.valueOf(dest.getDataSource().getFullName()));
+								writer.write("\n");
+							}
+						}
+					}
+				};
+			}
+		});
+	}
+}
@@ -0,0 +1,125 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.Organism;
+import org.bridgedb.rdb.GdbProvider;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstruct;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GenerationTest
+{
+	private static final DataSource ENSEMBL = DataSource.register("En", "Ensembl").asDataSource();
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Before public void setUp() throws ClassNotFoundException
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+	}
+
+	@After public void tearDown()
+	{
+		for (File f : files) f.delete();
+	}
+
+	private File tempFile(String suffix) throws IOException
+	{
+		File result = File.createTempFile("generation", suffix);
+		result.delete();
+		files.add (result);
+		return result;
+	}
+
+	/** Create a database with a single Ensembl gene */
+	private File createDatabase(String id) throws IOException, IDMapperException
+	{
+		File result = tempFile(".bridge");
+		GdbConstruct gdb = GdbConstructImpl3.createInstance("" + result, new DataDerby(), DBConnector.PROP_RECREATE);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		Xref ref = new Xref(id, ENSEMBL);
+		gdb.addGene(ref);
+		gdb.addLink(ref, ref);
+		gdb.commit();
+		gdb.finalize();
+		return result;
+	}
+
+	/**
+	 * A database file that is replaced in place while a request holds a lease
+	 * on the generation that uses it: the reload fails, and the old 
+	 * generation keeps working for the request that holds the lease and after it.
+	 */
+	@Test public void testReplacedInPlace() throws IOException, IDMapperException, ClassNotFoundException
+	{
+		File database = createDatabase("ENSG1");
+		File config = tempFile(".config");
+		Writer writer = new FileWriter(config);
+		writer.write("Homo sapiens\tidmapper-pgdb:" + database + "\n");
+		writer.close();
+
+		Generation generation = new Generation(GdbProvider.fromConfigFile(config));
+		generation.acquire();
+		try
+		{
+			IDMapperStack stack = generation.getGdbProvider().getStack(Organism.HomoSapiens);
+			Assert.assertTrue (stack.xrefExists(new Xref("ENSG1", ENSEMBL)));
+
+			File replacement = createDatabase("ENSG2");
+			replacement.setLastModified(database.lastModified() + 2000);
+			Assert.assertTrue (replacement.renameTo(database));
+			Assert.assertTrue (generation.getGdbProvider().isModified());
+			try
+			{
+				GdbProvider.reload(generation.getGdbProvider());
+				Assert.fail ("Reloading a database that was replaced in place should fail");
+			}
+			catch (IDMapperException expected)
+			{
+				Assert.assertTrue (expected.getMessage().contains("replaced in place"));
+			}
+
+			// the request that holds the lease can still use the old database
+			Assert.assertTrue (stack.xrefExists(new Xref("ENSG1", ENSEMBL)));
+		}
+		finally
+		{
+			generation.release();
+		}
+		Assert.assertTrue (generation.getGdbProvider().getStack(Organism.HomoSapiens)
+				.xrefExists(new Xref("ENSG1", ENSEMBL)));
+		generation.close();
+	}
+}
@@ -0,0 +1,158 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.Organism;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstruct;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Application;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.CacheDirective;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+
+public class IDMapperResourceTest
+{
+	private static final String URL = "http://localhost/Human/xrefs/En/ENSG1";
+	private static final DataSource ENSEMBL = DataSource.register("En", "Ensembl").asDataSource();
+
+	private File database;
+	private File config;
+	private IDMapperService service;
+
+	@Before public void setUp() throws Exception
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		database = File.createTempFile("resource", ".bridge");
+		database.delete();
+		GdbConstruct gdb = GdbConstructImpl3.createInstance("" + database, new DataDerby(), DBConnector.PROP_RECREATE);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		Xref ref = new Xref("ENSG1", ENSEMBL);
+		Xref other = new Xref("ENSG2", ENSEMBL);
+		gdb.addGene(ref);
+		gdb.addGene(other);
+		gdb.addLink(ref, ref);
+		gdb.addLink(ref, other);
+		gdb.setInfo("BUILDDATE", "20260101");
+		gdb.setInfo("DATASOURCEVERSION", "1");
+		gdb.commit();
+		gdb.finalize();
+
+		config = File.createTempFile("resource", ".config");
+		Writer writer = new FileWriter(config);
+		writer.write("Homo sapiens\tidmapper-pgdb:" + database + "\n");
+		writer.close();
+
+		service = new IDMapperService(config, false);
+		service.setContext(new Context());
+		service.start();
+	}
+
+	@After public void tearDown() throws Exception
+	{
+		service.stop();
+		config.delete();
+		database.delete();
+	}
+
+	/**
+	 * Handle a request for URL with an Xrefs resource. The resource method is called
+	 * directly rather than through the router, as a test doesn't need annotation dispatch.
+	 */
+	private Response get(Tag noneMatch) throws IOException
+	{
+		Request request = new Request(Method.GET, URL);
+		request.getAttributes().put(IDMapperService.PAR_ORGANISM, "Human");
+		request.getAttributes().put(IDMapperService.PAR_SYSTEM, "En");
+		request.getAttributes().put(IDMapperService.PAR_ID, "ENSG1");
+		if (noneMatch != null) request.getConditions().getNoneMatch().add(noneMatch);
+		Response response = new Response(request);
+		Application.setCurrent(service);
+		Xrefs resource = new Xrefs();
+		resource.init(service.getContext(), request, response);
+		response.setEntity(resource.getXrefs());
+		return response;
+	}
+
+	private static String text(Response response) throws IOException
+	{
+		try
+		{
+			return response.getEntity().getText();
+		}
+		finally
+		{
+			response.getEntity().release();
+		}
+	}
+
+	/** 
+	 * The first response is queried and cached, later ones come from the cache,
+	 * and a request with the current ETag is answered with 304.
+	 */
+	@Test public void testCacheable() throws IOException, IDMapperException
+	{
+		Response first = get(null);
+		Assert.assertEquals (Status.SUCCESS_OK, first.getStatus());
+		Tag tag = first.getEntity().getTag();
+		Assert.assertNotNull (tag);
+		Assert.assertFalse (tag.isWeak());
+		Assert.assertTrue (first.getCacheDirectives().contains(CacheDirective.noCache()));
+		String body = text(first);
+		Assert.assertTrue (body.contains("ENSG2\tEnsembl\n"));
+		Assert.assertEquals (1, service.getResponseCache().size());
+
+		// mark the cached copy, to see that the next response is not queried again
+		Generation generation = service.acquireGeneration();
+		String version = generation.getDatabaseVersion(Organism.HomoSapiens);
+		generation.release();
+		Assert.assertEquals (body, service.getResponseCache().get(version, URL));
+		service.getResponseCache().put(version, URL, "cached\n");
+
+		Response second = get(null);
+		Assert.assertEquals (Status.SUCCESS_OK, second.getStatus());
+		Assert.assertEquals (tag, second.getEntity().getTag());
+		Assert.assertEquals ("cached\n", text(second));
+
+		Response notModified = get(tag);
+		Assert.assertEquals (Status.REDIRECTION_NOT_MODIFIED, notModified.getStatus());
+		Assert.assertEquals (tag, notModified.getEntity().getTag());
+		notModified.getEntity().release();
+
+		Response modified = get(new Tag("other", false));
+		Assert.assertEquals (Status.SUCCESS_OK, modified.getStatus());
+		Assert.assertEquals ("cached\n", text(modified));
+	}
+}
@@ -0,0 +1,56 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsRegistryTest
+{
+	@Test
+	public void testBuckets()
+	{
+		Assert.assertEquals (0, MetricsRegistry.bucket(0));
+		Assert.assertEquals (0, MetricsRegistry.bucket(100000L));
+		for (long nanos = 100001L; nanos < 100000000000L; nanos = nanos * 3 / 2)
+		{
+			int bucket = MetricsRegistry.bucket(nanos);
+			Assert.assertTrue (nanos <= MetricsRegistry.upperBound(bucket));
+			Assert.assertTrue (nanos > MetricsRegistry.upperBound(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testQuantiles()
+	{
+		MetricsRegistry metrics = new MetricsRegistry();
+		// 90 fast requests of 1 msec, 10 slow ones of 1 sec
+		for (int i = 0; i < 90; ++i) metrics.addRequest("Xrefs", 1000000L, false);
+		for (int i = 0; i < 10; ++i) metrics.addRequest("Xrefs", 1000000000L, true);
+
+		MetricsRegistry.RouteStats stats = metrics.getRouteStats("Xrefs");
+		long p50 = stats.quantile(0.5);
+		long p99 = stats.quantile(0.99);
+		Assert.assertTrue (p50 >= 1000000L && p50 < 1200000L);
+		Assert.assertTrue (p99 >= 1000000000L && p99 < 1200000000L);
+
+		String text = metrics.format(null);
+		Assert.assertTrue (text.contains("bridgedb_http_requests_total{resource=\"Xrefs\"} 100\n"));
+		Assert.assertTrue (text.contains("bridgedb_http_request_errors_total{resource=\"Xrefs\"} 10\n"));
+		Assert.assertTrue (text.contains("# TYPE bridgedb_http_request_duration_seconds summary\n"));
+	}
+}
@@ -0,0 +1,81 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResponseCacheTest
+{
+	@Test
+	public void testBoundedByChars()
+	{
+		ResponseCache cache = new ResponseCache(10);
+		cache.put("v1", "a", "1234");
+		cache.put("v1", "b", "1234");
+		Assert.assertEquals (8, cache.chars());
+		// use a, so b is the least recently used
+		Assert.assertEquals ("1234", cache.get("v1", "a"));
+		cache.put("v1", "c", "123");
+		Assert.assertEquals (2, cache.size());
+		Assert.assertEquals (7, cache.chars());
+		Assert.assertNull (cache.get("v1", "b"));
+		Assert.assertEquals ("1234", cache.get("v1", "a"));
+
+		// replacing an entry replaces its size
+		cache.put("v1", "a", "1");
+		Assert.assertEquals (4, cache.chars());
+
+		// a body larger than the whole cache is not kept, and doesn't evict anything
+		cache.put("v1", "d", "12345678901");
+		Assert.assertNull (cache.get("v1", "d"));
+		Assert.assertEquals (2, cache.size());
+
+		// other versions are different entries
+		Assert.assertNull (cache.get("v2", "a"));
+
+		cache.clear();
+		Assert.assertEquals (0, cache.size());
+		Assert.assertEquals (0, cache.chars());
+	}
+
+	@Test
+	public void testRecorder() throws IOException
+	{
+		ResponseCache cache = new ResponseCache(1000);
+		StringWriter out = new StringWriter();
+		ResponseCache.Recorder recorder = cache.record("v1", "a", out, 5);
+		recorder.write("abc");
+		Assert.assertNull (cache.get("v1", "a"));
+		recorder.finish();
+		Assert.assertEquals ("abc", out.toString());
+		Assert.assertEquals ("abc", cache.get("v1", "a"));
+
+		// responses beyond the maximum size are passed on, but not cached
+		out = new StringWriter();
+		recorder = cache.record("v1", "b", out, 5);
+		recorder.write("abc");
+		recorder.write('d');
+		recorder.write("efg".toCharArray(), 0, 3);
+		recorder.finish();
+		Assert.assertEquals ("abcdefg", out.toString());
+		Assert.assertNull (cache.get("v1", "b"));
+	}
+}
@@ -0,0 +1,184 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DBConnector;
+import org.bridgedb.rdb.construct.DataDerby;
+import org.bridgedb.rdb.construct.GdbConstruct;
+import org.bridgedb.rdb.construct.GdbConstructImpl3;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.restlet.Application;
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.representation.StringRepresentation;
+
+public class XrefsBatchTest
+{
+	private static final String URL = "http://localhost/Human/xrefsBatch";
+	private static final DataSource ENSEMBL = DataSource.register("En", "Ensembl").asDataSource();
+	private static final DataSource ENTREZ = DataSource.register("L", "Entrez Gene").asDataSource();
+
+	private File database;
+	private File config;
+	private IDMapperService service;
+
+	/** each Ensembl gene ENSGi is linked to itself and Entrez gene 100i */
+	@Before public void setUp() throws Exception
+	{
+		Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		database = File.createTempFile("batch", ".bridge");
+		database.delete();
+		GdbConstruct gdb = GdbConstructImpl3.createInstance("" + database, new DataDerby(), DBConnector.PROP_RECREATE);
+		gdb.createGdbTables();
+		gdb.preInsert();
+		for (int i = 1; i <= 3; ++i)
+		{
+			Xref ensembl = new Xref("ENSG" + i, ENSEMBL);
+			Xref entrez = new Xref("100" + i, ENTREZ);
+			gdb.addGene(ensembl);
+			gdb.addGene(entrez);
+			gdb.addLink(ensembl, ensembl);
+			gdb.addLink(ensembl, entrez);
+		}
+		gdb.commit();
+		gdb.finalize();
+
+		config = File.createTempFile("batch", ".config");
+		Writer writer = new FileWriter(config);
+		writer.write("Homo sapiens\tidmapper-pgdb:" + database + "\n");
+		writer.close();
+
+		service = new IDMapperService(config, false);
+		service.setContext(new Context());
+		service.start();
+	}
+
+	@After public void tearDown() throws Exception
+	{
+		service.stop();
+		config.delete();
+		database.delete();
+	}
+
+	/**
+	 * Post body to an XrefsBatch resource. The resource method is called
+	 * directly rather than through the router, as a test doesn't need annotation dispatch.
+	 * @param query query string of the URL, may be empty
+	 */
+	private Response post(String query, String body) throws IOException
+	{
+		Request request = new Request(Method.POST, URL + query);
+		request.getAttributes().put(IDMapperService.PAR_ORGANISM, "Human");
+		Response response = new Response(request);
+		Application.setCurrent(service);
+		XrefsBatch resource = new XrefsBatch();
+		resource.init(service.getContext(), request, response);
+		response.setEntity(resource.mapXrefs(new StringRepresentation(body)));
+		return response;
+	}
+
+	private static String text(Response response) throws IOException
+	{
+		try
+		{
+			return response.getEntity().getText();
+		}
+		finally
+		{
+			response.getEntity().release();
+		}
+	}
+
+	/** 
+	 * Lines are grouped by source xref in the order of the request, 
+	 * duplicates and xrefs without mappings are left out.
+	 */
+	@Test public void testGrouping() throws IOException
+	{
+		String body = "ENSG2\tEn\n\nENSG1\tEnsembl\nENSG9\tEn\n1003\tL\nENSG2\tEn\n";
+		Response response = post("?dataSource=L", body);
+		Assert.assertEquals (Status.SUCCESS_OK, response.getStatus());
+		Assert.assertEquals (
+				"ENSG2\tEnsembl\t1002\tEntrez Gene\n" + 
+				"ENSG1\tEnsembl\t1001\tEntrez Gene\n" + 
+				"1003\tEntrez Gene\t1003\tEntrez Gene\n", text(response));
+
+		response = post("", body);
+		Assert.assertEquals (Status.SUCCESS_OK, response.getStatus());
+		String[] lines = text(response).split("\n");
+		Assert.assertEquals (6, lines.length);
+		String[] sources = { "ENSG2", "ENSG2", "ENSG1", "ENSG1", "1003", "1003" };
+		for (int i = 0; i < lines.length; ++i)
+		{
+			Assert.assertTrue (lines[i], lines[i].startsWith(sources[i] + "\t"));
+		}
+	}
+
+	@Test public void testTargets() throws IOException
+	{
+		Response response = post("?dataSource=L&dataSource=En", "ENSG3\tEn\n");
+		Assert.assertEquals (Status.SUCCESS_OK, response.getStatus());
+		Assert.assertEquals (2, text(response).split("\n").length);
+	}
+
+	@Test public void testParseErrors() throws IOException
+	{
+		Response response = post("", "ENSG1\tEn\nENSG2\tNo such datasource\n");
+		Assert.assertEquals (Status.CLIENT_ERROR_BAD_REQUEST, response.getStatus());
+		Assert.assertEquals ("Line 2: unknown datasource: No such datasource", text(response));
+		// the name is not registered as a new DataSource
+		for (DataSource ds : DataSource.getDataSources())
+		{
+			Assert.assertFalse ("No such datasource".equals(ds.getSystemCode()));
+		}
+
+		response = post("", "ENSG1 En\n");
+		Assert.assertEquals (Status.CLIENT_ERROR_BAD_REQUEST, response.getStatus());
+		Assert.assertTrue (text(response).startsWith("Line 1: "));
+	}
+
+	@Test public void testTooManyLines() throws IOException
+	{
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < IDMapperService.MAX_BATCH_LINES; ++i)
+		{
+			body.append ("ENSG" + i + "\tEn\n");
+		}
+		Response response = post("?dataSource=L", body.toString());
+		Assert.assertEquals (Status.SUCCESS_OK, response.getStatus());
+		Assert.assertEquals (3, text(response).split("\n").length);
+
+		// empty lines count too
+		body.append ("\n");
+		response = post("?dataSource=L", body.toString());
+		Assert.assertEquals (Status.CLIENT_ERROR_REQUEST_ENTITY_TOO_LARGE, response.getStatus());
+		Assert.assertEquals ("More than " + IDMapperService.MAX_BATCH_LINES + " lines", text(response));
+	}
+}
@@ -67,7 +67,13 @@ public class PatternChecker
 //		IDMapperRdb gdb = SimpleGdbFactory.createInstance("" + f, url);
 		
 		Statement st = sqlcon.createStatement();
-		ResultSet rs = st.executeQuery("select id, code from datanode");
+		ResultSet rs = st.executeQuery("select schemaversion from info");
+		int version = rs.next() ? rs.getInt(1) : 0;
+		rs.close();
+		// from schema version 4, the datasource table has the system codes
+		rs = st.executeQuery(version < 4
+				? "select id, code from datanode"
+				: "select id, datasource.code from datanode join datasource on datanode.code = datasource.codeid");
 		
 		while (rs.next())
 		{
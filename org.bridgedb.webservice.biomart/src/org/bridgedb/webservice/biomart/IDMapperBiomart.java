@@ -398,6 +398,7 @@ public class IDMapperBiomart extends IDMapperWebservice implements AttributeMapp
         return stub.availableTgtAttributes(mart, dataset);
     }
 
+
     /**
      * {@inheritDoc}
      */
@@ -22,19 +22,20 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
-import org.bridgedb.AttributeMapper;
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.PrefixAttributeMapper;
 import org.bridgedb.Xref;
 import org.bridgedb.impl.InternalUtils;
 import org.bridgedb.webservice.IDMapperWebservice;
@@ -42,7 +43,7 @@ import org.bridgedb.webservice.IDMapperWebservice;
 /**
  * IDMapper implementation for BridgeRest, the REST interface of BridgeDb itself.
  */
-public class BridgeRest extends IDMapperWebservice implements AttributeMapper
+public class BridgeRest extends IDMapperWebservice implements PrefixAttributeMapper
 {
 	static {
 		BridgeDb.register ("idmapper-bridgerest", new Driver());
@@ -335,8 +336,7 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
 	public Set<Xref> mapID(Xref src,
 			DataSource... tgtDataSources) throws IDMapperException 
 			{
-		Set<DataSource> dsFilter = new HashSet<DataSource>();
-		if(tgtDataSources != null) dsFilter.addAll(Arrays.asList(tgtDataSources));
+		BitSet dsFilter = DataSource.toOrdinalSet(tgtDataSources);
 
 		try
 		{
@@ -350,7 +350,7 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
 				Xref dest;
 				while ((dest = parseLine(r)) != null)
 				{
-					if (dsFilter.size() == 0 || dsFilter.contains(dest.getDataSource()))
+					if (dsFilter.isEmpty() || DataSource.isInOrdinalSet(dsFilter, dest.getDataSource()))
 					{
 						result.add (dest);
 					}
@@ -385,7 +385,7 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
 				return null; // end of the stream
 			case '\n': 
 				DataSource ds = DataSource.getByFullName(builder.toString());
-				return new Xref(id, ds);
+				return Xref.of(id, ds);
 			case '\t':
 				id = builder.toString();
 				builder = new StringBuilder();
@@ -489,6 +489,7 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
                 return attributeSet;
 	}
 
+
 	/** {@inheritDoc} */
 	public Map<String, Set<String>> getAttributes(Xref ref)
 	throws IDMapperException {
@@ -538,4 +539,30 @@ public class BridgeRest extends IDMapperWebservice implements AttributeMapper
 		} 
 	}
 	
+	@Override
+	public Map<Xref, String> prefixAttributeSearch(String prefix, String attrType, int limit)
+			throws IDMapperException
+	{
+		try {
+			// the server returns the results in order of rank
+			Map<Xref, String> result = new LinkedHashMap<Xref, String>();
+			
+			BufferedReader in = new UrlBuilder("suggest")
+				.ordered (prefix).named("limit", "" + limit)
+				.named ("attrName", attrType)
+				.openReader();
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] cols = line.split("\t", -1);
+				Xref x = new Xref (cols[0], DataSource.getByFullName(cols[1]));
+				String value = cols[2];
+				result.put(x, value);
+			}
+			in.close();
+			return result;
+		} catch (IOException ex) {
+			throw new IDMapperException (ex);
+		} 
+	}
+	
 }
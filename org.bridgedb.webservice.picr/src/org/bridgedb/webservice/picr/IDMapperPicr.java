@@ -255,6 +255,7 @@ public final class IDMapperPicr extends IDMapperWebservice implements AttributeM
 		return SUPPORTED_ATTRIBUTES;
 	}
 
+
 	public Map<String, Set<String>> getAttributes(Xref ref)
 			throws IDMapperException 
 	{
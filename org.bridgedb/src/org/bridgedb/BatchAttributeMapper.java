@@ -0,0 +1,45 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * AttributeMapper that can get the attributes of many Xrefs at once.
+ * <p>
+ * This is optional: callers that have an AttributeMapper should check
+ * whether it is a BatchAttributeMapper, and otherwise get the attributes 
+ * one Xref at a time, see 
+ * {@link org.bridgedb.impl.InternalUtils#getAttributes(AttributeMapper, Collection, String...)}.
+ */
+public interface BatchAttributeMapper extends AttributeMapper
+{
+	/**
+	 * Get attributes for many entities at once, optionally only a subset of the attributes.
+	 * Usually this is more efficient than getting the attributes one entity 
+	 * or one attribute at a time.
+	 * @param refs the entities to get the attributes for
+	 * @param attrTypes the attributes to look for, e.g. 'Symbol' and 'Description'.
+	 * 	Optional, if none are given, all attributes are returned.
+	 * @return a Map with for each entity a Map where attribute names are the keys and attribute values are the values.
+	 * 	Never returns null, but entities without any of the attributes are not a key in the result.
+	 * @throws IDMapperException if the mapping service is (temporarily) unavailable 
+	 */
+	public Map<Xref, Map<String, Set<String>>> getAttributes(Collection<Xref> refs, String... attrTypes) throws IDMapperException;
+}
@@ -0,0 +1,462 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bridgedb.impl.InternalUtils;
+
+/**
+ * Wraps another {@link IDMapper} and caches the results of
+ * mapID, xrefExists, getAttributes and freeSearch.
+ * <p>
+ * Empty results are cached as well, so repeated lookups of unknown
+ * identifiers do not reach the wrapped IDMapper either.
+ * <p>
+ * The cache is bounded by a total weight, where each entry weighs
+ * one plus the number of items in its result. When the bound is exceeded,
+ * the least recently used entries are evicted.
+ * <p>
+ * A CachingIDMapper can be created with a connection string of the form
+ * <pre>
+ * idmapper-cached:idmapper-pgdb:/path/to/file.bridge
+ * idmapper-cached:maxsize=50000@idmapper-pgdb:/path/to/file.bridge
+ * </pre>
+ * <p>
+ * Thread safe, as long as the wrapped IDMapper is thread safe.
+ */
+public class CachingIDMapper implements IDMapper, BatchAttributeMapper, PrefixAttributeMapper
+{
+	static
+	{
+		BridgeDb.register ("idmapper-cached", new Driver());
+	}
+
+	/** Knows how to instantiate CachingIDMapper. */
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** prevent outside instantiation. */
+		private Driver() {}
+
+		/**
+		 * {@inheritDoc}
+		 * The location is the connection string of the IDMapper to wrap,
+		 * optionally preceded by maxsize=n@
+		 */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			int maxSize = DEFAULT_MAX_SIZE;
+			String inner = location;
+
+			// options come before the protocol of the wrapped connection string
+			int idx = location.indexOf('@');
+			if (idx > 0 && idx < location.indexOf(':'))
+			{
+				inner = location.substring(idx + 1);
+				for (String arg : location.substring(0, idx).split(","))
+				{
+					if (arg.startsWith("maxsize="))
+					{
+						try
+						{
+							maxSize = Integer.parseInt(arg.substring("maxsize=".length()));
+						}
+						catch (NumberFormatException ex)
+						{
+							throw new IDMapperException ("Invalid maxsize in " + location, ex);
+						}
+					}
+					else
+					{
+						throw new IDMapperException ("Unexpected option '" + arg + "' in " + location);
+					}
+				}
+			}
+			return new CachingIDMapper(BridgeDb.connect(inner), maxSize);
+		}
+	}
+
+	/** Maximum total weight of the cache if none is specified. */
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	private final IDMapper mapper;
+	private final int maxSize;
+
+	/** LRU ordered cache. Must synchronize on cache for all access. */
+	private final LinkedHashMap<List<Object>, Object> cache =
+		new LinkedHashMap<List<Object>, Object>(16, 0.75f, true);
+	private final Map<List<Object>, Integer> weights = new HashMap<List<Object>, Integer>();
+	private long totalWeight = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param mapper IDMapper to wrap. If it is also an {@link AttributeMapper},
+	 * 	attribute queries are cached as well.
+	 * @param maxSize maximum total weight of cached results.
+	 */
+	public CachingIDMapper(IDMapper mapper, int maxSize)
+	{
+		if (mapper == null) throw new NullPointerException();
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+		this.mapper = mapper;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param mapper IDMapper to wrap, with cache size {@link #DEFAULT_MAX_SIZE}.
+	 */
+	public CachingIDMapper(IDMapper mapper)
+	{
+		this (mapper, DEFAULT_MAX_SIZE);
+	}
+
+	/** @return the wrapped IDMapper */
+	public IDMapper getMapper()
+	{
+		return mapper;
+	}
+
+	/** @return number of lookups that were answered from the cache */
+	public long getHitCount() { return hits.get(); }
+
+	/** @return number of lookups that were passed on to the wrapped IDMapper */
+	public long getMissCount() { return misses.get(); }
+
+	/** @return number of entries that were removed to keep the cache within its bounds */
+	public long getEvictionCount() { return evictions.get(); }
+
+	/** @return number of entries currently in the cache */
+	public int getSize()
+	{
+		synchronized (cache) { return cache.size(); }
+	}
+
+	/** @return fraction of lookups answered from the cache, or 0 if there were no lookups yet */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0.0 : (double)h / total;
+	}
+
+	/** Remove all entries from the cache. Counters are not reset. */
+	public void clear()
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+			weights.clear();
+			totalWeight = 0;
+		}
+	}
+
+	/**
+	 * Look up a key in the cache, and update the hit / miss counters.
+	 * @return the cached value, or null if it is not in the cache.
+	 */
+	private Object get(List<Object> key)
+	{
+		Object result;
+		synchronized (cache) { result = cache.get(key); }
+		if (result == null) misses.incrementAndGet(); else hits.incrementAndGet();
+		return result;
+	}
+
+	/**
+	 * Add a value to the cache, and evict least recently used entries
+	 * until the total weight is within bounds again.
+	 */
+	private void put(List<Object> key, Object value, int size)
+	{
+		int weight = 1 + size;
+		synchronized (cache)
+		{
+			cache.put (key, value);
+			Integer old = weights.put (key, weight);
+			totalWeight += weight - (old == null ? 0 : old);
+
+			Iterator<Map.Entry<List<Object>, Object>> it = cache.entrySet().iterator();
+			while (totalWeight > maxSize && it.hasNext())
+			{
+				List<Object> eldest = it.next().getKey();
+				if (eldest.equals(key)) continue; // never evict what we just added
+				totalWeight -= weights.remove(eldest);
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/** @return a cache key for the given method and arguments */
+	private static List<Object> key(Object... parts)
+	{
+		return Arrays.asList(parts);
+	}
+
+	/** @return a set of target DataSources, so that the key doesn't depend on their order */
+	private static Set<DataSource> dsKey(DataSource... tgtDataSources)
+	{
+		if (tgtDataSources == null) return Collections.emptySet();
+		return new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		List<Object> key = key("mapID", ref, dsKey(tgtDataSources));
+		Set<Xref> result = (Set<Xref>)get(key);
+		if (result == null)
+		{
+			result = Collections.unmodifiableSet(new HashSet<Xref>(mapper.mapID(ref, tgtDataSources)));
+			put (key, result, result.size());
+		}
+		return new HashSet<Xref>(result);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Xrefs that are not in the cache are passed on to the wrapped
+	 * IDMapper in a single call.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		Set<DataSource> dsKey = dsKey(tgtDataSources);
+		List<Xref> todo = new ArrayList<Xref>();
+
+		for (Xref ref : srcXrefs)
+		{
+			Set<Xref> cached = (Set<Xref>)get(key("mapID", ref, dsKey));
+			if (cached == null)
+				todo.add (ref);
+			else if (cached.size() > 0)
+				result.put (ref, new HashSet<Xref>(cached));
+		}
+
+		if (todo.size() > 0)
+		{
+			Map<Xref, Set<Xref>> fresh = mapper.mapID(todo, tgtDataSources);
+			for (Xref ref : todo)
+			{
+				Set<Xref> refs = fresh.get(ref);
+				Set<Xref> value = refs == null ?
+						Collections.<Xref>emptySet() :
+						Collections.unmodifiableSet(new HashSet<Xref>(refs));
+				put (key("mapID", ref, dsKey), value, value.size());
+				if (value.size() > 0) result.put (ref, new HashSet<Xref>(value));
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		List<Object> key = key("xrefExists", xref);
+		Boolean result = (Boolean)get(key);
+		if (result == null)
+		{
+			result = mapper.xrefExists(xref);
+			put (key, result, 0);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		List<Object> key = key("freeSearch", text, limit);
+		Set<Xref> result = (Set<Xref>)get(key);
+		if (result == null)
+		{
+			result = Collections.unmodifiableSet(new HashSet<Xref>(mapper.freeSearch(text, limit)));
+			put (key, result, result.size());
+		}
+		return new HashSet<Xref>(result);
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return Collections.emptySet();
+		List<Object> key = key("getAttributes", ref, attrType);
+		Set<String> result = (Set<String>)get(key);
+		if (result == null)
+		{
+			result = Collections.unmodifiableSet(new HashSet<String>(
+					((AttributeMapper)mapper).getAttributes(ref, attrType)));
+			put (key, result, result.size());
+		}
+		return new HashSet<String>(result);
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return Collections.emptyMap();
+		List<Object> key = key("getAllAttributes", ref);
+		Map<String, Set<String>> cached = (Map<String, Set<String>>)get(key);
+		if (cached == null)
+		{
+			cached = ((AttributeMapper)mapper).getAttributes(ref);
+			int size = 0;
+			Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+			for (Map.Entry<String, Set<String>> entry : cached.entrySet())
+			{
+				copy.put (entry.getKey(), new HashSet<String>(entry.getValue()));
+				size += entry.getValue().size();
+			}
+			cached = copy;
+			put (key, cached, size);
+		}
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : cached.entrySet())
+		{
+			result.put (entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Xrefs that are not in the cache are passed on to the wrapped
+	 * AttributeMapper in a single call, if it is a BatchAttributeMapper.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Xref, Map<String, Set<String>>> getAttributes(Collection<Xref> refs, String... attrTypes) throws IDMapperException
+	{
+		Map<Xref, Map<String, Set<String>>> result = new HashMap<Xref, Map<String, Set<String>>>();
+		if (!(mapper instanceof AttributeMapper)) return result;
+		Set<String> attrKey = new HashSet<String>(Arrays.asList(attrTypes));
+		List<Xref> todo = new ArrayList<Xref>();
+
+		for (Xref ref : refs)
+		{
+			Map<String, Set<String>> cached = (Map<String, Set<String>>)get(key("getAttributeMap", ref, attrKey));
+			if (cached == null)
+				todo.add (ref);
+			else if (cached.size() > 0)
+				result.put (ref, copyAttributes(cached));
+		}
+
+		if (todo.size() > 0)
+		{
+			Map<Xref, Map<String, Set<String>>> fresh = InternalUtils.getAttributes((AttributeMapper)mapper, todo, attrTypes);
+			for (Xref ref : todo)
+			{
+				Map<String, Set<String>> attributes = fresh.get(ref);
+				Map<String, Set<String>> value = attributes == null ?
+						Collections.<String, Set<String>>emptyMap() : copyAttributes(attributes);
+				int size = 0;
+				for (Set<String> values : value.values()) size += values.size();
+				put (key("getAttributeMap", ref, attrKey), value, size);
+				if (value.size() > 0) result.put (ref, copyAttributes(value));
+			}
+		}
+		return result;
+	}
+
+	/** @return a deep copy, so that callers can't change cached values */
+	private static Map<String, Set<String>> copyAttributes(Map<String, Set<String>> attributes)
+	{
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : attributes.entrySet())
+		{
+			result.put (entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isFreeAttributeSearchSupported()
+	{
+		return mapper instanceof AttributeMapper &&
+			((AttributeMapper)mapper).isFreeAttributeSearchSupported();
+	}
+
+	/** {@inheritDoc} Not cached. */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return Collections.emptyMap();
+		return ((AttributeMapper)mapper).freeAttributeSearch(query, attrType, limit);
+	}
+
+	/** {@inheritDoc} Not cached. */
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return Collections.emptyMap();
+		return ((AttributeMapper)mapper).freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, String> prefixAttributeSearch(String prefix, String attrType, int limit) throws IDMapperException
+	{
+		if (!(mapper instanceof PrefixAttributeMapper)) return Collections.emptyMap();
+		return ((PrefixAttributeMapper)mapper).prefixAttributeSearch(prefix, attrType, limit);
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributeSet() throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return Collections.emptySet();
+		return ((AttributeMapper)mapper).getAttributeSet();
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return mapper.getCapabilities();
+	}
+
+	/** Clears the cache and closes the wrapped IDMapper. {@inheritDoc} */
+	public void close() throws IDMapperException
+	{
+		clear();
+		mapper.close();
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return mapper.isConnected();
+	}
+
+	/** @return the string representation of the wrapped IDMapper */
+	@Override public String toString()
+	{
+		return mapper.toString();
+	}
+}
@@ -19,11 +19,14 @@ package org.bridgedb;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
 contains information about a certain DataSource, such as
@@ -51,16 +54,29 @@ but plugins can define new ones and you can
 handle unknown data sources in the same 
 way as predefined ones.
 <p>
+The registry is safe for concurrent use. Lookups don't lock, new DataSources 
+are registered under a lock, so that two threads asking for the same unknown 
+system code get the same object.
+<p>
+Each DataSource has a small integer ordinal, assigned in order of registration,
+that can be used to represent a set of DataSources as a BitSet, 
+see {@link #toOrdinalSet}.
+<p>
 Definitions for common DataSources can be found in {@link org.bridgedb.bio.BioDataSource}.
 */
 public final class DataSource
 {
-	private static Map<String, DataSource> bySysCode = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byFullName = new HashMap<String, DataSource>();
-	private static Set<DataSource> registry = new HashSet<DataSource>();
-	private static Map<String, DataSource> byAlias = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byMiriamBase = new HashMap<String, DataSource>();
+	private static final Map<String, DataSource> bySysCode = new ConcurrentHashMap<String, DataSource>();
+	private static final Map<String, DataSource> byFullName = new ConcurrentHashMap<String, DataSource>();
+	private static final Set<DataSource> registry = Collections.newSetFromMap(new ConcurrentHashMap<DataSource, Boolean>());
+	private static final Map<String, DataSource> byAlias = new ConcurrentHashMap<String, DataSource>();
+	private static final Map<String, DataSource> byMiriamBase = new ConcurrentHashMap<String, DataSource>();
+	/** all registered DataSources, indexed by ordinal */
+	private static final List<DataSource> byOrdinal = new CopyOnWriteArrayList<DataSource>();
+	/** lock for modifications of the registry */
+	private static final Object registryLock = new Object();
 	
+	private final int ordinal;
 	private String sysCode = null;
 	private String fullName = null;
 	private String mainUrl = null;
@@ -79,7 +95,20 @@ public final class DataSource
 	 * {@link getByFullName} or {@link getBySystemCode}. Information about
 	 * DataSources can be added with {@link register}
 	 */
-	private DataSource () {}
+	private DataSource (int ordinal) 
+	{
+		this.ordinal = ordinal;
+	}
+	
+	/**
+	 * @return small non-negative integer that is unique for this DataSource, 
+	 * assigned in order of registration. Ordinals are stable for the lifetime 
+	 * of the JVM, but may differ between runs, so don't store them.
+	 */
+	public int getOrdinal()
+	{
+		return ordinal;
+	}
 	
 	/** 
 	 * Turn id into url pointing to info page on the web, e.g. "http://www.ensembl.org/get?id=ENSG..."
@@ -290,45 +319,50 @@ public final class DataSource
 	 */
 	public static Builder register(String sysCode, String fullName)
 	{
-		DataSource current = null;
 		if (fullName == null && sysCode == null) throw new NullPointerException();
 //		if (fullName != null && fullName.length() > 20) 
 //		{ 
 //			throw new IllegalArgumentException("full Name '" + fullName + "' must be 20 or less characters"); 
 //		}
 		
-		if (byFullName.containsKey(fullName))
-		{
-			current = byFullName.get(fullName);
-		}
-		else if (bySysCode.containsKey(sysCode))
-		{
-			current = bySysCode.get(sysCode);
-		}
-		else
-		{
-			current = new DataSource ();
-			registry.add (current);
-		}
-		
-		if (current.urnBase != null)
+		DataSource current = null;
+		synchronized (registryLock)
 		{
-			byMiriamBase.put (current.urnBase, current);
+			if (isSuitableKey(fullName) && byFullName.containsKey(fullName))
+			{
+				current = byFullName.get(fullName);
+			}
+			else if (isSuitableKey(sysCode) && bySysCode.containsKey(sysCode))
+			{
+				current = bySysCode.get(sysCode);
+			}
+			else
+			{
+				current = new DataSource (byOrdinal.size());
+				byOrdinal.add (current);
+				registry.add (current);
+			}
+			
+			if (current.urnBase != null)
+			{
+				byMiriamBase.put (current.urnBase, current);
+			}
+			
+			current.sysCode = sysCode;
+			current.fullName = fullName;
+	
+			if (isSuitableKey(sysCode))
+				bySysCode.put(sysCode, current);
+			if (isSuitableKey(fullName))
+				byFullName.put(fullName, current);
 		}
 		
-		current.sysCode = sysCode;
-		current.fullName = fullName;
-
-		if (isSuitableKey(sysCode))
-			bySysCode.put(sysCode, current);
-		if (isSuitableKey(fullName))
-			byFullName.put(fullName, current);
-		
 		return new Builder(current);
 	}
 	
 	public void registerAlias(String alias)
 	{
+		if (alias == null) throw new NullPointerException();
 		byAlias.put (alias, this);
 	}
 	
@@ -351,11 +385,18 @@ public final class DataSource
 	 */
 	public static DataSource getBySystemCode(String systemCode)
 	{
-		if (!bySysCode.containsKey(systemCode) && isSuitableKey(systemCode))
+		if (!isSuitableKey(systemCode)) return null;
+		DataSource result = bySysCode.get(systemCode);
+		if (result != null) return result;
+		synchronized (registryLock)
 		{
-			register (systemCode, null);
+			// check again, another thread may have registered it in the meantime
+			if (!bySysCode.containsKey(systemCode))
+			{
+				register (systemCode, null);
+			}
+			return bySysCode.get(systemCode);
 		}
-		return bySysCode.get(systemCode);
 	}
 	
 	/** 
@@ -367,18 +408,64 @@ public final class DataSource
 	 */
 	public static DataSource getByFullName(String fullName)
 	{
-		if (!byFullName.containsKey(fullName) && isSuitableKey(fullName))
+		if (!isSuitableKey(fullName)) return null;
+		DataSource result = byFullName.get(fullName);
+		if (result != null) return result;
+		synchronized (registryLock)
 		{
-			register (null, fullName);
+			// check again, another thread may have registered it in the meantime
+			if (!byFullName.containsKey(fullName))
+			{
+				register (null, fullName);
+			}
+			return byFullName.get(fullName);
 		}
-		return byFullName.get(fullName);
 	}
 	
 	public static DataSource getByAlias(String alias)
 	{
+		if (alias == null) return null;
 		return byAlias.get(alias);
 	}
 
+	/**
+	 * @param ordinal ordinal to look up, see {@link #getOrdinal()}
+	 * @return DataSource with the given ordinal, or null if there is no such DataSource
+	 */
+	public static DataSource getByOrdinal(int ordinal)
+	{
+		if (ordinal < 0 || ordinal >= byOrdinal.size()) return null;
+		return byOrdinal.get(ordinal);
+	}
+
+	/**
+	 * Convert a number of DataSources to a BitSet of their ordinals.
+	 * Checking membership in the result is cheaper than in a Set of DataSources,
+	 * which is useful for filtering large query results on target DataSource.
+	 * @param dataSources DataSources to include. null elements are ignored.
+	 * @return BitSet with the ordinals of the given DataSources set.
+	 */
+	public static BitSet toOrdinalSet(DataSource... dataSources)
+	{
+		BitSet result = new BitSet();
+		if (dataSources == null) return result;
+		for (DataSource ds : dataSources)
+		{
+			if (ds != null) result.set (ds.ordinal);
+		}
+		return result;
+	}
+
+	/**
+	 * @param ordinals set created with {@link #toOrdinalSet}
+	 * @param ds DataSource to check, may be null
+	 * @return true if ds is not null and its ordinal is in the set
+	 */
+	public static boolean isInOrdinalSet(BitSet ordinals, DataSource ds)
+	{
+		return ds != null && ordinals.get(ds.ordinal);
+	}
+
 	/**
 		get all registered datasoures as a set.
 		@return set of all registered DataSources
@@ -473,6 +560,7 @@ public final class DataSource
 
 	public static DataSource getByUrnBase(String base)
 	{
+		if (base == null) return null;
 		return byMiriamBase.get(base);
 	}
 
@@ -16,33 +16,67 @@
 //
 package org.bridgedb;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
  * Contains regular expression patterns for identifiers
  * Can be used to guess the BioDataSource of an identifier
  * of unknown origin.
+ * <p>
+ * The registered patterns are compiled into a classifier on first use,
+ * which only tries the patterns whose literal prefix fits the identifier.
+ * For large lists of identifiers, use {@link #classify(Collection)}
+ * or {@link #classify(Collection, ExecutorService)}.
  */
 public final class DataSourcePatterns 
 {
 	/** private constructor, to prevent instantiation of utility class. */
 	private DataSourcePatterns() {}
 	
-	private static Map<DataSource, Pattern> patterns = new HashMap<DataSource, Pattern>();
+	private static final Map<DataSource, Pattern> patterns = new ConcurrentHashMap<DataSource, Pattern>();
+	
+	/** compiled form of patterns, or null if it needs to be rebuilt */
+	private static volatile PatternClassifier classifier = null;
+	
+	/** number of ids per task in {@link #classify(Collection, ExecutorService)} */
+	private static final int CHUNK_SIZE = 5000;
 	
 	/**
 	 * Register a regex Pattern for recognizing a DataSource.
 	 * @param key the DataSource that may be recognized.
 	 * @param value the Pattern to look for.
 	 */
-	public static void registerPattern (DataSource key, Pattern value)
+	public static synchronized void registerPattern (DataSource key, Pattern value)
 	{
 		patterns.put (key, value);
+		classifier = null;
+	}
+	
+	/** @return classifier for the currently registered patterns */
+	private static PatternClassifier getClassifier()
+	{
+		PatternClassifier result = classifier;
+		if (result == null)
+		{
+			synchronized (DataSourcePatterns.class)
+			{
+				if (classifier == null) classifier = new PatternClassifier(patterns);
+				result = classifier;
+			}
+		}
+		return result;
 	}
 	
 	/**
@@ -52,11 +86,61 @@ public final class DataSourcePatterns
 	 */
 	public static Set<DataSource> getDataSourceMatches (String id)
 	{
-		Set<DataSource> result = new HashSet<DataSource>();
-		for (DataSource ds : patterns.keySet())
+		return getClassifier().classify(id);
+	}
+	
+	/**
+	 * Look for the DataSource patterns that match each of a number of ids.
+	 * @param ids ids to compare with registered patterns
+	 * @return map with for each distinct id the set of patterns that match it.
+	 */
+	public static Map<String, Set<DataSource>> classify (Collection<String> ids)
+	{
+		return getClassifier().classify(ids);
+	}
+	
+	/**
+	 * Look for the DataSource patterns that match each of a number of ids,
+	 * dividing the work in chunks that are run on the given executor.
+	 * @param ids ids to compare with registered patterns
+	 * @param executor executor to run the chunks on
+	 * @return map with for each distinct id the set of patterns that match it.
+	 * @throws InterruptedException if interrupted while waiting for the result
+	 */
+	public static Map<String, Set<DataSource>> classify (Collection<String> ids, 
+			ExecutorService executor) throws InterruptedException
+	{
+		final PatternClassifier current = getClassifier();
+		if (ids.size() <= CHUNK_SIZE) return current.classify(ids);
+		
+		List<String> list = new ArrayList<String>(ids);
+		List<Future<Map<String, Set<DataSource>>>> futures = 
+			new ArrayList<Future<Map<String, Set<DataSource>>>>();
+		for (int start = 0; start < list.size(); start += CHUNK_SIZE)
 		{
-			Matcher m = patterns.get(ds).matcher(id);					
-			if (m.matches()) result.add (ds);			
+			final List<String> chunk = list.subList(start, Math.min(start + CHUNK_SIZE, list.size()));
+			futures.add (executor.submit(new Callable<Map<String, Set<DataSource>>>()
+			{
+				public Map<String, Set<DataSource>> call()
+				{
+					return current.classify(chunk);
+				}
+			}));
+		}
+		
+		Map<String, Set<DataSource>> result = new HashMap<String, Set<DataSource>>();
+		for (Future<Map<String, Set<DataSource>>> future : futures)
+		{
+			try
+			{
+				result.putAll (future.get());
+			}
+			catch (ExecutionException e)
+			{
+				// classify doesn't throw checked exceptions
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+				throw new IllegalStateException (e.getCause());
+			}
 		}
 		return result;
 	}
@@ -71,9 +155,11 @@ public final class DataSourcePatterns
 	 * <p>
 	 * There is not guaranteed to be a Pattern for every
 	 * BioDataSource constant.
+	 * <p>
+	 * The returned map is read-only, use {@link #registerPattern} to add patterns.
 	 */
 	public static Map<DataSource, Pattern> getPatterns()
 	{
-		return patterns;
+		return Collections.unmodifiableMap(patterns);
 	}
 }
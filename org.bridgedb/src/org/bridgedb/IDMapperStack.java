@@ -16,7 +16,8 @@
 //
 package org.bridgedb;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,7 +25,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bridgedb.impl.InternalUtils;
 
 /**
  * combines multiple {@link IDMapper}'s in a stack.
@@ -38,8 +47,14 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * <p>
  * If the method returns a list, IDMapperStack joins
  * the result from all connected child databases together.
+ * <p>
+ * By default the children are queried one after another. If an
+ * ExecutorService is set with {@link #setExecutor}, methods that join the
+ * results of all children query them in parallel instead. 
+ * With {@link #setChildTimeout}, children that don't answer before the 
+ * deadline are left out of the result.
  */
-public class IDMapperStack implements IDMapper, AttributeMapper
+public class IDMapperStack implements IDMapper, BatchAttributeMapper, PrefixAttributeMapper
 {
 	private List<IDMapper> gdbs = new CopyOnWriteArrayList<IDMapper>();
 
@@ -87,6 +102,73 @@ public class IDMapperStack implements IDMapper, AttributeMapper
     	return isTransitive;
     }
     
+    /** Default maximum number of mapping steps in transitive mode. */
+    public static final int DEFAULT_MAX_HOPS = 2;
+    
+    private int maxHops = DEFAULT_MAX_HOPS;
+    
+    /**
+     * Set the maximum number of mapping steps in transitive mode. 
+     * Each step maps the Xrefs found in the previous step in all children.
+     * @param value maximum number of steps, at least 1.
+     */
+    public void setMaxHops(int value)
+    {
+    	if (value < 1) throw new IllegalArgumentException("maxHops must be at least 1");
+    	maxHops = value;
+    }
+    
+    /**
+     * @return maximum number of mapping steps in transitive mode.
+     */
+    public int getMaxHops()
+    {
+    	return maxHops;
+    }
+    
+    private ExecutorService executor = null;
+    private long childTimeout = 0;
+    
+    /**
+     * Enable parallel mode, where the children are queried concurrently.
+     * The executor is not shut down by the stack.
+     * @param executor executor to submit child queries to, or null to query 
+     * 	children sequentially (the default).
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+    	this.executor = executor;
+    }
+    
+    /**
+     * @return executor used in parallel mode, or null in sequential mode.
+     */
+    public ExecutorService getExecutor()
+    {
+    	return executor;
+    }
+    
+    /**
+     * Set a deadline for children in parallel mode. Children that
+     * have not answered when the deadline passes are cancelled, and the
+     * results of the other children are returned.
+     * @param millis deadline in milliseconds, counted from the start of the query, 
+     * 	or 0 to wait indefinitely (the default).
+     */
+    public void setChildTimeout(long millis)
+    {
+    	if (millis < 0) throw new IllegalArgumentException("timeout must not be negative");
+    	childTimeout = millis;
+    }
+    
+    /**
+     * @return deadline for children in parallel mode in milliseconds, or 0 for no deadline.
+     */
+    public long getChildTimeout()
+    {
+    	return childTimeout;
+    }
+    
 	/**
 	 * Remove an idMapper from the stack.
 	 * @param idMapper IDMapper to be removed.
@@ -245,18 +327,145 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 		return caps;
 	}
 
-	/** {@inheritDoc} */
-	public Set<Xref> freeSearch(String text, int limit)
-			throws IDMapperException 
+	/** 
+	 * A query on a single child of the stack.
+	 * @param <T> result type of the query
+	 */
+	private interface ChildQuery<T>
 	{
-		Set<Xref> result = new HashSet<Xref>();
-		
+		/** 
+		 * @param child the child to query
+		 * @return result for this child
+		 * @throws IDMapperException if the child fails 
+		 */
+		T query(IDMapper child) throws IDMapperException;
+	}
+
+	/**
+	 * @return all children that are connected.
+	 */
+	private List<IDMapper> connectedChildren()
+	{
+		List<IDMapper> result = new ArrayList<IDMapper>();
 		for (IDMapper child : gdbs)
 		{
 			if (child != null && child.isConnected())
 			{
-				result.addAll (child.freeSearch(text, limit));
+				result.add (child);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return all children that are connected and implement AttributeMapper.
+	 */
+	private List<IDMapper> attributeChildren()
+	{
+		List<IDMapper> result = new ArrayList<IDMapper>();
+		for (IDMapper child : connectedChildren())
+		{
+			if (child instanceof AttributeMapper)
+			{
+				result.add (child);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Run a query on a list of children, either sequentially or, if an executor
+	 * is set, in parallel.
+	 * @param <T> result type of the query
+	 * @param children children to query
+	 * @param query the query to run for each child
+	 * @return results in the same order as the children. In parallel mode, 
+	 * 	children that did not answer before the deadline are left out.
+	 * @throws IDMapperException if one of the children fails
+	 */
+	private <T> List<T> queryChildren(List<IDMapper> children, final ChildQuery<T> query) throws IDMapperException
+	{
+		List<T> result = new ArrayList<T>();
+		ExecutorService exec = executor;
+		if (exec == null || children.size() < 2)
+		{
+			for (IDMapper child : children)
+			{
+				result.add (query.query(child));
 			}
+			return result;
+		}
+		
+		List<Future<T>> futures = new ArrayList<Future<T>>();
+		for (final IDMapper child : children)
+		{
+			futures.add (exec.submit(new Callable<T>() 
+			{
+				public T call() throws IDMapperException 
+				{
+					return query.query(child);
+				}
+			}));
+		}
+		
+		long deadline = System.currentTimeMillis() + childTimeout;
+		try
+		{
+			for (Future<T> future : futures)
+			{
+				if (childTimeout == 0)
+				{
+					result.add (future.get());
+				}
+				else
+				{
+					try
+					{
+						long remaining = Math.max(0, deadline - System.currentTimeMillis());
+						result.add (future.get(remaining, TimeUnit.MILLISECONDS));
+					}
+					catch (TimeoutException ex)
+					{
+						// too slow, leave this child out of the result
+						future.cancel(true);
+					}
+				}
+			}
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new IDMapperException ("Interrupted while waiting for child IDMappers", ex);
+		}
+		catch (ExecutionException ex)
+		{
+			if (ex.getCause() instanceof IDMapperException) 
+				throw (IDMapperException)ex.getCause();
+			throw new IDMapperException (ex.getCause());
+		}
+		finally
+		{
+			// in case we stop early due to an exception, don't leave work behind
+			for (Future<T> future : futures) future.cancel(true);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> freeSearch(final String text, final int limit)
+			throws IDMapperException 
+	{
+		Set<Xref> result = new HashSet<Xref>();
+		
+		for (Set<Xref> childResult : queryChildren(connectedChildren(), new ChildQuery<Set<Xref>>()
+			{
+				public Set<Xref> query(IDMapper child) throws IDMapperException 
+				{
+					return child.freeSearch(text, limit);
+				}
+			}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -282,25 +491,28 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Map<Xref, Set<Xref>> mapIDnormal(Collection<Xref> srcXrefs,
-			DataSource... tgtDataSources) throws IDMapperException 
+	private Map<Xref, Set<Xref>> mapIDnormal(final Collection<Xref> srcXrefs,
+			final DataSource... tgtDataSources) throws IDMapperException 
 	{
 		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
 		
-		for (IDMapper child : gdbs)
+		for (Map<Xref, Set<Xref>> childResult : queryChildren(connectedChildren(), new ChildQuery<Map<Xref, Set<Xref>>>()
+			{
+				public Map<Xref, Set<Xref>> query(IDMapper child) throws IDMapperException 
+				{
+					return child.mapID(srcXrefs, tgtDataSources);
+				}
+			}))
 		{
-			if (child != null && child.isConnected())
+			for (Map.Entry<Xref, Set<Xref>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<Xref, Set<Xref>> entry : child.mapID(srcXrefs, tgtDataSources).entrySet())
+				Set<Xref> resultSet = result.get (entry.getKey());
+				if (resultSet == null) 
 				{
-					Set<Xref> resultSet = result.get (entry.getKey());
-					if (resultSet == null) 
-					{
-						resultSet = new HashSet<Xref>();
-						result.put (entry.getKey(), resultSet);
-					}
-					resultSet.addAll (entry.getValue());
+					resultSet = new HashSet<Xref>();
+					result.put (entry.getKey(), resultSet);
 				}
+				resultSet.addAll (entry.getValue());
 			}
 		}
 		return result;
@@ -316,26 +528,128 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	private Map<Xref, Set<Xref>> mapIDtransitive(Collection<Xref> srcXrefs,
 			DataSource... tgtDataSources) throws IDMapperException 
 	{
-		// Current implementation just repeatedly calls mapIDTransitive (Xref, Set<Ds>) 
-		// It may be possible to rearrange loops to optimize for fewer database calls.
+		// Breadth-first search, where all Xrefs at the same distance from the 
+		// sources form the frontier. The whole frontier of the batch is sent to 
+		// each child in one call per hop.
+		BitSet dsFilter = DataSource.toOrdinalSet(tgtDataSources);
+		
+		// all Xrefs found for each source Xref
+		Map<Xref, Set<Xref>> found = new HashMap<Xref, Set<Xref>>();
+		// frontier Xrefs, with the source Xrefs they were reached from
+		Map<Xref, Set<Xref>> frontier = new HashMap<Xref, Set<Xref>>();
+		// results of mapping a single Xref in all children, shared between sources 
+		Map<Xref, Set<Xref>> neighbours = new HashMap<Xref, Set<Xref>>();
+		
+		for (Xref ref : srcXrefs)
+		{
+			found.put (ref, new HashSet<Xref>());
+			InternalUtils.multiMapPut(frontier, ref, ref);
+		}
+		
+		List<IDMapper> children = connectedChildren();
+		for (int hop = 0; hop < maxHops && frontier.size() > 0; ++hop)
+		{
+			final Set<Xref> todo = new HashSet<Xref>();
+			for (Xref ref : frontier.keySet())
+			{
+				if (!neighbours.containsKey(ref)) todo.add (ref);
+			}
+			
+			if (todo.size() > 0)
+			{
+				for (Map<Xref, Set<Xref>> childResult : queryChildren(children, new ChildQuery<Map<Xref, Set<Xref>>>()
+					{
+						public Map<Xref, Set<Xref>> query(IDMapper child) throws IDMapperException 
+						{
+							return child.mapID(todo);
+						}
+					}))
+				{
+					for (Map.Entry<Xref, Set<Xref>> entry : childResult.entrySet())
+					{
+						InternalUtils.multiMapPutAll(neighbours, entry.getKey(), entry.getValue());
+					}
+				}
+				for (Xref ref : todo)
+				{
+					if (!neighbours.containsKey(ref)) 
+						neighbours.put (ref, Collections.<Xref>emptySet());
+				}
+			}
+			
+			Map<Xref, Set<Xref>> next = new HashMap<Xref, Set<Xref>>();
+			for (Map.Entry<Xref, Set<Xref>> entry : frontier.entrySet())
+			{
+				for (Xref dest : neighbours.get(entry.getKey()))
+				{
+					for (Xref src : entry.getValue())
+					{
+						if (found.get(src).add (dest))
+						{
+							InternalUtils.multiMapPut(next, dest, src);
+						}
+					}
+				}
+			}
+			frontier = next;
+		}
+
 		Map <Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
-		for (Xref ref: srcXrefs)
+		for (Xref src : srcXrefs)
 		{
-			result.put (ref, mapIDtransitive(ref, tgtDataSources));
+			Set<Xref> refs = new HashSet<Xref>();
+			for (Xref dest : found.get(src))
+			{
+				if (tgtDataSources.length == 0 || DataSource.isInOrdinalSet(dsFilter, dest.getDataSource()))
+				{
+					refs.add (dest);
+				}
+			}
+			result.put (src, refs);
 		}
 		return result;
 	}
 
 	/** {@inheritDoc} */
-	public Set<String> getAttributes(Xref ref, String attrname)
+	public Set<String> getAttributes(final Xref ref, final String attrname)
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		for (IDMapper child : gdbs)
+		for (Set<String> childResult : queryChildren(attributeChildren(), new ChildQuery<Set<String>>()
+			{
+				public Set<String> query(IDMapper child) throws IDMapperException 
+				{
+					return ((AttributeMapper)child).getAttributes(ref, attrname);
+				}
+			}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+			result.addAll (childResult);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Map<String, Set<String>>> getAttributes(final Collection<Xref> refs, final String... attrTypes)
+			throws IDMapperException 
+	{
+		Map<Xref, Map<String, Set<String>>> result = new HashMap<Xref, Map<String, Set<String>>>();
+		for (Map<Xref, Map<String, Set<String>>> childResult : queryChildren(attributeChildren(), 
+				new ChildQuery<Map<Xref, Map<String, Set<String>>>>()
 			{
-				result.addAll (((AttributeMapper)child).getAttributes(ref, attrname));
+				public Map<Xref, Map<String, Set<String>>> query(IDMapper child) throws IDMapperException 
+				{
+					return InternalUtils.getAttributes((AttributeMapper)child, refs, attrTypes);
+				}
+			}))
+		{
+			for (Map.Entry<Xref, Map<String, Set<String>>> e : childResult.entrySet())
+			{
+				Map<String, Set<String>> attributes = result.get(e.getKey());
+				if (attributes == null) result.put (e.getKey(), attributes = new HashMap<String, Set<String>>());
+				for (Map.Entry<String, Set<String>> attr : e.getValue().entrySet())
+				{
+					InternalUtils.multiMapPutAll(attributes, attr.getKey(), attr.getValue());
+				}
 			}
 		}
 		return result;
@@ -385,31 +699,67 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 		return result;
 	}
 	
-	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
+	public Map<Xref, Set<String>> freeAttributeSearchEx (final String query, final String attrType, final int limit) throws IDMapperException
 	{
 		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
-		for (IDMapper child : gdbs)
+		List<IDMapper> children = new ArrayList<IDMapper>();
+		for (IDMapper child : attributeChildren())
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected()
-				&& ((AttributeMapper)child).isFreeAttributeSearchSupported())
+			if (((AttributeMapper)child).isFreeAttributeSearchSupported())
 			{
-				Map<Xref, Set<String>> childResult = 
-					((AttributeMapper)child).freeAttributeSearchEx(query, attrType, limit);
-				if (result == null) 
-					result = childResult;
-				else
+				children.add (child);
+			}
+		}
+		
+		// results are in the order of the children, so earlier children take precedence
+		for (Map<Xref, Set<String>> childResult : queryChildren(children, new ChildQuery<Map<Xref, Set<String>>>()
+			{
+				public Map<Xref, Set<String>> query(IDMapper child) throws IDMapperException 
 				{
-					for (Xref ref : childResult.keySet())
-					{
-						if (!result.containsKey(ref))
-							result.put (ref, childResult.get(ref));
-					}
+					return ((AttributeMapper)child).freeAttributeSearchEx(query, attrType, limit);
 				}
+			}))
+		{
+			for (Xref ref : childResult.keySet())
+			{
+				if (!result.containsKey(ref))
+					result.put (ref, childResult.get(ref));
 			}
 		}
 		return result;
 	}
 	
+	/** {@inheritDoc} */
+	public Map<Xref, String> prefixAttributeSearch (final String prefix, final String attrType, final int limit) throws IDMapperException
+	{
+		Map<Xref, String> result = new HashMap<Xref, String>();
+		List<IDMapper> children = new ArrayList<IDMapper>();
+		for (IDMapper child : attributeChildren())
+		{
+			if (child instanceof PrefixAttributeMapper && ((AttributeMapper)child).isFreeAttributeSearchSupported())
+			{
+				children.add (child);
+			}
+		}
+		
+		// each child returns its own best results, earlier children take precedence
+		for (Map<Xref, String> childResult : queryChildren(children, new ChildQuery<Map<Xref, String>>()
+			{
+				public Map<Xref, String> query(IDMapper child) throws IDMapperException 
+				{
+					return ((PrefixAttributeMapper)child).prefixAttributeSearch(prefix, attrType, limit);
+				}
+			}))
+		{
+			for (Xref ref : childResult.keySet())
+			{
+				if (!result.containsKey(ref))
+					result.put (ref, childResult.get(ref));
+			}
+		}
+		return InternalUtils.rankMatches(result, prefix, limit);
+	}
+	
 	/** @return concatenation of toString of each child */
 	@Override public String toString()
 	{
@@ -461,38 +811,7 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 */
 	private Set<Xref> mapIDtransitive(Xref ref, DataSource... resultDs) throws IDMapperException 
 	{
-		// first round
-		Set<Xref> result = new HashSet<Xref>();
-		Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
-		for (IDMapper i : gdbs)
-		{
-			if (i == null || !i.isConnected()) continue;
-			
-			// map ref in IDMapper i
-			Set<Xref> round1 = i.mapID(ref);
-
-			for (Xref r1 : round1)
-			{
-				if (resultDs.length == 0 || dsFilter.contains(r1.getDataSource()))
-				{
-					result.add (r1);
-				}
-			}
-
-			// then map the result of that in all IDMappers j (j != i)
-			for (IDMapper j : gdbs)
-			{
-				if (j == null || !j.isConnected()) continue;
-				if (i == j) continue;
-				
-				Map<Xref, Set<Xref>> round2 = j.mapID(round1, resultDs); 
-				for (Xref key : round2.keySet())
-				{
-					result.addAll (round2.get (key));
-				}
-			}			
-		}
-		return result;
+		return mapIDtransitive(Collections.singleton(ref), resultDs).get(ref);
 	}
 	
 	/**
@@ -502,15 +821,18 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Set<Xref> mapIDnormal(Xref ref, DataSource... resultDs) throws IDMapperException 
+	private Set<Xref> mapIDnormal(final Xref ref, final DataSource... resultDs) throws IDMapperException 
 	{
 		Set<Xref> result = new HashSet<Xref>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child.isConnected())
+		for (Set<Xref> childResult : queryChildren(connectedChildren(), new ChildQuery<Set<Xref>>()
 			{
-				result.addAll (child.mapID(ref, resultDs));
-			}
+				public Set<Xref> query(IDMapper child) throws IDMapperException 
+				{
+					return child.mapID(ref, resultDs);
+				}
+			}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -530,29 +852,31 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 
 	/** {@inheritDoc} */
-	public Map<String, Set<String>> getAttributes(Xref ref)
+	public Map<String, Set<String>> getAttributes(final Xref ref)
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
-		for (IDMapper child : gdbs)
+		for (Map<String, Set<String>> childResult : queryChildren(attributeChildren(), new ChildQuery<Map<String, Set<String>>>()
+			{
+				public Map<String, Set<String>> query(IDMapper child) throws IDMapperException 
+				{
+					return ((AttributeMapper)child).getAttributes(ref);
+				}
+			}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+			for (Map.Entry<String, Set<String>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<String, Set<String>> entry :
-					((AttributeMapper)child).getAttributes(ref).entrySet())
+				Set<String> thisSet;
+				if (!result.containsKey(entry.getKey()))	
 				{
-					Set<String> thisSet;
-					if (!result.containsKey(entry.getKey()))	
-					{
-						thisSet = new HashSet<String>();
-						result.put (entry.getKey(), thisSet); 
-					}
-					else
-					{
-						thisSet = result.get(entry.getKey());
-					}
-					thisSet.addAll(entry.getValue());
+					thisSet = new HashSet<String>();
+					result.put (entry.getKey(), thisSet); 
+				}
+				else
+				{
+					thisSet = result.get(entry.getKey());
 				}
+				thisSet.addAll(entry.getValue());
 			}
 		}
 		return result;
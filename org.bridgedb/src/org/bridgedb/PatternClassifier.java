@@ -0,0 +1,249 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the registered DataSource patterns,
+ * organized so that for a given identifier only a few candidate
+ * patterns need to be tried.
+ * <p>
+ * For each pattern, the literal prefix that every match must start with
+ * is derived from the regular expression, e.g. "ENSG" for "ENSG\d{11}".
+ * Patterns are indexed on the first character of that prefix.
+ * Patterns without a literal prefix that start with \d are only tried
+ * for identifiers that start with a digit. The remaining patterns are
+ * always tried.
+ * <p>
+ * Instances are safe for use by multiple threads.
+ */
+final class PatternClassifier
+{
+	/** A pattern with the information used for prefiltering. */
+	private static final class Entry
+	{
+		final DataSource ds;
+		final Pattern pattern;
+		final String prefix;
+
+		Entry (DataSource ds, Pattern pattern, String prefix)
+		{
+			this.ds = ds;
+			this.pattern = pattern;
+			this.prefix = prefix;
+		}
+	}
+
+	private final Map<Character, List<Entry>> byFirstChar = new HashMap<Character, List<Entry>>();
+	private final List<Entry> digitLed = new ArrayList<Entry>();
+	private final List<Entry> unconstrained = new ArrayList<Entry>();
+
+	/**
+	 * @param patterns DataSource patterns to compile. The map is copied,
+	 * 	later changes to it are not reflected in this classifier.
+	 */
+	PatternClassifier (Map<DataSource, Pattern> patterns)
+	{
+		for (Map.Entry<DataSource, Pattern> e : patterns.entrySet())
+		{
+			Pattern p = e.getValue();
+			String prefix = literalPrefix(p);
+			Entry entry = new Entry (e.getKey(), p, prefix);
+			if (prefix.length() > 0)
+			{
+				Character first = prefix.charAt(0);
+				List<Entry> list = byFirstChar.get(first);
+				if (list == null)
+				{
+					list = new ArrayList<Entry>();
+					byFirstChar.put (first, list);
+				}
+				list.add (entry);
+			}
+			else if (startsWithDigit(p))
+			{
+				digitLed.add (entry);
+			}
+			else
+			{
+				unconstrained.add (entry);
+			}
+		}
+	}
+
+	/**
+	 * @param id identifier to classify
+	 * @return set of DataSources whose pattern matches the complete id.
+	 */
+	Set<DataSource> classify (String id)
+	{
+		Set<DataSource> result = new HashSet<DataSource>();
+		if (id.length() > 0)
+		{
+			char first = id.charAt(0);
+			List<Entry> candidates = byFirstChar.get(first);
+			if (candidates != null) for (Entry entry : candidates)
+			{
+				if (id.startsWith(entry.prefix) && entry.pattern.matcher(id).matches())
+				{
+					result.add (entry.ds);
+				}
+			}
+			if (first >= '0' && first <= '9')
+			{
+				addMatches (digitLed, id, result);
+			}
+		}
+		addMatches (unconstrained, id, result);
+		return result;
+	}
+
+	/**
+	 * Classify a number of identifiers.
+	 * @param ids identifiers to classify
+	 * @return map with for each distinct id the set of matching DataSources.
+	 */
+	Map<String, Set<DataSource>> classify (Iterable<String> ids)
+	{
+		Map<String, Set<DataSource>> result = new HashMap<String, Set<DataSource>>();
+		for (String id : ids)
+		{
+			if (!result.containsKey(id)) result.put (id, classify(id));
+		}
+		return result;
+	}
+
+	private static void addMatches (List<Entry> entries, String id, Set<DataSource> result)
+	{
+		for (Entry entry : entries)
+		{
+			if (entry.pattern.matcher(id).matches()) result.add (entry.ds);
+		}
+	}
+
+	/**
+	 * Characters that have a special meaning in a regular expression
+	 * outside of a character class.
+	 */
+	private static final String META = "\\[](){}.*+?^$|";
+
+	/**
+	 * Determine a string that every input matching the complete pattern must start with.
+	 * The analysis is conservative: if the pattern is not understood,
+	 * the empty string is returned.
+	 * @param p pattern to analyze
+	 * @return literal prefix, may be empty but never null.
+	 */
+	static String literalPrefix (Pattern p)
+	{
+		if (p.flags() != 0) return "";
+		String regex = p.pattern();
+		if (hasTopLevelAlternation(regex)) return "";
+
+		StringBuilder prefix = new StringBuilder();
+		int i = 0;
+		while (i < regex.length())
+		{
+			char c = regex.charAt(i);
+			int next;
+			if (c == '\\')
+			{
+				// only escaped punctuation is a literal, \d, \w, \Q etc. are not
+				if (i + 1 >= regex.length()) break;
+				c = regex.charAt(i + 1);
+				if (Character.isLetterOrDigit(c)) break;
+				next = i + 2;
+			}
+			else if (META.indexOf(c) >= 0)
+			{
+				break;
+			}
+			else
+			{
+				next = i + 1;
+			}
+
+			// a quantifier may make the last character optional or repeat it
+			if (next < regex.length())
+			{
+				char q = regex.charAt(next);
+				if (q == '?' || q == '*' || q == '{') break;
+				if (q == '+')
+				{
+					prefix.append (c);
+					break;
+				}
+			}
+			prefix.append (c);
+			i = next;
+		}
+		return prefix.toString();
+	}
+
+	/**
+	 * @param p pattern to analyze
+	 * @return true if every input matching the complete pattern starts with a digit.
+	 */
+	static boolean startsWithDigit (Pattern p)
+	{
+		if (p.flags() != 0) return false;
+		String regex = p.pattern();
+		if (hasTopLevelAlternation(regex)) return false;
+		if (!regex.startsWith("\\d")) return false;
+		if (regex.length() == 2) return true;
+		char q = regex.charAt(2);
+		if (q == '?' || q == '*') return false;
+		if (q == '{') return regex.length() > 3 && regex.charAt(3) >= '1' && regex.charAt(3) <= '9';
+		return true;
+	}
+
+	/**
+	 * @param regex regular expression
+	 * @return true if the expression contains a | that is not inside a group or character class.
+	 */
+	private static boolean hasTopLevelAlternation (String regex)
+	{
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < regex.length(); ++i)
+		{
+			char c = regex.charAt(i);
+			if (c == '\\')
+			{
+				// \Q...\E quotes are rare in identifier patterns, give up
+				if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') return true;
+				i++;
+			}
+			else if (inClass)
+			{
+				if (c == ']') inClass = false;
+			}
+			else if (c == '[') inClass = true;
+			else if (c == '(') depth++;
+			else if (c == ')') depth--;
+			else if (c == '|' && depth == 0) return true;
+		}
+		return false;
+	}
+}
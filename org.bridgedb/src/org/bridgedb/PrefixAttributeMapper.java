@@ -0,0 +1,42 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.Map;
+
+/**
+ * AttributeMapper that supports ranked prefix searches, e.g. for type-ahead on gene symbols.
+ * <p>
+ * This is optional: callers that have an AttributeMapper should check 
+ * whether it is a PrefixAttributeMapper, and otherwise treat it as having no matches.
+ */
+public interface PrefixAttributeMapper extends AttributeMapper
+{
+	/**
+	 * Ranked search for attribute values that start with a prefix, e.g. for type-ahead on gene symbols.
+	 * Exact matches come first, then values that start with the prefix, 
+	 * then values that contain it elsewhere. Case is ignored.
+	 * @return map of references and attribute values that match the prefix, 
+	 * 	iterating in order of rank, best match first.
+	 * @param prefix The text to search for
+	 * @param attrType the attribute to look for, e.g. 'Symbol'.
+	 * 	If you use the special MATCH_ID constant, it will query the identifier instead.
+	 * @param limit The number of results to limit the search to
+	 * @throws IDMapperException if the mapping service is (temporarily) unavailable 
+	 */
+	public Map<Xref, String> prefixAttributeSearch (String prefix, String attrType, int limit) throws IDMapperException;
+}
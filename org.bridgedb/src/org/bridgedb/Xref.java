@@ -17,7 +17,12 @@
 package org.bridgedb;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Stores an id + {@link DataSource} combination, which represents
@@ -30,8 +35,9 @@ public class Xref implements Comparable<Xref>
 	final private String id;
 	final private DataSource ds;
 	
-	// String representation of this xref
-	final private String rep;
+	// String representation of this xref, calculated on demand.
+	// Racy but harmless: each thread calculates the same immutable value.
+	private String rep = null;
 	
 	/**
 	 * @param id the Id part of this Xref
@@ -40,7 +46,48 @@ public class Xref implements Comparable<Xref>
 	public Xref(String id, DataSource ds) {
 		this.id = id;
 		this.ds = ds;
-		rep = (ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode())) + ":" + id; 
+	}
+	
+	/** Number of separately locked parts of the pool used by {@link #of}, a power of two. */
+	private static final int POOL_STRIPES = 16;
+	
+	/** 
+	 * Weak pool of Xrefs, split by hash code so that threads 
+	 * that load data at the same time rarely wait for each other. 
+	 */
+	private static final List<Map<Xref, WeakReference<Xref>>> pool =
+		new ArrayList<Map<Xref, WeakReference<Xref>>>(POOL_STRIPES);
+	static
+	{
+		for (int i = 0; i < POOL_STRIPES; ++i) pool.add (new WeakHashMap<Xref, WeakReference<Xref>>());
+	}
+	
+	/**
+	 * Factory method that returns a shared instance for equal Xrefs.
+	 * Use this instead of the constructor when creating large numbers of
+	 * Xrefs that are likely to be repeated, e.g. when reading mapping files
+	 * or database results, to save memory.
+	 * <p>
+	 * The pool only refers weakly to its Xrefs, so an Xref is removed from it once it 
+	 * is no longer used elsewhere, e.g. after the results it was part of are discarded.
+	 * @param id the Id part of the Xref
+	 * @param ds the DataSource part of the Xref.
+	 * @return an Xref equal to new Xref(id, ds), possibly an existing instance.
+	 */
+	public static Xref of(String id, DataSource ds)
+	{
+		Xref ref = new Xref (id, ds);
+		int hash = ref.hashCode();
+		Map<Xref, WeakReference<Xref>> stripe = pool.get((hash ^ (hash >>> 16)) & (POOL_STRIPES - 1));
+		synchronized (stripe)
+		{
+			WeakReference<Xref> existing = stripe.get(ref);
+			Xref result = existing == null ? null : existing.get();
+			if (result != null) return result;
+			// the value must not refer strongly to the key, or it would never be removed
+			stripe.put(ref, new WeakReference<Xref>(ref));
+			return ref;
+		}
 	}
 	
 	/**
@@ -58,15 +105,25 @@ public class Xref implements Comparable<Xref>
 	 *   This string representation is not meant to be stored or parsed, it is there mostly for
 	 *   debugging purposes.
 	 */
-	public String toString() { return rep;  }
+	public String toString() 
+	{
+		String result = rep;
+		if (result == null)
+		{
+			result = (ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode())) + ":" + id;
+			rep = result;
+		}
+		return result;
+	}
 	
 	/**
 	 * hashCode calculated from id and datasource combined.
+	 * DataSources are unique objects, so their identity hash is used.
 	 * @return the hashCode
 	 */
 	public int hashCode() 
 	{
-		return rep.hashCode();
+		return 31 * (id == null ? 0 : id.hashCode()) + (ds == null ? 0 : ds.hashCode());
 	}
 	
 	/**
@@ -75,12 +132,13 @@ public class Xref implements Comparable<Xref>
 	 */
 	public boolean equals(Object o) 
 	{
+		if (o == this) return true;
 		if (o == null) return false;
 		if(!(o instanceof Xref)) return false;
 		Xref ref = (Xref)o;
 		return 
-			(id == null ? ref.id == null : id.equals(ref.id)) && 
-			(ds == null ? ref.ds == null : ds.equals(ref.ds));
+			ds == ref.ds &&
+			(id == null ? ref.id == null : id.equals(ref.id));
 	}
 	
 	/**
@@ -90,7 +148,7 @@ public class Xref implements Comparable<Xref>
 	 */
 	public int compareTo (Xref idc) 
 	{
-		return rep.compareTo(idc.rep);
+		return toString().compareTo(idc.toString());
 	}
 	
 	/**
@@ -0,0 +1,409 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * IDMapper that answers queries directly from a memory-mapped binary
+ * mapping file, created with {@link IDMapperMmapCompiler}.
+ * <p>
+ * Opening the file only reads the header and the DataSource table,
+ * identifiers are looked up with a binary search in the mapped buffer.
+ * The operating system pages in the parts of the file that are used,
+ * so startup is fast and the mapping takes hardly any heap.
+ * <p>
+ * Use the connection string "idmapper-mmap:/path/to/file.bdm",
+ * or "idmapper-mmap:file:/path/to/file.bdm".
+ * <p>
+ * File layout, all numbers are big-endian 4-byte integers:
+ * <pre>
+ * header      MAGIC, VERSION, number of DataSources (d), number of Xrefs (n),
+ *             number of edges (e), size of the string pool in bytes (p),
+ *             two reserved ints
+ * dsStart     d + 1 ints, Xrefs of DataSource i are in [dsStart[i], dsStart[i+1])
+ * idOffset    n + 1 ints, id of Xref i are the pool bytes [idOffset[i], idOffset[i+1])
+ * edgeStart   n + 1 ints, targets of Xref i are edges [edgeStart[i], edgeStart[i+1])
+ * edges       e ints, each the index of a target Xref
+ * pool        p bytes, UTF-8 encoded ids
+ * DataSources for each DataSource the system code and full name,
+ *             as length (-1 for null) followed by UTF-8 bytes
+ * </pre>
+ * Xrefs are sorted by DataSource and then by the unsigned bytes of their id.
+ * Because ByteBuffer positions are ints, files are limited to 2GB.
+ */
+public class IDMapperMmap implements IDMapper
+{
+	static
+	{
+		BridgeDb.register ("idmapper-mmap", new Driver());
+	}
+
+	/** Knows how to instantiate IDMapperMmap. */
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** prevent outside instantiation. */
+		private Driver() {}
+
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			File file;
+			if (location.startsWith("file:"))
+			{
+				try
+				{
+					file = new File (new URI(location));
+				}
+				catch (Exception e)
+				{
+					throw new IDMapperException ("Invalid file URI " + location, e);
+				}
+			}
+			else
+			{
+				file = new File (location);
+			}
+			return new IDMapperMmap(file);
+		}
+	}
+
+	/** first four bytes of a mapping file, "BDMM" */
+	static final int MAGIC = 0x42444D4D;
+	/** version of the file layout */
+	static final int VERSION = 1;
+	/** size of the header in bytes */
+	static final int HEADER_SIZE = 32;
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final int xrefCount;
+	private final int edgeCount;
+	private final int idOffsetPos;
+	private final int edgeStartPos;
+	private final int edgesPos;
+	private final int poolPos;
+
+	private final DataSource[] dataSources;
+	private final int[] dsStart;
+	private final Map<DataSource, Integer> dsIndex = new HashMap<DataSource, Integer>();
+	private final IDMapperCapabilities cap;
+
+	private volatile boolean isConnected = true;
+
+	/**
+	 * Map a compiled mapping file into memory.
+	 * @param file file created by {@link IDMapperMmapCompiler}
+	 * @throws IDMapperException if the file can't be read or is not a mapping file
+	 */
+	public IDMapperMmap (File file) throws IDMapperException
+	{
+		this.file = file;
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IDMapperException ("Mapping file too large: " + file);
+				// the mapping stays valid after the channel is closed
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IDMapperException (e);
+		}
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IDMapperException ("Not a mapping file: " + file);
+		if (buffer.getInt(4) != VERSION)
+			throw new IDMapperException ("Unsupported mapping file version " + buffer.getInt(4) + ": " + file);
+
+		int dsCount = buffer.getInt(8);
+		xrefCount = buffer.getInt(12);
+		edgeCount = buffer.getInt(16);
+		int poolSize = buffer.getInt(20);
+
+		int dsStartPos = HEADER_SIZE;
+		idOffsetPos = dsStartPos + 4 * (dsCount + 1);
+		edgeStartPos = idOffsetPos + 4 * (xrefCount + 1);
+		edgesPos = edgeStartPos + 4 * (xrefCount + 1);
+		poolPos = edgesPos + 4 * edgeCount;
+		int dsNamesPos = poolPos + poolSize;
+
+		dsStart = new int[dsCount + 1];
+		for (int i = 0; i <= dsCount; ++i)
+		{
+			dsStart[i] = buffer.getInt(dsStartPos + 4 * i);
+		}
+
+		dataSources = new DataSource[dsCount];
+		int pos = dsNamesPos;
+		for (int i = 0; i < dsCount; ++i)
+		{
+			String sysCode = readString(pos);
+			pos += 4 + Math.max (0, buffer.getInt(pos));
+			String fullName = readString(pos);
+			pos += 4 + Math.max (0, buffer.getInt(pos));
+
+			dataSources[i] = (sysCode != null && !"".equals(sysCode)) ?
+					DataSource.getBySystemCode(sysCode) : DataSource.getByFullName(fullName);
+			dsIndex.put (dataSources[i], i);
+		}
+
+		Set<DataSource> supported = new HashSet<DataSource>();
+		Collections.addAll (supported, dataSources);
+		cap = new AbstractIDMapperCapabilities(Collections.unmodifiableSet(supported), false, null) {};
+	}
+
+	/**
+	 * @param pos position of a length-prefixed string
+	 * @return decoded string, or null if the length is negative
+	 */
+	private String readString (int pos)
+	{
+		int len = buffer.getInt(pos);
+		if (len < 0) return null;
+		return decode (pos + 4, len);
+	}
+
+	private String decode (int pos, int len)
+	{
+		byte[] bytes = new byte[len];
+		for (int i = 0; i < len; ++i) bytes[i] = buffer.get(pos + i);
+		try
+		{
+			return new String (bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// UTF-8 is always supported
+			throw new IllegalStateException (e);
+		}
+	}
+
+	/**
+	 * Find an Xref with binary search.
+	 * @param ref Xref to look for
+	 * @return index of ref in the Xref table, or -1 if it isn't there.
+	 */
+	private int indexOf (Xref ref)
+	{
+		if (ref.getId() == null || ref.getDataSource() == null) return -1;
+		Integer ds = dsIndex.get(ref.getDataSource());
+		if (ds == null) return -1;
+
+		byte[] key = IDMapperMmapCompiler.encode (ref.getId());
+		int lo = dsStart[ds];
+		int hi = dsStart[ds + 1] - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int cmp = compareId (mid, key);
+			if (cmp < 0) lo = mid + 1;
+			else if (cmp > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare the id of Xref at index with a key,
+	 * in the same order as {@link IDMapperMmapCompiler#compareBytes}.
+	 */
+	private int compareId (int index, byte[] key)
+	{
+		int start = buffer.getInt(idOffsetPos + 4 * index);
+		int len = buffer.getInt(idOffsetPos + 4 * (index + 1)) - start;
+		int pos = poolPos + start;
+		int n = Math.min (len, key.length);
+		for (int i = 0; i < n; ++i)
+		{
+			int a = buffer.get(pos + i) & 0xFF;
+			int b = key[i] & 0xFF;
+			if (a != b) return a - b;
+		}
+		return len - key.length;
+	}
+
+	/** @return index in the DataSource table of the Xref at index */
+	private int dataSourceOf (int index)
+	{
+		// number of DataSources is small, a linear scan is fine
+		int ds = 0;
+		while (dsStart[ds + 1] <= index) ds++;
+		return ds;
+	}
+
+	/** @return id of the Xref at index */
+	private String idAt (int index)
+	{
+		int start = buffer.getInt(idOffsetPos + 4 * index);
+		int end = buffer.getInt(idOffsetPos + 4 * (index + 1));
+		return decode (poolPos + start, end - start);
+	}
+
+	/**
+	 * @param tgtDataSources target DataSources, empty for all
+	 * @return for each DataSource in the file, whether it is a target
+	 */
+	private boolean[] targetFilter (DataSource... tgtDataSources)
+	{
+		boolean[] result = new boolean[dataSources.length];
+		if (tgtDataSources.length == 0)
+		{
+			for (int i = 0; i < result.length; ++i) result[i] = true;
+		}
+		else for (DataSource ds : tgtDataSources)
+		{
+			Integer i = dsIndex.get(ds);
+			if (i != null) result[i] = true;
+		}
+		return result;
+	}
+
+	private Set<Xref> mapIndex (int src, boolean[] filter)
+	{
+		Set<Xref> result = new HashSet<Xref>();
+		int start = buffer.getInt(edgeStartPos + 4 * src);
+		int end = buffer.getInt(edgeStartPos + 4 * (src + 1));
+		for (int e = start; e < end; ++e)
+		{
+			int dest = buffer.getInt(edgesPos + 4 * e);
+			int ds = dataSourceOf (dest);
+			if (filter[ds]) result.add (new Xref (idAt (dest), dataSources[ds]));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs,
+			DataSource... tgtDataSources) throws IDMapperException
+	{
+		if (srcXrefs == null) throw new NullPointerException("argument srcXrefs cannot be null");
+		boolean[] filter = targetFilter(tgtDataSources);
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Xref src : srcXrefs)
+		{
+			int index = indexOf (src);
+			if (index < 0) continue;
+			Set<Xref> refs = mapIndex (index, filter);
+			if (refs.size() > 0) result.put (src, refs);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		int index = indexOf (ref);
+		if (index < 0) return new HashSet<Xref>();
+		return mapIndex (index, targetFilter(tgtDataSources));
+	}
+
+	/**
+	 * Like {@link IDMapperFile}, only Xrefs that are the source of a mapping exist;
+	 * Xrefs that only occur as a target are not counted.
+	 * {@inheritDoc}
+	 */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		if (xref == null) throw new NullPointerException();
+		int index = indexOf (xref);
+		if (index < 0) return false;
+		return buffer.getInt(edgeStartPos + 4 * (index + 1)) > buffer.getInt(edgeStartPos + 4 * index);
+	}
+
+	/**
+	 * Free search is not supported for mapping files.
+	 * This will throw UnsupportedOperationException
+	 * @param text ignored
+	 * @param limit ignored
+	 * @return does not return
+	 * @throws IDMapperException will not be thrown
+	 */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return cap;
+	}
+
+	/**
+	 * Marks this mapper as closed. The memory mapping itself is
+	 * released when this object is garbage collected.
+	 * {@inheritDoc}
+	 */
+	public void close() throws IDMapperException
+	{
+		isConnected = false;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return isConnected;
+	}
+
+	/** @return the mapped file */
+	public File getFile()
+	{
+		return file;
+	}
+
+	/** @return number of Xrefs in the file */
+	public int getXrefCount()
+	{
+		return xrefCount;
+	}
+
+	/** @return number of mappings in the file */
+	public int getMappingCount()
+	{
+		return edgeCount;
+	}
+}
@@ -0,0 +1,354 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.XrefIterator;
+
+/**
+ * Converts identifier mappings into the binary file format read by
+ * {@link IDMapperMmap}.
+ * <p>
+ * The mappings are collected in memory before writing, so compiling needs
+ * about as much heap as loading the source with {@link IDMapperText},
+ * but this only has to be done once.
+ * <p>
+ * Can be run from the command line:
+ * <pre>
+ *    IDMapperMmapCompiler idmapper-text:file:/path/to/mapping.txt mapping.bdm
+ * </pre>
+ */
+public final class IDMapperMmapCompiler
+{
+	/** private constructor, to prevent instantiation of utility class. */
+	private IDMapperMmapCompiler() {}
+
+	/** number of Xrefs sent to mapID at once when reading from an XrefIterator */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Compile the mappings read by an {@link IDMappingReader},
+	 * e.g. from a delimited text file.
+	 * @param reader source of mappings
+	 * @param dest file to write
+	 * @throws IDMapperException if the source can't be read or dest can't be written
+	 */
+	public static void compile (IDMappingReader reader, File dest) throws IDMapperException
+	{
+		// readers expect the DataSources to be read first
+		Set<DataSource> dataSources = reader.getDataSources();
+		Map<Xref, Set<Xref>> mappings = reader.getIDMappings();
+		if (mappings == null) mappings = new HashMap<Xref, Set<Xref>>();
+		compile (mappings, dataSources, dest);
+	}
+
+	/**
+	 * Compile all mappings of an IDMapper that can list its Xrefs,
+	 * such as a Derby database.
+	 * @param source source of mappings
+	 * @param xrefs lists the Xrefs of source, usually the same object as source.
+	 * @param dest file to write
+	 * @throws IDMapperException if the source can't be read or dest can't be written
+	 */
+	public static void compile (IDMapper source, XrefIterator xrefs, File dest) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> mappings = new HashMap<Xref, Set<Xref>>();
+		List<Xref> batch = new ArrayList<Xref>();
+		for (Xref ref : xrefs.getIterator())
+		{
+			batch.add (ref);
+			if (batch.size() >= BATCH_SIZE)
+			{
+				mappings.putAll (source.mapID(batch));
+				batch.clear();
+			}
+		}
+		if (batch.size() > 0) mappings.putAll (source.mapID(batch));
+		compile (mappings, source.getCapabilities().getSupportedSrcDataSources(), dest);
+	}
+
+	/** An Xref with its encoded id, for sorting. */
+	private static final class Entry
+	{
+		final Xref ref;
+		final int ds;
+		final byte[] id;
+
+		Entry (Xref ref, int ds)
+		{
+			this.ref = ref;
+			this.ds = ds;
+			this.id = encode (ref.getId());
+		}
+	}
+
+	/**
+	 * Write a map of mappings.
+	 * @param mappings for each source Xref the set of mapped Xrefs
+	 * @param dataSources additional DataSources to include in the capabilities
+	 * 	of the result, may be null.
+	 * @param dest file to write
+	 * @throws IDMapperException if dest can't be written, or would be too large.
+	 */
+	public static void compile (Map<Xref, Set<Xref>> mappings, Set<DataSource> dataSources,
+			File dest) throws IDMapperException
+	{
+		// assign an index to each DataSource
+		List<DataSource> dsList = new ArrayList<DataSource>();
+		Map<DataSource, Integer> dsIndex = new HashMap<DataSource, Integer>();
+		if (dataSources != null) for (DataSource ds : dataSources)
+		{
+			addDataSource (ds, dsList, dsIndex);
+		}
+
+		// collect all Xrefs, both sources and targets
+		Set<Xref> all = new HashSet<Xref>();
+		for (Map.Entry<Xref, Set<Xref>> e : mappings.entrySet())
+		{
+			if (isValid (e.getKey())) all.add (e.getKey());
+			for (Xref target : e.getValue())
+			{
+				if (isValid (target)) all.add (target);
+			}
+		}
+		for (Xref ref : all) addDataSource (ref.getDataSource(), dsList, dsIndex);
+
+		Entry[] entries = new Entry[all.size()];
+		int n = 0;
+		for (Xref ref : all) entries[n++] = new Entry (ref, dsIndex.get(ref.getDataSource()));
+		Arrays.sort (entries, new Comparator<Entry>()
+		{
+			public int compare(Entry a, Entry b)
+			{
+				if (a.ds != b.ds) return a.ds < b.ds ? -1 : 1;
+				return compareBytes (a.id, b.id);
+			}
+		});
+
+		Map<Xref, Integer> index = new HashMap<Xref, Integer>();
+		for (int i = 0; i < entries.length; ++i) index.put (entries[i].ref, i);
+
+		int[] dsStart = new int[dsList.size() + 1];
+		int ds = 0;
+		for (int i = 0; i < entries.length; ++i)
+		{
+			while (ds < entries[i].ds) dsStart[++ds] = i;
+		}
+		while (ds < dsList.size()) dsStart[++ds] = entries.length;
+
+		// adjacency list, sorted and without duplicates
+		int[][] targets = new int[entries.length][];
+		long edgeCount = 0;
+		long poolSize = 0;
+		for (int i = 0; i < entries.length; ++i)
+		{
+			Set<Xref> dests = mappings.get(entries[i].ref);
+			Set<Integer> set = new HashSet<Integer>();
+			if (dests != null) for (Xref target : dests)
+			{
+				Integer j = index.get(target);
+				if (j != null) set.add (j);
+			}
+			targets[i] = new int[set.size()];
+			int k = 0;
+			for (int j : set) targets[i][k++] = j;
+			Arrays.sort (targets[i]);
+			edgeCount += targets[i].length;
+			poolSize += entries[i].id.length;
+		}
+
+		long size = IDMapperMmap.HEADER_SIZE + 4L * (dsStart.length + 2 * (entries.length + 1) + edgeCount) + poolSize;
+		// leave room for the DataSource table
+		if (size > Integer.MAX_VALUE - 1000000)
+			throw new IDMapperException ("Too many mappings for a single mapping file");
+
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dest)));
+			try
+			{
+				out.writeInt (IDMapperMmap.MAGIC);
+				out.writeInt (IDMapperMmap.VERSION);
+				out.writeInt (dsList.size());
+				out.writeInt (entries.length);
+				out.writeInt ((int)edgeCount);
+				out.writeInt ((int)poolSize);
+				out.writeInt (0);
+				out.writeInt (0);
+
+				for (int start : dsStart) out.writeInt (start);
+
+				int offset = 0;
+				for (Entry entry : entries)
+				{
+					out.writeInt (offset);
+					offset += entry.id.length;
+				}
+				out.writeInt (offset);
+
+				int edge = 0;
+				for (int[] t : targets)
+				{
+					out.writeInt (edge);
+					edge += t.length;
+				}
+				out.writeInt (edge);
+
+				for (int[] t : targets)
+				{
+					for (int j : t) out.writeInt (j);
+				}
+
+				for (Entry entry : entries) out.write (entry.id);
+
+				for (DataSource d : dsList)
+				{
+					writeString (out, d.getSystemCode());
+					writeString (out, d.getFullName());
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IDMapperException (e);
+		}
+	}
+
+	private static boolean isValid (Xref ref)
+	{
+		return ref != null && ref.getId() != null && ref.getDataSource() != null;
+	}
+
+	private static void addDataSource (DataSource ds, List<DataSource> dsList, Map<DataSource, Integer> dsIndex)
+	{
+		if (ds == null || dsIndex.containsKey(ds)) return;
+		dsIndex.put (ds, dsList.size());
+		dsList.add (ds);
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt (-1);
+		}
+		else
+		{
+			byte[] bytes = encode (value);
+			out.writeInt (bytes.length);
+			out.write (bytes);
+		}
+	}
+
+	/**
+	 * @param value String to encode
+	 * @return UTF-8 bytes of value
+	 */
+	static byte[] encode (String value)
+	{
+		try
+		{
+			return value.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// UTF-8 is always supported
+			throw new IllegalStateException (e);
+		}
+	}
+
+	/**
+	 * Compare two byte arrays, treating bytes as unsigned.
+	 * This is the order of the Xrefs in a mapping file.
+	 */
+	static int compareBytes (byte[] a, byte[] b)
+	{
+		int n = Math.min (a.length, b.length);
+		for (int i = 0; i < n; ++i)
+		{
+			int x = a[i] & 0xFF;
+			int y = b[i] & 0xFF;
+			if (x != y) return x - y;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Compile a mapping file from the command line.
+	 * @param args connection string of the source, and file to write
+	 * @throws IDMapperException if the source can't be read or dest can't be written
+	 * @throws ClassNotFoundException if the driver for the source can't be loaded
+	 */
+	public static void main (String[] args) throws IDMapperException, ClassNotFoundException
+	{
+		if (args.length != 2)
+		{
+			System.err.println ("Usage: IDMapperMmapCompiler <connection string> <output file>");
+			System.exit (1);
+		}
+
+		Class.forName ("org.bridgedb.file.IDMapperText");
+		try
+		{
+			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+		}
+		catch (ClassNotFoundException e)
+		{
+			// rdb module is optional
+		}
+
+		IDMapper mapper = BridgeDb.connect (args[0]);
+		File dest = new File (args[1]);
+		if (mapper instanceof IDMapperFile)
+		{
+			compile (((IDMapperFile)mapper).getIDMappingReader(), dest);
+		}
+		else if (mapper instanceof XrefIterator)
+		{
+			compile (mapper, (XrefIterator)mapper, dest);
+		}
+		else
+		{
+			System.err.println ("Can't list the Xrefs of " + args[0]);
+			System.exit (1);
+		}
+		mapper.close();
+	}
+}
@@ -209,11 +209,11 @@ public class IDMappingReaderFromDelimitedReader implements IDMappingReader {
             for (int i=0; i<n; i++) {
                 String str = strs[i];
                 if (regExIDDelimiter==null) {
-                    xrefs.add(new Xref(str, dataSources.get(i)));
+                    xrefs.add(Xref.of(str, dataSources.get(i)));
                 } else {
                     String[] ids = str.split(regExIDDelimiter);
                     for (String id : ids) {
-                        xrefs.add(new Xref(id, dataSources.get(i)));
+                        xrefs.add(Xref.of(id, dataSources.get(i)));
                     }
                 }
             }
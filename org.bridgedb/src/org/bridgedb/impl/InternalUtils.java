@@ -24,8 +24,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,6 +36,8 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BatchAttributeMapper;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
@@ -84,6 +88,65 @@ public final class InternalUtils
 		return result;
 	}
 
+	/**
+	 * call the single-entity getAttributes methods multiple times
+	 * to get the attributes of a collection of entities.
+	 * <p>
+	 * This is used for AttributeMappers that are not a 
+	 * {@link org.bridgedb.BatchAttributeMapper}, see {@link #getAttributes(AttributeMapper, Collection, String...)}.
+	 * @param mapper used for getting the attributes of a single entity
+	 * @param refs entities to get the attributes for
+	 * @param attrTypes attributes to get, optional. If none are given, all attributes are returned.
+	 * @return attributes of each entity. Never returns null, but
+	 *    not each input is a key in the output map.
+	 * @throws IDMapperException when mapper.getAttributes throws IDMapperException
+	 */
+	public static Map<Xref, Map<String, Set<String>>> getAttributesFromSingle(AttributeMapper mapper, Collection<Xref> refs, String... attrTypes)
+		throws IDMapperException
+	{
+		final Map<Xref, Map<String, Set<String>>> result = new HashMap<Xref, Map<String, Set<String>>>();
+		for (Xref ref : refs)
+		{
+			Map<String, Set<String>> attributes;
+			if (attrTypes.length == 0)
+			{
+				attributes = mapper.getAttributes(ref);
+			}
+			else
+			{
+				attributes = new HashMap<String, Set<String>>();
+				for (String attrType : attrTypes)
+				{
+					Set<String> values = mapper.getAttributes(ref, attrType);
+					if (values != null && values.size() > 0) attributes.put (attrType, values);
+				}
+			}
+			if (attributes.size() > 0)
+				result.put (ref, attributes);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the attributes of a collection of entities, in a single call if the mapper
+	 * is a {@link BatchAttributeMapper}, otherwise one entity at a time.
+	 * @param mapper used for getting the attributes
+	 * @param refs entities to get the attributes for
+	 * @param attrTypes attributes to get, optional. If none are given, all attributes are returned.
+	 * @return attributes of each entity. Never returns null, but
+	 *    not each input is a key in the output map.
+	 * @throws IDMapperException when mapper.getAttributes throws IDMapperException
+	 */
+	public static Map<Xref, Map<String, Set<String>>> getAttributes(AttributeMapper mapper, Collection<Xref> refs, String... attrTypes)
+		throws IDMapperException
+	{
+		if (mapper instanceof BatchAttributeMapper)
+		{
+			return ((BatchAttributeMapper)mapper).getAttributes(refs, attrTypes);
+		}
+		return getAttributesFromSingle(mapper, refs, attrTypes);
+	}
+
 	/**
 	 * call the "multi" mapID (Set, ...) using a Set with one item
 	 * to perform mapping of a single ID.
@@ -279,7 +342,67 @@ public final class InternalUtils
     	set.addAll (vals);
     }
 
-    /**
+    	/** rank of a value that is equal to the query, ignoring case */
+	public static final int MATCH_EXACT = 0;
+	/** rank of a value that starts with the query, ignoring case */
+	public static final int MATCH_PREFIX = 1;
+	/** rank of a value that contains the query elsewhere, ignoring case */
+	public static final int MATCH_SUBSTRING = 2;
+	/** rank of a value that doesn't contain the query */
+	public static final int NO_MATCH = 3;
+	
+	/**
+	 * Rank a search result for {@link org.bridgedb.PrefixAttributeMapper#prefixAttributeSearch}.
+	 * @param value value that was found
+	 * @param lowerQuery query, in lower case
+	 * @return MATCH_EXACT, MATCH_PREFIX, MATCH_SUBSTRING or NO_MATCH
+	 */
+	public static int matchRank(String value, String lowerQuery)
+	{
+		String lower = value.toLowerCase();
+		if (lower.equals(lowerQuery)) return MATCH_EXACT;
+		if (lower.startsWith(lowerQuery)) return MATCH_PREFIX;
+		if (lower.contains(lowerQuery)) return MATCH_SUBSTRING;
+		return NO_MATCH;
+	}
+	
+	/**
+	 * Sort search results for {@link org.bridgedb.PrefixAttributeMapper#prefixAttributeSearch}
+	 * by rank, and then alphabetically, ignoring case.
+	 * Results that don't match the query at all are dropped.
+	 * @param results unordered results
+	 * @param query the query
+	 * @param limit maximum number of results to keep, or 0 for no limit
+	 * @return results in order of rank, best match first
+	 */
+	public static Map<Xref, String> rankMatches(Map<Xref, String> results, String query, int limit)
+	{
+		final String lowerQuery = query.toLowerCase();
+		List<Map.Entry<Xref, String>> entries = new ArrayList<Map.Entry<Xref, String>>();
+		for (Map.Entry<Xref, String> e : results.entrySet())
+		{
+			if (e.getValue() != null && matchRank(e.getValue(), lowerQuery) != NO_MATCH) entries.add (e);
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<Xref, String>>()
+		{
+			public int compare(Map.Entry<Xref, String> a, Map.Entry<Xref, String> b)
+			{
+				int result = matchRank(a.getValue(), lowerQuery) - matchRank(b.getValue(), lowerQuery);
+				if (result == 0) result = a.getValue().compareToIgnoreCase(b.getValue());
+				if (result == 0) result = a.getKey().compareTo(b.getKey());
+				return result;
+			}
+		});
+		Map<Xref, String> result = new LinkedHashMap<Xref, String>();
+		for (Map.Entry<Xref, String> e : entries)
+		{
+			if (limit > 0 && result.size() >= limit) break;
+			result.put (e.getKey(), e.getValue());
+		}
+		return result;
+	}
+	
+/**
      * Split a heterogeneous Xref set into multiple homogeneous Xref sets.
      * <p>
      * If the input contains {L:3643, L:1234, X:1004_at, X:1234_at},
@@ -0,0 +1,92 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.file.IDMapperText;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test caching of mapping results.
+ */
+public class CachingIDMapperTest {
+
+	private static final File YEAST_IDS = new File ("test-data/yeast_id_mapping.txt");
+	private static final DataSource ENS_YEAST = DataSource.getByFullName("Ensembl Yeast");
+	private static final DataSource ENTREZ = DataSource.getByFullName("Entrez Gene");
+	private static final Xref XREF1 = new Xref("YHR055C", ENS_YEAST);
+	private static final Xref NONSENSE = new Xref ("Humbug", ENS_YEAST);
+
+	@Test
+	public void testHitsAndMisses() throws Exception
+	{
+		IDMapper text = new IDMapperText (YEAST_IDS.toURI().toURL());
+		CachingIDMapper mapper = new CachingIDMapper(text);
+
+		Set<Xref> first = mapper.mapID(XREF1, ENTREZ);
+		Assert.assertEquals(text.mapID(XREF1, ENTREZ), first);
+		Assert.assertEquals(0, mapper.getHitCount());
+		Assert.assertEquals(1, mapper.getMissCount());
+
+		// second lookup, with result modified by the caller in between
+		first.clear();
+		Assert.assertEquals(text.mapID(XREF1, ENTREZ), mapper.mapID(XREF1, ENTREZ));
+		Assert.assertEquals(1, mapper.getHitCount());
+
+		// empty results are cached as well
+		Assert.assertEquals(0, mapper.mapID(NONSENSE).size());
+		Assert.assertEquals(0, mapper.mapID(NONSENSE).size());
+		Assert.assertEquals(2, mapper.getHitCount());
+		Assert.assertEquals(2, mapper.getMissCount());
+
+		// batch mapping uses the same entries
+		Map<Xref, Set<Xref>> batch = mapper.mapID(Arrays.asList(XREF1, NONSENSE), ENTREZ);
+		Assert.assertEquals(1, batch.size());
+		Assert.assertEquals(text.mapID(XREF1, ENTREZ), batch.get(XREF1));
+		Assert.assertEquals(3, mapper.getHitCount());
+	}
+
+	@Test
+	public void testEviction() throws Exception
+	{
+		IDMapper text = new IDMapperText (YEAST_IDS.toURI().toURL());
+		CachingIDMapper mapper = new CachingIDMapper(text, 3);
+
+		for (int i = 0; i < 10; ++i)
+		{
+			mapper.xrefExists(new Xref ("" + i, ENS_YEAST));
+		}
+		// each negative result weighs 1
+		Assert.assertEquals(3, mapper.getSize());
+		Assert.assertEquals(7, mapper.getEvictionCount());
+	}
+
+	@Test
+	public void testConnectionString() throws Exception
+	{
+		Class.forName("org.bridgedb.CachingIDMapper");
+		Class.forName("org.bridgedb.file.IDMapperText");
+		IDMapper mapper = BridgeDb.connect("idmapper-cached:maxsize=10@idmapper-text:" + YEAST_IDS.toURI().toURL());
+		Assert.assertTrue(mapper instanceof CachingIDMapper);
+		Assert.assertTrue(((CachingIDMapper)mapper).getMapper() instanceof IDMapperText);
+	}
+}
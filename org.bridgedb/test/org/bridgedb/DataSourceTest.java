@@ -17,6 +17,10 @@
 //
 package org.bridgedb;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -75,4 +79,37 @@ public class DataSourceTest {
 		Assert.assertTrue(source.isMetabolite());
 	}
 
+	@Test
+	public void testOrdinal() {
+		DataSource a = DataSource.register("X", "Affymetrix").asDataSource();
+		DataSource b = DataSource.getBySystemCode("OrdTest");
+		Assert.assertTrue(a.getOrdinal() != b.getOrdinal());
+		Assert.assertSame(a, DataSource.getByOrdinal(a.getOrdinal()));
+		Assert.assertSame(b, DataSource.getByOrdinal(b.getOrdinal()));
+		Assert.assertNull(DataSource.getByOrdinal(-1));
+
+		BitSet filter = DataSource.toOrdinalSet(a, null);
+		Assert.assertTrue(DataSource.isInOrdinalSet(filter, a));
+		Assert.assertFalse(DataSource.isInOrdinalSet(filter, b));
+		Assert.assertFalse(DataSource.isInOrdinalSet(filter, null));
+	}
+
+	@Test
+	public void testConcurrentRegistration() throws InterruptedException {
+		final Set<DataSource> found = new HashSet<DataSource>();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; ++i)
+		{
+			threads[i] = new Thread() {
+				public void run() {
+					DataSource ds = DataSource.getBySystemCode("ConcTest");
+					synchronized (found) { found.add(ds); }
+				}
+			};
+		}
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+		Assert.assertEquals(1, found.size());
+	}
+
 }
@@ -0,0 +1,119 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.file.IDMapperFile;
+import org.bridgedb.file.IDMapperMmap;
+import org.bridgedb.file.IDMapperMmapCompiler;
+import org.bridgedb.file.IDMapperText;
+import org.bridgedb.file.IDMappingReaderFromText;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the memory-mapped mapping file format, by comparing with the text file it was compiled from.
+ */
+public class IDMapperMmapTest {
+
+	private static final File YEAST_IDS = new File ("test-data/yeast_id_mapping.txt");
+	private static final DataSource ENS_YEAST = DataSource.getByFullName("Ensembl Yeast");
+	private static final DataSource ENTREZ = DataSource.getByFullName("Entrez Gene");
+	private static final Xref XREF1 = new Xref("YHR055C", ENS_YEAST);
+
+	private File compile() throws Exception
+	{
+		File dest = File.createTempFile("yeast", ".bdm");
+		dest.deleteOnExit();
+		IDMapperMmapCompiler.compile(new IDMappingReaderFromText(YEAST_IDS.toURL(),
+				new char[] { '\t' }, new char[] { ',' }), dest);
+		return dest;
+	}
+
+	@Test
+	public void testSameAsText() throws Exception
+	{
+		IDMapperFile text = new IDMapperText(YEAST_IDS.toURL(), new char[] { '\t' }, new char[] { ',' });
+		Class.forName("org.bridgedb.file.IDMapperMmap");
+		IDMapper mmap = BridgeDb.connect("idmapper-mmap:" + compile().getAbsolutePath());
+
+		Assert.assertEquals (text.getCapabilities().getSupportedSrcDataSources(),
+				mmap.getCapabilities().getSupportedSrcDataSources());
+
+		Map<Xref, Set<Xref>> all = text.mapID(java.util.Collections.singleton(XREF1));
+		Assert.assertEquals (all, mmap.mapID(java.util.Collections.singleton(XREF1)));
+		Assert.assertEquals (text.mapID(XREF1, ENTREZ), mmap.mapID(XREF1, ENTREZ));
+		Assert.assertEquals (text.mapID(XREF1, ENTREZ, ENS_YEAST), mmap.mapID(XREF1, ENTREZ, ENS_YEAST));
+
+		int count = 0;
+		for (Xref src : all.get(XREF1))
+		{
+			Assert.assertTrue (mmap.xrefExists(src));
+			Assert.assertEquals (text.mapID(src), mmap.mapID(src));
+			count++;
+		}
+		Assert.assertTrue (count > 0);
+
+		Xref nonsense = new Xref ("Humbug", ENS_YEAST);
+		Assert.assertFalse (mmap.xrefExists(nonsense));
+		Assert.assertEquals (0, mmap.mapID(nonsense).size());
+		Assert.assertEquals (0, mmap.mapID(new Xref ("Humbug", DataSource.getByFullName("Ebenizer Scrooge"))).size());
+	}
+
+	@Test
+	public void testTargetOnlyXref() throws Exception
+	{
+		Xref target = new Xref ("856452", ENTREZ);
+		Map<Xref, Set<Xref>> mappings = new HashMap<Xref, Set<Xref>>();
+		mappings.put (XREF1, Collections.singleton(target));
+		File dest = File.createTempFile("oneway", ".bdm");
+		dest.deleteOnExit();
+		IDMapperMmapCompiler.compile(mappings, null, dest);
+		IDMapper mmap = new IDMapperMmap(dest);
+
+		// only the source side exists, like in IDMapperFile
+		Assert.assertTrue (mmap.xrefExists(XREF1));
+		Assert.assertFalse (mmap.xrefExists(target));
+		Assert.assertEquals (Collections.singleton(target), mmap.mapID(XREF1));
+		Assert.assertEquals (0, mmap.mapID(target).size());
+	}
+
+	@Test
+	public void testNotAMappingFile() throws Exception
+	{
+		File f = File.createTempFile("notmapping", ".bdm");
+		f.deleteOnExit();
+		FileWriter writer = new FileWriter(f);
+		writer.write("Ensembl Yeast\tEntrez Gene\nYHR055C\t856452\n");
+		writer.close();
+		try
+		{
+			new IDMapperMmap(f);
+			Assert.fail ("Expected IDMapperException");
+		}
+		catch (IDMapperException expected)
+		{
+			// ok
+		}
+	}
+}
@@ -0,0 +1,165 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bridgedb.file.IDMapperText;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test combining several IDMappers in a stack.
+ */
+public class IDMapperStackTest {
+
+	private static final File YEAST_IDS = new File ("test-data/yeast_id_mapping.txt");
+	private static final DataSource ENS_YEAST = DataSource.getByFullName("Ensembl Yeast");
+	private static final Xref XREF1 = new Xref("YHR055C", ENS_YEAST);
+
+	/** IDMapper that takes a long time to answer, and never finds anything. */
+	private static class SlowMapper extends AbstractIDMapper
+	{
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+		{
+			try { Thread.sleep(5000); } catch (InterruptedException ex) { /* cancelled */ }
+			return Collections.emptyMap();
+		}
+		public boolean xrefExists(Xref xref) { return false; }
+		public Set<Xref> freeSearch(String text, int limit) { return Collections.emptySet(); }
+		public IDMapperCapabilities getCapabilities() { return null; }
+		public void close() {}
+		public boolean isConnected() { return true; }
+	}
+
+	/** AttributeMapper that only gets the attributes of one Xref at a time, and has a Symbol for every Xref. */
+	private static class SingleAttributeMapper extends SlowMapper implements AttributeMapper
+	{
+		public Set<String> getAttributes(Xref ref, String attrType) 
+		{
+			return "Symbol".equals(attrType) ? Collections.singleton("S_" + ref.getId()) : Collections.<String>emptySet();
+		}
+		public Map<String, Set<String>> getAttributes(Xref ref) 
+		{
+			return Collections.singletonMap("Symbol", getAttributes(ref, "Symbol"));
+		}
+		public boolean isFreeAttributeSearchSupported() { return false; }
+		public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) { return Collections.emptyMap(); }
+		public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) { return Collections.emptyMap(); }
+		public Set<String> getAttributeSet() { return Collections.singleton("Symbol"); }
+	}
+
+	@Test
+	public void testBatchAttributesFromSingle() throws Exception
+	{
+		IDMapperStack stack = new IDMapperStack();
+		stack.addIDMapper(new SingleAttributeMapper());
+		Xref other = new Xref("YAL001C", ENS_YEAST);
+		Map<Xref, Map<String, Set<String>>> result = stack.getAttributes(Arrays.asList(XREF1, other), "Symbol");
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals(Collections.singleton("S_YHR055C"), result.get(XREF1).get("Symbol"));
+		Assert.assertEquals(Collections.singleton("S_YAL001C"), result.get(other).get("Symbol"));
+		Assert.assertTrue(stack.getAttributes(Arrays.asList(XREF1), "Description").isEmpty());
+	}
+
+	@Test
+	public void testParallelTimeout() throws Exception
+	{
+		IDMapper text = new IDMapperText (YEAST_IDS.toURI().toURL());
+		Set<Xref> expected = text.mapID(XREF1);
+
+		IDMapperStack stack = new IDMapperStack();
+		stack.addIDMapper(new SlowMapper());
+		stack.addIDMapper(text);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try
+		{
+			stack.setExecutor(executor);
+			stack.setChildTimeout(500);
+
+			long start = System.currentTimeMillis();
+			Set<Xref> result = stack.mapID(XREF1);
+			long delta = System.currentTimeMillis() - start;
+
+			Assert.assertEquals(expected, result);
+			Assert.assertTrue("Slow child was not cut off: " + delta + " msec", delta < 4000);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSequential() throws Exception
+	{
+		IDMapper text = new IDMapperText (YEAST_IDS.toURI().toURL());
+		IDMapperStack stack = new IDMapperStack();
+		stack.addIDMapper(text);
+		Assert.assertEquals(text.mapID(XREF1), stack.mapID(XREF1));
+		Assert.assertEquals(text.mapID(Collections.singleton(XREF1)), stack.mapID(Collections.singleton(XREF1)));
+	}
+
+	/** write a mapping file with a header, and return a mapper for it. */
+	private IDMapper textMapper(String header, String rows) throws IOException, IDMapperException
+	{
+		File f = File.createTempFile("mapping", ".txt");
+		f.deleteOnExit();
+		FileWriter writer = new FileWriter(f);
+		writer.write(header + "\n" + rows + "\n");
+		writer.close();
+		return new IDMapperText (f.toURI().toURL());
+	}
+
+	@Test
+	public void testTransitive() throws Exception
+	{
+		DataSource dsA = DataSource.getByFullName("StackTestA");
+		DataSource dsB = DataSource.getByFullName("StackTestB");
+		DataSource dsC = DataSource.getByFullName("StackTestC");
+		DataSource dsD = DataSource.getByFullName("StackTestD");
+		Xref a1 = new Xref("a1", dsA);
+		Xref a2 = new Xref("a2", dsA);
+
+		IDMapperStack stack = new IDMapperStack();
+		stack.addIDMapper(textMapper("StackTestA\tStackTestB", "a1\tb1\na2\tb1"));
+		stack.addIDMapper(textMapper("StackTestB\tStackTestC", "b1\tc1"));
+		stack.addIDMapper(textMapper("StackTestC\tStackTestD", "c1\td1"));
+		stack.setTransitive(true);
+
+		// two hops: a1 -> b1 -> c1 
+		Set<Xref> result = stack.mapID(a1, dsB, dsC, dsD);
+		Assert.assertEquals(new HashSet<Xref>(Arrays.asList(
+				new Xref("b1", dsB), new Xref("c1", dsC))), result);
+
+		stack.setMaxHops(3);
+		Map<Xref, Set<Xref>> batch = stack.mapID(Arrays.asList(a1, a2), dsD);
+		Assert.assertEquals(Collections.singleton(new Xref("d1", dsD)), batch.get(a1));
+		Assert.assertEquals(Collections.singleton(new Xref("d1", dsD)), batch.get(a2));
+	}
+}
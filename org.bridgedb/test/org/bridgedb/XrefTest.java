@@ -0,0 +1,50 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XrefTest {
+
+	private static final DataSource ENTREZ = DataSource.register("L", "Entrez Gene").asDataSource();
+
+	@Test
+	public void testEquality() {
+		Xref a = new Xref("3643", ENTREZ);
+		Xref b = new Xref("3643", ENTREZ);
+		Assert.assertEquals(a, b);
+		Assert.assertEquals(a.hashCode(), b.hashCode());
+		Assert.assertFalse(a.equals(new Xref("3643", null)));
+		Assert.assertEquals(new Xref("3643", null), new Xref("3643", null));
+		Assert.assertEquals(0, a.compareTo(b));
+	}
+
+	@Test
+	public void testToString() {
+		Assert.assertEquals("L:3643", new Xref("3643", ENTREZ).toString());
+		Assert.assertEquals(":3643", new Xref("3643", null).toString());
+	}
+
+	@Test
+	public void testOf() {
+		Xref a = Xref.of("1234", ENTREZ);
+		Xref b = Xref.of("1234", ENTREZ);
+		Assert.assertSame(a, b);
+		Assert.assertEquals(new Xref("1234", ENTREZ), a);
+	}
+}